@@ -1,16 +1,12 @@
 package de.androidcrypto.bleclientblessedpart3;
 
-import com.welie.blessed.BluetoothBytesParser;
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureRecord;
 
-import java.io.Serializable;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
 
-import static android.bluetooth.BluetoothGattCharacteristic.FORMAT_SFLOAT;
-import static android.bluetooth.BluetoothGattCharacteristic.FORMAT_UINT8;
-
-public class BloodPressureMeasurement implements Serializable {
+public class BloodPressureMeasurement extends CodecParcelable {
 
     public Integer userID;
     public Float systolic;
@@ -20,42 +16,28 @@ public class BloodPressureMeasurement implements Serializable {
     public boolean isMMHG;
     public Float pulseRate;
 
-    public BloodPressureMeasurement(byte[] value) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(value);
-
-        // Parse the flags
-        int flags = parser.getIntValue(FORMAT_UINT8);
-        isMMHG = !((flags & 0x01) > 0);
-        boolean timestampPresent = (flags & 0x02) > 0;
-        boolean pulseRatePresent = (flags & 0x04) > 0;
-        boolean userIdPresent = (flags & 0x08) > 0;
-        boolean measurementStatusPresent = (flags & 0x10) > 0;
-
-        // Get systolic, diastolic and mean arterial pressure
-        systolic = parser.getFloatValue(FORMAT_SFLOAT);
-        diastolic = parser.getFloatValue(FORMAT_SFLOAT);
-        meanArterialPressure = parser.getFloatValue(FORMAT_SFLOAT);
-
-        // Read timestamp
-        if (timestampPresent) {
-            timestamp = parser.getDateTime();
-        } else {
-            timestamp = Calendar.getInstance().getTime();
-        }
-
-        // Read pulse rate
-        if (pulseRatePresent) {
-            pulseRate = parser.getFloatValue(FORMAT_SFLOAT);
-        }
+    // used by MeasurementCodec
+    BloodPressureMeasurement() {
+    }
 
-        // Read userId
-        if (userIdPresent) {
-            userID = parser.getIntValue(FORMAT_UINT8);
+    public BloodPressureMeasurement(byte[] value) {
+        BloodPressureRecord record = new BloodPressureRecord();
+        if (!BloodPressureDecoder.decode(value, record)) {
+            throw new IllegalArgumentException("malformed blood pressure measurement");
         }
+        isMMHG = record.isMMHG;
+        systolic = record.systolic;
+        diastolic = record.diastolic;
+        meanArterialPressure = record.meanArterialPressure;
+        timestamp = record.timestampPresent ? new Date(record.timestamp) : new Date(System.currentTimeMillis());
+        if (record.pulseRatePresent) pulseRate = record.pulseRate;
+        if (record.userIdPresent) userID = record.userId;
     }
 
     @Override
     public String toString() {
         return String.format(Locale.ENGLISH,"%.0f/%.0f %s, MAP %.0f, %.0f bpm, user %d at (%s)", systolic, diastolic, isMMHG ? "mmHg" : "kPa", meanArterialPressure, pulseRate, userID, timestamp);
     }
+
+    public static final Creator<BloodPressureMeasurement> CREATOR = creator(BloodPressureMeasurement.class);
 }
@@ -3,16 +3,19 @@ package de.androidcrypto.bleclientblessedpart3;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.le.ScanResult;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.welie.blessed.BluetoothBytesParser;
 import com.welie.blessed.BluetoothCentralManager;
 import com.welie.blessed.BluetoothCentralManagerCallback;
 import com.welie.blessed.BluetoothPeripheral;
 import com.welie.blessed.BluetoothPeripheralCallback;
-import com.welie.blessed.BondState;
 import com.welie.blessed.ConnectionPriority;
 import com.welie.blessed.GattStatus;
 import com.welie.blessed.HciStatus;
@@ -21,20 +24,24 @@ import com.welie.blessed.ScanFailure;
 import com.welie.blessed.WriteType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.nio.ByteOrder;
-import java.util.Calendar;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseContextDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseContextRecord;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
 import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_WRITE;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_SINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
-import static com.welie.blessed.BluetoothBytesParser.bytes2String;
 
 import static java.lang.Math.abs;
 
@@ -114,7 +121,38 @@ class BluetoothHandler {
     private static BluetoothHandler instance = null;
     private final Context context;
     private final Handler handler = new Handler();
-    private int currentTimeCounter = 0;
+    // one session per connected peripheral, see SessionManager
+    private SessionManager sessionManager;
+    private final CharacteristicRegistry characteristicRegistry = new CharacteristicRegistry();
+    private final SubscriptionPlanner subscriptionPlanner = new SubscriptionPlanner();
+    private final ConnectionLatencyTracker latencyTracker = new ConnectionLatencyTracker();
+    // notifications and GATT results are logged as binary records, formatted only by getEventLog().dump()
+    private final EventLog eventLog = new EventLog(EventLog.DEFAULT_CAPACITY, BuildConfig.DEBUG ? Log.DEBUG : Log.INFO);
+    private static final long SCAN_START_DELAY_MS = 1000;
+    // advertisers are collected for a while before connecting, so the strongest one is chosen
+    private final DiscoveryCache discoveryCache = new DiscoveryCache();
+    private static final long CANDIDATE_SETTLE_MS = 1000;
+    private boolean candidateSelectionScheduled = false;
+    private GlucoseRecordSync glucoseRecordSync;
+    // reused for every glucose context notification, the join buffer copies it
+    private final GlucoseContextRecord glucoseContextRecord = new GlucoseContextRecord();
+    private boolean glucoseJoinExpiryScheduled = false;
+
+    // measurements are published in-process, the broadcasts are only sent for outside consumers
+    private final MeasurementBus measurementBus = MeasurementBus.getInstance();
+    // glucose measurements joined with their context, only done while the channel has subscribers
+    private final MeasurementBus.Channel<GlucoseReading> glucoseReadingChannel = measurementBus.channel(GlucoseReading.class);
+    private volatile boolean broadcastBridgeEnabled = false;
+    // durable history of every measurement, null if the log could not be opened
+    private MeasurementLog measurementLog;
+    // per minute, hour and day aggregates of the logged measurements, rebuilt from the log on start
+    private final MeasurementRollup measurementRollup = new MeasurementRollup();
+    // decoding, trends, bus, log and rollups of the measurement notifications
+    private final MeasurementPipeline measurementPipeline = new MeasurementPipeline(measurementBus, eventLog, measurementRollup);
+    // created with the first export
+    private MeasurementExporter measurementExporter;
+    // raw frame capture, null while it is off
+    private volatile TraceRecorder traceRecorder;
 
     // new in part 2
     public void connectToHeartRateServiceDevice() {
@@ -122,32 +160,65 @@ class BluetoothHandler {
     }
 
     // new in part 2
+    // the central is not closed anymore, that would drop the connections to the other peripherals
     public void disconnectFromHeartRateServiceDevice(String peripheralMacAddress) {
-        BluetoothPeripheral connectedPeripheral = central.getPeripheral(peripheralMacAddress);
-        central.cancelConnection(connectedPeripheral);
-        try {
-            central.close();
-        } catch (IllegalArgumentException e) {
-            // do nothing
+        sessionManager.disconnect(peripheralMacAddress);
+        measurementPipeline.retain(sessionManager.getSessionAddresses());
+    }
+
+    public void disconnectFromAllDevices() {
+        sessionManager.stopScan();
+        sessionManager.disconnectAll();
+        measurementPipeline.retain(sessionManager.getSessionAddresses());
+        discoveryCache.clear();
+    }
+
+    public void enableAllSubscriptions(boolean enable) {
+        for (PeripheralSession session : sessionManager.getConnectedSessions()) {
+            enableAllSubscriptions(session.getAddress(), enable);
         }
     }
 
     // new in part 2
+    // changed: only the characteristics the peripheral offers are written, and only if their state changes
     public void enableAllSubscriptions(String peripheralMacAddress, boolean enable) {
-        BluetoothPeripheral connectedPeripheral = central.getPeripheral(peripheralMacAddress);
-        connectedPeripheral.setNotify(CURRENT_TIME_SERVICE_UUID, CURRENT_TIME_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(BLOOD_PRESSURE_SERVICE_UUID, BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(HEALTH_THERMOMETER_SERVICE_UUID, TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(HEART_RATE_SERVICE_UUID, HEART_RATE_MEASUREMENT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(PULSE_OXIMETER_SERVICE_UUID, PULSE_OXIMETER_CONTINUOUS_MEASUREMENT_CHAR_UUID, enable);
-        connectedPeripheral.setNotify(PULSE_OXIMETER_SERVICE_UUID, PULSE_OXIMETER_SPOT_MEASUREMENT_CHAR_UUID, enable);
-        connectedPeripheral.setNotify(WEIGHT_SCALE_SERVICE_UUID, WEIGHT_SCALE_MEASUREMENT_CHAR_UUID, enable);
-        connectedPeripheral.setNotify(GLUCOSE_SERVICE_UUID, GLUCOSE_MEASUREMENT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(GLUCOSE_SERVICE_UUID, GLUCOSE_MEASUREMENT_CONTEXT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(GLUCOSE_SERVICE_UUID, GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID, enable);
-        connectedPeripheral.setNotify(CONTOUR_SERVICE_UUID, CONTOUR_CLOCK, enable);
+        PeripheralSession session = sessionManager.getSession(peripheralMacAddress);
+        if (session == null) return;
+        session.subscriptionsWanted = enable;
+        // without discovered services the plan runs in onServicesDiscovered, a running plan re-checks when it completes
+        if (session.notifiableCharacteristics == null) return;
+        if (session.subscriptionPlan != null && !session.subscriptionPlan.isCompleted()) return;
+        executeSubscriptionPlan(session);
+    }
+
+    private void executeSubscriptionPlan(PeripheralSession session) {
+        SubscriptionPlanner.Plan plan = subscriptionPlanner.execute(session.getPeripheral(), session.notifiableCharacteristics, session.subscriptionsWanted);
+        session.subscriptionPlan = plan;
+        Timber.i("subscription plan for %s: %d CCCD writes", session.getAddress(), plan.getWrites());
+        if (plan.checkCompleted()) onSubscriptionPlanCompleted(session, plan);
+    }
+
+    private void onSubscriptionPlanCompleted(PeripheralSession session, SubscriptionPlanner.Plan plan) {
+        Timber.i("subscription plan for %s completed in %d ms, %d writes, %d failed",
+                session.getAddress(), plan.getDurationNanos() / 1000000, plan.getWrites(), plan.getFailed());
+        if (session.subscriptionsWanted != plan.enable) executeSubscriptionPlan(session);
+    }
+
+    // the order of the CCCD writes, live measurements first, the record access control point after the glucose characteristics
+    private void registerSubscriptions() {
+        subscriptionPlanner.add(HEART_RATE_SERVICE_UUID, HEART_RATE_MEASUREMENT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(PULSE_OXIMETER_SERVICE_UUID, PULSE_OXIMETER_CONTINUOUS_MEASUREMENT_CHAR_UUID);
+        subscriptionPlanner.add(BLOOD_PRESSURE_SERVICE_UUID, BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(HEALTH_THERMOMETER_SERVICE_UUID, TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(PULSE_OXIMETER_SERVICE_UUID, PULSE_OXIMETER_SPOT_MEASUREMENT_CHAR_UUID);
+        subscriptionPlanner.add(WEIGHT_SCALE_SERVICE_UUID, WEIGHT_SCALE_MEASUREMENT_CHAR_UUID);
+        subscriptionPlanner.add(GLUCOSE_SERVICE_UUID, GLUCOSE_MEASUREMENT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(GLUCOSE_SERVICE_UUID, GLUCOSE_MEASUREMENT_CONTEXT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(GLUCOSE_SERVICE_UUID, GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID);
+        subscriptionPlanner.add(CONTOUR_SERVICE_UUID, CONTOUR_CLOCK);
+        subscriptionPlanner.add(CURRENT_TIME_SERVICE_UUID, CURRENT_TIME_CHARACTERISTIC_UUID);
         // new in part 3
-        connectedPeripheral.setNotify(BATTERY_LEVEL_SERVICE_UUID, BATTERY_LEVEL_CHARACTERISTIC_UUID, enable);
+        subscriptionPlanner.add(BATTERY_LEVEL_SERVICE_UUID, BATTERY_LEVEL_CHARACTERISTIC_UUID);
     }
 
     // Callback for peripherals
@@ -176,9 +247,7 @@ class BluetoothHandler {
                 if ((currentTimeCharacteristic.getProperties() & PROPERTY_WRITE) > 0) {
                     // Write the current time unless it is an Omron device
                     if (!isOmronBPM(peripheral.getName())) {
-                        BluetoothBytesParser parser = new BluetoothBytesParser();
-                        parser.setCurrentTime(Calendar.getInstance());
-                        peripheral.writeCharacteristic(currentTimeCharacteristic, parser.getValue(), WriteType.WITH_RESPONSE);
+                        peripheral.writeCharacteristic(currentTimeCharacteristic, GattDateTime.encodeCurrentTime(System.currentTimeMillis()), WriteType.WITH_RESPONSE);
                     }
                 }
             }
@@ -197,158 +266,86 @@ class BluetoothHandler {
             peripheral.setNotify(GLUCOSE_SERVICE_UUID, GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID, true);
             peripheral.setNotify(CONTOUR_SERVICE_UUID, CONTOUR_CLOCK, true);
              */
+            PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+            if (session != null) {
+                latencyTracker.mark(session, ConnectionLatencyTracker.Phase.SERVICES_DISCOVERED);
+                session.notifiableCharacteristics = subscriptionPlanner.discover(peripheral);
+                Timber.i("%d notifiable characteristics on %s", session.notifiableCharacteristics.size(), peripheral.getAddress());
+                // subscriptions that were enabled before a reconnect are restored
+                if (session.subscriptionsWanted) executeSubscriptionPlan(session);
+            }
         }
 
         @Override
         public void onNotificationStateUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
+            PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+            if (session != null && session.subscriptionPlan != null
+                    && session.subscriptionPlan.onNotificationStateUpdate(characteristic.getUuid(), status == GattStatus.SUCCESS)) {
+                onSubscriptionPlanCompleted(session, session.subscriptionPlan);
+            }
             if (status == GattStatus.SUCCESS) {
                 final boolean isNotifying = peripheral.isNotifying(characteristic);
-                Timber.i("SUCCESS: Notify set to '%s' for %s", isNotifying, characteristic.getUuid());
+                eventLog.log(EventLog.Event.NOTIFICATION_STATE, peripheral.getAddress(), characteristic.getUuid(), EventLog.bits(isNotifying));
+                if (session != null) {
+                    session.setSubscribed(characteristic.getUuid(), isNotifying);
+                    if (isNotifying) latencyTracker.mark(session, ConnectionLatencyTracker.Phase.NOTIFICATION_ENABLED);
+                }
                 if (characteristic.getUuid().equals(CONTOUR_CLOCK)) {
                     writeContourClock(peripheral);
                 } else if (characteristic.getUuid().equals(GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID)) {
-                    writeGetAllGlucoseMeasurements(peripheral);
+                    // only the records stored since the last sync are requested
+                    if (isNotifying && session != null) glucoseRecordSync.start(session);
                 }
             } else {
-                Timber.e("ERROR: Changing notification state failed for %s (%s)", characteristic.getUuid(), status);
+                eventLog.log(EventLog.Event.NOTIFICATION_STATE_FAILED, peripheral.getAddress(), characteristic.getUuid(), status.value);
             }
         }
 
         @Override
         public void onCharacteristicWrite(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
+            final TraceRecorder trace = traceRecorder;
+            if (trace != null) trace.record(TraceRecorder.KIND_WRITE, peripheral.getAddress(), characteristic.getUuid(), status.value, value);
             if (status == GattStatus.SUCCESS) {
-                Timber.i("SUCCESS: Writing <%s> to <%s>", bytes2String(value), characteristic.getUuid());
-            } else {
-                Timber.i("ERROR: Failed writing <%s> to <%s> (%s)", bytes2String(value), characteristic.getUuid(), status);
+                if (eventLog.isLoggable(EventLog.Event.WRITE)) {
+                    eventLog.log(EventLog.Event.WRITE, peripheral.getAddress(), characteristic.getUuid(), value.length, EventLog.pack(value));
+                }
+            } else if (eventLog.isLoggable(EventLog.Event.WRITE_FAILED)) {
+                eventLog.log(EventLog.Event.WRITE_FAILED, peripheral.getAddress(), characteristic.getUuid(), value.length, EventLog.pack(value), status.value);
             }
         }
 
         @Override
         public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic, @NotNull GattStatus status) {
+            final TraceRecorder trace = traceRecorder;
+            if (trace != null) trace.record(TraceRecorder.KIND_NOTIFICATION, peripheral.getAddress(), characteristic.getUuid(), status.value, value);
             if (status != GattStatus.SUCCESS) return;
 
-            UUID characteristicUUID = characteristic.getUuid();
-            BluetoothBytesParser parser = new BluetoothBytesParser(value);
-
-            if (characteristicUUID.equals(BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-                BloodPressureMeasurement measurement = new BloodPressureMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_BLOODPRESSURE);
-                intent.putExtra(MEASUREMENT_BLOODPRESSURE_EXTRA, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-                TemperatureMeasurement measurement = new TemperatureMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_TEMPERATURE);
-                intent.putExtra(MEASUREMENT_TEMPERATURE_EXTRA, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals(HEART_RATE_MEASUREMENT_CHARACTERISTIC_UUID)) {
-                HeartRateMeasurement measurement = new HeartRateMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_HEARTRATE);
-                intent.putExtra(MEASUREMENT_HEARTRATE_EXTRA, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("HeartRate %s", measurement);
-            } else if (characteristicUUID.equals(PULSE_OXIMETER_CONTINUOUS_MEASUREMENT_CHAR_UUID)) {
-                PulseOximeterContinuousMeasurement measurement = new PulseOximeterContinuousMeasurement(value);
-                if (measurement.getSpO2() <= 100 && measurement.getPulseRate() <= 220) {
-                    Intent intent = new Intent(MEASUREMENT_PULSE_OX);
-                    intent.putExtra(MEASUREMENT_PULSE_OX_EXTRA_CONTINUOUS, measurement);
-                    sendMeasurement(intent, peripheral);
-                }
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals(PULSE_OXIMETER_SPOT_MEASUREMENT_CHAR_UUID)) {
-                PulseOximeterSpotMeasurement measurement = new PulseOximeterSpotMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_PULSE_OX);
-                intent.putExtra(MEASUREMENT_PULSE_OX_EXTRA_SPOT, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals(WEIGHT_SCALE_MEASUREMENT_CHAR_UUID)) {
-                WeightMeasurement measurement = new WeightMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_WEIGHT);
-                intent.putExtra(MEASUREMENT_WEIGHT_EXTRA, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals((GLUCOSE_MEASUREMENT_CHARACTERISTIC_UUID))) {
-                GlucoseMeasurement measurement = new GlucoseMeasurement(value);
-                Intent intent = new Intent(MEASUREMENT_GLUCOSE);
-                intent.putExtra(MEASUREMENT_GLUCOSE_EXTRA, measurement);
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", measurement);
-            } else if (characteristicUUID.equals(CURRENT_TIME_CHARACTERISTIC_UUID)) {
-                Date currentTime = parser.getDateTime();
-                Timber.i("Received device time: %s", currentTime);
-                Intent intent = new Intent(BLUETOOTHHANDLER_CURRENT_TIME);
-                intent.putExtra(BLUETOOTHHANDLER_CURRENT_TIME_EXTRA, currentTime.toString());
-                sendMeasurement(intent, peripheral);
-                Timber.d("%s", currentTime);
-
-                // Deal with Omron devices where we can only write currentTime under specific conditions
-                if (isOmronBPM(peripheral.getName())) {
-                    BluetoothGattCharacteristic bloodpressureMeasurement = peripheral.getCharacteristic(BLOOD_PRESSURE_SERVICE_UUID, BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID);
-                    if (bloodpressureMeasurement == null) return;
-
-                    boolean isNotifying = peripheral.isNotifying(bloodpressureMeasurement);
-                    if (isNotifying) currentTimeCounter++;
-
-                    // We can set device time for Omron devices only if it is the first notification and currentTime is more than 10 min from now
-                    long interval = abs(Calendar.getInstance().getTimeInMillis() - currentTime.getTime());
-                    if (currentTimeCounter == 1 && interval > 10 * 60 * 1000) {
-                        parser.setCurrentTime(Calendar.getInstance());
-                        peripheral.writeCharacteristic(characteristic, parser.getValue(), WriteType.WITH_RESPONSE);
-                    }
-                }
-            } else if (characteristicUUID.equals(BATTERY_LEVEL_CHARACTERISTIC_UUID)) {
-                String valueString = parser.getIntValue(FORMAT_UINT8).toString();
-                Timber.i("Received battery level %s%%", valueString);
-                // new in part 3
-                Intent intent = new Intent(BLUETOOTHHANDLER_BATTERY_LEVEL);
-                intent.putExtra(BLUETOOTHHANDLER_BATTERY_LEVEL_EXTRA, valueString);
-                sendMeasurement(intent, peripheral);
-
-            } else if (characteristicUUID.equals(MANUFACTURER_NAME_CHARACTERISTIC_UUID)) {
-                String manufacturer = parser.getStringValue(0);
-                Timber.i("Received manufacturer: %s", manufacturer);
-            } else if (characteristicUUID.equals(MODEL_NUMBER_CHARACTERISTIC_UUID)) {
-                String modelNumber = parser.getStringValue(0);
-                Timber.i("Received modelnumber: %s", modelNumber);
-            } else if (characteristicUUID.equals(PNP_ID_CHARACTERISTIC_UUID)) {
-                String modelNumber = parser.getStringValue(0);
-                Timber.i("Received pnp: %s", modelNumber);
+            PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+            if (session != null && session.phaseNanos[ConnectionLatencyTracker.Phase.FIRST_NOTIFICATION.ordinal()] == 0
+                    && peripheral.isNotifying(characteristic)) {
+                latencyTracker.mark(session, ConnectionLatencyTracker.Phase.FIRST_NOTIFICATION);
             }
+
+            // table driven dispatch, see registerCharacteristicHandlers
+            characteristicRegistry.dispatch(peripheral, value, characteristic);
         }
 
         @Override
         public void onMtuChanged(@NotNull BluetoothPeripheral peripheral, int mtu, @NotNull GattStatus status) {
             Timber.i("new MTU set: %d", mtu);
-        }
-
-        private void sendMeasurement(@NotNull Intent intent, @NotNull BluetoothPeripheral peripheral ) {
-            intent.putExtra(MEASUREMENT_EXTRA_PERIPHERAL, peripheral.getAddress());
-            context.sendBroadcast(intent);
+            markPhase(peripheral, ConnectionLatencyTracker.Phase.MTU_CHANGED);
         }
 
         private void writeContourClock(@NotNull BluetoothPeripheral peripheral) {
-            Calendar calendar = Calendar.getInstance();
-            int offsetInMinutes = calendar.getTimeZone().getRawOffset() / 60000;
-            int dstSavingsInMinutes = calendar.getTimeZone().getDSTSavings() / 60000;
-            calendar.setTimeZone(TimeZone.getTimeZone("UTC"));
-            BluetoothBytesParser parser = new BluetoothBytesParser(ByteOrder.LITTLE_ENDIAN);
-            parser.setIntValue(1, FORMAT_UINT8);
-            parser.setIntValue(calendar.get(Calendar.YEAR), FORMAT_UINT16);
-            parser.setIntValue(calendar.get(Calendar.MONTH) + 1, FORMAT_UINT8);
-            parser.setIntValue(calendar.get(Calendar.DAY_OF_MONTH), FORMAT_UINT8);
-            parser.setIntValue(calendar.get(Calendar.HOUR_OF_DAY), FORMAT_UINT8);
-            parser.setIntValue(calendar.get(Calendar.MINUTE), FORMAT_UINT8);
-            parser.setIntValue(calendar.get(Calendar.SECOND), FORMAT_UINT8);
-            parser.setIntValue(offsetInMinutes + dstSavingsInMinutes, FORMAT_SINT16);
-            peripheral.writeCharacteristic(CONTOUR_SERVICE_UUID, CONTOUR_CLOCK, parser.getValue(), WriteType.WITH_RESPONSE);
-        }
-
-        private void writeGetAllGlucoseMeasurements(@NotNull BluetoothPeripheral peripheral) {
-            byte OP_CODE_REPORT_STORED_RECORDS = 1;
-            byte OPERATOR_ALL_RECORDS = 1;
-            final byte[] command = new byte[] {OP_CODE_REPORT_STORED_RECORDS, OPERATOR_ALL_RECORDS};
-            peripheral.writeCharacteristic(GLUCOSE_SERVICE_UUID, GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID, command, WriteType.WITH_RESPONSE);
+            // 1, the date time in UTC and the current zone offset in minutes as sint16
+            final long now = System.currentTimeMillis();
+            final int offsetInMinutes = GattDateTime.getZoneOffsetMillis(now) / 60000;
+            byte[] value = new byte[1 + GattDateTime.SIZE + 2];
+            value[0] = 1;
+            GattDateTime.encode(now, 0, value, 1);
+            value[8] = (byte) offsetInMinutes;
+            value[9] = (byte) (offsetInMinutes >> 8);
+            peripheral.writeCharacteristic(CONTOUR_SERVICE_UUID, CONTOUR_CLOCK, value, WriteType.WITH_RESPONSE);
         }
     };
 
@@ -358,20 +355,23 @@ class BluetoothHandler {
         @Override
         public void onConnectedPeripheral(@NotNull BluetoothPeripheral peripheral) {
             Timber.i("connected to '%s'", peripheral.getName());
+            sessionManager.onConnected(peripheral);
+            markPhase(peripheral, ConnectionLatencyTracker.Phase.CONNECTED);
             Intent intent = new Intent(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS);
             String returnString = peripheral.getAddress() + " (" +
             peripheral.getName() + ")";
             intent.putExtra(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS_EXTRA, returnString);
-            context.sendBroadcast(intent);
+            sendMeasurement(intent, peripheral);
         }
 
         @Override
         public void onConnectionFailed(@NotNull BluetoothPeripheral peripheral, final @NotNull HciStatus status) {
             Timber.e("connection '%s' failed with status %s", peripheral.getName(), status);
+            sessionManager.onConnectionFailed(peripheral);
             Intent intent = new Intent(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS);
             String returnString = "";
             intent.putExtra(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS_EXTRA, returnString);
-            context.sendBroadcast(intent);
+            sendMeasurement(intent, peripheral);
         }
 
         @Override
@@ -380,30 +380,24 @@ class BluetoothHandler {
             Intent intent = new Intent(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS);
             String returnString = "";
             intent.putExtra(BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS_EXTRA, returnString);
-            context.sendBroadcast(intent);
+            sendMeasurement(intent, peripheral);
 
-            // do not reconnect to this device when it becomes available again
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    //central.autoConnectPeripheral(peripheral, peripheralCallback);
-                    central.connectPeripheral(peripheral, peripheralCallback);
-                }
-            }, 5000);
+            // measurements still waiting for their context are emitted without it
+            PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+            if (session != null && session.glucoseJoinBuffer != null) session.glucoseJoinBuffer.flush();
+
+            // reconnects with an increasing delay unless the disconnect was requested
+            sessionManager.onDisconnected(peripheral);
+            measurementPipeline.retain(sessionManager.getSessionAddresses());
         }
 
         @Override
         public void onDiscoveredPeripheral(@NotNull BluetoothPeripheral peripheral, @NotNull ScanResult scanResult) {
-            Timber.i("Found peripheral '%s'", peripheral.getName());
-            central.stopScan();
-
-            if (peripheral.getName().contains("Contour") && peripheral.getBondState() == BondState.NONE) {
-                // Create a bond immediately to avoid double pairing popups
-                central.createBond(peripheral, peripheralCallback);
-            } else {
-                central.connectPeripheral(peripheral, peripheralCallback);
-                //central.autoConnectPeripheral(peripheral, peripheralCallback);
-            }
+            // scanning goes on until the connection cap is reached, the connections are made in connectBestCandidates
+            discoveryCache.update(peripheral, scanResult, SystemClock.elapsedRealtime());
+            if (candidateSelectionScheduled || sessionManager.getSession(peripheral.getAddress()) != null) return;
+            candidateSelectionScheduled = true;
+            handler.postDelayed(candidateSelection, CANDIDATE_SETTLE_MS);
         }
 
         @Override
@@ -425,6 +419,470 @@ class BluetoothHandler {
         }
     };
 
+    // new in part 3
+    // each characteristic is decoded by its own handler, new profiles register here instead of adding branches
+    private void registerCharacteristicHandlers() {
+        // the measurements are handled by the MeasurementPipeline, which has no Android parts
+        characteristicRegistry.register(BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID, "blood pressure", measurementHandler);
+        characteristicRegistry.register(TEMPERATURE_MEASUREMENT_CHARACTERISTIC_UUID, "temperature", measurementHandler);
+        characteristicRegistry.register(HEART_RATE_MEASUREMENT_CHARACTERISTIC_UUID, "heart rate", measurementHandler);
+        characteristicRegistry.register(PULSE_OXIMETER_CONTINUOUS_MEASUREMENT_CHAR_UUID, "pulse oximeter continuous", measurementHandler);
+        characteristicRegistry.register(PULSE_OXIMETER_SPOT_MEASUREMENT_CHAR_UUID, "pulse oximeter spot", measurementHandler);
+        characteristicRegistry.register(WEIGHT_SCALE_MEASUREMENT_CHAR_UUID, "weight", measurementHandler);
+        characteristicRegistry.register(GLUCOSE_MEASUREMENT_CHARACTERISTIC_UUID, "glucose", measurementHandler);
+        characteristicRegistry.register(GLUCOSE_MEASUREMENT_CONTEXT_CHARACTERISTIC_UUID, "glucose context", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                if (!GlucoseContextDecoder.decode(value, glucoseContextRecord)) {
+                    measurementPipeline.logMalformed(peripheral.getAddress(), characteristic.getUuid(), value);
+                    return;
+                }
+                eventLog.log(EventLog.Event.GLUCOSE_CONTEXT, peripheral.getAddress(), characteristic.getUuid(), glucoseContextRecord.sequenceNumber);
+                PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+                if (session != null && glucoseReadingChannel.hasSubscribers()) {
+                    glucoseJoinBuffer(session).offerContext(glucoseContextRecord, SystemClock.elapsedRealtime());
+                    scheduleGlucoseJoinExpiry();
+                }
+            }
+        });
+        characteristicRegistry.register(GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID, "record access control point", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                if (eventLog.isLoggable(EventLog.Event.RECORD_ACCESS_CONTROL_POINT)) {
+                    eventLog.log(EventLog.Event.RECORD_ACCESS_CONTROL_POINT, peripheral.getAddress(), characteristic.getUuid(), value.length, EventLog.pack(value));
+                }
+                PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+                if (session != null) glucoseRecordSync.onControlPointIndication(session, value);
+            }
+        });
+        characteristicRegistry.register(CURRENT_TIME_CHARACTERISTIC_UUID, "current time", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                if (value.length < GattDateTime.SIZE) return;
+                Date currentTime = new Date(GattDateTime.toEpochMillis(value, 0));
+                eventLog.log(EventLog.Event.CURRENT_TIME, peripheral.getAddress(), characteristic.getUuid(), currentTime.getTime());
+                Intent intent = new Intent(BLUETOOTHHANDLER_CURRENT_TIME);
+                intent.putExtra(BLUETOOTHHANDLER_CURRENT_TIME_EXTRA, currentTime.toString());
+                sendMeasurement(intent, peripheral);
+
+                // Deal with Omron devices where we can only write currentTime under specific conditions
+                if (isOmronBPM(peripheral.getName())) {
+                    BluetoothGattCharacteristic bloodpressureMeasurement = peripheral.getCharacteristic(BLOOD_PRESSURE_SERVICE_UUID, BLOOD_PRESSURE_MEASUREMENT_CHARACTERISTIC_UUID);
+                    if (bloodpressureMeasurement == null) return;
+
+                    PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+                    if (session == null) return;
+                    boolean isNotifying = peripheral.isNotifying(bloodpressureMeasurement);
+                    if (isNotifying) session.currentTimeCounter++;
+
+                    // We can set device time for Omron devices only if it is the first notification and currentTime is more than 10 min from now
+                    final long now = System.currentTimeMillis();
+                    long interval = abs(now - currentTime.getTime());
+                    if (session.currentTimeCounter == 1 && interval > 10 * 60 * 1000) {
+                        peripheral.writeCharacteristic(characteristic, GattDateTime.encodeCurrentTime(now), WriteType.WITH_RESPONSE);
+                    }
+                }
+            }
+        });
+        characteristicRegistry.register(BATTERY_LEVEL_CHARACTERISTIC_UUID, "battery level", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                if (value.length < 1) return;
+                String valueString = String.valueOf(value[0] & 0xFF);
+                eventLog.log(EventLog.Event.BATTERY_LEVEL, peripheral.getAddress(), characteristic.getUuid(), value[0] & 0xFF);
+                // new in part 3
+                Intent intent = new Intent(BLUETOOTHHANDLER_BATTERY_LEVEL);
+                intent.putExtra(BLUETOOTHHANDLER_BATTERY_LEVEL_EXTRA, valueString);
+                sendMeasurement(intent, peripheral);
+            }
+        });
+        characteristicRegistry.register(MANUFACTURER_NAME_CHARACTERISTIC_UUID, "manufacturer name", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                String manufacturer = new BluetoothBytesParser(value).getStringValue(0);
+                Timber.i("Received manufacturer: %s", manufacturer);
+            }
+        });
+        characteristicRegistry.register(MODEL_NUMBER_CHARACTERISTIC_UUID, "model number", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                String modelNumber = new BluetoothBytesParser(value).getStringValue(0);
+                Timber.i("Received modelnumber: %s", modelNumber);
+            }
+        });
+        characteristicRegistry.register(PNP_ID_CHARACTERISTIC_UUID, "pnp id", new CharacteristicHandler() {
+            @Override
+            public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+                String modelNumber = new BluetoothBytesParser(value).getStringValue(0);
+                Timber.i("Received pnp: %s", modelNumber);
+            }
+        });
+    }
+
+    private final CharacteristicHandler measurementHandler = new CharacteristicHandler() {
+        @Override
+        public void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+            measurementPipeline.onNotification(peripheral.getAddress(), characteristic.getUuid(), value, SystemClock.elapsedRealtime());
+        }
+    };
+
+    // broadcasts and the glucose record sync and join, which need the sessions and the context
+    private final MeasurementPipeline.Listener measurementPipelineListener = new MeasurementPipeline.Listener() {
+        @Override
+        public boolean acceptGlucoseRecord(@NotNull String peripheralAddress, int sequenceNumber) {
+            PeripheralSession session = sessionManager.getSession(peripheralAddress);
+            return session == null || glucoseRecordSync.onRecord(session, sequenceNumber);
+        }
+
+        @Override
+        public boolean needsMeasurement(@NotNull String peripheralAddress, @NotNull Class<?> measurementClass) {
+            return broadcastBridgeEnabled || (measurementClass == GlucoseMeasurement.class && joinsGlucose(peripheralAddress));
+        }
+
+        @Override
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull Object measurement) {
+            if (broadcastBridgeEnabled) broadcastMeasurement(peripheralAddress, measurement);
+            if (measurement instanceof GlucoseMeasurement && joinsGlucose(peripheralAddress)) {
+                PeripheralSession session = sessionManager.getSession(peripheralAddress);
+                glucoseJoinBuffer(session).offerMeasurement((GlucoseMeasurement) measurement, SystemClock.elapsedRealtime());
+                scheduleGlucoseJoinExpiry();
+            }
+        }
+    };
+
+    private boolean joinsGlucose(String peripheralAddress) {
+        return glucoseReadingChannel.hasSubscribers() && sessionManager.getSession(peripheralAddress) != null;
+    }
+
+    private void broadcastMeasurement(String peripheralAddress, Object measurement) {
+        Intent intent;
+        if (measurement instanceof BloodPressureMeasurement) {
+            intent = new Intent(MEASUREMENT_BLOODPRESSURE);
+            intent.putExtra(MEASUREMENT_BLOODPRESSURE_EXTRA, (BloodPressureMeasurement) measurement);
+        } else if (measurement instanceof TemperatureMeasurement) {
+            intent = new Intent(MEASUREMENT_TEMPERATURE);
+            intent.putExtra(MEASUREMENT_TEMPERATURE_EXTRA, (TemperatureMeasurement) measurement);
+        } else if (measurement instanceof HeartRateMeasurement) {
+            intent = new Intent(MEASUREMENT_HEARTRATE);
+            intent.putExtra(MEASUREMENT_HEARTRATE_EXTRA, (HeartRateMeasurement) measurement);
+        } else if (measurement instanceof PulseOximeterContinuousMeasurement) {
+            intent = new Intent(MEASUREMENT_PULSE_OX);
+            intent.putExtra(MEASUREMENT_PULSE_OX_EXTRA_CONTINUOUS, (PulseOximeterContinuousMeasurement) measurement);
+        } else if (measurement instanceof PulseOximeterSpotMeasurement) {
+            intent = new Intent(MEASUREMENT_PULSE_OX);
+            intent.putExtra(MEASUREMENT_PULSE_OX_EXTRA_SPOT, (PulseOximeterSpotMeasurement) measurement);
+        } else if (measurement instanceof WeightMeasurement) {
+            intent = new Intent(MEASUREMENT_WEIGHT);
+            intent.putExtra(MEASUREMENT_WEIGHT_EXTRA, (WeightMeasurement) measurement);
+        } else if (measurement instanceof GlucoseMeasurement) {
+            intent = new Intent(MEASUREMENT_GLUCOSE);
+            intent.putExtra(MEASUREMENT_GLUCOSE_EXTRA, (GlucoseMeasurement) measurement);
+        } else {
+            return;
+        }
+        sendMeasurement(intent, peripheralAddress);
+    }
+
+    /**
+     * Registers a decoder for an additional characteristic or replaces a built in one
+     */
+    public void registerCharacteristicHandler(@NotNull UUID characteristicUUID, @NotNull String name, @NotNull CharacteristicHandler handler) {
+        characteristicRegistry.register(characteristicUUID, name, handler);
+    }
+
+    /**
+     * Measurements are delivered through the MeasurementBus, enable the bridge only if
+     * consumers outside of this process still need the MEASUREMENT_* broadcasts
+     */
+    public void setBroadcastBridgeEnabled(boolean enabled) {
+        broadcastBridgeEnabled = enabled;
+    }
+
+    // returns a table with the number of notifications per characteristic, highest first
+    public String getCharacteristicHitCounters() {
+        return characteristicRegistry.dumpHitCounters();
+    }
+
+    private GlucoseJoinBuffer glucoseJoinBuffer(PeripheralSession session) {
+        if (session.glucoseJoinBuffer == null) {
+            session.glucoseJoinBuffer = new GlucoseJoinBuffer(session.getAddress(), glucoseReadingListener);
+        }
+        return session.glucoseJoinBuffer;
+    }
+
+    private final GlucoseJoinBuffer.Listener glucoseReadingListener = new GlucoseJoinBuffer.Listener() {
+        @Override
+        public void onReading(@NotNull String peripheralAddress, @NotNull GlucoseReading reading) {
+            glucoseReadingChannel.publish(peripheralAddress, reading);
+        }
+    };
+
+    // measurements waiting for a context that never comes are emitted after the timeout
+    private void scheduleGlucoseJoinExpiry() {
+        if (glucoseJoinExpiryScheduled) return;
+        glucoseJoinExpiryScheduled = true;
+        handler.postDelayed(glucoseJoinExpiry, GlucoseJoinBuffer.DEFAULT_TIMEOUT_MS);
+    }
+
+    private final Runnable glucoseJoinExpiry = new Runnable() {
+        @Override
+        public void run() {
+            glucoseJoinExpiryScheduled = false;
+            final long now = SystemClock.elapsedRealtime();
+            boolean pending = false;
+            for (PeripheralSession session : sessionManager.getSessions()) {
+                GlucoseJoinBuffer buffer = session.glucoseJoinBuffer;
+                if (buffer == null) continue;
+                buffer.expire(now);
+                if (buffer.size() > 0) pending = true;
+            }
+            if (pending) scheduleGlucoseJoinExpiry();
+        }
+    };
+
+    /**
+     * Sets the windows of the heart rate variability engines, the engines of all peripherals start over.
+     * Must be called on the main thread like the engine getter.
+     */
+    public void setHrvWindows(long... windowMillis) {
+        measurementPipeline.setHrvWindows(windowMillis);
+    }
+
+    // one engine per window, null if the peripheral sent no RR interval yet
+    @Nullable
+    public HrvEngine[] getHrvEngines(String peripheralAddress) {
+        return measurementPipeline.getHrvEngines(peripheralAddress);
+    }
+
+    /**
+     * Sets the windows of the pulse oximeter trends, the trends of all peripherals start over.
+     * Must be called on the main thread like the trend getter.
+     */
+    public void setPulseOximeterTrendWindows(long... windowMillis) {
+        measurementPipeline.setPulseOximeterTrendWindows(windowMillis);
+    }
+
+    // one trend per window, null if the peripheral sent no continuous measurement yet
+    @Nullable
+    public PulseOximeterTrend[] getPulseOximeterTrends(String peripheralAddress) {
+        return measurementPipeline.getPulseOximeterTrends(peripheralAddress);
+    }
+
+    /**
+     * Returns a target for the PeripheralSimulator that feeds simulated peripherals into the BLESSED callbacks of
+     * this handler. The events are posted to the handler like real ones, the queue depth is the number of posted
+     * events that did not run yet. The peripherals are taken from the central by address, no radio is used.
+     * Simulated disconnects are not reconnected by the SessionManager.
+     */
+    public PeripheralSimulator.Target getSimulatorTarget() {
+        return new SimulatorTarget();
+    }
+
+    private final class SimulatorTarget implements PeripheralSimulator.Target {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final ConcurrentHashMap<UUID, BluetoothGattCharacteristic> characteristics = new ConcurrentHashMap<>();
+
+        @Override
+        public void onConnected(@NotNull String address) {
+            final BluetoothPeripheral peripheral = central.getPeripheral(address);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    bluetoothCentralManagerCallback.onConnectedPeripheral(peripheral);
+                }
+            });
+        }
+
+        @Override
+        public void onNotification(@NotNull String address, @NotNull UUID characteristicUuid, @NotNull final byte[] value, long timestampNanos) {
+            final BluetoothPeripheral peripheral = central.getPeripheral(address);
+            BluetoothGattCharacteristic characteristic = characteristics.get(characteristicUuid);
+            if (characteristic == null) {
+                characteristic = new BluetoothGattCharacteristic(characteristicUuid, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0);
+                characteristics.put(characteristicUuid, characteristic);
+            }
+            final BluetoothGattCharacteristic notifyingCharacteristic = characteristic;
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    peripheralCallback.onCharacteristicUpdate(peripheral, value, notifyingCharacteristic, GattStatus.SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public void onDisconnected(@NotNull String address) {
+            final BluetoothPeripheral peripheral = central.getPeripheral(address);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    // a closing session is removed instead of reconnected
+                    PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+                    if (session != null) session.setClosing();
+                    bluetoothCentralManagerCallback.onDisconnectedPeripheral(peripheral, HciStatus.SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return pending.get();
+        }
+
+        private void post(@NotNull final Runnable event) {
+            pending.incrementAndGet();
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    pending.decrementAndGet();
+                    event.run();
+                }
+            });
+        }
+    }
+
+    // ring of the last notification and GATT events, dump() formats them
+    public EventLog getEventLog() {
+        return eventLog;
+    }
+
+    // returns a table with the p50/p90/p99 latencies of each connection setup phase
+    public String getConnectionLatencies() {
+        return latencyTracker.dump();
+    }
+
+    private final Runnable candidateSelection = new Runnable() {
+        @Override
+        public void run() {
+            candidateSelectionScheduled = false;
+            connectBestCandidates();
+        }
+    };
+
+    // connects the strongest advertisers until the connection cap is reached
+    private void connectBestCandidates() {
+        if (!sessionManager.isScanRequested()) return;
+        final long now = SystemClock.elapsedRealtime();
+        DiscoveryCache.Entry candidate;
+        while ((candidate = discoveryCache.getBestCandidate(null, sessionManager.getSessionAddresses(), now)) != null) {
+            if (!sessionManager.onDiscovered(candidate.getPeripheral())) break;
+            Timber.i("Found peripheral %s", candidate);
+            PeripheralSession session = sessionManager.getSession(candidate.address);
+            // elapsedRealtime() millis, the settle delay since then is recorded as SELECTED
+            if (session != null) latencyTracker.onDiscovered(session, candidate.getFirstSeenMillis() * 1000000L);
+        }
+    }
+
+    // the advertisers seen by the scan, the strongest first
+    public List<DiscoveryCache.Entry> getDiscoveredPeripherals() {
+        return discoveryCache.getEntries(SystemClock.elapsedRealtime());
+    }
+
+    private void markPhase(BluetoothPeripheral peripheral, ConnectionLatencyTracker.Phase phase) {
+        PeripheralSession session = sessionManager.getSession(peripheral.getAddress());
+        if (session != null) latencyTracker.mark(session, phase);
+    }
+
+    // the rollups are in memory only, the log is read again in the background, new measurements are added meanwhile
+    private void rebuildMeasurementRollup(final MeasurementLog log) {
+        final long start = System.currentTimeMillis();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final long count = log.getPeripheralAddresses().isEmpty() ? 0 : measurementRollup.rebuild(log, start);
+                    Timber.i("measurement rollups rebuilt from %d measurements in %d ms", count, System.currentTimeMillis() - start);
+                } catch (IOException e) {
+                    Timber.e(e, "cannot rebuild the measurement rollups");
+                }
+            }
+        }, "MeasurementRollup-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    // number of peripherals that are connected at the same time, scanning stops when it is reached
+    public void setMaxConnections(int maxConnections) {
+        sessionManager.setMaxConnections(maxConnections);
+    }
+
+    public int getMaxConnections() {
+        return sessionManager.getMaxConnections();
+    }
+
+    // null restores the default policy, see ReconnectPolicy.DEFAULT
+    public void setReconnectPolicy(String peripheralAddress, @Nullable ReconnectPolicy policy) {
+        sessionManager.setReconnectPolicy(peripheralAddress, policy);
+    }
+
+    @Nullable
+    public MeasurementLog getMeasurementLog() {
+        return measurementLog;
+    }
+
+    /**
+     * Exports the logged measurements received between the timestamps to cache/exports, where the FileProvider of
+     * the app shares them from. Blocks until the file is written, so it must not be called on the main thread.
+     *
+     * @return the written file, it is replaced by the next export in the same format
+     */
+    @NotNull
+    public File exportMeasurements(@NotNull MeasurementExporter.Format format, boolean gzip, long fromTimestamp, long toTimestamp, int typeMask) throws IOException {
+        final MeasurementLog log = measurementLog;
+        if (log == null) throw new IOException("the measurement log is not open");
+        File directory = new File(context.getCacheDir(), "exports");
+        if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("cannot create " + directory);
+        String name = format == MeasurementExporter.Format.FHIR ? "measurements.json" : "measurements." + format.name().toLowerCase(Locale.ROOT);
+        File file = new File(directory, gzip ? name + ".gz" : name);
+        final MeasurementExporter exporter;
+        synchronized (this) {
+            if (measurementExporter == null) measurementExporter = new MeasurementExporter(log);
+            exporter = measurementExporter;
+        }
+        final long count = exporter.export(file, format, gzip, fromTimestamp, toTimestamp, typeMask, null);
+        Timber.i("exported %d measurements to %s", count, file);
+        return file;
+    }
+
+    // history queries at any zoom level, see MeasurementRollup.tierFor
+    public MeasurementRollup getMeasurementRollup() {
+        return measurementRollup;
+    }
+
+    // records the raw notifications and writes to files/traces, see TraceRecorder.read for reading them
+    public synchronized void setTraceCaptureEnabled(boolean enabled) {
+        if (enabled == (traceRecorder != null)) return;
+        if (enabled) {
+            try {
+                traceRecorder = new TraceRecorder(new File(context.getFilesDir(), "traces"));
+            } catch (IOException e) {
+                Timber.e(e, "cannot open the trace");
+            }
+        } else {
+            final TraceRecorder trace = traceRecorder;
+            traceRecorder = null;
+            trace.close();
+        }
+    }
+
+    @Nullable
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    private void sendMeasurement(@NotNull Intent intent, @NotNull BluetoothPeripheral peripheral) {
+        sendMeasurement(intent, peripheral.getAddress());
+    }
+
+    private void sendMeasurement(@NotNull Intent intent, @NotNull String peripheralAddress) {
+        intent.putExtra(MEASUREMENT_EXTRA_PERIPHERAL, peripheralAddress);
+        context.sendBroadcast(intent);
+    }
+
     public static synchronized BluetoothHandler getInstance(Context context) {
         if (instance == null) {
             instance = new BluetoothHandler(context.getApplicationContext());
@@ -434,12 +892,34 @@ class BluetoothHandler {
 
     private BluetoothHandler(Context context) {
         this.context = context;
+        registerCharacteristicHandlers();
+        registerSubscriptions();
+
+        // Plant a tree, release builds only keep the binary event log
+        if (BuildConfig.DEBUG) Timber.plant(new Timber.DebugTree());
 
-        // Plant a tree
-        Timber.plant(new Timber.DebugTree());
+        // the date time codec caches the offsets of the zone
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                GattDateTime.onTimeZoneChanged();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+
+        measurementPipeline.setListener(measurementPipelineListener);
+        glucoseRecordSync = new GlucoseRecordSync(context.getSharedPreferences("glucose_sync", Context.MODE_PRIVATE));
+
+        try {
+            measurementLog = new MeasurementLog(new File(context.getFilesDir(), "measurements"));
+            measurementPipeline.setMeasurementLog(measurementLog);
+            rebuildMeasurementRollup(measurementLog);
+        } catch (IOException e) {
+            Timber.e(e, "cannot open the measurement log");
+        }
 
         // Create BluetoothCentral
-        central = new BluetoothCentralManager(context, bluetoothCentralManagerCallback, new Handler());
+        central = new BluetoothCentralManager(context, bluetoothCentralManagerCallback, handler);
+        sessionManager = new SessionManager(central, peripheralCallback, handler);
 
         // Scan for peripherals with a certain service UUIDs
         central.startPairingPopupHack();
@@ -467,12 +947,14 @@ class BluetoothHandler {
     // new in part 2
     // this will connect to HeartRateService devices only
     private void startScanHrs() {
+        latencyTracker.onScanRequested();
         handler.postDelayed(new Runnable() {
             @Override
             public void run() {
-                central.scanForPeripheralsWithServices(new UUID[]{HEART_RATE_SERVICE_UUID});
+                sessionManager.startScan(new UUID[]{HEART_RATE_SERVICE_UUID});
+                latencyTracker.onScanStarted();
             }
-        },1000);
+        }, SCAN_START_DELAY_MS);
     }
 
 
@@ -0,0 +1,15 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.BluetoothPeripheral;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Decodes and forwards the value of one characteristic, see {@link CharacteristicRegistry}
+ */
+public interface CharacteristicHandler {
+
+    void onCharacteristicUpdate(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic);
+}
@@ -0,0 +1,213 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.BluetoothPeripheral;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import timber.log.Timber;
+
+/**
+ * Lookup table from characteristic UUID to its {@link CharacteristicHandler}.
+ * UUIDs built on the Bluetooth base UUID are keyed by their 16 bit assigned number in an
+ * open addressing table, vendor UUIDs (e.g. the Contour service) go into a HashMap.
+ * Both lookups are O(1) and do not allocate.
+ *
+ * The registry is not thread safe, register all handlers before the first notification
+ * and dispatch from the BLESSED callback handler only.
+ */
+public class CharacteristicRegistry {
+
+    private static final int EMPTY = GattCharacteristics.NOT_ASSIGNED;
+    private static final int TABLE_SIZE = 64; // power of 2, at least twice the number of handlers
+
+    public static final class Entry {
+        public final String name;
+        public final UUID uuid;
+        public final CharacteristicHandler handler;
+        private long hits;
+
+        Entry(@NotNull String name, @NotNull UUID uuid, @NotNull CharacteristicHandler handler) {
+            this.name = name;
+            this.uuid = uuid;
+            this.handler = handler;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+    }
+
+    private int[] shortKeys = newKeyTable(TABLE_SIZE);
+    private Entry[] shortEntries = new Entry[TABLE_SIZE];
+    private int shortCount = 0;
+    private final Map<UUID, Entry> longEntries = new HashMap<>();
+    private long misses = 0;
+
+    /**
+     * Registers a handler, a previously registered handler for the same UUID is replaced
+     */
+    public void register(@NotNull UUID characteristicUUID, @NotNull String name, @NotNull CharacteristicHandler handler) {
+        Entry entry = new Entry(name, characteristicUUID, handler);
+        int assignedNumber = toAssignedNumber(characteristicUUID);
+        if (assignedNumber == EMPTY) {
+            longEntries.put(characteristicUUID, entry);
+        } else {
+            putShort(assignedNumber, entry);
+        }
+    }
+
+    public void unregister(@NotNull UUID characteristicUUID) {
+        int assignedNumber = toAssignedNumber(characteristicUUID);
+        if (assignedNumber == EMPTY) {
+            longEntries.remove(characteristicUUID);
+            return;
+        }
+        // rebuild the table, this keeps the probe sequences of the remaining keys intact
+        List<Entry> remaining = new ArrayList<>(shortCount);
+        for (int i = 0; i < shortKeys.length; i++) {
+            if (shortKeys[i] != EMPTY && shortKeys[i] != assignedNumber) remaining.add(shortEntries[i]);
+        }
+        shortKeys = newKeyTable(shortKeys.length);
+        shortEntries = new Entry[shortKeys.length];
+        shortCount = 0;
+        for (Entry entry : remaining) {
+            putShort(toAssignedNumber(entry.uuid), entry);
+        }
+    }
+
+    @Nullable
+    public Entry lookup(@NotNull UUID characteristicUUID) {
+        int assignedNumber = toAssignedNumber(characteristicUUID);
+        if (assignedNumber == EMPTY) return longEntries.get(characteristicUUID);
+
+        final int[] keys = shortKeys;
+        final int mask = keys.length - 1;
+        int index = hash(assignedNumber) & mask;
+        while (true) {
+            int key = keys[index];
+            if (key == assignedNumber) return shortEntries[index];
+            if (key == EMPTY) return null;
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Hands the value to the registered handler
+     *
+     * @return false if no handler is registered for this characteristic
+     */
+    public boolean dispatch(@NotNull BluetoothPeripheral peripheral, @NotNull byte[] value, @NotNull BluetoothGattCharacteristic characteristic) {
+        Entry entry = lookup(characteristic.getUuid());
+        if (entry == null) {
+            misses++;
+            return false;
+        }
+        entry.hits++;
+        try {
+            entry.handler.onCharacteristicUpdate(peripheral, value, characteristic);
+        } catch (IllegalArgumentException e) {
+            // a malformed value from the peripheral must not take down the callback thread
+            Timber.e("dropped malformed %s value: %s", entry.name, e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Returns all entries, sorted by hit count (highest first)
+     */
+    @NotNull
+    public List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>(shortCount + longEntries.size());
+        for (Entry entry : shortEntries) {
+            if (entry != null) entries.add(entry);
+        }
+        entries.addAll(longEntries.values());
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.sort(sorted, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.hits, a.hits);
+            }
+        });
+        return Arrays.asList(sorted);
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public void resetHitCounters() {
+        for (Entry entry : shortEntries) {
+            if (entry != null) entry.hits = 0;
+        }
+        for (Entry entry : longEntries.values()) {
+            entry.hits = 0;
+        }
+        misses = 0;
+    }
+
+    @NotNull
+    public String dumpHitCounters() {
+        StringBuilder sb = new StringBuilder();
+        for (Entry entry : getEntries()) {
+            sb.append(String.format(Locale.ENGLISH, "%-28s %10d%n", entry.name, entry.hits));
+        }
+        sb.append(String.format(Locale.ENGLISH, "%-28s %10d", "unhandled", misses));
+        return sb.toString();
+    }
+
+    /**
+     * Returns the 16 bit assigned number of a Bluetooth SIG UUID or -1 for a vendor specific UUID
+     */
+    public static int toAssignedNumber(@NotNull UUID uuid) {
+        return GattCharacteristics.toAssignedNumber(uuid);
+    }
+
+    private void putShort(int assignedNumber, Entry entry) {
+        if ((shortCount + 1) * 2 > shortKeys.length) grow();
+        final int mask = shortKeys.length - 1;
+        int index = hash(assignedNumber) & mask;
+        while (shortKeys[index] != EMPTY && shortKeys[index] != assignedNumber) {
+            index = (index + 1) & mask;
+        }
+        if (shortKeys[index] == EMPTY) shortCount++;
+        shortKeys[index] = assignedNumber;
+        shortEntries[index] = entry;
+    }
+
+    private void grow() {
+        int[] oldKeys = shortKeys;
+        Entry[] oldEntries = shortEntries;
+        shortKeys = newKeyTable(oldKeys.length * 2);
+        shortEntries = new Entry[oldKeys.length * 2];
+        shortCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) putShort(oldKeys[i], oldEntries[i]);
+        }
+    }
+
+    private static int[] newKeyTable(int size) {
+        int[] keys = new int[size];
+        Arrays.fill(keys, EMPTY);
+        return keys;
+    }
+
+    private static int hash(int assignedNumber) {
+        int h = assignedNumber * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,41 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Array;
+
+/**
+ * Base of the measurement classes, parcels them as their {@link MeasurementCodec} encoding.
+ * Every subclass still declares its own CREATOR, built with {@link #creator(Class)}.
+ */
+public abstract class CodecParcelable implements Parcelable {
+
+    @NotNull
+    protected static <T> Creator<T> creator(@NotNull final Class<T> measurementClass) {
+        return new Creator<T>() {
+            @Override
+            public T createFromParcel(Parcel in) {
+                return MeasurementCodec.decode(in.createByteArray(), measurementClass);
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public T[] newArray(int size) {
+                return (T[]) Array.newInstance(measurementClass, size);
+            }
+        };
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(MeasurementCodec.encode(this));
+    }
+}
@@ -0,0 +1,132 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.os.SystemClock;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Measures the connection setup of every peripheral, from the scan request to the first notification.
+ * Each phase is stamped once per connection attempt with the monotonic clock, the time since the previous
+ * stamped phase goes into the histogram of the phase. Must be called on the BluetoothCentralManager handler.
+ */
+public class ConnectionLatencyTracker {
+
+    public enum Phase {
+        SCAN_REQUESTED,
+        SCAN_STARTED,
+        DISCOVERED,
+        // the candidate settle delay before the connection is requested
+        SELECTED,
+        CONNECTED,
+        SERVICES_DISCOVERED,
+        MTU_CHANGED,
+        NOTIFICATION_ENABLED,
+        FIRST_NOTIFICATION
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    static final int PHASE_COUNT = PHASES.length;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASE_COUNT];
+    // from the first stamped phase to the first notification
+    private final LatencyHistogram total = new LatencyHistogram();
+    // the scan is not bound to a peripheral, its stamps are copied into the sessions it discovers
+    private long scanRequestedNanos = 0;
+    private long scanStartedNanos = 0;
+
+    public ConnectionLatencyTracker() {
+        for (int i = 0; i < PHASE_COUNT; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    public void onScanRequested() {
+        scanRequestedNanos = SystemClock.elapsedRealtimeNanos();
+        scanStartedNanos = 0;
+    }
+
+    public void onScanStarted() {
+        scanStartedNanos = SystemClock.elapsedRealtimeNanos();
+        if (scanRequestedNanos != 0) histograms[Phase.SCAN_STARTED.ordinal()].recordNanos(scanStartedNanos - scanRequestedNanos);
+    }
+
+    /**
+     * Call it when the session is created for a selected candidate, DISCOVERED is stamped with the first sighting
+     * and SELECTED now
+     *
+     * @param firstSeenNanos SystemClock.elapsedRealtimeNanos() of the first advertisement
+     */
+    public void onDiscovered(@NotNull PeripheralSession session, long firstSeenNanos) {
+        session.phaseNanos[Phase.SCAN_REQUESTED.ordinal()] = scanRequestedNanos;
+        session.phaseNanos[Phase.SCAN_STARTED.ordinal()] = scanStartedNanos;
+        // an advertiser cached by an earlier scan counts as discovered when this scan started
+        stamp(session, Phase.DISCOVERED, Math.max(firstSeenNanos, Math.max(scanRequestedNanos, scanStartedNanos)));
+        mark(session, Phase.SELECTED);
+    }
+
+    /**
+     * Stamps the phase unless it was already reached in this connection attempt
+     */
+    public void mark(@NotNull PeripheralSession session, @NotNull Phase phase) {
+        stamp(session, phase, SystemClock.elapsedRealtimeNanos());
+    }
+
+    private void stamp(PeripheralSession session, Phase phase, long now) {
+        final long[] stamps = session.phaseNanos;
+        final int index = phase.ordinal();
+        if (stamps[index] != 0) return;
+        stamps[index] = now;
+
+        // a reconnect starts at CONNECTED, phases before it are not stamped then
+        for (int i = index - 1; i >= 0; i--) {
+            if (stamps[i] != 0) {
+                histograms[index].recordNanos(now - stamps[i]);
+                break;
+            }
+        }
+        if (phase == Phase.FIRST_NOTIFICATION) {
+            for (int i = 0; i < index; i++) {
+                if (stamps[i] != 0) {
+                    total.recordNanos(now - stamps[i]);
+                    break;
+                }
+            }
+        }
+    }
+
+    @NotNull
+    public LatencyHistogram getHistogram(@NotNull Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    @NotNull
+    public LatencyHistogram getTotalHistogram() {
+        return total;
+    }
+
+    /**
+     * Returns a table with the latency percentiles of every phase in milliseconds
+     */
+    @NotNull
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-21s %6s %9s %9s %9s %9s%n", "phase", "count", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        // SCAN_REQUESTED is the origin and has no latency of its own
+        for (int i = 1; i < PHASE_COUNT; i++) {
+            appendRow(sb, PHASES[i].name(), histograms[i]);
+        }
+        appendRow(sb, "TOTAL", total);
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, String name, LatencyHistogram histogram) {
+        sb.append(String.format(Locale.US, "%-21s %6d %9.1f %9.1f %9.1f %9.1f%n", name, histogram.getCount(),
+                histogram.getPercentileMicros(50) / 1000.0, histogram.getPercentileMicros(90) / 1000.0,
+                histogram.getPercentileMicros(99) / 1000.0, histogram.getMaxMicros() / 1000.0));
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) histogram.reset();
+        total.reset();
+    }
+}
@@ -0,0 +1,202 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.os.ParcelUuid;
+
+import com.welie.blessed.BluetoothPeripheral;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers the advertisers seen by the scan, so a connection goes to the strongest peripheral and not to the
+ * one whose packet arrived first. The RSSI of every advertiser is smoothed with an exponentially weighted
+ * moving average. The cache holds at most {@code capacity} entries, the least recently seen one is evicted
+ * first, and entries not seen for {@code maxAgeMillis} are dropped.
+ * Must be called on the BluetoothCentralManager handler.
+ */
+public class DiscoveryCache {
+
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final long DEFAULT_MAX_AGE_MS = 30 * 1000;
+    // weight of a new RSSI sample, advertising RSSI jumps by 10 dB between packets
+    static final double RSSI_ALPHA = 0.25;
+
+    public static final class Entry {
+        public final String address;
+        private BluetoothPeripheral peripheral;
+        private String name;
+        private List<UUID> serviceUuids = Collections.emptyList();
+        private final long firstSeenMillis;
+        private long lastSeenMillis;
+        private double smoothedRssi;
+        private int lastRssi;
+        private int sightings = 0;
+
+        private Entry(String address, long nowMillis) {
+            this.address = address;
+            this.firstSeenMillis = nowMillis;
+        }
+
+        @NotNull
+        public BluetoothPeripheral getPeripheral() {
+            return peripheral;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @NotNull
+        public List<UUID> getServiceUuids() {
+            return serviceUuids;
+        }
+
+        public long getFirstSeenMillis() {
+            return firstSeenMillis;
+        }
+
+        public long getLastSeenMillis() {
+            return lastSeenMillis;
+        }
+
+        public double getSmoothedRssi() {
+            return smoothedRssi;
+        }
+
+        public int getLastRssi() {
+            return lastRssi;
+        }
+
+        public int getSightings() {
+            return sightings;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return String.format(java.util.Locale.ENGLISH, "%s (%s) %.1f dBm, %d sightings", address, name, smoothedRssi, sightings);
+        }
+    }
+
+    private static final Comparator<Entry> STRONGEST_FIRST = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry first, Entry second) {
+            return Double.compare(second.smoothedRssi, first.smoothedRssi);
+        }
+    };
+
+    private final int capacity;
+    private final long maxAgeMillis;
+    // access ordered, the eldest entry is the least recently seen one
+    private final LinkedHashMap<String, Entry> entries;
+
+    public DiscoveryCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_AGE_MS);
+    }
+
+    public DiscoveryCache(final int capacity, long maxAgeMillis) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.entries = new LinkedHashMap<String, Entry>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DiscoveryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Adds a scan result
+     *
+     * @param nowMillis a monotonic clock, e.g. SystemClock.elapsedRealtime()
+     */
+    @NotNull
+    public Entry update(@NotNull BluetoothPeripheral peripheral, @NotNull ScanResult scanResult, long nowMillis) {
+        final String address = peripheral.getAddress();
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry(address, nowMillis);
+            entries.put(address, entry);
+        }
+        entry.peripheral = peripheral;
+        final String name = peripheral.getName();
+        if (name != null && !name.isEmpty()) entry.name = name;
+        final ScanRecord scanRecord = scanResult.getScanRecord();
+        if (scanRecord != null) {
+            final List<ParcelUuid> uuids = scanRecord.getServiceUuids();
+            // scan responses often come without services, the services of the advertisement are kept then
+            if (uuids != null && !uuids.isEmpty()) {
+                List<UUID> serviceUuids = new ArrayList<>(uuids.size());
+                for (ParcelUuid uuid : uuids) serviceUuids.add(uuid.getUuid());
+                entry.serviceUuids = Collections.unmodifiableList(serviceUuids);
+            }
+        }
+
+        final int rssi = scanResult.getRssi();
+        entry.smoothedRssi = entry.sightings == 0 ? rssi : entry.smoothedRssi + RSSI_ALPHA * (rssi - entry.smoothedRssi);
+        entry.lastRssi = rssi;
+        entry.lastSeenMillis = nowMillis;
+        entry.sightings++;
+        return entry;
+    }
+
+    /**
+     * Drops the entries that were not seen for the maximum age
+     */
+    public void evictStale(long nowMillis) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (nowMillis - iterator.next().lastSeenMillis > maxAgeMillis) iterator.remove();
+        }
+    }
+
+    /**
+     * Returns the fresh entry with the strongest smoothed RSSI
+     *
+     * @param serviceUuid only entries advertising this service, null for all entries
+     * @param exclude     addresses that are not candidates, e.g. connected ones
+     */
+    @Nullable
+    public Entry getBestCandidate(@Nullable UUID serviceUuid, @NotNull Collection<String> exclude, long nowMillis) {
+        evictStale(nowMillis);
+        Entry best = null;
+        for (Entry entry : entries.values()) {
+            if (exclude.contains(entry.address)) continue;
+            if (serviceUuid != null && !entry.serviceUuids.contains(serviceUuid)) continue;
+            if (best == null || STRONGEST_FIRST.compare(entry, best) < 0) best = entry;
+        }
+        return best;
+    }
+
+    /**
+     * Returns all fresh entries, the strongest first
+     */
+    @NotNull
+    public List<Entry> getEntries(long nowMillis) {
+        evictStale(nowMillis);
+        List<Entry> result = new ArrayList<>(entries.values());
+        Collections.sort(result, STRONGEST_FIRST);
+        return result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+}
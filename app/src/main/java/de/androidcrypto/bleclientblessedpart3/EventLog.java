@@ -0,0 +1,277 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.util.Log;
+
+import com.welie.blessed.GattStatus;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Binary log for the notification and GATT hot paths, replaces Timber calls there.
+ * A record is a fixed number of longs in a preallocated ring: wall clock time, event, peripheral address,
+ * characteristic UUID and up to {@link #ARGS} primitive arguments. Nothing is formatted or allocated when an
+ * event is logged, the text is only produced by {@link #dump()}. When the ring is full the oldest records are
+ * overwritten. Guard expensive arguments with {@link #isLoggable(Event)}. Thread safe.
+ */
+public final class EventLog {
+
+    /**
+     * Argument types of a pattern: d long, f double, b boolean, t epoch millis, g GattStatus value,
+     * x up to 8 bytes packed by {@link #pack(byte[])}, their count is taken from the preceding argument
+     */
+    public enum Event {
+        NOTIFICATION_STATE(Log.INFO, "notify set to %s", "b"),
+        NOTIFICATION_STATE_FAILED(Log.ERROR, "changing notification state failed (%s)", "g"),
+        WRITE(Log.INFO, "wrote %d bytes <%s>", "dx"),
+        WRITE_FAILED(Log.WARN, "failed writing %d bytes <%s> (%s)", "dxg"),
+        BLOOD_PRESSURE(Log.DEBUG, "blood pressure %.0f/%.0f, MAP %.0f, pulse %.0f", "ffff"),
+        TEMPERATURE(Log.DEBUG, "temperature %.1f, fahrenheit %s", "fb"),
+        HEART_RATE(Log.DEBUG, "heart rate %d bpm, %d RR intervals", "dd"),
+        PULSE_OXIMETER_CONTINUOUS(Log.DEBUG, "SpO2 %d %%, pulse %d bpm", "dd"),
+        PULSE_OXIMETER_SPOT(Log.DEBUG, "spot SpO2 %d %%, pulse %d bpm", "dd"),
+        WEIGHT(Log.DEBUG, "weight %.2f, pounds %s", "fb"),
+        GLUCOSE(Log.DEBUG, "glucose #%d %.1f at %s", "dft"),
+        GLUCOSE_CONTEXT(Log.DEBUG, "glucose context #%d", "d"),
+        RECORD_ACCESS_CONTROL_POINT(Log.INFO, "record access control point response %d bytes <%s>", "dx"),
+        CURRENT_TIME(Log.INFO, "device time %s", "t"),
+        BATTERY_LEVEL(Log.INFO, "battery level %d %%", "d"),
+        MALFORMED(Log.WARN, "dropped malformed value, %d bytes <%s>", "dx");
+
+        public final int level;
+        final String pattern;
+        final String types;
+
+        Event(int level, String pattern, String types) {
+            this.level = level;
+            this.pattern = pattern;
+            this.types = types;
+        }
+    }
+
+    public static final int ARGS = 4;
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final int TIME = 0, EVENT = 1, ADDRESS = 2, UUID_MSB = 3, UUID_LSB = 4, FIRST_ARG = 5;
+    private static final int RECORD_SIZE = FIRST_ARG + ARGS;
+    private static final Event[] EVENTS = Event.values();
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final long[] ring;
+    private final int capacity;
+    private long written = 0;
+    private volatile int minLevel;
+
+    public EventLog(int capacity, int minLevel) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.ring = new long[capacity * RECORD_SIZE];
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * @param minLevel one of the android.util.Log levels, events below it are dropped
+     */
+    public void setMinLevel(int minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    public int getMinLevel() {
+        return minLevel;
+    }
+
+    public boolean isLoggable(@NotNull Event event) {
+        return event.level >= minLevel;
+    }
+
+    public void log(@NotNull Event event, @Nullable String address, @Nullable UUID uuid) {
+        log(event, address, uuid, 0, 0, 0, 0);
+    }
+
+    public void log(@NotNull Event event, @Nullable String address, @Nullable UUID uuid, long arg0) {
+        log(event, address, uuid, arg0, 0, 0, 0);
+    }
+
+    public void log(@NotNull Event event, @Nullable String address, @Nullable UUID uuid, long arg0, long arg1) {
+        log(event, address, uuid, arg0, arg1, 0, 0);
+    }
+
+    public void log(@NotNull Event event, @Nullable String address, @Nullable UUID uuid, long arg0, long arg1, long arg2) {
+        log(event, address, uuid, arg0, arg1, arg2, 0);
+    }
+
+    public void log(@NotNull Event event, @Nullable String address, @Nullable UUID uuid, long arg0, long arg1, long arg2, long arg3) {
+        if (event.level < minLevel) return;
+        final long time = System.currentTimeMillis();
+        final long packedAddress = address == null ? -1 : packAddress(address);
+        synchronized (this) {
+            final int base = (int) (written % capacity) * RECORD_SIZE;
+            ring[base + TIME] = time;
+            ring[base + EVENT] = event.ordinal();
+            ring[base + ADDRESS] = packedAddress;
+            ring[base + UUID_MSB] = uuid == null ? 0 : uuid.getMostSignificantBits();
+            ring[base + UUID_LSB] = uuid == null ? 0 : uuid.getLeastSignificantBits();
+            ring[base + FIRST_ARG] = arg0;
+            ring[base + FIRST_ARG + 1] = arg1;
+            ring[base + FIRST_ARG + 2] = arg2;
+            ring[base + FIRST_ARG + 3] = arg3;
+            written++;
+        }
+    }
+
+    public static long bits(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    public static long bits(boolean value) {
+        return value ? 1 : 0;
+    }
+
+    /**
+     * Packs the first 8 bytes of the value into a long for an x argument
+     */
+    public static long pack(@NotNull byte[] value) {
+        long packed = 0;
+        final int count = Math.min(value.length, 8);
+        for (int i = 0; i < count; i++) packed |= (value[i] & 0xFFL) << (8 * i);
+        return packed;
+    }
+
+    // "AA:BB:CC:DD:EE:FF" to 0xAABBCCDDEEFF, -1 if it is no MAC address
+    static long packAddress(@NotNull String address) {
+        if (address.length() != 17) return -1;
+        long packed = 0;
+        for (int i = 0; i < 17; i++) {
+            final char c = address.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') return -1;
+                continue;
+            }
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) return -1;
+            packed = (packed << 4) | digit;
+        }
+        return packed;
+    }
+
+    /**
+     * Number of records logged since the start, including overwritten ones
+     */
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    public synchronized void clear() {
+        written = 0;
+    }
+
+    /**
+     * Formats the records in the ring, the oldest first
+     */
+    @NotNull
+    public String dump() {
+        final long[] copy;
+        final long first, end;
+        synchronized (this) {
+            copy = ring.clone();
+            end = written;
+            first = Math.max(0, written - capacity);
+        }
+        StringBuilder out = new StringBuilder((int) (end - first) * 80);
+        Object[] args = new Object[ARGS];
+        for (long index = first; index < end; index++) {
+            final int base = (int) (index % capacity) * RECORD_SIZE;
+            final Event event = EVENTS[(int) copy[base + EVENT]];
+            final long time = copy[base + TIME];
+            GattDateTime.appendDateTime(out, time);
+            out.append('.');
+            final int millis = (int) (time % 1000);
+            if (millis < 100) out.append('0');
+            if (millis < 10) out.append('0');
+            out.append(millis);
+            out.append(' ').append(levelLetter(event.level)).append(' ');
+            appendAddress(out, copy[base + ADDRESS]);
+            out.append(' ');
+            appendUuid(out, copy[base + UUID_MSB], copy[base + UUID_LSB]);
+            out.append(' ');
+            for (int i = 0; i < event.types.length(); i++) {
+                final long arg = copy[base + FIRST_ARG + i];
+                switch (event.types.charAt(i)) {
+                    case 'f':
+                        args[i] = Double.longBitsToDouble(arg);
+                        break;
+                    case 'b':
+                        args[i] = arg != 0;
+                        break;
+                    case 't':
+                        args[i] = GattDateTime.format(arg);
+                        break;
+                    case 'g':
+                        args[i] = GattStatus.fromValue((int) arg);
+                        break;
+                    case 'x':
+                        args[i] = toHex(arg, i > 0 ? (int) copy[base + FIRST_ARG + i - 1] : 8);
+                        break;
+                    default:
+                        args[i] = arg;
+                }
+            }
+            out.append(String.format(Locale.ENGLISH, event.pattern, args)).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static char levelLetter(int level) {
+        switch (level) {
+            case Log.VERBOSE:
+                return 'V';
+            case Log.DEBUG:
+                return 'D';
+            case Log.INFO:
+                return 'I';
+            case Log.WARN:
+                return 'W';
+            default:
+                return 'E';
+        }
+    }
+
+    private static void appendAddress(StringBuilder out, long address) {
+        if (address == -1) {
+            out.append('-');
+            return;
+        }
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            final int b = (int) (address >> shift) & 0xFF;
+            out.append(HEX[b >> 4]).append(HEX[b & 0x0F]);
+            if (shift > 0) out.append(':');
+        }
+    }
+
+    // 16 bit UUIDs of the Bluetooth base UUID are shortened to 0x2A37
+    private static void appendUuid(StringBuilder out, long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            out.append('-');
+        } else if ((msb & 0xFFFF0000FFFFFFFFL) == 0x1000L && lsb == 0x800000805F9B34FBL) {
+            out.append(String.format(Locale.ENGLISH, "0x%04X", (msb >>> 32) & 0xFFFF));
+        } else {
+            out.append(new UUID(msb, lsb));
+        }
+    }
+
+    private static String toHex(long packed, int count) {
+        final int shown = Math.max(0, Math.min(count, 8));
+        StringBuilder hex = new StringBuilder(shown * 3 + 4);
+        for (int i = 0; i < shown; i++) {
+            final int b = (int) (packed >> (8 * i)) & 0xFF;
+            if (i > 0) hex.append(' ');
+            hex.append(HEX[b >> 4]).append(HEX[b & 0x0F]);
+        }
+        if (count > shown) hex.append(" ...");
+        return hex.toString();
+    }
+}
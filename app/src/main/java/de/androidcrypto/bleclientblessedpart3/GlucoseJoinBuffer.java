@@ -0,0 +1,171 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseContextRecord;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Joins the glucose measurements of one meter with their contexts (0x2A34) by sequence number.
+ * A measurement without context is emitted right away, one that announces a context waits for it until the
+ * timeout expires or the buffer is full, then it is emitted without context. Contexts without a measurement
+ * are dropped the same way, so a large RACP download never holds more than the capacity.
+ * Must be called on the BluetoothCentralManager handler.
+ */
+class GlucoseJoinBuffer {
+
+    interface Listener {
+        void onReading(@NotNull String peripheralAddress, @NotNull GlucoseReading reading);
+    }
+
+    static final int DEFAULT_CAPACITY = 32;
+    static final long DEFAULT_TIMEOUT_MS = 5000;
+
+    private static final class Pending {
+        GlucoseMeasurement measurement;
+        GlucoseContextRecord context;
+        final long arrivalMillis;
+
+        Pending(long arrivalMillis) {
+            this.arrivalMillis = arrivalMillis;
+        }
+    }
+
+    private final String peripheralAddress;
+    private final Listener listener;
+    private final int capacity;
+    private final long timeoutMillis;
+    // insertion ordered, the eldest entry is the first to time out
+    private final LinkedHashMap<Integer, Pending> pending = new LinkedHashMap<>();
+    private long joined = 0;
+    private long withoutContext = 0;
+    private long droppedContexts = 0;
+
+    GlucoseJoinBuffer(@NotNull String peripheralAddress, @NotNull Listener listener) {
+        this(peripheralAddress, listener, DEFAULT_CAPACITY, DEFAULT_TIMEOUT_MS);
+    }
+
+    GlucoseJoinBuffer(@NotNull String peripheralAddress, @NotNull Listener listener, int capacity, long timeoutMillis) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.peripheralAddress = peripheralAddress;
+        this.listener = listener;
+        this.capacity = capacity;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param nowMillis a monotonic clock, e.g. SystemClock.elapsedRealtime()
+     */
+    void offerMeasurement(@NotNull GlucoseMeasurement measurement, long nowMillis) {
+        expire(nowMillis);
+        final Pending entry = pending.get(measurement.sequenceNumber);
+        if (entry != null && entry.context != null) {
+            pending.remove(measurement.sequenceNumber);
+            emit(measurement, entry.context);
+        } else if (!measurement.contextWillFollow) {
+            // a measurement waiting under the same sequence number is replaced and must not be evicted later
+            if (entry != null) pending.remove(measurement.sequenceNumber);
+            emit(measurement, null);
+        } else if (entry != null) {
+            // the meter sent the same sequence number again, the older measurement is replaced
+            entry.measurement = measurement;
+        } else {
+            add(measurement.sequenceNumber, nowMillis).measurement = measurement;
+        }
+    }
+
+    /**
+     * The record is copied, the caller may reuse it
+     */
+    void offerContext(@NotNull GlucoseContextRecord record, long nowMillis) {
+        expire(nowMillis);
+        final Pending entry = pending.get(record.sequenceNumber);
+        if (entry != null && entry.measurement != null) {
+            pending.remove(record.sequenceNumber);
+            emit(entry.measurement, copy(record));
+        } else if (entry != null) {
+            entry.context.copyFrom(record);
+        } else {
+            // the context arrived first, it waits for its measurement
+            add(record.sequenceNumber, nowMillis).context = copy(record);
+        }
+    }
+
+    /**
+     * Evicts all entries older than the timeout
+     */
+    void expire(long nowMillis) {
+        final Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending entry = iterator.next();
+            if (nowMillis - entry.arrivalMillis < timeoutMillis) return;
+            iterator.remove();
+            evict(entry);
+        }
+    }
+
+    /**
+     * Evicts all entries, e.g. when the meter disconnects
+     */
+    void flush() {
+        final Iterator<Pending> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending entry = iterator.next();
+            iterator.remove();
+            evict(entry);
+        }
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    long getJoinedCount() {
+        return joined;
+    }
+
+    long getWithoutContextCount() {
+        return withoutContext;
+    }
+
+    long getDroppedContextCount() {
+        return droppedContexts;
+    }
+
+    private Pending add(int sequenceNumber, long nowMillis) {
+        if (pending.size() >= capacity) {
+            final Iterator<Pending> iterator = pending.values().iterator();
+            Pending eldest = iterator.next();
+            iterator.remove();
+            evict(eldest);
+        }
+        Pending entry = new Pending(nowMillis);
+        pending.put(sequenceNumber, entry);
+        return entry;
+    }
+
+    private void evict(Pending entry) {
+        if (entry.measurement != null) {
+            emit(entry.measurement, null);
+        } else {
+            droppedContexts++;
+        }
+    }
+
+    private void emit(GlucoseMeasurement measurement, GlucoseContextRecord context) {
+        if (context != null) {
+            joined++;
+        } else {
+            withoutContext++;
+        }
+        listener.onReading(peripheralAddress, new GlucoseReading(measurement, context));
+    }
+
+    private static GlucoseContextRecord copy(GlucoseContextRecord record) {
+        GlucoseContextRecord copy = new GlucoseContextRecord();
+        copy.copyFrom(record);
+        return copy;
+    }
+}
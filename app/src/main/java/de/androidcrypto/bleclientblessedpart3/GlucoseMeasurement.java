@@ -1,19 +1,15 @@
 package de.androidcrypto.bleclientblessedpart3;
 
-import com.welie.blessed.BluetoothBytesParser;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseRecord;
 
-import java.io.Serializable;
 import java.util.Date;
 import java.util.Locale;
 
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_SFLOAT;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_SINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
 import static de.androidcrypto.bleclientblessedpart3.GlucoseMeasurementUnit.MiligramPerDeciliter;
 import static de.androidcrypto.bleclientblessedpart3.GlucoseMeasurementUnit.MmolPerLiter;
 
-public class GlucoseMeasurement implements Serializable {
+public class GlucoseMeasurement extends CodecParcelable {
 
     public final GlucoseMeasurementUnit unit;
     public Date timestamp;
@@ -21,36 +17,27 @@ public class GlucoseMeasurement implements Serializable {
     public boolean contextWillFollow;
     public float value;
 
-    public GlucoseMeasurement(byte[] byteArray) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(byteArray);
-
-        // Parse flags
-        final int flags = parser.getIntValue(FORMAT_UINT8);
-        final boolean timeOffsetPresent = (flags & 0x01) > 0;
-        final boolean typeAndLocationPresent = (flags & 0x02) > 0;
-        unit = (flags & 0x04) > 0 ? MmolPerLiter : MiligramPerDeciliter;
-        contextWillFollow = (flags & 0x10) > 0;
-
-        // Sequence number is used to match the reading with an optional glucose context
-        sequenceNumber = parser.getIntValue(FORMAT_UINT16);
-
-        // Read timestamp
-        timestamp = parser.getDateTime();
-
-        if (timeOffsetPresent) {
-            int timeOffset = parser.getIntValue(FORMAT_SINT16);
-            timestamp = new Date(timestamp.getTime() + (timeOffset * 60000));
-        }
+    // used by MeasurementCodec
+    GlucoseMeasurement(GlucoseMeasurementUnit unit) {
+        this.unit = unit;
+    }
 
-        if (typeAndLocationPresent) {
-            final float glucoseConcentration = parser.getFloatValue(FORMAT_SFLOAT);
-            final int multiplier = unit == MiligramPerDeciliter ? 100000 : 1000;
-            value = glucoseConcentration * multiplier;
+    public GlucoseMeasurement(byte[] byteArray) {
+        GlucoseRecord record = new GlucoseRecord();
+        if (!GlucoseDecoder.decode(byteArray, record)) {
+            throw new IllegalArgumentException("malformed glucose measurement");
         }
+        unit = record.mmolPerLiter ? MmolPerLiter : MiligramPerDeciliter;
+        contextWillFollow = record.contextWillFollow;
+        sequenceNumber = record.sequenceNumber;
+        timestamp = new Date(record.timestamp);
+        value = record.value;
     }
 
     @Override
     public String toString() {
         return String.format(Locale.ENGLISH,"%.1f %s, at (%s)", value, unit == MmolPerLiter ? "mmol/L" : "mg/dL", timestamp);
     }
-}
\ No newline at end of file
+
+    public static final Creator<GlucoseMeasurement> CREATOR = creator(GlucoseMeasurement.class);
+}
@@ -0,0 +1,32 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseContextRecord;
+
+/**
+ * A glucose measurement joined with its context by sequence number, see {@link GlucoseJoinBuffer}.
+ * The context is null if the measurement has none or it did not arrive in time.
+ */
+public class GlucoseReading {
+
+    public final GlucoseMeasurement measurement;
+    @Nullable
+    public final GlucoseContextRecord context;
+
+    GlucoseReading(@NotNull GlucoseMeasurement measurement, @Nullable GlucoseContextRecord context) {
+        this.measurement = measurement;
+        this.context = context;
+    }
+
+    public boolean hasContext() {
+        return context != null;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return context == null ? measurement.toString() : measurement + " " + context;
+    }
+}
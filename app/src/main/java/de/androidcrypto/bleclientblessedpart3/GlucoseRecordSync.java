@@ -0,0 +1,281 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.content.SharedPreferences;
+
+import com.welie.blessed.WriteType;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import timber.log.Timber;
+
+import static de.androidcrypto.bleclientblessedpart3.BluetoothHandler.GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID;
+import static de.androidcrypto.bleclientblessedpart3.BluetoothHandler.GLUCOSE_SERVICE_UUID;
+
+/**
+ * Downloads only the glucose records a meter stored since the last sync.
+ * The highest sequence number received from each meter is persisted, a sync first asks the Record Access
+ * Control Point for the number of newer records and then for the records themselves. As the highest sequence
+ * number is updated with every record an interrupted transfer continues after the last received record.
+ * Must be called on the BluetoothCentralManager handler.
+ */
+class GlucoseRecordSync {
+
+    // Record Access Control Point op codes
+    static final byte OP_CODE_REPORT_STORED_RECORDS = 0x01;
+    static final byte OP_CODE_REPORT_NUMBER_OF_RECORDS = 0x04;
+    static final byte OP_CODE_NUMBER_OF_RECORDS_RESPONSE = 0x05;
+    static final byte OP_CODE_RESPONSE_CODE = 0x06;
+    // operators and filter types
+    static final byte OPERATOR_ALL_RECORDS = 0x01;
+    static final byte OPERATOR_GREATER_OR_EQUAL = 0x03;
+    static final byte FILTER_TYPE_SEQUENCE_NUMBER = 0x01;
+    // response code values
+    static final int RESPONSE_SUCCESS = 0x01;
+    static final int RESPONSE_OP_CODE_NOT_SUPPORTED = 0x02;
+    static final int RESPONSE_INVALID_OPERATOR = 0x03;
+    static final int RESPONSE_OPERATOR_NOT_SUPPORTED = 0x04;
+    static final int RESPONSE_INVALID_OPERAND = 0x05;
+    static final int RESPONSE_NO_RECORDS_FOUND = 0x06;
+    static final int RESPONSE_OPERAND_NOT_SUPPORTED = 0x09;
+
+    static final int NO_SEQUENCE_NUMBER = -1;
+    private static final int MAX_SEQUENCE_NUMBER = 0xFFFF;
+    private static final String KEY_PREFIX = "glucose.highestSequence.";
+
+    /**
+     * Persists the highest received sequence number of each meter
+     */
+    interface SequenceStore {
+        /**
+         * @return the stored sequence number or {@link #NO_SEQUENCE_NUMBER}
+         */
+        int get(@NotNull String peripheralAddress);
+
+        void put(@NotNull String peripheralAddress, int sequenceNumber);
+
+        void remove(@NotNull String peripheralAddress);
+    }
+
+    /**
+     * Writes a command to the Record Access Control Point of the meter of a transfer
+     */
+    interface ControlPoint {
+        void write(@NotNull byte[] command);
+    }
+
+    enum State {
+        COUNTING,
+        TRANSFERRING,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * One sync run, kept in the PeripheralSession and dropped on disconnect
+     */
+    static final class Transfer {
+        private final String address;
+        private final ControlPoint controlPoint;
+        private State state;
+        private final int fromSequenceNumber;
+        // the meter did not accept the sequence number filter, all records are sent and the known ones are skipped
+        private boolean unfiltered;
+        private int expectedRecords = -1;
+        private int receivedRecords = 0;
+        private int skippedRecords = 0;
+
+        private Transfer(String address, ControlPoint controlPoint, int fromSequenceNumber) {
+            this.address = address;
+            this.controlPoint = controlPoint;
+            this.fromSequenceNumber = fromSequenceNumber;
+            this.unfiltered = fromSequenceNumber == NO_SEQUENCE_NUMBER;
+        }
+
+        State getState() {
+            return state;
+        }
+
+        int getExpectedRecords() {
+            return expectedRecords;
+        }
+
+        int getReceivedRecords() {
+            return receivedRecords;
+        }
+
+        int getSkippedRecords() {
+            return skippedRecords;
+        }
+
+        boolean isUnfiltered() {
+            return unfiltered;
+        }
+    }
+
+    /**
+     * Keeps the sequence numbers in SharedPreferences, apply() writes to disk asynchronously
+     */
+    static final class PreferencesSequenceStore implements SequenceStore {
+        private final SharedPreferences preferences;
+
+        PreferencesSequenceStore(@NotNull SharedPreferences preferences) {
+            this.preferences = preferences;
+        }
+
+        @Override
+        public int get(@NotNull String peripheralAddress) {
+            return preferences.getInt(KEY_PREFIX + peripheralAddress, NO_SEQUENCE_NUMBER);
+        }
+
+        @Override
+        public void put(@NotNull String peripheralAddress, int sequenceNumber) {
+            preferences.edit().putInt(KEY_PREFIX + peripheralAddress, sequenceNumber).apply();
+        }
+
+        @Override
+        public void remove(@NotNull String peripheralAddress) {
+            preferences.edit().remove(KEY_PREFIX + peripheralAddress).apply();
+        }
+    }
+
+    private final SequenceStore store;
+
+    GlucoseRecordSync(@NotNull SharedPreferences preferences) {
+        this(new PreferencesSequenceStore(preferences));
+    }
+
+    GlucoseRecordSync(@NotNull SequenceStore store) {
+        this.store = store;
+    }
+
+    int getHighestSequenceNumber(@NotNull String peripheralAddress) {
+        return store.get(peripheralAddress);
+    }
+
+    /**
+     * Starts a sync, call it when the Record Access Control Point indications are enabled
+     */
+    void start(@NotNull final PeripheralSession session) {
+        session.glucoseTransfer = start(session.getAddress(), new ControlPoint() {
+            @Override
+            public void write(@NotNull byte[] command) {
+                session.getPeripheral().writeCharacteristic(GLUCOSE_SERVICE_UUID, GLUCOSE_RECORD_ACCESS_POINT_CHARACTERISTIC_UUID, command, WriteType.WITH_RESPONSE);
+            }
+        });
+    }
+
+    @NotNull
+    Transfer start(@NotNull String peripheralAddress, @NotNull ControlPoint controlPoint) {
+        int highest = getHighestSequenceNumber(peripheralAddress);
+        if (highest >= MAX_SEQUENCE_NUMBER) {
+            // there is no larger uint16 to filter for, the meter wraps around and everything is downloaded again
+            store.remove(peripheralAddress);
+            highest = NO_SEQUENCE_NUMBER;
+        }
+        Transfer transfer = new Transfer(peripheralAddress, controlPoint, highest == NO_SEQUENCE_NUMBER ? NO_SEQUENCE_NUMBER : highest + 1);
+        Timber.i("glucose sync for %s from sequence number %d", peripheralAddress, transfer.fromSequenceNumber);
+        transfer.state = State.COUNTING;
+        controlPoint.write(command(OP_CODE_REPORT_NUMBER_OF_RECORDS, transfer));
+        return transfer;
+    }
+
+    /**
+     * Records the sequence number of a received glucose measurement
+     *
+     * @return false if the record is already known and should be dropped
+     */
+    boolean onRecord(@NotNull PeripheralSession session, int sequenceNumber) {
+        return onRecord(session.getAddress(), session.glucoseTransfer, sequenceNumber);
+    }
+
+    /**
+     * @param transfer the running sync of the meter, null for a record sent outside of a sync
+     */
+    boolean onRecord(@NotNull String address, @Nullable Transfer transfer, int sequenceNumber) {
+        final int highest = getHighestSequenceNumber(address);
+        if (transfer != null && transfer.unfiltered && sequenceNumber <= highest) {
+            transfer.skippedRecords++;
+            return false;
+        }
+        if (transfer != null) transfer.receivedRecords++;
+        if (sequenceNumber > highest) {
+            // persisting every record lets an interrupted transfer resume
+            store.put(address, sequenceNumber);
+        }
+        return true;
+    }
+
+    /**
+     * Handles an indication of the Record Access Control Point
+     */
+    void onControlPointIndication(@NotNull PeripheralSession session, @NotNull byte[] value) {
+        final Transfer transfer = session.glucoseTransfer;
+        if (transfer != null) onControlPointIndication(transfer, value);
+    }
+
+    void onControlPointIndication(@NotNull Transfer transfer, @NotNull byte[] value) {
+        if (value.length < 1) return;
+
+        switch (value[0]) {
+            case OP_CODE_NUMBER_OF_RECORDS_RESPONSE: {
+                if (value.length < 4 || transfer.state != State.COUNTING) return;
+                transfer.expectedRecords = (value[2] & 0xFF) | (value[3] & 0xFF) << 8;
+                Timber.i("glucose sync for %s: %d new records", transfer.address, transfer.expectedRecords);
+                if (transfer.expectedRecords == 0) {
+                    transfer.state = State.COMPLETED;
+                } else {
+                    transfer.state = State.TRANSFERRING;
+                    transfer.controlPoint.write(command(OP_CODE_REPORT_STORED_RECORDS, transfer));
+                }
+                break;
+            }
+            case OP_CODE_RESPONSE_CODE: {
+                if (value.length < 4) return;
+                final int requestOpCode = value[2];
+                final int responseCode = value[3] & 0xFF;
+                onResponseCode(transfer, requestOpCode, responseCode);
+                break;
+            }
+            default:
+                Timber.w("unexpected record access control point op code %d", value[0]);
+        }
+    }
+
+    private static void onResponseCode(Transfer transfer, int requestOpCode, int responseCode) {
+        if (responseCode == RESPONSE_SUCCESS || responseCode == RESPONSE_NO_RECORDS_FOUND) {
+            if (requestOpCode == OP_CODE_REPORT_STORED_RECORDS) {
+                transfer.state = State.COMPLETED;
+                Timber.i("glucose sync for %s completed, %d received, %d skipped", transfer.address, transfer.receivedRecords, transfer.skippedRecords);
+            } else if (requestOpCode == OP_CODE_REPORT_NUMBER_OF_RECORDS && responseCode == RESPONSE_NO_RECORDS_FOUND) {
+                transfer.state = State.COMPLETED;
+            }
+            return;
+        }
+
+        boolean filterRejected = responseCode == RESPONSE_OPERATOR_NOT_SUPPORTED || responseCode == RESPONSE_INVALID_OPERATOR
+                || responseCode == RESPONSE_INVALID_OPERAND || responseCode == RESPONSE_OPERAND_NOT_SUPPORTED;
+        if (filterRejected && !transfer.unfiltered) {
+            // the meter cannot filter by sequence number, fall back to all records and skip the known ones
+            Timber.w("glucose sync for %s: filter rejected (%d), requesting all records", transfer.address, responseCode);
+            transfer.unfiltered = true;
+            transfer.state = State.TRANSFERRING;
+            transfer.controlPoint.write(command(OP_CODE_REPORT_STORED_RECORDS, transfer));
+        } else if (requestOpCode == OP_CODE_REPORT_NUMBER_OF_RECORDS && responseCode == RESPONSE_OP_CODE_NOT_SUPPORTED) {
+            // counting is optional, ask for the records directly
+            transfer.state = State.TRANSFERRING;
+            transfer.controlPoint.write(command(OP_CODE_REPORT_STORED_RECORDS, transfer));
+        } else {
+            // the next sync starts again from the highest received sequence number
+            transfer.state = State.FAILED;
+            Timber.e("glucose sync for %s failed, op code %d response %d", transfer.address, requestOpCode, responseCode);
+        }
+    }
+
+    @NotNull
+    static byte[] command(byte opCode, @NotNull Transfer transfer) {
+        if (transfer.unfiltered) return new byte[]{opCode, OPERATOR_ALL_RECORDS};
+        final int from = transfer.fromSequenceNumber;
+        return new byte[]{opCode, OPERATOR_GREATER_OR_EQUAL, FILTER_TYPE_SEQUENCE_NUMBER, (byte) from, (byte) (from >> 8)};
+    }
+}
@@ -2,30 +2,37 @@ package de.androidcrypto.bleclientblessedpart3;
 
 import androidx.annotation.NonNull;
 
-import com.welie.blessed.BluetoothBytesParser;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
 
-import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Locale;
 
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
-
-public class HeartRateMeasurement implements Serializable {
+public class HeartRateMeasurement extends CodecParcelable {
 
     public final Integer pulse;
+    public final int sensorContactStatus;
+    public final Integer energyExpended;
+    public final int[] rrIntervals;
 
     public HeartRateMeasurement(byte[] value) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(value);
+        this(decode(value));
+    }
 
-        // Parse the flags
-        int flags = parser.getIntValue(FORMAT_UINT8);
-        final int unit = flags & 0x01;
-        final int sensorContactStatus = (flags & 0x06) >> 1;
-        final boolean energyExpenditurePresent = (flags & 0x08) > 0;
-        final boolean rrIntervalPresent = (flags & 0x10) > 0;
+    // copies a record filled by HeartRateDecoder, the record can be reused afterwards
+    public HeartRateMeasurement(@NonNull HeartRateRecord record) {
+        this.pulse = record.pulse;
+        this.sensorContactStatus = record.sensorContactStatus;
+        this.energyExpended = record.energyExpendedPresent ? record.energyExpended : null;
+        this.rrIntervals = Arrays.copyOf(record.rrIntervals, record.rrCount);
+    }
 
-        // Parse heart rate
-        this.pulse = (unit == 0) ? parser.getIntValue(FORMAT_UINT8) : parser.getIntValue(FORMAT_UINT16);
+    private static HeartRateRecord decode(byte[] value) {
+        HeartRateRecord record = new HeartRateRecord();
+        if (!HeartRateDecoder.decode(value, record)) {
+            throw new IllegalArgumentException("malformed heart rate measurement");
+        }
+        return record;
     }
 
     @NonNull
@@ -33,4 +40,6 @@ public class HeartRateMeasurement implements Serializable {
     public String toString() {
         return String.format(Locale.ENGLISH, "%d", pulse);
     }
+
+    public static final Creator<HeartRateMeasurement> CREATOR = creator(HeartRateMeasurement.class);
 }
@@ -0,0 +1,191 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+/**
+ * Streaming heart rate variability over the RR intervals of the last {@code windowMillis} of beats.
+ * The window is measured on the beat timeline (sum of the RR intervals), not on the arrival time of the
+ * notifications, so batched RR values are placed correctly.
+ * RR intervals are kept in 1/1024 second as sent in 0x2A37. All sums are exact longs that are updated when a
+ * beat enters or leaves the window, nothing is rescanned and adding a beat does not allocate.
+ *
+ * Artifacts: intervals outside of 300 - 2000 ms and intervals that differ more than 20 % from the previous
+ * accepted one are rejected. A rejected beat still moves the window, and the successive difference over it is
+ * not used. After {@link #MAX_CONSECUTIVE_REJECTS} rejects in a row the next valid interval is accepted, so a
+ * real change of the heart rate is followed.
+ * Not thread safe, use it from one thread only.
+ */
+public class HrvEngine {
+
+    static final int MIN_RR = 307; // 300 ms
+    static final int MAX_RR = 2048; // 2000 ms
+    static final int MAX_DEVIATION_PERCENT = 20;
+    static final int MAX_CONSECUTIVE_REJECTS = 3;
+    // |difference| > 50 ms, compared as difference * 1000 > 50 * 1024
+    private static final long NN50_THRESHOLD = 50 * 1024;
+    private static final int NO_DIFFERENCE = Integer.MIN_VALUE;
+
+    private final long window; // 1/1024 second
+    private final int capacity;
+    private final int[] intervals;
+    private final int[] differences; // to the previous beat, NO_DIFFERENCE if that one was rejected
+    private final long[] beatTimes; // end of the beat on the beat timeline
+    private int head = 0;
+    private int count = 0;
+
+    private long beatTime = 0;
+    private int previousAccepted = 0; // 0 if the previous beat was rejected
+    private int reference = 0; // last accepted interval, for the artifact check
+    private int consecutiveRejects = 0;
+
+    private long sum = 0;
+    private long sumOfSquares = 0;
+    private int differenceCount = 0;
+    private long sumOfSquaredDifferences = 0;
+    private int nn50Count = 0;
+
+    private long acceptedCount = 0;
+    private long rejectedCount = 0;
+
+    public HrvEngine(long windowMillis) {
+        if (windowMillis < 1000) throw new IllegalArgumentException("window must be at least one second");
+        this.window = windowMillis * 1024 / 1000;
+        this.capacity = (int) (window / MIN_RR) + 1;
+        this.intervals = new int[capacity];
+        this.differences = new int[capacity];
+        this.beatTimes = new long[capacity];
+    }
+
+    /**
+     * @param rrInterval RR interval in 1/1024 second
+     * @return false if the interval was rejected as an artifact
+     */
+    public boolean addRrInterval(int rrInterval) {
+        beatTime += Math.max(rrInterval, 0);
+        expire();
+
+        if (!isValid(rrInterval)) {
+            rejectedCount++;
+            consecutiveRejects++;
+            previousAccepted = 0;
+            return false;
+        }
+
+        if (count == capacity) removeOldest();
+        final int slot = (head + count) % capacity;
+        intervals[slot] = rrInterval;
+        beatTimes[slot] = beatTime;
+        count++;
+        sum += rrInterval;
+        sumOfSquares += (long) rrInterval * rrInterval;
+
+        if (previousAccepted != 0) {
+            final int difference = rrInterval - previousAccepted;
+            differences[slot] = difference;
+            differenceCount++;
+            sumOfSquaredDifferences += (long) difference * difference;
+            if (isNn50(difference)) nn50Count++;
+        } else {
+            differences[slot] = NO_DIFFERENCE;
+        }
+
+        previousAccepted = rrInterval;
+        reference = rrInterval;
+        consecutiveRejects = 0;
+        acceptedCount++;
+        return true;
+    }
+
+    private boolean isValid(int rrInterval) {
+        if (rrInterval < MIN_RR || rrInterval > MAX_RR) return false;
+        if (reference == 0 || consecutiveRejects >= MAX_CONSECUTIVE_REJECTS) return true;
+        return Math.abs(rrInterval - reference) * 100 <= reference * MAX_DEVIATION_PERCENT;
+    }
+
+    private static boolean isNn50(int difference) {
+        return Math.abs((long) difference) * 1000 > NN50_THRESHOLD;
+    }
+
+    private void expire() {
+        while (count > 0 && beatTime - beatTimes[head] >= window) removeOldest();
+    }
+
+    private void removeOldest() {
+        final int interval = intervals[head];
+        sum -= interval;
+        sumOfSquares -= (long) interval * interval;
+        final int difference = differences[head];
+        if (difference != NO_DIFFERENCE) {
+            differenceCount--;
+            sumOfSquaredDifferences -= (long) difference * difference;
+            if (isNn50(difference)) nn50Count--;
+        }
+        head = (head + 1) % capacity;
+        count--;
+        // the difference of the new oldest beat refers to a beat outside of the window, it stays counted
+    }
+
+    /**
+     * Number of accepted beats in the window
+     */
+    public int getBeatCount() {
+        return count;
+    }
+
+    // accepted beats since the creation or the last clear, including those that left the window
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    // rejected intervals since the creation or the last clear
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    // mean RR interval in ms, NaN without beats
+    public double getMeanRrMillis() {
+        return count == 0 ? Double.NaN : toMillis((double) sum / count);
+    }
+
+    // mean heart rate in bpm, NaN without beats
+    public double getMeanHeartRate() {
+        return count == 0 ? Double.NaN : 60000.0 / getMeanRrMillis();
+    }
+
+    // standard deviation of the RR intervals in ms, NaN with less than two beats
+    public double getSdnnMillis() {
+        if (count < 2) return Double.NaN;
+        final long numerator = count * sumOfSquares - sum * sum;
+        return toMillis(Math.sqrt((double) numerator / ((long) count * (count - 1))));
+    }
+
+    // root mean square of the successive differences in ms, NaN without differences
+    public double getRmssdMillis() {
+        if (differenceCount == 0) return Double.NaN;
+        return toMillis(Math.sqrt((double) sumOfSquaredDifferences / differenceCount));
+    }
+
+    // percentage of successive differences larger than 50 ms, NaN without differences
+    public double getPnn50() {
+        if (differenceCount == 0) return Double.NaN;
+        return 100.0 * nn50Count / differenceCount;
+    }
+
+    public void clear() {
+        head = 0;
+        count = 0;
+        beatTime = 0;
+        previousAccepted = 0;
+        reference = 0;
+        consecutiveRejects = 0;
+        sum = 0;
+        sumOfSquares = 0;
+        differenceCount = 0;
+        sumOfSquaredDifferences = 0;
+        nn50Count = 0;
+        acceptedCount = 0;
+        rejectedCount = 0;
+    }
+
+    private static double toMillis(double rr) {
+        return rr * 1000.0 / 1024.0;
+    }
+}
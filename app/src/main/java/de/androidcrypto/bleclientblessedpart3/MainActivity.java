@@ -14,15 +14,20 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
+import android.net.Uri;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.FileProvider;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.welie.blessed.BluetoothBytesParser;
 import com.welie.blessed.BluetoothCentralManager;
@@ -30,11 +35,15 @@ import com.welie.blessed.BluetoothPeripheral;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 
 import timber.log.Timber;
@@ -45,18 +54,25 @@ public class MainActivity extends AppCompatActivity {
     Button connectToHrsDevices, disconnectFromHrsDevice;
     com.google.android.material.textfield.TextInputEditText connectedDevice, heartRate, currentTime;
     Button enableSubscriptions, disableSubscriptions;
+    Button shareMeasurements;
 
     // new in part 3
     com.google.android.material.textfield.TextInputEditText batteryLevel;
+    private final List<MeasurementBus.Subscription<?>> measurementSubscriptions = new ArrayList<>();
 
     // new in part 2
     BluetoothHandler bluetoothHandler;
-    String peripheralMacAddress; // filled by BroadcastReceiver getPeripheralMacAddressStateReceiver
+    // address -> "address (name)" of all connected peripherals, filled by BroadcastReceiver getPeripheralMacAddressStateReceiver
+    private final Map<String, String> connectedPeripherals = new LinkedHashMap<>();
 
     private TextView measurementValue;
+    // measurement texts are applied at most once per display frame, only the latest value is shown
+    private final UiUpdateScheduler uiUpdateScheduler = new UiUpdateScheduler();
+    private UiUpdateScheduler.Field measurementValueField;
+    private UiUpdateScheduler.Field heartRateField;
     private static final int REQUEST_ENABLE_BT = 1;
     private static final int ACCESS_LOCATION_REQUEST = 2;
-    private final DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.ENGLISH);
+    private static final long SHARE_PERIOD_MILLIS = 30L * 24 * 60 * 60 * 1000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,6 +85,7 @@ public class MainActivity extends AppCompatActivity {
         connectedDevice = findViewById(R.id.etMainConnectedDevice);
         enableSubscriptions = findViewById(R.id.btnMainEnableAllSubscriptions);
         disableSubscriptions = findViewById(R.id.btnMainDisableAllSubscriptions);
+        shareMeasurements = findViewById(R.id.btnMainShareMeasurements);
         heartRate = findViewById(R.id.etMainHeartRate);
         currentTime = findViewById(R.id.etMainCurrentTime);
 
@@ -76,6 +93,8 @@ public class MainActivity extends AppCompatActivity {
         batteryLevel = findViewById(R.id.etMainBatteryLevel);
 
         measurementValue = findViewById(R.id.bloodPressureValue);
+        measurementValueField = uiUpdateScheduler.field(measurementValue);
+        heartRateField = uiUpdateScheduler.field(heartRate);
 
         // new in part 2
         registerReceiver(getPeripheralMacAddressStateReceiver, new IntentFilter(BluetoothHandler.BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS));
@@ -85,12 +104,17 @@ public class MainActivity extends AppCompatActivity {
         registerReceiver(batteryLevelDataReceiver, new IntentFilter(BluetoothHandler.BLUETOOTHHANDLER_BATTERY_LEVEL));
 
         registerReceiver(locationServiceStateReceiver, new IntentFilter((LocationManager.MODE_CHANGED_ACTION)));
-        registerReceiver(bloodPressureDataReceiver, new IntentFilter( BluetoothHandler.MEASUREMENT_BLOODPRESSURE ));
-        registerReceiver(temperatureDataReceiver, new IntentFilter( BluetoothHandler.MEASUREMENT_TEMPERATURE ));
-        registerReceiver(heartRateDataReceiver, new IntentFilter( BluetoothHandler.MEASUREMENT_HEARTRATE ));
-        registerReceiver(pulseOxDataReceiver, new IntentFilter( BluetoothHandler.MEASUREMENT_PULSE_OX ));
-        registerReceiver(weightDataReceiver, new IntentFilter(BluetoothHandler.MEASUREMENT_WEIGHT));
-        registerReceiver(glucoseDataReceiver, new IntentFilter(BluetoothHandler.MEASUREMENT_GLUCOSE));
+
+        // measurements arrive through the in-process MeasurementBus, delivered on the main thread
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        MeasurementBus measurementBus = MeasurementBus.getInstance();
+        measurementSubscriptions.add(measurementBus.subscribe(BloodPressureMeasurement.class, null, mainHandler, bloodPressureListener));
+        measurementSubscriptions.add(measurementBus.subscribe(TemperatureMeasurement.class, null, mainHandler, temperatureListener));
+        measurementSubscriptions.add(measurementBus.subscribe(HeartRateView.class, null, mainHandler, heartRateListener));
+        measurementSubscriptions.add(measurementBus.subscribe(PulseOximeterContinuousView.class, null, mainHandler, pulseOxContinuousListener));
+        measurementSubscriptions.add(measurementBus.subscribe(PulseOximeterSpotMeasurement.class, null, mainHandler, pulseOxSpotListener));
+        measurementSubscriptions.add(measurementBus.subscribe(WeightMeasurement.class, null, mainHandler, weightListener));
+        measurementSubscriptions.add(measurementBus.subscribe(GlucoseMeasurement.class, null, mainHandler, glucoseListener));
 
         // this is for debug purposes - it leaves the screen on
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -111,11 +135,11 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onClick(View view) {
                 if (bluetoothHandler != null) {
-                    if (peripheralMacAddress.length() > 16) {
+                    if (!connectedPeripherals.isEmpty()) {
                         Log.i("Main", "disconnectFromHrsDevice");
-                        System.out.println("periphalMac: " + peripheralMacAddress);
-                        bluetoothHandler.enableAllSubscriptions(peripheralMacAddress, false);
-                        bluetoothHandler.disconnectFromHeartRateServiceDevice(peripheralMacAddress);
+                        Timber.d("disconnecting %s", connectedPeripherals.keySet());
+                        bluetoothHandler.enableAllSubscriptions(false);
+                        bluetoothHandler.disconnectFromAllDevices();
                     }
                 }
             }
@@ -126,9 +150,9 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onClick(View view) {
                 if (bluetoothHandler != null) {
-                    if (peripheralMacAddress.length() > 16) {
+                    if (!connectedPeripherals.isEmpty()) {
                         Log.i("Main", "enable all subscriptions");
-                        bluetoothHandler.enableAllSubscriptions(peripheralMacAddress, true);
+                        bluetoothHandler.enableAllSubscriptions(true);
                         disconnectFromHrsDevice.setEnabled(false);
                         disableSubscriptions.setEnabled(true);
                         enableSubscriptions.setEnabled(false);
@@ -142,9 +166,9 @@ public class MainActivity extends AppCompatActivity {
             @Override
             public void onClick(View view) {
                 if (bluetoothHandler != null) {
-                    if (peripheralMacAddress.length() > 16) {
+                    if (!connectedPeripherals.isEmpty()) {
                         Log.i("Main", "disable all subscriptions");
-                        bluetoothHandler.enableAllSubscriptions(peripheralMacAddress, false);
+                        bluetoothHandler.enableAllSubscriptions(false);
                         disconnectFromHrsDevice.setEnabled(true);
                         enableSubscriptions.setEnabled(true);
                         disableSubscriptions.setEnabled(false);
@@ -152,12 +176,59 @@ public class MainActivity extends AppCompatActivity {
                 }
             }
         });
+
+        // the measurement log is exported as CSV on a background thread and handed to a share intent
+        shareMeasurements.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                if (bluetoothHandler != null) {
+                    Log.i("Main", "share measurements");
+                    shareMeasurements.setEnabled(false);
+                    exportAndShareMeasurements(bluetoothHandler);
+                }
+            }
+        });
+    }
+
+    private void exportAndShareMeasurements(final BluetoothHandler handler) {
+        final long now = System.currentTimeMillis();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                File file = null;
+                try {
+                    file = handler.exportMeasurements(MeasurementExporter.Format.CSV, false, now - SHARE_PERIOD_MILLIS, now, MeasurementExporter.ALL_TYPES);
+                } catch (IOException e) {
+                    Timber.e(e, "cannot export the measurements");
+                }
+                final File export = file;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        shareMeasurements.setEnabled(true);
+                        if (export == null) {
+                            Toast.makeText(MainActivity.this, "the measurements could not be exported", Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        Uri uri = FileProvider.getUriForFile(MainActivity.this, getPackageName() + ".fileprovider", export);
+                        Intent intent = new Intent(Intent.ACTION_SEND);
+                        intent.setType("text/csv");
+                        intent.putExtra(Intent.EXTRA_STREAM, uri);
+                        intent.putExtra(Intent.EXTRA_SUBJECT, "measurements");
+                        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                        startActivity(Intent.createChooser(intent, "share measurements"));
+                    }
+                });
+            }
+        }, "MeasurementExport");
+        thread.start();
     }
 
     @SuppressLint("MissingPermission")
     @Override
     protected void onResume() {
         super.onResume();
+        uiUpdateScheduler.resume();
 
         if (getBluetoothManager().getAdapter() != null) {
             if (!isBluetoothEnabled()) {
@@ -190,6 +261,12 @@ public class MainActivity extends AppCompatActivity {
         return Objects.requireNonNull((BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE),"cannot get BluetoothManager");
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        uiUpdateScheduler.pause();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -201,12 +278,10 @@ public class MainActivity extends AppCompatActivity {
         unregisterReceiver(batteryLevelDataReceiver);
 
         unregisterReceiver(locationServiceStateReceiver);
-        unregisterReceiver(bloodPressureDataReceiver);
-        unregisterReceiver(temperatureDataReceiver);
-        unregisterReceiver(heartRateDataReceiver);
-        unregisterReceiver(pulseOxDataReceiver);
-        unregisterReceiver(weightDataReceiver);
-        unregisterReceiver(glucoseDataReceiver);
+        for (MeasurementBus.Subscription<?> subscription : measurementSubscriptions) {
+            subscription.unsubscribe();
+        }
+        measurementSubscriptions.clear();
     }
 
     /**
@@ -232,17 +307,28 @@ public class MainActivity extends AppCompatActivity {
             String dataString = intent.getStringExtra(BluetoothHandler.BLUETOOTHHANDLER_PERIPHERAL_MAC_ADDRESS_EXTRA);
             if (dataString == null) return;
 
-            // save the peripheralsMacAddress
+            // save the peripheralsMacAddress, an empty string is sent when the peripheral in the address extra is gone
             if (dataString.length() > 16) {
-                peripheralMacAddress = dataString.substring(0, 17);
-                connectToHrsDevices.setEnabled(false);
+                connectedPeripherals.put(dataString.substring(0, 17), dataString);
+            } else {
+                String address = intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL);
+                if (address != null) connectedPeripherals.remove(address);
+            }
+
+            if (!connectedPeripherals.isEmpty()) {
+                StringBuilder devices = new StringBuilder();
+                for (String device : connectedPeripherals.values()) {
+                    if (devices.length() > 0) devices.append('\n');
+                    devices.append(device);
+                }
+                connectedDevice.setText(devices);
+                // more peripherals can be added until the connection cap is reached
+                connectToHrsDevices.setEnabled(bluetoothHandler != null && connectedPeripherals.size() < bluetoothHandler.getMaxConnections());
                 disconnectFromHrsDevice.setEnabled(true);
-                connectedDevice.setText(dataString);
                 enableSubscriptions.setEnabled(true);
                 disableSubscriptions.setEnabled(false);
             } else {
-                peripheralMacAddress = "disconnected";
-                connectedDevice.setText(peripheralMacAddress);
+                connectedDevice.setText("disconnected");
                 connectToHrsDevices.setEnabled(true);
                 disconnectFromHrsDevice.setEnabled(false);
                 enableSubscriptions.setEnabled(false);
@@ -273,76 +359,142 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
-    private final BroadcastReceiver bloodPressureDataReceiver = new BroadcastReceiver() {
+    /**
+     * section for MeasurementListener
+     */
+
+    private final MeasurementListener<BloodPressureMeasurement> bloodPressureListener = new MeasurementListener<BloodPressureMeasurement>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            BluetoothPeripheral peripheral = getPeripheral(intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL));
-            BloodPressureMeasurement measurement = (BloodPressureMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_BLOODPRESSURE_EXTRA);
-            if (measurement == null) return;
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull BloodPressureMeasurement measurement) {
+            measurementValueField.post(peripheralAddress, measurement, bloodPressureRenderer);
+        }
+    };
 
-            measurementValue.setText(String.format(Locale.ENGLISH, "%.0f/%.0f %s, %.0f bpm\n%s\n\nfrom %s", measurement.systolic, measurement.diastolic, measurement.isMMHG ? "mmHg" : "kpa", measurement.pulseRate, dateFormat.format(measurement.timestamp), peripheral.getName()));
+    private final MeasurementListener<TemperatureMeasurement> temperatureListener = new MeasurementListener<TemperatureMeasurement>() {
+        @Override
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull TemperatureMeasurement measurement) {
+            measurementValueField.post(peripheralAddress, measurement, temperatureRenderer);
         }
     };
 
-    private final BroadcastReceiver temperatureDataReceiver = new BroadcastReceiver() {
+    // only the pulse is shown, so the lazy view is enough
+    private final MeasurementListener<HeartRateView> heartRateListener = new MeasurementListener<HeartRateView>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            BluetoothPeripheral peripheral = getPeripheral(intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL));
-            TemperatureMeasurement measurement = (TemperatureMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_TEMPERATURE_EXTRA);
-            if (measurement == null) return;
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull HeartRateView measurement) {
+            // changed in part 2
+            heartRateField.post(peripheralAddress, measurement, heartRateRenderer);
+        }
+    };
 
-            measurementValue.setText(String.format(Locale.ENGLISH, "%.1f %s (%s)\n%s\n\nfrom %s", measurement.temperatureValue, measurement.unit == TemperatureUnit.Celsius ? "celsius" : "fahrenheit", measurement.type, dateFormat.format(measurement.timestamp), peripheral.getName()));
+    private final MeasurementListener<PulseOximeterContinuousView> pulseOxContinuousListener = new MeasurementListener<PulseOximeterContinuousView>() {
+        @Override
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull PulseOximeterContinuousView measurement) {
+            measurementValueField.post(peripheralAddress, measurement, pulseOxContinuousRenderer);
         }
     };
 
-    private final BroadcastReceiver heartRateDataReceiver = new BroadcastReceiver() {
+    private final MeasurementListener<PulseOximeterSpotMeasurement> pulseOxSpotListener = new MeasurementListener<PulseOximeterSpotMeasurement>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            HeartRateMeasurement measurement = (HeartRateMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_HEARTRATE_EXTRA);
-            if (measurement == null) return;
-            // changed in part 2
-            heartRate.setText(String.format(Locale.ENGLISH, "%d bpm", measurement.pulse));
-            //measurementValue.setText(String.format(Locale.ENGLISH, "%d bpm", measurement.pulse));
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull PulseOximeterSpotMeasurement spotMeasurement) {
+            measurementValueField.post(peripheralAddress, spotMeasurement, pulseOxSpotRenderer);
         }
     };
 
-    private final BroadcastReceiver pulseOxDataReceiver = new BroadcastReceiver() {
+    private final MeasurementListener<WeightMeasurement> weightListener = new MeasurementListener<WeightMeasurement>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            BluetoothPeripheral peripheral = getPeripheral(intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL));
-            PulseOximeterContinuousMeasurement measurement = (PulseOximeterContinuousMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_PULSE_OX_EXTRA_CONTINUOUS);
-            if (measurement != null) {
-                measurementValue.setText(String.format(Locale.ENGLISH, "SpO2 %d%%,  Pulse %d bpm\n\nfrom %s", measurement.getSpO2(), measurement.getPulseRate(), peripheral.getName()));
-            }
-            PulseOximeterSpotMeasurement spotMeasurement = (PulseOximeterSpotMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_PULSE_OX_EXTRA_SPOT);
-            if (spotMeasurement != null) {
-                measurementValue.setText(String.format(Locale.ENGLISH, "SpO2 %d%%,  Pulse %d bpm\n%s\n\nfrom %s", spotMeasurement.getSpO2(), spotMeasurement.getPulseRate(), dateFormat.format(spotMeasurement.getTimestamp()), peripheral.getName()));
-            }
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull WeightMeasurement measurement) {
+            measurementValueField.post(peripheralAddress, measurement, weightRenderer);
         }
     };
 
-    private final BroadcastReceiver weightDataReceiver = new BroadcastReceiver() {
+    private final MeasurementListener<GlucoseMeasurement> glucoseListener = new MeasurementListener<GlucoseMeasurement>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            BluetoothPeripheral peripheral = getPeripheral(intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL));
-            WeightMeasurement measurement = (WeightMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_WEIGHT_EXTRA);
-            if (measurement != null) {
-                measurementValue.setText(String.format(Locale.ENGLISH, "%.1f %s\n%s\n\nfrom %s", measurement.weight, measurement.unit.toString(), dateFormat.format(measurement.timestamp), peripheral.getName()));
-            }
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull GlucoseMeasurement measurement) {
+            measurementValueField.post(peripheralAddress, measurement, glucoseRenderer);
         }
     };
 
-    private final BroadcastReceiver glucoseDataReceiver = new BroadcastReceiver() {
+    /**
+     * section for UI renderers, called by the UiUpdateScheduler once per frame
+     */
+
+    private final UiUpdateScheduler.Renderer<BloodPressureMeasurement> bloodPressureRenderer = new UiUpdateScheduler.Renderer<BloodPressureMeasurement>() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            BluetoothPeripheral peripheral = getPeripheral(intent.getStringExtra(BluetoothHandler.MEASUREMENT_EXTRA_PERIPHERAL));
-            GlucoseMeasurement measurement = (GlucoseMeasurement) intent.getSerializableExtra(BluetoothHandler.MEASUREMENT_GLUCOSE_EXTRA);
-            if (measurement != null) {
-                measurementValue.setText(String.format(Locale.ENGLISH, "%.1f %s\n%s\n\nfrom %s", measurement.value, measurement.unit == GlucoseMeasurementUnit.MmolPerLiter ? "mmol/L" : "mg/dL", dateFormat.format(measurement.timestamp), peripheral.getName()));
-            }
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull BloodPressureMeasurement measurement) {
+            // "%.0f/%.0f %s, %.0f bpm\n%s\n\nfrom %s"
+            UiUpdateScheduler.appendFixed(out, measurement.systolic, 0);
+            out.append('/');
+            UiUpdateScheduler.appendFixed(out, measurement.diastolic, 0);
+            out.append(measurement.isMMHG ? " mmHg, " : " kpa, ");
+            UiUpdateScheduler.appendFixed(out, measurement.pulseRate, 0);
+            out.append(" bpm\n");
+            uiUpdateScheduler.appendDateTime(out, measurement.timestamp.getTime());
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private final UiUpdateScheduler.Renderer<TemperatureMeasurement> temperatureRenderer = new UiUpdateScheduler.Renderer<TemperatureMeasurement>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull TemperatureMeasurement measurement) {
+            // "%.1f %s (%s)\n%s\n\nfrom %s"
+            UiUpdateScheduler.appendFixed(out, measurement.temperatureValue, 1);
+            out.append(measurement.unit == TemperatureUnit.Celsius ? " celsius (" : " fahrenheit (");
+            out.append(measurement.type);
+            out.append(")\n");
+            if (measurement.timestamp != null) uiUpdateScheduler.appendDateTime(out, measurement.timestamp.getTime());
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private final UiUpdateScheduler.Renderer<HeartRateView> heartRateRenderer = new UiUpdateScheduler.Renderer<HeartRateView>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull HeartRateView measurement) {
+            out.append(measurement.getPulse()).append(" bpm");
         }
     };
 
+    private final UiUpdateScheduler.Renderer<PulseOximeterContinuousView> pulseOxContinuousRenderer = new UiUpdateScheduler.Renderer<PulseOximeterContinuousView>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull PulseOximeterContinuousView measurement) {
+            out.append("SpO2 ").append(measurement.getSpO2()).append("%,  Pulse ").append(measurement.getPulseRate()).append(" bpm");
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private final UiUpdateScheduler.Renderer<PulseOximeterSpotMeasurement> pulseOxSpotRenderer = new UiUpdateScheduler.Renderer<PulseOximeterSpotMeasurement>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull PulseOximeterSpotMeasurement spotMeasurement) {
+            out.append("SpO2 ").append(spotMeasurement.getSpO2()).append("%,  Pulse ").append(spotMeasurement.getPulseRate()).append(" bpm\n");
+            uiUpdateScheduler.appendDateTime(out, spotMeasurement.getTimestamp().getTime());
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private final UiUpdateScheduler.Renderer<WeightMeasurement> weightRenderer = new UiUpdateScheduler.Renderer<WeightMeasurement>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull WeightMeasurement measurement) {
+            UiUpdateScheduler.appendFixed(out, measurement.weight, 1);
+            out.append(' ').append(measurement.unit.toString()).append('\n');
+            uiUpdateScheduler.appendDateTime(out, measurement.timestamp.getTime());
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private final UiUpdateScheduler.Renderer<GlucoseMeasurement> glucoseRenderer = new UiUpdateScheduler.Renderer<GlucoseMeasurement>() {
+        @Override
+        public void render(@NotNull StringBuilder out, String peripheralAddress, @NotNull GlucoseMeasurement measurement) {
+            UiUpdateScheduler.appendFixed(out, measurement.value, 1);
+            out.append(measurement.unit == GlucoseMeasurementUnit.MmolPerLiter ? " mmol/L\n" : " mg/dL\n");
+            uiUpdateScheduler.appendDateTime(out, measurement.timestamp.getTime());
+            appendPeripheralName(out, peripheralAddress);
+        }
+    };
+
+    private void appendPeripheralName(StringBuilder out, String peripheralAddress) {
+        out.append("\n\nfrom ");
+        if (peripheralAddress != null) out.append(getPeripheral(peripheralAddress).getName());
+    }
+
     private BluetoothPeripheral getPeripheral(String peripheralAddress) {
         BluetoothCentralManager central = BluetoothHandler.getInstance(getApplicationContext()).central;
         return central.getPeripheral(peripheralAddress);
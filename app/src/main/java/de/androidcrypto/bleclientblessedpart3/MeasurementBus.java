@@ -0,0 +1,166 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.os.Handler;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * In-process publish / subscribe bus for decoded measurements.
+ * There is one typed {@link Channel} per measurement class, a subscriber can filter by peripheral address
+ * and owns a bounded {@link MeasurementQueue} that is drained on the subscriber's Handler.
+ * Measurements are handed over by reference, there is no serialization and no system server round trip.
+ *
+ * Publishing is done from the BLESSED callback handler only (single producer per channel).
+ */
+public class MeasurementBus {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private static MeasurementBus instance = null;
+    private final Map<Class<?>, Channel<?>> channels = new HashMap<>();
+
+    public static synchronized MeasurementBus getInstance() {
+        if (instance == null) {
+            instance = new MeasurementBus();
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the channel for a measurement class, publishers should keep the reference
+     */
+    @SuppressWarnings("unchecked")
+    @NotNull
+    public synchronized <T> Channel<T> channel(@NotNull Class<T> measurementClass) {
+        Channel<T> channel = (Channel<T>) channels.get(measurementClass);
+        if (channel == null) {
+            channel = new Channel<>(measurementClass);
+            channels.put(measurementClass, channel);
+        }
+        return channel;
+    }
+
+    @NotNull
+    public <T> Subscription<T> subscribe(@NotNull Class<T> measurementClass, @Nullable String peripheralAddress, @NotNull Handler handler, @NotNull MeasurementListener<T> listener) {
+        return channel(measurementClass).subscribe(peripheralAddress, handler, listener, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public static final class Channel<T> {
+        private final Class<T> measurementClass;
+        // copy on write, publish only reads the volatile array
+        private volatile Subscription<T>[] subscriptions = newArray(0);
+
+        private Channel(@NotNull Class<T> measurementClass) {
+            this.measurementClass = measurementClass;
+        }
+
+        /**
+         * @param peripheralAddress only measurements from this peripheral are delivered, null for all peripherals
+         */
+        @NotNull
+        public synchronized Subscription<T> subscribe(@Nullable String peripheralAddress, @NotNull Handler handler, @NotNull MeasurementListener<T> listener, int queueCapacity) {
+            Subscription<T> subscription = new Subscription<>(this, peripheralAddress, handler, listener, queueCapacity);
+            Subscription<T>[] current = subscriptions;
+            Subscription<T>[] updated = newArray(current.length + 1);
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscription;
+            subscriptions = updated;
+            return subscription;
+        }
+
+        private synchronized void remove(@NotNull Subscription<T> subscription) {
+            Subscription<T>[] current = subscriptions;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) index = i;
+            }
+            if (index < 0) return;
+            Subscription<T>[] updated = newArray(current.length - 1);
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            subscriptions = updated;
+        }
+
+        public void publish(@NotNull String peripheralAddress, @NotNull T measurement) {
+            for (Subscription<T> subscription : subscriptions) {
+                subscription.offer(peripheralAddress, measurement);
+            }
+        }
+
+        public boolean hasSubscribers() {
+            return subscriptions.length > 0;
+        }
+
+        @NotNull
+        public Class<T> getMeasurementClass() {
+            return measurementClass;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static <T> Subscription<T>[] newArray(int length) {
+            return (Subscription<T>[]) new Subscription[length];
+        }
+    }
+
+    public static final class Subscription<T> implements Runnable {
+        private final Channel<T> channel;
+        private final String peripheralAddress;
+        private final Handler handler;
+        private final MeasurementListener<T> listener;
+        private final MeasurementQueue<T> queue;
+        private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+        private volatile boolean active = true;
+
+        private Subscription(@NotNull Channel<T> channel, @Nullable String peripheralAddress, @NotNull Handler handler, @NotNull MeasurementListener<T> listener, int queueCapacity) {
+            this.channel = channel;
+            this.peripheralAddress = peripheralAddress;
+            this.handler = handler;
+            this.listener = listener;
+            this.queue = new MeasurementQueue<>(queueCapacity);
+        }
+
+        private void offer(@NotNull String address, @NotNull T measurement) {
+            if (!active) return;
+            if (peripheralAddress != null && !peripheralAddress.equals(address)) return;
+            if (!queue.offer(address, measurement)) {
+                // the subscriber cannot keep up, the queue drops the newest measurement instead of blocking the producer
+                final long dropped = queue.getDropped();
+                if (dropped == 1 || dropped % 1000 == 0) {
+                    Timber.w("subscriber for %s dropped %d measurements", channel.getMeasurementClass().getSimpleName(), dropped);
+                }
+            }
+            if (drainScheduled.compareAndSet(false, true)) {
+                handler.post(this);
+            }
+        }
+
+        // drains the queue on the subscriber's handler
+        @Override
+        public void run() {
+            drainScheduled.set(false);
+            if (!active) return;
+            queue.drain(listener);
+        }
+
+        public void unsubscribe() {
+            active = false;
+            handler.removeCallbacks(this);
+            channel.remove(this);
+        }
+
+        public long getDropped() {
+            return queue.getDropped();
+        }
+
+        public int getQueueSize() {
+            return queue.size();
+        }
+    }
+}
@@ -0,0 +1,632 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotView;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightView;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Compact variable length binary encoding of the measurement classes, used for Parcelable, persistence and export.
+ *
+ * Layout (little endian):
+ * <pre>
+ * u8  type tag (TYPE_*)
+ * u8  version
+ * u16 presence bitmask, one bit per optional field and the boolean flags
+ * ... the present fields as primitives, timestamps as u64 epoch millis
+ * </pre>
+ * The field order is the one of the encode method of each type, not the declaration order of the class, e.g. the
+ * user id of a blood pressure measurement comes last. Absent optional fields are not written, neither are the
+ * pulse oximeter fields holding 0. Enums are written as explicit codes, never as ordinals.
+ *
+ * The encode overloads for the views and the heart rate record write the same bytes as the measurement object
+ * built from the same value, without building it.
+ *
+ * The measurement classes extend {@link CodecParcelable}, so a Parcel only carries this encoding instead of one
+ * write per field, and the Parcel format can never drift from the stored format.
+ */
+public final class MeasurementCodec {
+
+    public static final int TYPE_BLOOD_PRESSURE = 1;
+    public static final int TYPE_TEMPERATURE = 2;
+    public static final int TYPE_HEART_RATE = 3;
+    public static final int TYPE_PULSE_OX_CONTINUOUS = 4;
+    public static final int TYPE_PULSE_OX_SPOT = 5;
+    public static final int TYPE_WEIGHT = 6;
+    public static final int TYPE_GLUCOSE = 7;
+
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4;
+    // the largest record is a heart rate measurement with 255 RR intervals
+    public static final int MAX_ENCODED_SIZE = HEADER_SIZE + 2 + 1 + 2 + 1 + HeartRateRecord.MAX_RR_INTERVALS * 2;
+
+    private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_ENCODED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    };
+
+    private MeasurementCodec() {
+    }
+
+    /**
+     * Returns the type tag of a measurement object
+     *
+     * @throws IllegalArgumentException if the object is not a supported measurement
+     */
+    public static int typeOf(@NotNull Object measurement) {
+        if (measurement instanceof HeartRateMeasurement) return TYPE_HEART_RATE;
+        if (measurement instanceof PulseOximeterContinuousMeasurement) return TYPE_PULSE_OX_CONTINUOUS;
+        if (measurement instanceof BloodPressureMeasurement) return TYPE_BLOOD_PRESSURE;
+        if (measurement instanceof TemperatureMeasurement) return TYPE_TEMPERATURE;
+        if (measurement instanceof PulseOximeterSpotMeasurement) return TYPE_PULSE_OX_SPOT;
+        if (measurement instanceof WeightMeasurement) return TYPE_WEIGHT;
+        if (measurement instanceof GlucoseMeasurement) return TYPE_GLUCOSE;
+        throw new IllegalArgumentException("unsupported measurement " + measurement.getClass().getName());
+    }
+
+    @NotNull
+    public static byte[] encode(@NotNull Object measurement) {
+        ByteBuffer buffer = scratch.get();
+        buffer.clear();
+        encode(measurement, buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Writes the measurement at the current position of the buffer, the buffer must be little endian
+     * and have at least MAX_ENCODED_SIZE bytes remaining
+     */
+    public static void encode(@NotNull Object measurement, @NotNull ByteBuffer buffer) {
+        final int type = typeOf(measurement);
+        final int maskPosition = putHeader(type, buffer);
+        int mask;
+        switch (type) {
+            case TYPE_BLOOD_PRESSURE:
+                mask = encodeBloodPressure((BloodPressureMeasurement) measurement, buffer);
+                break;
+            case TYPE_TEMPERATURE:
+                mask = encodeTemperature((TemperatureMeasurement) measurement, buffer);
+                break;
+            case TYPE_HEART_RATE:
+                mask = encodeHeartRate((HeartRateMeasurement) measurement, buffer);
+                break;
+            case TYPE_PULSE_OX_CONTINUOUS:
+                mask = encodePulseOxContinuous((PulseOximeterContinuousMeasurement) measurement, buffer);
+                break;
+            case TYPE_PULSE_OX_SPOT:
+                mask = encodePulseOxSpot((PulseOximeterSpotMeasurement) measurement, buffer);
+                break;
+            case TYPE_WEIGHT:
+                mask = encodeWeight((WeightMeasurement) measurement, buffer);
+                break;
+            default:
+                mask = encodeGlucose((GlucoseMeasurement) measurement, buffer);
+                break;
+        }
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    // returns the position of the presence mask, it is written when the fields are known
+    private static int putHeader(int type, ByteBuffer buffer) {
+        buffer.put((byte) type);
+        buffer.put((byte) VERSION);
+        final int maskPosition = buffer.position();
+        buffer.putShort((short) 0);
+        return maskPosition;
+    }
+
+    /**
+     * @param defaultTimestamp used if the value has no timestamp, like the measurement constructor does
+     */
+    public static void encode(@NotNull BloodPressureView view, long defaultTimestamp, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_BLOOD_PRESSURE, buffer);
+        int mask = BP_SYSTOLIC | BP_DIASTOLIC | BP_MEAN_ARTERIAL_PRESSURE | BP_TIMESTAMP;
+        if (view.isMMHG()) mask |= BP_MMHG;
+        buffer.putFloat(view.getSystolic());
+        buffer.putFloat(view.getDiastolic());
+        buffer.putFloat(view.getMeanArterialPressure());
+        buffer.putLong(view.hasTimestamp() ? view.getTimestamp() : defaultTimestamp);
+        if (view.hasPulseRate()) {
+            mask |= BP_PULSE_RATE;
+            buffer.putFloat(view.getPulseRate());
+        }
+        if (view.hasUserId()) {
+            mask |= BP_USER_ID;
+            buffer.putInt(view.getUserId());
+        }
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    public static void encode(@NotNull TemperatureView view, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_TEMPERATURE, buffer);
+        int mask = TEMPERATURE_UNIT;
+        if (view.isFahrenheit()) mask |= TEMPERATURE_FAHRENHEIT;
+        buffer.putFloat(view.getTemperatureValue());
+        if (view.hasTimestamp()) {
+            mask |= TEMPERATURE_TIMESTAMP;
+            buffer.putLong(view.getTimestamp());
+        }
+        // unknown types are dropped by TemperatureType.fromValue
+        if (view.hasType() && isTemperatureType(view.getType())) {
+            mask |= TEMPERATURE_TYPE;
+            buffer.put((byte) view.getType());
+        }
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    public static void encode(@NotNull HeartRateRecord record, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_HEART_RATE, buffer);
+        int mask = HR_PULSE;
+        buffer.putShort((short) record.pulse);
+        buffer.put((byte) record.sensorContactStatus);
+        if (record.energyExpendedPresent) {
+            mask |= HR_ENERGY_EXPENDED;
+            buffer.putShort((short) record.energyExpended);
+        }
+        final int rrCount = Math.min(record.rrCount, HeartRateRecord.MAX_RR_INTERVALS);
+        if (rrCount > 0) {
+            mask |= HR_RR_INTERVALS;
+            buffer.put((byte) rrCount);
+            for (int i = 0; i < rrCount; i++) {
+                buffer.putShort((short) record.rrIntervals[i]);
+            }
+        }
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    public static void encode(@NotNull PulseOximeterContinuousView view, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_PULSE_OX_CONTINUOUS, buffer);
+        int mask = 0;
+        mask |= putIntIfSet(buffer, view.getSpO2(), PLXC_SPO2);
+        mask |= putIntIfSet(buffer, view.getPulseRate(), PLXC_PULSE_RATE);
+        mask |= putIntIfSet(buffer, view.getSpO2Fast(), PLXC_SPO2_FAST);
+        mask |= putIntIfSet(buffer, view.getPulseRateFast(), PLXC_PULSE_RATE_FAST);
+        mask |= putIntIfSet(buffer, view.getSpO2Slow(), PLXC_SPO2_SLOW);
+        mask |= putIntIfSet(buffer, view.getPulseRateSlow(), PLXC_PULSE_RATE_SLOW);
+        mask |= putFloatIfSet(buffer, view.getPulseAmplitudeIndex(), PLXC_PULSE_AMPLITUDE_INDEX);
+        mask |= putIntIfSet(buffer, view.getMeasurementStatus(), PLXC_MEASUREMENT_STATUS);
+        mask |= putIntIfSet(buffer, view.getSensorStatus(), PLXC_SENSOR_STATUS);
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    /**
+     * @param defaultTimestamp used if the value has no timestamp, like the measurement constructor does
+     */
+    public static void encode(@NotNull PulseOximeterSpotView view, long defaultTimestamp, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_PULSE_OX_SPOT, buffer);
+        int mask = view.isDeviceClockSet() ? PLXS_DEVICE_CLOCK_SET | PLXS_TIMESTAMP : PLXS_TIMESTAMP;
+        mask |= putIntIfSet(buffer, view.getSpO2(), PLXS_SPO2);
+        mask |= putIntIfSet(buffer, view.getPulseRate(), PLXS_PULSE_RATE);
+        mask |= putFloatIfSet(buffer, view.getPulseAmplitudeIndex(), PLXS_PULSE_AMPLITUDE_INDEX);
+        buffer.putLong(view.hasTimestamp() ? view.getTimestamp() : defaultTimestamp);
+        mask |= putIntIfSet(buffer, view.getMeasurementStatus(), PLXS_MEASUREMENT_STATUS);
+        mask |= putIntIfSet(buffer, view.getSensorStatus(), PLXS_SENSOR_STATUS);
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    /**
+     * @param defaultTimestamp used if the value has no timestamp, like the measurement constructor does
+     */
+    public static void encode(@NotNull WeightView view, long defaultTimestamp, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_WEIGHT, buffer);
+        int mask = WEIGHT_TIMESTAMP;
+        buffer.putDouble(view.getWeight());
+        buffer.put((byte) (view.isPounds() ? WEIGHT_UNIT_POUNDS : WEIGHT_UNIT_KILOGRAMS));
+        buffer.putLong(view.hasTimestamp() ? view.getTimestamp() : defaultTimestamp);
+        if (view.hasUserId()) {
+            mask |= WEIGHT_USER_ID;
+            buffer.putInt(view.getUserId());
+        }
+        if (view.hasBmiAndHeight()) {
+            mask |= WEIGHT_BMI | WEIGHT_HEIGHT;
+            buffer.putInt(view.getBmi());
+            buffer.putInt(view.getHeight());
+        }
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    public static void encode(@NotNull GlucoseView view, @NotNull ByteBuffer buffer) {
+        final int maskPosition = putHeader(TYPE_GLUCOSE, buffer);
+        int mask = GLUCOSE_TIMESTAMP;
+        if (view.isMmolPerLiter()) mask |= GLUCOSE_MMOL;
+        if (view.isContextWillFollow()) mask |= GLUCOSE_CONTEXT_WILL_FOLLOW;
+        buffer.putShort((short) view.getSequenceNumber());
+        buffer.putFloat(view.getConcentration());
+        buffer.putLong(view.getTimestamp());
+        buffer.putShort(maskPosition, (short) mask);
+    }
+
+    @NotNull
+    public static Object decode(@NotNull byte[] encoded) {
+        return decode(ByteBuffer.wrap(encoded).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Reads one measurement from the current position of a little endian buffer
+     *
+     * @throws IllegalArgumentException if the data is not a valid encoding
+     */
+    @NotNull
+    public static Object decode(@NotNull ByteBuffer buffer) {
+        try {
+            final int type = buffer.get() & 0xFF;
+            final int version = buffer.get() & 0xFF;
+            if (version != VERSION) throw new IllegalArgumentException("unsupported codec version " + version);
+            final int mask = buffer.getShort() & 0xFFFF;
+            switch (type) {
+                case TYPE_BLOOD_PRESSURE:
+                    return decodeBloodPressure(mask, buffer);
+                case TYPE_TEMPERATURE:
+                    return decodeTemperature(mask, buffer);
+                case TYPE_HEART_RATE:
+                    return decodeHeartRate(mask, buffer);
+                case TYPE_PULSE_OX_CONTINUOUS:
+                    return decodePulseOxContinuous(mask, buffer);
+                case TYPE_PULSE_OX_SPOT:
+                    return decodePulseOxSpot(mask, buffer);
+                case TYPE_WEIGHT:
+                    return decodeWeight(mask, buffer);
+                case TYPE_GLUCOSE:
+                    return decodeGlucose(mask, buffer);
+                default:
+                    throw new IllegalArgumentException("unknown measurement type " + type);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated measurement", e);
+        }
+    }
+
+    @NotNull
+    public static <T> T decode(@NotNull byte[] encoded, @NotNull Class<T> measurementClass) {
+        return measurementClass.cast(decode(encoded));
+    }
+
+    // Blood pressure
+
+    private static final int BP_USER_ID = 0x01;
+    private static final int BP_SYSTOLIC = 0x02;
+    private static final int BP_DIASTOLIC = 0x04;
+    private static final int BP_MEAN_ARTERIAL_PRESSURE = 0x08;
+    private static final int BP_TIMESTAMP = 0x10;
+    private static final int BP_PULSE_RATE = 0x20;
+    private static final int BP_MMHG = 0x40;
+
+    private static int encodeBloodPressure(BloodPressureMeasurement measurement, ByteBuffer buffer) {
+        int mask = measurement.isMMHG ? BP_MMHG : 0;
+        if (measurement.systolic != null) {
+            mask |= BP_SYSTOLIC;
+            buffer.putFloat(measurement.systolic);
+        }
+        if (measurement.diastolic != null) {
+            mask |= BP_DIASTOLIC;
+            buffer.putFloat(measurement.diastolic);
+        }
+        if (measurement.meanArterialPressure != null) {
+            mask |= BP_MEAN_ARTERIAL_PRESSURE;
+            buffer.putFloat(measurement.meanArterialPressure);
+        }
+        if (measurement.timestamp != null) {
+            mask |= BP_TIMESTAMP;
+            buffer.putLong(measurement.timestamp.getTime());
+        }
+        if (measurement.pulseRate != null) {
+            mask |= BP_PULSE_RATE;
+            buffer.putFloat(measurement.pulseRate);
+        }
+        if (measurement.userID != null) {
+            mask |= BP_USER_ID;
+            buffer.putInt(measurement.userID);
+        }
+        return mask;
+    }
+
+    private static BloodPressureMeasurement decodeBloodPressure(int mask, ByteBuffer buffer) {
+        BloodPressureMeasurement measurement = new BloodPressureMeasurement();
+        measurement.isMMHG = (mask & BP_MMHG) != 0;
+        if ((mask & BP_SYSTOLIC) != 0) measurement.systolic = buffer.getFloat();
+        if ((mask & BP_DIASTOLIC) != 0) measurement.diastolic = buffer.getFloat();
+        if ((mask & BP_MEAN_ARTERIAL_PRESSURE) != 0) measurement.meanArterialPressure = buffer.getFloat();
+        if ((mask & BP_TIMESTAMP) != 0) measurement.timestamp = new Date(buffer.getLong());
+        if ((mask & BP_PULSE_RATE) != 0) measurement.pulseRate = buffer.getFloat();
+        if ((mask & BP_USER_ID) != 0) measurement.userID = buffer.getInt();
+        return measurement;
+    }
+
+    // Temperature
+
+    private static final int TEMPERATURE_FAHRENHEIT = 0x01;
+    private static final int TEMPERATURE_TIMESTAMP = 0x02;
+    private static final int TEMPERATURE_TYPE = 0x04;
+    private static final int TEMPERATURE_UNIT = 0x08;
+    private static final TemperatureType[] TEMPERATURE_TYPES = TemperatureType.values();
+
+    private static int encodeTemperature(TemperatureMeasurement measurement, ByteBuffer buffer) {
+        int mask = 0;
+        if (measurement.unit != null) {
+            mask |= TEMPERATURE_UNIT;
+            if (measurement.unit == TemperatureUnit.Fahrenheit) mask |= TEMPERATURE_FAHRENHEIT;
+        }
+        buffer.putFloat(measurement.temperatureValue);
+        if (measurement.timestamp != null) {
+            mask |= TEMPERATURE_TIMESTAMP;
+            buffer.putLong(measurement.timestamp.getTime());
+        }
+        if (measurement.type != null) {
+            mask |= TEMPERATURE_TYPE;
+            buffer.put((byte) measurement.type.getValue());
+        }
+        return mask;
+    }
+
+    private static boolean isTemperatureType(int value) {
+        for (TemperatureType type : TEMPERATURE_TYPES) {
+            if (type.getValue() == value) return true;
+        }
+        return false;
+    }
+
+    private static TemperatureMeasurement decodeTemperature(int mask, ByteBuffer buffer) {
+        TemperatureMeasurement measurement = new TemperatureMeasurement();
+        if ((mask & TEMPERATURE_UNIT) != 0) {
+            measurement.unit = (mask & TEMPERATURE_FAHRENHEIT) != 0 ? TemperatureUnit.Fahrenheit : TemperatureUnit.Celsius;
+        }
+        measurement.temperatureValue = buffer.getFloat();
+        if ((mask & TEMPERATURE_TIMESTAMP) != 0) measurement.timestamp = new Date(buffer.getLong());
+        if ((mask & TEMPERATURE_TYPE) != 0) measurement.type = TemperatureType.fromValue(buffer.get() & 0xFF);
+        return measurement;
+    }
+
+    // Heart rate
+
+    private static final int HR_PULSE = 0x01;
+    private static final int HR_ENERGY_EXPENDED = 0x02;
+    private static final int HR_RR_INTERVALS = 0x04;
+
+    private static int encodeHeartRate(HeartRateMeasurement measurement, ByteBuffer buffer) {
+        int mask = 0;
+        if (measurement.pulse != null) {
+            mask |= HR_PULSE;
+            buffer.putShort((short) (int) measurement.pulse);
+        }
+        buffer.put((byte) measurement.sensorContactStatus);
+        if (measurement.energyExpended != null) {
+            mask |= HR_ENERGY_EXPENDED;
+            buffer.putShort((short) (int) measurement.energyExpended);
+        }
+        final int rrCount = Math.min(measurement.rrIntervals.length, HeartRateRecord.MAX_RR_INTERVALS);
+        if (rrCount > 0) {
+            mask |= HR_RR_INTERVALS;
+            buffer.put((byte) rrCount);
+            for (int i = 0; i < rrCount; i++) {
+                buffer.putShort((short) measurement.rrIntervals[i]);
+            }
+        }
+        return mask;
+    }
+
+    private static HeartRateMeasurement decodeHeartRate(int mask, ByteBuffer buffer) {
+        HeartRateRecord record = new HeartRateRecord();
+        if ((mask & HR_PULSE) != 0) record.pulse = buffer.getShort() & 0xFFFF;
+        record.sensorContactStatus = buffer.get() & 0xFF;
+        if ((mask & HR_ENERGY_EXPENDED) != 0) {
+            record.energyExpendedPresent = true;
+            record.energyExpended = buffer.getShort() & 0xFFFF;
+        }
+        if ((mask & HR_RR_INTERVALS) != 0) {
+            final int rrCount = buffer.get() & 0xFF;
+            for (int i = 0; i < rrCount; i++) {
+                record.rrIntervals[i] = buffer.getShort() & 0xFFFF;
+            }
+            record.rrCount = rrCount;
+        }
+        return new HeartRateMeasurement(record);
+    }
+
+    // Pulse oximeter continuous, int fields holding 0 are suppressed
+
+    private static final int PLXC_SPO2 = 0x01;
+    private static final int PLXC_PULSE_RATE = 0x02;
+    private static final int PLXC_SPO2_FAST = 0x04;
+    private static final int PLXC_PULSE_RATE_FAST = 0x08;
+    private static final int PLXC_SPO2_SLOW = 0x10;
+    private static final int PLXC_PULSE_RATE_SLOW = 0x20;
+    private static final int PLXC_PULSE_AMPLITUDE_INDEX = 0x40;
+    private static final int PLXC_MEASUREMENT_STATUS = 0x80;
+    private static final int PLXC_SENSOR_STATUS = 0x100;
+
+    private static int encodePulseOxContinuous(PulseOximeterContinuousMeasurement measurement, ByteBuffer buffer) {
+        int mask = 0;
+        mask |= putIntIfSet(buffer, measurement.getSpO2(), PLXC_SPO2);
+        mask |= putIntIfSet(buffer, measurement.getPulseRate(), PLXC_PULSE_RATE);
+        mask |= putIntIfSet(buffer, measurement.getSpO2Fast(), PLXC_SPO2_FAST);
+        mask |= putIntIfSet(buffer, measurement.getPulseRateFast(), PLXC_PULSE_RATE_FAST);
+        mask |= putIntIfSet(buffer, measurement.getSpO2Slow(), PLXC_SPO2_SLOW);
+        mask |= putIntIfSet(buffer, measurement.getPulseRateSlow(), PLXC_PULSE_RATE_SLOW);
+        mask |= putFloatIfSet(buffer, measurement.getPulseAmplitudeIndex(), PLXC_PULSE_AMPLITUDE_INDEX);
+        mask |= putIntIfSet(buffer, measurement.getMeasurementStatus(), PLXC_MEASUREMENT_STATUS);
+        mask |= putIntIfSet(buffer, measurement.getSensorStatus(), PLXC_SENSOR_STATUS);
+        return mask;
+    }
+
+    private static PulseOximeterContinuousMeasurement decodePulseOxContinuous(int mask, ByteBuffer buffer) {
+        int spO2 = getIntIfSet(buffer, mask, PLXC_SPO2);
+        int pulseRate = getIntIfSet(buffer, mask, PLXC_PULSE_RATE);
+        int spO2Fast = getIntIfSet(buffer, mask, PLXC_SPO2_FAST);
+        int pulseRateFast = getIntIfSet(buffer, mask, PLXC_PULSE_RATE_FAST);
+        int spO2Slow = getIntIfSet(buffer, mask, PLXC_SPO2_SLOW);
+        int pulseRateSlow = getIntIfSet(buffer, mask, PLXC_PULSE_RATE_SLOW);
+        float pulseAmplitudeIndex = getFloatIfSet(buffer, mask, PLXC_PULSE_AMPLITUDE_INDEX);
+        int measurementStatus = getIntIfSet(buffer, mask, PLXC_MEASUREMENT_STATUS);
+        int sensorStatus = getIntIfSet(buffer, mask, PLXC_SENSOR_STATUS);
+        return new PulseOximeterContinuousMeasurement(spO2, pulseRate, spO2Fast, pulseRateFast, spO2Slow, pulseRateSlow, pulseAmplitudeIndex, measurementStatus, sensorStatus);
+    }
+
+    // Pulse oximeter spot check
+
+    private static final int PLXS_SPO2 = 0x01;
+    private static final int PLXS_PULSE_RATE = 0x02;
+    private static final int PLXS_PULSE_AMPLITUDE_INDEX = 0x04;
+    private static final int PLXS_DEVICE_CLOCK_SET = 0x08;
+    private static final int PLXS_TIMESTAMP = 0x10;
+    private static final int PLXS_MEASUREMENT_STATUS = 0x20;
+    private static final int PLXS_SENSOR_STATUS = 0x40;
+
+    private static int encodePulseOxSpot(PulseOximeterSpotMeasurement measurement, ByteBuffer buffer) {
+        int mask = measurement.isDeviceClockSet() ? PLXS_DEVICE_CLOCK_SET : 0;
+        mask |= putIntIfSet(buffer, measurement.getSpO2(), PLXS_SPO2);
+        mask |= putIntIfSet(buffer, measurement.getPulseRate(), PLXS_PULSE_RATE);
+        mask |= putFloatIfSet(buffer, measurement.getPulseAmplitudeIndex(), PLXS_PULSE_AMPLITUDE_INDEX);
+        if (measurement.getTimestamp() != null) {
+            mask |= PLXS_TIMESTAMP;
+            buffer.putLong(measurement.getTimestamp().getTime());
+        }
+        mask |= putIntIfSet(buffer, measurement.getMeasurementStatus(), PLXS_MEASUREMENT_STATUS);
+        mask |= putIntIfSet(buffer, measurement.getSensorStatus(), PLXS_SENSOR_STATUS);
+        return mask;
+    }
+
+    private static PulseOximeterSpotMeasurement decodePulseOxSpot(int mask, ByteBuffer buffer) {
+        int spO2 = getIntIfSet(buffer, mask, PLXS_SPO2);
+        int pulseRate = getIntIfSet(buffer, mask, PLXS_PULSE_RATE);
+        float pulseAmplitudeIndex = getFloatIfSet(buffer, mask, PLXS_PULSE_AMPLITUDE_INDEX);
+        Date timestamp = (mask & PLXS_TIMESTAMP) != 0 ? new Date(buffer.getLong()) : null;
+        int measurementStatus = getIntIfSet(buffer, mask, PLXS_MEASUREMENT_STATUS);
+        int sensorStatus = getIntIfSet(buffer, mask, PLXS_SENSOR_STATUS);
+        return new PulseOximeterSpotMeasurement(spO2, pulseRate, pulseAmplitudeIndex, (mask & PLXS_DEVICE_CLOCK_SET) != 0, timestamp, measurementStatus, sensorStatus);
+    }
+
+    // Weight
+
+    private static final int WEIGHT_TIMESTAMP = 0x01;
+    private static final int WEIGHT_USER_ID = 0x02;
+    private static final int WEIGHT_BMI = 0x04;
+    private static final int WEIGHT_HEIGHT = 0x08;
+
+    private static int encodeWeight(WeightMeasurement measurement, ByteBuffer buffer) {
+        int mask = 0;
+        buffer.putDouble(measurement.weight);
+        buffer.put((byte) weightUnitCode(measurement.unit));
+        if (measurement.timestamp != null) {
+            mask |= WEIGHT_TIMESTAMP;
+            buffer.putLong(measurement.timestamp.getTime());
+        }
+        if (measurement.userID != null) {
+            mask |= WEIGHT_USER_ID;
+            buffer.putInt(measurement.userID);
+        }
+        if (measurement.BMI != null) {
+            mask |= WEIGHT_BMI;
+            buffer.putInt(measurement.BMI);
+        }
+        if (measurement.height != null) {
+            mask |= WEIGHT_HEIGHT;
+            buffer.putInt(measurement.height);
+        }
+        return mask;
+    }
+
+    private static WeightMeasurement decodeWeight(int mask, ByteBuffer buffer) {
+        double weight = buffer.getDouble();
+        WeightUnit unit = weightUnitOf(buffer.get() & 0xFF);
+        Date timestamp = (mask & WEIGHT_TIMESTAMP) != 0 ? new Date(buffer.getLong()) : null;
+        Integer userID = (mask & WEIGHT_USER_ID) != 0 ? buffer.getInt() : null;
+        Integer bmi = (mask & WEIGHT_BMI) != 0 ? buffer.getInt() : null;
+        Integer height = (mask & WEIGHT_HEIGHT) != 0 ? buffer.getInt() : null;
+        return new WeightMeasurement(weight, unit, timestamp, userID, bmi, height);
+    }
+
+    // the codes must not change, they are stored in the measurement log
+    private static final int WEIGHT_UNIT_UNKNOWN = 0;
+    private static final int WEIGHT_UNIT_KILOGRAMS = 1;
+    private static final int WEIGHT_UNIT_POUNDS = 2;
+    private static final int WEIGHT_UNIT_STONES = 3;
+
+    private static int weightUnitCode(WeightUnit unit) {
+        if (unit == null) return WEIGHT_UNIT_UNKNOWN;
+        switch (unit) {
+            case Kilograms:
+                return WEIGHT_UNIT_KILOGRAMS;
+            case Pounds:
+                return WEIGHT_UNIT_POUNDS;
+            case Stones:
+                return WEIGHT_UNIT_STONES;
+            default:
+                return WEIGHT_UNIT_UNKNOWN;
+        }
+    }
+
+    private static WeightUnit weightUnitOf(int code) {
+        switch (code) {
+            case WEIGHT_UNIT_KILOGRAMS:
+                return WeightUnit.Kilograms;
+            case WEIGHT_UNIT_POUNDS:
+                return WeightUnit.Pounds;
+            case WEIGHT_UNIT_STONES:
+                return WeightUnit.Stones;
+            default:
+                return WeightUnit.Unknown;
+        }
+    }
+
+    // Glucose
+
+    private static final int GLUCOSE_MMOL = 0x01;
+    private static final int GLUCOSE_CONTEXT_WILL_FOLLOW = 0x02;
+    private static final int GLUCOSE_TIMESTAMP = 0x04;
+
+    private static int encodeGlucose(GlucoseMeasurement measurement, ByteBuffer buffer) {
+        int mask = measurement.unit == GlucoseMeasurementUnit.MmolPerLiter ? GLUCOSE_MMOL : 0;
+        if (measurement.contextWillFollow) mask |= GLUCOSE_CONTEXT_WILL_FOLLOW;
+        buffer.putShort((short) measurement.sequenceNumber);
+        buffer.putFloat(measurement.value);
+        if (measurement.timestamp != null) {
+            mask |= GLUCOSE_TIMESTAMP;
+            buffer.putLong(measurement.timestamp.getTime());
+        }
+        return mask;
+    }
+
+    private static GlucoseMeasurement decodeGlucose(int mask, ByteBuffer buffer) {
+        GlucoseMeasurement measurement = new GlucoseMeasurement((mask & GLUCOSE_MMOL) != 0 ? GlucoseMeasurementUnit.MmolPerLiter : GlucoseMeasurementUnit.MiligramPerDeciliter);
+        measurement.contextWillFollow = (mask & GLUCOSE_CONTEXT_WILL_FOLLOW) != 0;
+        measurement.sequenceNumber = buffer.getShort() & 0xFFFF;
+        measurement.value = buffer.getFloat();
+        if ((mask & GLUCOSE_TIMESTAMP) != 0) measurement.timestamp = new Date(buffer.getLong());
+        return measurement;
+    }
+
+    // helpers for zero suppressed primitive fields
+
+    private static int putIntIfSet(ByteBuffer buffer, int value, int bit) {
+        if (value == 0) return 0;
+        buffer.putInt(value);
+        return bit;
+    }
+
+    private static int putFloatIfSet(ByteBuffer buffer, float value, int bit) {
+        if (Float.floatToRawIntBits(value) == 0) return 0;
+        buffer.putFloat(value);
+        return bit;
+    }
+
+    private static int getIntIfSet(ByteBuffer buffer, int mask, int bit) {
+        return (mask & bit) != 0 ? buffer.getInt() : 0;
+    }
+
+    private static float getFloatIfSet(ByteBuffer buffer, int mask, int bit) {
+        return (mask & bit) != 0 ? buffer.getFloat() : 0f;
+    }
+}
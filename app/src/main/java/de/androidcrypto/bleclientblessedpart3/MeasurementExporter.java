@@ -0,0 +1,408 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the measurements of a {@link MeasurementLog} to CSV, NDJSON or a FHIR Bundle of Observations.
+ * The log is scanned partition by partition, every entry is decoded, formatted into a small text buffer and written
+ * to the channel in chunks, so the memory use does not depend on the size of the export.
+ * <pre>
+ * CSV     received,measured,peripheral,type,component,value,unit   one row per value
+ * NDJSON  {"received":..,"measured":..,"peripheral":..,"type":..,"systolic":{"value":..,"unit":..},..}
+ * FHIR    {"resourceType":"Bundle","type":"collection","entry":[{"resource":{"resourceType":"Observation",..}},..]}
+ * </pre>
+ * Times are ISO 8601 in UTC, units are UCUM codes. The range filter applies to the time the measurement was received,
+ * measured is the time stamp of the device if it sent one. Weights in stones are exported in pounds, UCUM has no stone.
+ * Within a peripheral and type the measurements are in the order they were received.
+ */
+public class MeasurementExporter {
+
+    public enum Format {
+        CSV, NDJSON, FHIR
+    }
+
+    public static final int ALL_TYPES = 0xFE;
+    // a chunk is written once the text buffer holds this many chars
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    private static final String LOINC = "http://loinc.org";
+    private static final String UCUM = "http://unitsofmeasure.org";
+    private static final String CATEGORY = "http://terminology.hl7.org/CodeSystem/observation-category";
+    private static final String[] TYPE_NAMES = {null, "blood_pressure", "temperature", "heart_rate",
+            "pulse_oximeter_continuous", "pulse_oximeter_spot", "weight", "glucose"};
+
+    /**
+     * Values of one measurement, reused for every entry
+     */
+    static final class Components {
+        static final int MAX = 8 + 255;
+
+        // LOINC code of the observation, the first component is its value if it has the same code
+        String code;
+        String display;
+        String category;
+        long measured;
+        int count;
+        final String[] names = new String[MAX];
+        final double[] values = new double[MAX];
+        final String[] units = new String[MAX];
+        // null for values without a LOINC code, they are left out of FHIR
+        final String[] codes = new String[MAX];
+        final String[] displays = new String[MAX];
+
+        void reset(String code, String display, String category, @Nullable Date measured) {
+            this.code = code;
+            this.display = display;
+            this.category = category;
+            this.measured = measured == null ? Long.MIN_VALUE : measured.getTime();
+            count = 0;
+        }
+
+        void add(String name, double value, String unit, @Nullable String code, @Nullable String display) {
+            names[count] = name;
+            values[count] = value;
+            units[count] = unit;
+            codes[count] = code;
+            displays[count] = display;
+            count++;
+        }
+    }
+
+    private final MeasurementLog log;
+    private final Components components = new Components();
+    private final StringBuilder text = new StringBuilder(CHUNK_SIZE + 4096);
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE + 4096);
+    private final byte[] dateTime = new byte[GattDateTime.SIZE];
+
+    public MeasurementExporter(@NotNull MeasurementLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Bit mask of MeasurementCodec types for the type filter
+     */
+    public static int typeMask(int... types) {
+        int mask = 0;
+        for (int type : types) mask |= 1 << type;
+        return mask;
+    }
+
+    /**
+     * Exports to a file, ".gz" is not appended
+     *
+     * @return the number of exported measurements
+     */
+    public long export(@NotNull File file, @NotNull Format format, boolean gzip, long fromTimestamp, long toTimestamp,
+                       int typeMask, @Nullable Collection<String> peripheralAddresses) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            return export(out.getChannel(), format, gzip, fromTimestamp, toTimestamp, typeMask, peripheralAddresses);
+        }
+    }
+
+    /**
+     * Exports the measurements received between the timestamps (inclusive, epoch millis), the channel is not closed
+     *
+     * @param typeMask            see {@link #typeMask(int...)}, {@link #ALL_TYPES} for all types
+     * @param peripheralAddresses null for all peripherals in the log
+     * @return the number of exported measurements
+     */
+    public synchronized long export(@NotNull WritableByteChannel channel, @NotNull Format format, boolean gzip, long fromTimestamp, long toTimestamp,
+                                    int typeMask, @Nullable Collection<String> peripheralAddresses) throws IOException {
+        GZIPOutputStream zip = null;
+        WritableByteChannel target = channel;
+        if (gzip) {
+            zip = new GZIPOutputStream(Channels.newOutputStream(channel), CHUNK_SIZE);
+            target = Channels.newChannel(zip);
+        }
+        final WritableByteChannel out = target;
+        text.setLength(0);
+        switch (format) {
+            case CSV:
+                text.append("received,measured,peripheral,type,component,value,unit\n");
+                break;
+            case FHIR:
+                text.append("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[");
+                break;
+        }
+
+        final long[] exported = {0};
+        final IOException[] failure = {null};
+        for (final String address : peripheralAddresses != null ? peripheralAddresses : log.getPeripheralAddresses()) {
+            for (int type = MeasurementCodec.TYPE_BLOOD_PRESSURE; type <= MeasurementCodec.TYPE_GLUCOSE; type++) {
+                if ((typeMask & (1 << type)) == 0) continue;
+                final String typeName = TYPE_NAMES[type];
+                log.scan(address, type, fromTimestamp, toTimestamp, new MeasurementLog.EntryVisitor() {
+                    @Override
+                    public boolean onEntry(long timestamp, @NotNull ByteBuffer payload) {
+                        final Object measurement;
+                        try {
+                            measurement = MeasurementCodec.decode(payload);
+                        } catch (IllegalArgumentException e) {
+                            return true;
+                        }
+                        collect(measurement);
+                        if (components.count == 0) return true;
+                        switch (format) {
+                            case CSV:
+                                appendCsv(timestamp, address, typeName);
+                                break;
+                            case NDJSON:
+                                appendNdjson(timestamp, address, typeName);
+                                break;
+                            case FHIR:
+                                if (exported[0] > 0) text.append(',');
+                                appendObservation(timestamp, address);
+                                break;
+                        }
+                        exported[0]++;
+                        if (text.length() >= CHUNK_SIZE) {
+                            try {
+                                writeText(out);
+                            } catch (IOException e) {
+                                failure[0] = e;
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                });
+                if (failure[0] != null) throw failure[0];
+            }
+        }
+
+        if (format == Format.FHIR) text.append("]}\n");
+        writeText(out);
+        // finish writes the gzip trailer without closing the channel
+        if (zip != null) zip.finish();
+        return exported[0];
+    }
+
+    // fills the components with the values of the measurement, in UCUM units
+    private void collect(Object measurement) {
+        final Components c = components;
+        if (measurement instanceof BloodPressureMeasurement) {
+            BloodPressureMeasurement bp = (BloodPressureMeasurement) measurement;
+            final String unit = bp.isMMHG ? "mm[Hg]" : "kPa";
+            c.reset("85354-9", "Blood pressure panel", "vital-signs", bp.timestamp);
+            if (bp.systolic != null) c.add("systolic", bp.systolic, unit, "8480-6", "Systolic blood pressure");
+            if (bp.diastolic != null) c.add("diastolic", bp.diastolic, unit, "8462-4", "Diastolic blood pressure");
+            if (bp.meanArterialPressure != null) c.add("mean_arterial_pressure", bp.meanArterialPressure, unit, "8478-0", "Mean blood pressure");
+            if (bp.pulseRate != null) c.add("pulse_rate", bp.pulseRate, "/min", "8867-4", "Heart rate");
+        } else if (measurement instanceof TemperatureMeasurement) {
+            TemperatureMeasurement temperature = (TemperatureMeasurement) measurement;
+            c.reset("8310-5", "Body temperature", "vital-signs", temperature.timestamp);
+            c.add("temperature", temperature.temperatureValue, temperature.unit == TemperatureUnit.Fahrenheit ? "[degF]" : "Cel", "8310-5", "Body temperature");
+        } else if (measurement instanceof HeartRateMeasurement) {
+            HeartRateMeasurement heartRate = (HeartRateMeasurement) measurement;
+            c.reset("8867-4", "Heart rate", "vital-signs", null);
+            if (heartRate.pulse != null) c.add("pulse", heartRate.pulse, "/min", "8867-4", "Heart rate");
+            if (heartRate.energyExpended != null) c.add("energy_expended", heartRate.energyExpended, "kJ", null, null);
+            final int rrCount = Math.min(heartRate.rrIntervals.length, Components.MAX - c.count);
+            for (int i = 0; i < rrCount; i++) {
+                // resolution 1/1024 second
+                c.add("rr_interval", heartRate.rrIntervals[i] * 1000 / 1024.0, "ms", null, null);
+            }
+        } else if (measurement instanceof PulseOximeterContinuousMeasurement) {
+            PulseOximeterContinuousMeasurement pulseOx = (PulseOximeterContinuousMeasurement) measurement;
+            c.reset("59408-5", "Oxygen saturation in Arterial blood by Pulse oximetry", "vital-signs", null);
+            c.add("spo2", pulseOx.getSpO2(), "%", "59408-5", "Oxygen saturation in Arterial blood by Pulse oximetry");
+            c.add("pulse_rate", pulseOx.getPulseRate(), "/min", "8867-4", "Heart rate");
+        } else if (measurement instanceof PulseOximeterSpotMeasurement) {
+            PulseOximeterSpotMeasurement pulseOx = (PulseOximeterSpotMeasurement) measurement;
+            c.reset("59408-5", "Oxygen saturation in Arterial blood by Pulse oximetry", "vital-signs", pulseOx.getTimestamp());
+            c.add("spo2", pulseOx.getSpO2(), "%", "59408-5", "Oxygen saturation in Arterial blood by Pulse oximetry");
+            c.add("pulse_rate", pulseOx.getPulseRate(), "/min", "8867-4", "Heart rate");
+        } else if (measurement instanceof WeightMeasurement) {
+            WeightMeasurement weight = (WeightMeasurement) measurement;
+            c.reset("29463-7", "Body weight", "vital-signs", weight.timestamp);
+            switch (weight.unit) {
+                case Kilograms:
+                    c.add("weight", weight.weight, "kg", "29463-7", "Body weight");
+                    break;
+                case Pounds:
+                    c.add("weight", weight.weight, "[lb_av]", "29463-7", "Body weight");
+                    break;
+                case Stones:
+                    c.add("weight", weight.weight * 14, "[lb_av]", "29463-7", "Body weight");
+                    break;
+                default:
+                    c.add("weight", weight.weight, "", "29463-7", "Body weight");
+            }
+            // resolution 0.1 kg/m2, and 1 mm or 0.1 inch
+            if (weight.BMI != null) c.add("bmi", weight.BMI / 10.0, "kg/m2", "39156-5", "Body mass index");
+            if (weight.height != null) {
+                if (weight.unit == WeightUnit.Kilograms) {
+                    c.add("height", weight.height / 1000.0, "m", "8302-2", "Body height");
+                } else {
+                    c.add("height", weight.height / 10.0, "[in_i]", "8302-2", "Body height");
+                }
+            }
+        } else if (measurement instanceof GlucoseMeasurement) {
+            GlucoseMeasurement glucose = (GlucoseMeasurement) measurement;
+            if (glucose.unit == GlucoseMeasurementUnit.MmolPerLiter) {
+                c.reset("15074-8", "Glucose [Moles/volume] in Blood", "laboratory", glucose.timestamp);
+                c.add("glucose", glucose.value, "mmol/L", "15074-8", "Glucose [Moles/volume] in Blood");
+            } else {
+                c.reset("2339-0", "Glucose [Mass/volume] in Blood", "laboratory", glucose.timestamp);
+                c.add("glucose", glucose.value, "mg/dL", "2339-0", "Glucose [Mass/volume] in Blood");
+            }
+        } else {
+            c.count = 0;
+        }
+    }
+
+    private void appendCsv(long received, String address, String typeName) {
+        final Components c = components;
+        for (int i = 0; i < c.count; i++) {
+            appendIso(received);
+            text.append(',');
+            if (c.measured != Long.MIN_VALUE) appendIso(c.measured);
+            text.append(',').append(address).append(',').append(typeName).append(',').append(c.names[i]).append(',');
+            appendNumber(c.values[i]);
+            text.append(',').append(c.units[i]).append('\n');
+        }
+    }
+
+    private void appendNdjson(long received, String address, String typeName) {
+        final Components c = components;
+        text.append("{\"received\":\"");
+        appendIso(received);
+        text.append('"');
+        if (c.measured != Long.MIN_VALUE) {
+            text.append(",\"measured\":\"");
+            appendIso(c.measured);
+            text.append('"');
+        }
+        text.append(",\"peripheral\":\"").append(address).append("\",\"type\":\"").append(typeName).append('"');
+        int i = 0;
+        while (i < c.count) {
+            // repeated components like the RR intervals become one array
+            int end = i + 1;
+            while (end < c.count && c.names[end].equals(c.names[i])) end++;
+            text.append(",\"").append(c.names[i]).append("\":{\"value\":");
+            if (end - i > 1 || "rr_interval".equals(c.names[i])) {
+                text.append('[');
+                for (int j = i; j < end; j++) {
+                    if (j > i) text.append(',');
+                    appendNumber(c.values[j]);
+                }
+                text.append(']');
+            } else {
+                appendNumber(c.values[i]);
+            }
+            text.append(",\"unit\":\"").append(c.units[i]).append("\"}");
+            i = end;
+        }
+        text.append("}\n");
+    }
+
+    private void appendObservation(long received, String address) {
+        final Components c = components;
+        text.append("{\"resource\":{\"resourceType\":\"Observation\",\"status\":\"final\",\"category\":[{\"coding\":[{\"system\":\"")
+                .append(CATEGORY).append("\",\"code\":\"").append(c.category).append("\"}]}],\"code\":");
+        appendCode(c.code, c.display);
+        text.append(",\"effectiveDateTime\":\"");
+        appendIso(c.measured != Long.MIN_VALUE ? c.measured : received);
+        text.append("\",\"issued\":\"");
+        appendIso(received);
+        text.append("\",\"device\":{\"display\":\"").append(address).append("\"}");
+        int first = 0;
+        if (c.count > 0 && c.code.equals(c.codes[0])) {
+            text.append(",\"valueQuantity\":");
+            appendQuantity(c.values[0], c.units[0]);
+            first = 1;
+        }
+        boolean hasComponents = false;
+        for (int i = first; i < c.count; i++) {
+            if (c.codes[i] == null) continue;
+            text.append(hasComponents ? "," : ",\"component\":[");
+            hasComponents = true;
+            text.append("{\"code\":");
+            appendCode(c.codes[i], c.displays[i]);
+            text.append(",\"valueQuantity\":");
+            appendQuantity(c.values[i], c.units[i]);
+            text.append('}');
+        }
+        if (hasComponents) text.append(']');
+        text.append("}}");
+    }
+
+    private void appendCode(String code, String display) {
+        text.append("{\"coding\":[{\"system\":\"").append(LOINC).append("\",\"code\":\"").append(code)
+                .append("\",\"display\":\"").append(display).append("\"}]}");
+    }
+
+    private void appendQuantity(double value, String unit) {
+        text.append("{\"value\":");
+        appendNumber(value);
+        if (!unit.isEmpty()) {
+            text.append(",\"unit\":\"").append(unit).append("\",\"system\":\"").append(UCUM).append("\",\"code\":\"").append(unit).append('"');
+        }
+        text.append('}');
+    }
+
+    // whole numbers without fraction, others with the shortest float representation
+    private void appendNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            text.append((long) value);
+        } else {
+            text.append((float) value);
+        }
+    }
+
+    // yyyy-MM-ddTHH:mm:ss.SSSZ
+    private void appendIso(long epochMillis) {
+        GattDateTime.encode(epochMillis, 0, dateTime, 0);
+        final int year = (dateTime[0] & 0xFF) | ((dateTime[1] & 0xFF) << 8);
+        text.append(year).append('-');
+        appendDigits(dateTime[2], 2);
+        text.append('-');
+        appendDigits(dateTime[3], 2);
+        text.append('T');
+        appendDigits(dateTime[4], 2);
+        text.append(':');
+        appendDigits(dateTime[5], 2);
+        text.append(':');
+        appendDigits(dateTime[6], 2);
+        text.append('.');
+        appendDigits((int) (((epochMillis % 1000) + 1000) % 1000), 3);
+        text.append('Z');
+    }
+
+    private void appendDigits(int value, int digits) {
+        if (digits == 3 && value < 100) text.append('0');
+        if (value < 10) text.append('0');
+        text.append(value);
+    }
+
+    // all text is ASCII, the chars are copied to the chunk buffer byte by byte
+    private void writeText(WritableByteChannel out) throws IOException {
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            chunk.clear();
+            final int end = Math.min(length, start + chunk.capacity());
+            for (int i = start; i < end; i++) {
+                final char ch = text.charAt(i);
+                chunk.put(ch < 0x80 ? (byte) ch : (byte) '?');
+            }
+            chunk.flip();
+            while (chunk.hasRemaining()) out.write(chunk);
+            start = end;
+        }
+        text.setLength(0);
+    }
+}
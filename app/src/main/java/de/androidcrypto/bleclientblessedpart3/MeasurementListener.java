@@ -0,0 +1,11 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives measurements of one type from the {@link MeasurementBus}
+ */
+public interface MeasurementListener<T> {
+
+    void onMeasurement(@NotNull String peripheralAddress, @NotNull T measurement);
+}
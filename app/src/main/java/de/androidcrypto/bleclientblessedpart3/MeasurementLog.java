@@ -0,0 +1,473 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Append-only log of decoded measurements, partitioned by peripheral address and measurement type.
+ * Each partition is a directory of fixed size, memory mapped segment files:
+ * <pre>
+ * root/AA-BB-CC-DD-EE-FF/3/00000001.seg
+ *
+ * segment header (16 bytes): int magic, int version, int committed position, int reserved
+ * entry: int payload length, int crc32 of timestamp and payload, long timestamp (epoch millis), MeasurementCodec payload
+ * </pre>
+ * Appends only write to the mapped buffer. A background thread forces dirty segments to disk every
+ * commit interval or as soon as COMMIT_BYTES are pending (group commit) and then records the committed position
+ * in the segment header. After a crash only the tail of the last segment behind the committed position is scanned,
+ * it is cut at the first entry with a bad length or checksum.
+ *
+ * Appends are expected from one thread (the BLESSED callback handler), reading and flushing may happen on any thread.
+ */
+public class MeasurementLog {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 1000;
+    public static final int COMMIT_BYTES = 64 * 1024;
+
+    static final int MAGIC = 0x474F4C4D; // "MLOG"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 16;
+    static final int ENTRY_HEADER_SIZE = 16;
+    private static final int COMMITTED_POSITION_OFFSET = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Receives the entries of {@link #scan}, the payload buffer is only valid during the call
+     */
+    public interface EntryVisitor {
+        /**
+         * @param payload little endian buffer positioned at the MeasurementCodec encoding
+         * @return false to stop the scan
+         */
+        boolean onEntry(long timestamp, @NotNull ByteBuffer payload);
+    }
+
+    private final File root;
+    private final int segmentSize;
+    private final Map<String, Partition[]> partitions = new HashMap<>();
+    private final ByteBuffer encodeBuffer = ByteBuffer.allocate(MeasurementCodec.MAX_ENCODED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean commitRequested = new AtomicBoolean(false);
+    private volatile long appended = 0; // written by the appending thread only
+    // commit() runs on the commit thread and on any caller
+    private final AtomicLong commits = new AtomicLong();
+    private volatile boolean closed = false;
+
+    public MeasurementLog(@NotNull File root) throws IOException {
+        this(root, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_INTERVAL_MILLIS);
+    }
+
+    public MeasurementLog(@NotNull File root, int segmentSize, long commitIntervalMillis) throws IOException {
+        if (segmentSize < SEGMENT_HEADER_SIZE + ENTRY_HEADER_SIZE + MeasurementCodec.MAX_ENCODED_SIZE) {
+            throw new IllegalArgumentException("segment size too small: " + segmentSize);
+        }
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("cannot create " + root);
+        }
+        this.root = root;
+        this.segmentSize = segmentSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NotNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "MeasurementLog-commit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(commitTask, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Appends a measurement to the partition of its peripheral and type, the entry is durable after the next commit
+     */
+    public void append(@NotNull String peripheralAddress, @NotNull Object measurement, long timestamp) throws IOException {
+        if (closed) throw new IOException("log is closed");
+        encodeBuffer.clear();
+        MeasurementCodec.encode(measurement, encodeBuffer);
+        append(peripheralAddress, encodeBuffer.array(), encodeBuffer.position(), timestamp);
+    }
+
+    /**
+     * Appends the first length bytes of the array, one measurement encoded by MeasurementCodec, e.g. straight from
+     * a view. The array can be reused when the call returns.
+     */
+    public void append(@NotNull String peripheralAddress, @NotNull byte[] encoded, int length, long timestamp) throws IOException {
+        if (closed) throw new IOException("log is closed");
+        final int type = encoded[0] & 0xFF;
+        if (length < MeasurementCodec.HEADER_SIZE || length > MeasurementCodec.MAX_ENCODED_SIZE
+                || type < MeasurementCodec.TYPE_BLOOD_PRESSURE || type > MeasurementCodec.TYPE_GLUCOSE) {
+            throw new IllegalArgumentException("not a measurement encoding");
+        }
+        Partition partition = partition(peripheralAddress, type);
+
+        crc.reset();
+        crc.update((int) timestamp);
+        crc.update((int) (timestamp >>> 8));
+        crc.update((int) (timestamp >>> 16));
+        crc.update((int) (timestamp >>> 24));
+        crc.update((int) (timestamp >>> 32));
+        crc.update((int) (timestamp >>> 40));
+        crc.update((int) (timestamp >>> 48));
+        crc.update((int) (timestamp >>> 56));
+        crc.update(encoded, 0, length);
+
+        final int pending = partition.append(encoded, length, (int) crc.getValue(), timestamp);
+        appended++;
+        if (pending >= COMMIT_BYTES) requestCommit();
+    }
+
+    /**
+     * Forces all pending entries to disk now, blocks until done
+     */
+    public void commit() {
+        List<Partition> snapshot;
+        synchronized (partitions) {
+            snapshot = new ArrayList<>();
+            for (Partition[] byType : partitions.values()) {
+                for (Partition partition : byType) {
+                    if (partition != null) snapshot.add(partition);
+                }
+            }
+        }
+        for (Partition partition : snapshot) {
+            try {
+                partition.commit();
+            } catch (IOException e) {
+                Timber.e(e, "commit of %s failed", partition.directory);
+            }
+        }
+        commits.incrementAndGet();
+    }
+
+    private void requestCommit() {
+        if (commitRequested.compareAndSet(false, true)) {
+            flusher.execute(commitTask);
+        }
+    }
+
+    private final Runnable commitTask = new Runnable() {
+        @Override
+        public void run() {
+            commitRequested.set(false);
+            commit();
+        }
+    };
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commit();
+        synchronized (partitions) {
+            for (Partition[] byType : partitions.values()) {
+                for (Partition partition : byType) {
+                    if (partition != null) partition.close();
+                }
+            }
+            partitions.clear();
+        }
+    }
+
+    /**
+     * Visits the entries of one partition in append order, including entries that are not committed yet
+     */
+    public void scan(@NotNull String peripheralAddress, int type, long fromTimestamp, long toTimestamp, @NotNull EntryVisitor visitor) throws IOException {
+        File directory = partitionDirectory(peripheralAddress, type);
+        File[] segments = listSegments(directory);
+        Partition open;
+        synchronized (partitions) {
+            Partition[] byType = partitions.get(peripheralAddress);
+            open = byType != null ? byType[type] : null;
+        }
+        for (File segment : segments) {
+            ByteBuffer buffer;
+            int end;
+            if (open != null && open.isActive(segment)) {
+                synchronized (open) {
+                    buffer = open.buffer.duplicate();
+                    end = open.position;
+                }
+            } else {
+                buffer = mapReadOnly(segment);
+                end = validEnd(buffer, readCommittedPosition(buffer));
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int position = SEGMENT_HEADER_SIZE;
+            while (position < end) {
+                final int length = buffer.getInt(position);
+                final long timestamp = buffer.getLong(position + 8);
+                if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+                    buffer.limit(position + ENTRY_HEADER_SIZE + length);
+                    buffer.position(position + ENTRY_HEADER_SIZE);
+                    if (!visitor.onEntry(timestamp, buffer)) return;
+                    buffer.limit(buffer.capacity());
+                }
+                position += ENTRY_HEADER_SIZE + length;
+            }
+        }
+    }
+
+    /**
+     * Returns the addresses of all peripherals with a partition on disk
+     */
+    @NotNull
+    public List<String> getPeripheralAddresses() {
+        List<String> addresses = new ArrayList<>();
+        File[] directories = root.listFiles();
+        if (directories == null) return addresses;
+        for (File directory : directories) {
+            if (directory.isDirectory()) addresses.add(directory.getName().replace('-', ':'));
+        }
+        return addresses;
+    }
+
+    public long getAppendedCount() {
+        return appended;
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    private Partition partition(String peripheralAddress, int type) throws IOException {
+        synchronized (partitions) {
+            Partition[] byType = partitions.get(peripheralAddress);
+            if (byType == null) {
+                byType = new Partition[MeasurementCodec.TYPE_GLUCOSE + 1];
+                partitions.put(peripheralAddress, byType);
+            }
+            Partition partition = byType[type];
+            if (partition == null) {
+                partition = new Partition(partitionDirectory(peripheralAddress, type));
+                byType[type] = partition;
+            }
+            return partition;
+        }
+    }
+
+    private File partitionDirectory(String peripheralAddress, int type) {
+        return new File(new File(root, peripheralAddress.replace(':', '-')), String.valueOf(type));
+    }
+
+    private static File[] listSegments(File directory) {
+        File[] segments = directory.listFiles();
+        if (segments == null) return new File[0];
+        List<File> result = new ArrayList<>(segments.length);
+        for (File segment : segments) {
+            if (segment.getName().endsWith(SEGMENT_SUFFIX)) result.add(segment);
+        }
+        File[] sorted = result.toArray(new File[0]);
+        Arrays.sort(sorted); // zero padded names sort by segment number
+        return sorted;
+    }
+
+    private static int segmentNumber(File segment) {
+        String name = segment.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static ByteBuffer mapReadOnly(File segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment, "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private static int readCommittedPosition(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != MAGIC) return SEGMENT_HEADER_SIZE;
+        final int committed = buffer.getInt(COMMITTED_POSITION_OFFSET);
+        return committed >= SEGMENT_HEADER_SIZE && committed <= buffer.capacity() ? committed : SEGMENT_HEADER_SIZE;
+    }
+
+    /**
+     * Returns the end of the last valid entry, scanning only behind the committed position
+     */
+    static int validEnd(ByteBuffer buffer, int committed) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final int capacity = buffer.capacity();
+        final CRC32 check = new CRC32();
+        int position = committed;
+        while (position + ENTRY_HEADER_SIZE <= capacity) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || length > MeasurementCodec.MAX_ENCODED_SIZE || position + ENTRY_HEADER_SIZE + length > capacity) break;
+            check.reset();
+            for (int i = 0; i < 8; i++) {
+                check.update(buffer.get(position + 8 + i));
+            }
+            for (int i = 0; i < length; i++) {
+                check.update(buffer.get(position + ENTRY_HEADER_SIZE + i));
+            }
+            if ((int) check.getValue() != buffer.getInt(position + 4)) break;
+            position += ENTRY_HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private final class Partition {
+        private final File directory;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private File segmentFile;
+        private int segmentNumber;
+        private int position;
+        private int committedPosition;
+        // rolled segments that still need a final force, done by the commit thread
+        private final List<FileChannel> rolledChannels = new ArrayList<>();
+        private final List<MappedByteBuffer> rolledBuffers = new ArrayList<>();
+
+        Partition(File directory) throws IOException {
+            this.directory = directory;
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            File[] segments = listSegments(directory);
+            if (segments.length == 0) {
+                openSegment(1);
+            } else {
+                recover(segments[segments.length - 1]);
+            }
+        }
+
+        private void openSegment(int number) throws IOException {
+            segmentNumber = number;
+            segmentFile = new File(directory, String.format(Locale.ENGLISH, "%08d%s", number, SEGMENT_SUFFIX));
+            RandomAccessFile file = new RandomAccessFile(segmentFile, "rw");
+            file.setLength(segmentSize);
+            channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(COMMITTED_POSITION_OFFSET, SEGMENT_HEADER_SIZE);
+            position = SEGMENT_HEADER_SIZE;
+            committedPosition = SEGMENT_HEADER_SIZE;
+        }
+
+        private void recover(File last) throws IOException {
+            segmentNumber = segmentNumber(last);
+            segmentFile = last;
+            RandomAccessFile file = new RandomAccessFile(last, "rw");
+            if (file.length() != segmentSize) file.setLength(segmentSize);
+            channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt(0) != MAGIC) {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+            }
+            final int committed = readCommittedPosition(buffer);
+            position = validEnd(buffer, committed);
+            // clear a torn tail so it cannot be mistaken for entries later on
+            int i = position;
+            for (; i + 8 <= segmentSize; i += 8) {
+                if (buffer.getLong(i) != 0) buffer.putLong(i, 0);
+            }
+            for (; i < segmentSize; i++) {
+                buffer.put(i, (byte) 0);
+            }
+            if (position != committed) {
+                Timber.w("recovered %s: %d bytes behind the committed position", last, position - committed);
+            }
+            buffer.putInt(COMMITTED_POSITION_OFFSET, position);
+            buffer.force();
+            committedPosition = position;
+        }
+
+        synchronized boolean isActive(File segment) {
+            return segment.equals(segmentFile);
+        }
+
+        /**
+         * @return the number of bytes written since the last commit
+         */
+        synchronized int append(byte[] payload, int length, int crc32, long timestamp) throws IOException {
+            if (position + ENTRY_HEADER_SIZE + length > segmentSize) roll();
+            final int start = position;
+            buffer.putInt(start + 4, crc32);
+            buffer.putLong(start + 8, timestamp);
+            for (int i = 0; i < length; i++) {
+                buffer.put(start + ENTRY_HEADER_SIZE + i, payload[i]);
+            }
+            // the length is written last, an entry without it is not part of the log
+            buffer.putInt(start, length);
+            position = start + ENTRY_HEADER_SIZE + length;
+            return position - committedPosition;
+        }
+
+        private void roll() throws IOException {
+            buffer.putInt(COMMITTED_POSITION_OFFSET, position);
+            rolledChannels.add(channel);
+            rolledBuffers.add(buffer);
+            openSegment(segmentNumber + 1);
+        }
+
+        void commit() throws IOException {
+            MappedByteBuffer active;
+            int committing;
+            List<FileChannel> channels;
+            List<MappedByteBuffer> buffers;
+            synchronized (this) {
+                if (position == committedPosition && rolledBuffers.isEmpty()) return;
+                active = buffer;
+                committing = position;
+                channels = new ArrayList<>(rolledChannels);
+                buffers = new ArrayList<>(rolledBuffers);
+                rolledChannels.clear();
+                rolledBuffers.clear();
+            }
+            for (int i = 0; i < buffers.size(); i++) {
+                buffers.get(i).force();
+                channels.get(i).close();
+            }
+            active.force();
+            synchronized (this) {
+                if (active == buffer) {
+                    // durable with the next force, recovery scans from the older value until then
+                    buffer.putInt(COMMITTED_POSITION_OFFSET, committing);
+                    committedPosition = committing;
+                }
+            }
+        }
+
+        synchronized void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                Timber.e(e, "closing %s failed", segmentFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotView;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import timber.log.Timber;
+
+/**
+ * Everything that happens to a measurement notification after it arrived: decoding, the HRV engines and pulse
+ * oximeter trends, the views and measurements on the {@link MeasurementBus}, the measurement log, the rollups and
+ * the event log. No Android framework and no BLESSED types are involved, BluetoothHandler feeds it from the
+ * characteristic handlers and the PeripheralSimulator can feed it directly.
+ * Must be called on one thread, the BluetoothCentralManager handler in the app.
+ */
+public class MeasurementPipeline {
+
+    /**
+     * The parts that need the Android framework or the sessions, implemented by BluetoothHandler
+     */
+    interface Listener {
+        // false drops a glucose record the meter sent before, see GlucoseRecordSync
+        boolean acceptGlucoseRecord(@NotNull String peripheralAddress, int sequenceNumber);
+
+        // true if the measurement object is needed besides the bus subscribers, e.g. for a broadcast
+        boolean needsMeasurement(@NotNull String peripheralAddress, @NotNull Class<?> measurementClass);
+
+        void onMeasurement(@NotNull String peripheralAddress, @NotNull Object measurement);
+    }
+
+    // HRV engines and trends of one peripheral
+    private static final class Streams {
+        HrvEngine[] hrvEngines;
+        PulseOximeterTrend[] pulseOximeterTrends;
+    }
+
+    private final EventLog eventLog;
+    // reused for every heart rate notification
+    private final HeartRateRecord heartRateRecord = new HeartRateRecord();
+    private final Map<String, Streams> streams = new HashMap<>();
+    private long[] pulseOximeterTrendWindows = {30 * 1000, 5 * 60 * 1000};
+    private long[] hrvWindows = {60 * 1000, 5 * 60 * 1000};
+    @Nullable
+    private Listener listener;
+
+    private final MeasurementBus.Channel<BloodPressureMeasurement> bloodPressureChannel;
+    private final MeasurementBus.Channel<TemperatureMeasurement> temperatureChannel;
+    private final MeasurementBus.Channel<HeartRateMeasurement> heartRateChannel;
+    private final MeasurementBus.Channel<PulseOximeterContinuousMeasurement> pulseOxContinuousChannel;
+    private final MeasurementBus.Channel<PulseOximeterSpotMeasurement> pulseOxSpotChannel;
+    private final MeasurementBus.Channel<WeightMeasurement> weightChannel;
+    private final MeasurementBus.Channel<GlucoseMeasurement> glucoseChannel;
+    // lazy views over the raw value, the measurement objects above are only built when they have a consumer
+    private final MeasurementBus.Channel<BloodPressureView> bloodPressureViewChannel;
+    private final MeasurementBus.Channel<TemperatureView> temperatureViewChannel;
+    private final MeasurementBus.Channel<HeartRateView> heartRateViewChannel;
+    private final MeasurementBus.Channel<PulseOximeterContinuousView> pulseOxContinuousViewChannel;
+    private final MeasurementBus.Channel<PulseOximeterSpotView> pulseOxSpotViewChannel;
+    private final MeasurementBus.Channel<WeightView> weightViewChannel;
+    private final MeasurementBus.Channel<GlucoseView> glucoseViewChannel;
+
+    // durable history of every measurement, null if there is none
+    @Nullable
+    private MeasurementLog measurementLog;
+    private final ByteBuffer logEntryBuffer = ByteBuffer.allocate(MeasurementCodec.MAX_ENCODED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final MeasurementRollup measurementRollup;
+
+    public MeasurementPipeline(@NotNull MeasurementBus measurementBus, @NotNull EventLog eventLog, @NotNull MeasurementRollup measurementRollup) {
+        this.eventLog = eventLog;
+        this.measurementRollup = measurementRollup;
+        bloodPressureChannel = measurementBus.channel(BloodPressureMeasurement.class);
+        temperatureChannel = measurementBus.channel(TemperatureMeasurement.class);
+        heartRateChannel = measurementBus.channel(HeartRateMeasurement.class);
+        pulseOxContinuousChannel = measurementBus.channel(PulseOximeterContinuousMeasurement.class);
+        pulseOxSpotChannel = measurementBus.channel(PulseOximeterSpotMeasurement.class);
+        weightChannel = measurementBus.channel(WeightMeasurement.class);
+        glucoseChannel = measurementBus.channel(GlucoseMeasurement.class);
+        bloodPressureViewChannel = measurementBus.channel(BloodPressureView.class);
+        temperatureViewChannel = measurementBus.channel(TemperatureView.class);
+        heartRateViewChannel = measurementBus.channel(HeartRateView.class);
+        pulseOxContinuousViewChannel = measurementBus.channel(PulseOximeterContinuousView.class);
+        pulseOxSpotViewChannel = measurementBus.channel(PulseOximeterSpotView.class);
+        weightViewChannel = measurementBus.channel(WeightView.class);
+        glucoseViewChannel = measurementBus.channel(GlucoseView.class);
+    }
+
+    void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    void setMeasurementLog(@Nullable MeasurementLog measurementLog) {
+        this.measurementLog = measurementLog;
+    }
+
+    /**
+     * Handles a notification of one of the measurement characteristics.
+     * A value that is too short for its flags is dropped and logged as {@link EventLog.Event#MALFORMED}.
+     *
+     * @param elapsedMillis monotonic time of the notification, the trends are windowed by it
+     * @return false if the characteristic is not a measurement characteristic
+     */
+    public boolean onNotification(@NotNull String peripheralAddress, @NotNull UUID characteristicUuid, @NotNull byte[] value, long elapsedMillis) {
+        switch (GattCharacteristics.toAssignedNumber(characteristicUuid)) {
+            case GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT:
+                onBloodPressure(peripheralAddress, characteristicUuid, value);
+                return true;
+            case GattCharacteristics.TEMPERATURE_MEASUREMENT:
+                onTemperature(peripheralAddress, characteristicUuid, value);
+                return true;
+            case GattCharacteristics.HEART_RATE_MEASUREMENT:
+                onHeartRate(peripheralAddress, characteristicUuid, value);
+                return true;
+            case GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT:
+                onPulseOximeterContinuous(peripheralAddress, characteristicUuid, value, elapsedMillis);
+                return true;
+            case GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT:
+                onPulseOximeterSpot(peripheralAddress, characteristicUuid, value);
+                return true;
+            case GattCharacteristics.WEIGHT_MEASUREMENT:
+                onWeight(peripheralAddress, characteristicUuid, value);
+                return true;
+            case GattCharacteristics.GLUCOSE_MEASUREMENT:
+                onGlucose(peripheralAddress, characteristicUuid, value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void onBloodPressure(String address, UUID characteristicUuid, byte[] value) {
+        BloodPressureView view = new BloodPressureView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        bloodPressureViewChannel.publish(address, view);
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, view, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(view, now, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, bloodPressureChannel, BloodPressureMeasurement.class)) {
+            BloodPressureMeasurement measurement = new BloodPressureMeasurement(value);
+            bloodPressureChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.BLOOD_PRESSURE)) {
+            eventLog.log(EventLog.Event.BLOOD_PRESSURE, address, characteristicUuid,
+                    EventLog.bits(view.getSystolic()), EventLog.bits(view.getDiastolic()),
+                    EventLog.bits(view.getMeanArterialPressure()), EventLog.bits(view.hasPulseRate() ? view.getPulseRate() : Double.NaN));
+        }
+    }
+
+    private void onTemperature(String address, UUID characteristicUuid, byte[] value) {
+        TemperatureView view = new TemperatureView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        temperatureViewChannel.publish(address, view);
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, view, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(view, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, temperatureChannel, TemperatureMeasurement.class)) {
+            TemperatureMeasurement measurement = new TemperatureMeasurement(value);
+            temperatureChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.TEMPERATURE)) {
+            eventLog.log(EventLog.Event.TEMPERATURE, address, characteristicUuid,
+                    EventLog.bits(view.getTemperatureValue()), EventLog.bits(view.isFahrenheit()));
+        }
+    }
+
+    private void onHeartRate(String address, UUID characteristicUuid, byte[] value) {
+        // decoded once, the view, the HRV engines and the measurement are fed from the record
+        if (!HeartRateDecoder.decode(value, heartRateRecord)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        if (heartRateRecord.rrCount > 0) updateHrv(address, heartRateRecord);
+        if (heartRateViewChannel.hasSubscribers()) {
+            HeartRateView view = new HeartRateView();
+            view.wrap(value, heartRateRecord);
+            heartRateViewChannel.publish(address, view);
+        }
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, heartRateRecord, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(heartRateRecord, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, heartRateChannel, HeartRateMeasurement.class)) {
+            HeartRateMeasurement measurement = new HeartRateMeasurement(heartRateRecord);
+            heartRateChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.HEART_RATE)) {
+            eventLog.log(EventLog.Event.HEART_RATE, address, characteristicUuid, heartRateRecord.pulse, heartRateRecord.rrCount);
+        }
+    }
+
+    private void onPulseOximeterContinuous(String address, UUID characteristicUuid, byte[] value, long elapsedMillis) {
+        PulseOximeterContinuousView view = new PulseOximeterContinuousView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        if (view.getSpO2() <= 100 && view.getPulseRate() <= 220) {
+            updatePulseOximeterTrends(address, view, elapsedMillis);
+            pulseOxContinuousViewChannel.publish(address, view);
+            final long now = System.currentTimeMillis();
+            measurementRollup.add(address, view, now);
+            if (measurementLog != null) {
+                MeasurementCodec.encode(view, logEntry());
+                appendLogEntry(address, now);
+            }
+            if (needsMeasurement(address, pulseOxContinuousChannel, PulseOximeterContinuousMeasurement.class)) {
+                PulseOximeterContinuousMeasurement measurement = new PulseOximeterContinuousMeasurement(value);
+                pulseOxContinuousChannel.publish(address, measurement);
+                if (listener != null) listener.onMeasurement(address, measurement);
+            }
+        }
+        if (eventLog.isLoggable(EventLog.Event.PULSE_OXIMETER_CONTINUOUS)) {
+            eventLog.log(EventLog.Event.PULSE_OXIMETER_CONTINUOUS, address, characteristicUuid, view.getSpO2(), view.getPulseRate());
+        }
+    }
+
+    private void onPulseOximeterSpot(String address, UUID characteristicUuid, byte[] value) {
+        PulseOximeterSpotView view = new PulseOximeterSpotView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        pulseOxSpotViewChannel.publish(address, view);
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, view, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(view, now, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, pulseOxSpotChannel, PulseOximeterSpotMeasurement.class)) {
+            PulseOximeterSpotMeasurement measurement = new PulseOximeterSpotMeasurement(value);
+            pulseOxSpotChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.PULSE_OXIMETER_SPOT)) {
+            eventLog.log(EventLog.Event.PULSE_OXIMETER_SPOT, address, characteristicUuid, view.getSpO2(), view.getPulseRate());
+        }
+    }
+
+    private void onWeight(String address, UUID characteristicUuid, byte[] value) {
+        WeightView view = new WeightView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        weightViewChannel.publish(address, view);
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, view, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(view, now, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, weightChannel, WeightMeasurement.class)) {
+            WeightMeasurement measurement = new WeightMeasurement(value);
+            weightChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.WEIGHT)) {
+            eventLog.log(EventLog.Event.WEIGHT, address, characteristicUuid,
+                    EventLog.bits(view.getWeight()), EventLog.bits(view.isPounds()));
+        }
+    }
+
+    private void onGlucose(String address, UUID characteristicUuid, byte[] value) {
+        GlucoseView view = new GlucoseView();
+        if (!view.wrap(value)) {
+            logMalformed(address, characteristicUuid, value);
+            return;
+        }
+        // records that a meter without sequence number filter sends again are dropped
+        if (listener != null && !listener.acceptGlucoseRecord(address, view.getSequenceNumber())) return;
+        glucoseViewChannel.publish(address, view);
+        final long now = System.currentTimeMillis();
+        measurementRollup.add(address, view, now);
+        if (measurementLog != null) {
+            MeasurementCodec.encode(view, logEntry());
+            appendLogEntry(address, now);
+        }
+        if (needsMeasurement(address, glucoseChannel, GlucoseMeasurement.class)) {
+            GlucoseMeasurement measurement = new GlucoseMeasurement(value);
+            glucoseChannel.publish(address, measurement);
+            if (listener != null) listener.onMeasurement(address, measurement);
+        }
+        if (eventLog.isLoggable(EventLog.Event.GLUCOSE)) {
+            eventLog.log(EventLog.Event.GLUCOSE, address, characteristicUuid, view.getSequenceNumber(),
+                    EventLog.bits(view.hasConcentration() ? view.getConcentration() : Double.NaN), view.getTimestamp());
+        }
+    }
+
+    // a value that does not hold the fields announced by its flags is dropped
+    void logMalformed(@NotNull String address, @NotNull UUID characteristicUuid, @NotNull byte[] value) {
+        if (eventLog.isLoggable(EventLog.Event.MALFORMED)) {
+            eventLog.log(EventLog.Event.MALFORMED, address, characteristicUuid, value.length, EventLog.pack(value));
+        }
+    }
+
+    // measurement objects are only built for the bus and the listener, the log is written from the views
+    private boolean needsMeasurement(String address, MeasurementBus.Channel<?> channel, Class<?> measurementClass) {
+        return channel.hasSubscribers() || (listener != null && listener.needsMeasurement(address, measurementClass));
+    }
+
+    // log entries are encoded straight from the views and records, no measurement object is built for them
+    private ByteBuffer logEntry() {
+        logEntryBuffer.clear();
+        return logEntryBuffer;
+    }
+
+    private void appendLogEntry(String address, long timestamp) {
+        try {
+            measurementLog.append(address, logEntryBuffer.array(), logEntryBuffer.position(), timestamp);
+        } catch (IOException e) {
+            Timber.e(e, "cannot append to the measurement log");
+        }
+    }
+
+    private Streams streams(String address) {
+        Streams peripheral = streams.get(address);
+        if (peripheral == null) {
+            peripheral = new Streams();
+            streams.put(address, peripheral);
+        }
+        return peripheral;
+    }
+
+    private void updatePulseOximeterTrends(String address, PulseOximeterContinuousView view, long elapsedMillis) {
+        Streams peripheral = streams(address);
+        PulseOximeterTrend[] trends = peripheral.pulseOximeterTrends;
+        if (trends == null) {
+            trends = new PulseOximeterTrend[pulseOximeterTrendWindows.length];
+            for (int i = 0; i < trends.length; i++) trends[i] = new PulseOximeterTrend(pulseOximeterTrendWindows[i]);
+            peripheral.pulseOximeterTrends = trends;
+        }
+        for (PulseOximeterTrend trend : trends) trend.add(elapsedMillis, view);
+    }
+
+    private void updateHrv(String address, HeartRateRecord record) {
+        Streams peripheral = streams(address);
+        HrvEngine[] engines = peripheral.hrvEngines;
+        if (engines == null) {
+            engines = new HrvEngine[hrvWindows.length];
+            for (int i = 0; i < engines.length; i++) engines[i] = new HrvEngine(hrvWindows[i]);
+            peripheral.hrvEngines = engines;
+        }
+        final int rrCount = record.rrCount;
+        for (int i = 0; i < rrCount; i++) {
+            final int rrInterval = record.rrIntervals[i];
+            for (HrvEngine engine : engines) engine.addRrInterval(rrInterval);
+        }
+    }
+
+    // the engines of all peripherals start over
+    void setHrvWindows(@NotNull long... windowMillis) {
+        hrvWindows = windowMillis.clone();
+        for (Streams peripheral : streams.values()) peripheral.hrvEngines = null;
+    }
+
+    // one engine per window, null if the peripheral sent no RR interval yet
+    @Nullable
+    public HrvEngine[] getHrvEngines(@NotNull String peripheralAddress) {
+        Streams peripheral = streams.get(peripheralAddress);
+        return peripheral == null ? null : peripheral.hrvEngines;
+    }
+
+    // the trends of all peripherals start over
+    void setPulseOximeterTrendWindows(@NotNull long... windowMillis) {
+        pulseOximeterTrendWindows = windowMillis.clone();
+        for (Streams peripheral : streams.values()) peripheral.pulseOximeterTrends = null;
+    }
+
+    // one trend per window, null if the peripheral sent no continuous measurement yet
+    @Nullable
+    public PulseOximeterTrend[] getPulseOximeterTrends(@NotNull String peripheralAddress) {
+        Streams peripheral = streams.get(peripheralAddress);
+        return peripheral == null ? null : peripheral.pulseOximeterTrends;
+    }
+
+    // drops the engines and trends of the peripherals whose sessions were removed
+    void retain(@NotNull Set<String> peripheralAddresses) {
+        streams.keySet().retainAll(peripheralAddresses);
+    }
+}
@@ -0,0 +1,85 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock free single producer / single consumer queue of (peripheral address, measurement) pairs.
+ * Both values are kept in parallel slot arrays so an offer does not allocate an envelope object.
+ */
+public class MeasurementQueue<T> {
+
+    private final String[] addresses;
+    private final Object[] measurements;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong(); // next slot to write, written by the producer
+    private volatile long dropped = 0; // written by the producer
+
+    /**
+     * @param capacity is rounded up to the next power of 2
+     */
+    public MeasurementQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        addresses = new String[size];
+        measurements = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side, a measurement offered to a full queue is dropped and counted
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(@NotNull String peripheralAddress, @NotNull T measurement) {
+        final long currentTail = tail.get();
+        if (currentTail - head.get() > mask) {
+            dropped++;
+            return false;
+        }
+        final int index = (int) currentTail & mask;
+        addresses[index] = peripheralAddress;
+        measurements[index] = measurement;
+        // publishes the slot contents to the consumer
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side, hands all queued measurements to the listener
+     *
+     * @return the number of delivered measurements
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(@NotNull MeasurementListener<T> listener) {
+        long currentHead = head.get();
+        final long currentTail = tail.get();
+        int count = 0;
+        while (currentHead < currentTail) {
+            final int index = (int) currentHead & mask;
+            String address = addresses[index];
+            T measurement = (T) measurements[index];
+            addresses[index] = null;
+            measurements[index] = null;
+            currentHead++;
+            head.lazySet(currentHead);
+            listener.onMeasurement(address, measurement);
+            count++;
+        }
+        return count;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // number of measurements dropped because the queue was full
+    public long getDropped() {
+        return dropped;
+    }
+}
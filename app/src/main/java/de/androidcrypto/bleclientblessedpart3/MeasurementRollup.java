@@ -0,0 +1,334 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotView;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per minute, hour and day aggregates (count, min, max, sum, sum of squares) of the measurements of every peripheral,
+ * so a chart of a long range reads a few hundred buckets instead of the raw samples. Every measurement updates one
+ * bucket of each tier. The buckets live in memory, in a ring per tier that keeps the newest {@link Tier#retention}
+ * buckets, and are rebuilt from the {@link MeasurementLog} on start with {@link #rebuild}. Buckets are aligned to
+ * local time, so a day bucket is a calendar day.
+ *
+ * Values are converted to one unit per metric: mmHg, degree Celsius, kg and mg/dL. Thread safe.
+ */
+public class MeasurementRollup {
+
+    public enum Tier {
+        MINUTE(60 * 1000L, 3 * 24 * 60),
+        HOUR(60 * 60 * 1000L, 90 * 24),
+        DAY(24 * 60 * 60 * 1000L, 3 * 366);
+
+        public final long widthMillis;
+        // number of buckets kept
+        public final int retention;
+
+        Tier(long widthMillis, int retention) {
+            this.widthMillis = widthMillis;
+            this.retention = retention;
+        }
+    }
+
+    public enum Metric {
+        PULSE, SPO2, PULSE_OXIMETER_PULSE, SYSTOLIC, DIASTOLIC, MEAN_ARTERIAL_PRESSURE, TEMPERATURE, WEIGHT, GLUCOSE
+    }
+
+    /**
+     * Receives the buckets of {@link #query}, oldest first
+     */
+    public interface BucketVisitor {
+        /**
+         * @param start epoch millis of the first instant of the bucket
+         * @return false to stop the query
+         */
+        boolean onBucket(long start, long count, double min, double max, double sum, double sumOfSquares);
+    }
+
+    private static final Tier[] TIERS = Tier.values();
+    private static final Metric[] METRICS = Metric.values();
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final double KPA_TO_MMHG = 7.50061683;
+    private static final double POUND_TO_KG = 0.45359237;
+    private static final double MMOL_TO_MG_PER_DL = 18.016;
+
+    // one ring of buckets per tier
+    private static final class Ring {
+        final long widthMillis;
+        final int capacity;
+        final long[] buckets;
+        final long[] counts;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+        final double[] sumOfSquares;
+
+        Ring(Tier tier) {
+            widthMillis = tier.widthMillis;
+            capacity = tier.retention;
+            buckets = new long[capacity];
+            counts = new long[capacity];
+            min = new double[capacity];
+            max = new double[capacity];
+            sum = new double[capacity];
+            sumOfSquares = new double[capacity];
+            Arrays.fill(buckets, EMPTY);
+        }
+
+        void add(long bucket, double value) {
+            final int slot = slot(bucket);
+            if (buckets[slot] != bucket) {
+                // a sample behind the retention is dropped, a newer one reuses the slot
+                if (buckets[slot] != EMPTY && buckets[slot] > bucket) return;
+                buckets[slot] = bucket;
+                counts[slot] = 0;
+                min[slot] = Double.POSITIVE_INFINITY;
+                max[slot] = Double.NEGATIVE_INFINITY;
+                sum[slot] = 0;
+                sumOfSquares[slot] = 0;
+            }
+            counts[slot]++;
+            if (value < min[slot]) min[slot] = value;
+            if (value > max[slot]) max[slot] = value;
+            sum[slot] += value;
+            sumOfSquares[slot] += value * value;
+        }
+
+        int slot(long bucket) {
+            return (int) (((bucket % capacity) + capacity) % capacity);
+        }
+    }
+
+    private final Map<String, Ring[][]> series = new HashMap<>();
+    private long added = 0;
+
+    /**
+     * Adds the values of a measurement received at the timestamp (epoch millis), unsupported objects are ignored
+     */
+    public void add(@NotNull String peripheralAddress, @NotNull Object measurement, long timestamp) {
+        if (measurement instanceof HeartRateMeasurement) {
+            Integer pulse = ((HeartRateMeasurement) measurement).pulse;
+            if (pulse != null) addPulse(peripheralAddress, timestamp, pulse);
+        } else if (measurement instanceof PulseOximeterContinuousMeasurement) {
+            PulseOximeterContinuousMeasurement continuous = (PulseOximeterContinuousMeasurement) measurement;
+            addPulseOximeter(peripheralAddress, timestamp, continuous.getSpO2(), continuous.getPulseRate());
+        } else if (measurement instanceof PulseOximeterSpotMeasurement) {
+            PulseOximeterSpotMeasurement spot = (PulseOximeterSpotMeasurement) measurement;
+            addPulseOximeter(peripheralAddress, timestamp, spot.getSpO2(), spot.getPulseRate());
+        } else if (measurement instanceof BloodPressureMeasurement) {
+            BloodPressureMeasurement bloodPressure = (BloodPressureMeasurement) measurement;
+            addBloodPressure(peripheralAddress, timestamp, bloodPressure.isMMHG, orNaN(bloodPressure.systolic),
+                    orNaN(bloodPressure.diastolic), orNaN(bloodPressure.meanArterialPressure), orNaN(bloodPressure.pulseRate));
+        } else if (measurement instanceof TemperatureMeasurement) {
+            TemperatureMeasurement temperature = (TemperatureMeasurement) measurement;
+            addTemperature(peripheralAddress, timestamp, temperature.unit == TemperatureUnit.Fahrenheit, temperature.temperatureValue);
+        } else if (measurement instanceof WeightMeasurement) {
+            WeightMeasurement weight = (WeightMeasurement) measurement;
+            switch (weight.unit) {
+                case Kilograms:
+                    add(peripheralAddress, Metric.WEIGHT, timestamp, weight.weight);
+                    break;
+                case Pounds:
+                    add(peripheralAddress, Metric.WEIGHT, timestamp, weight.weight * POUND_TO_KG);
+                    break;
+                case Stones:
+                    add(peripheralAddress, Metric.WEIGHT, timestamp, weight.weight * 14 * POUND_TO_KG);
+                    break;
+            }
+        } else if (measurement instanceof GlucoseMeasurement) {
+            GlucoseMeasurement glucose = (GlucoseMeasurement) measurement;
+            addGlucose(peripheralAddress, timestamp, glucose.unit == GlucoseMeasurementUnit.MmolPerLiter, glucose.value);
+        }
+    }
+
+    // the view and record overloads add the same values as the measurement built from them, without building it
+
+    public void add(@NotNull String peripheralAddress, @NotNull HeartRateRecord record, long timestamp) {
+        addPulse(peripheralAddress, timestamp, record.pulse);
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull PulseOximeterContinuousView view, long timestamp) {
+        addPulseOximeter(peripheralAddress, timestamp, view.getSpO2(), view.getPulseRate());
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull PulseOximeterSpotView view, long timestamp) {
+        addPulseOximeter(peripheralAddress, timestamp, view.getSpO2(), view.getPulseRate());
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull BloodPressureView view, long timestamp) {
+        addBloodPressure(peripheralAddress, timestamp, view.isMMHG(), view.getSystolic(), view.getDiastolic(),
+                view.getMeanArterialPressure(), view.hasPulseRate() ? view.getPulseRate() : Double.NaN);
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull TemperatureView view, long timestamp) {
+        addTemperature(peripheralAddress, timestamp, view.isFahrenheit(), view.getTemperatureValue());
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull WeightView view, long timestamp) {
+        add(peripheralAddress, Metric.WEIGHT, timestamp, view.isPounds() ? view.getWeight() * POUND_TO_KG : view.getWeight());
+    }
+
+    public void add(@NotNull String peripheralAddress, @NotNull GlucoseView view, long timestamp) {
+        addGlucose(peripheralAddress, timestamp, view.isMmolPerLiter(), view.getConcentration());
+    }
+
+    private void addPulse(String peripheralAddress, long timestamp, int pulse) {
+        if (pulse > 0) add(peripheralAddress, Metric.PULSE, timestamp, pulse);
+    }
+
+    private void addPulseOximeter(String peripheralAddress, long timestamp, int spO2, int pulseRate) {
+        // 0 is sent while the sensor has no reading
+        if (spO2 > 0) add(peripheralAddress, Metric.SPO2, timestamp, spO2);
+        if (pulseRate > 0) add(peripheralAddress, Metric.PULSE_OXIMETER_PULSE, timestamp, pulseRate);
+    }
+
+    // absent values are NaN, they are skipped
+    private void addBloodPressure(String peripheralAddress, long timestamp, boolean mmHg, double systolic, double diastolic,
+                                  double meanArterialPressure, double pulseRate) {
+        final double factor = mmHg ? 1 : KPA_TO_MMHG;
+        add(peripheralAddress, Metric.SYSTOLIC, timestamp, systolic * factor);
+        add(peripheralAddress, Metric.DIASTOLIC, timestamp, diastolic * factor);
+        add(peripheralAddress, Metric.MEAN_ARTERIAL_PRESSURE, timestamp, meanArterialPressure * factor);
+        add(peripheralAddress, Metric.PULSE, timestamp, pulseRate);
+    }
+
+    private void addTemperature(String peripheralAddress, long timestamp, boolean fahrenheit, double value) {
+        add(peripheralAddress, Metric.TEMPERATURE, timestamp, fahrenheit ? (value - 32) * 5 / 9 : value);
+    }
+
+    private void addGlucose(String peripheralAddress, long timestamp, boolean mmolPerLiter, double value) {
+        // a record without concentration decodes to 0
+        if (value <= 0) return;
+        add(peripheralAddress, Metric.GLUCOSE, timestamp, mmolPerLiter ? value * MMOL_TO_MG_PER_DL : value);
+    }
+
+    private static double orNaN(Float value) {
+        return value != null ? value : Double.NaN;
+    }
+
+    public synchronized void add(@NotNull String peripheralAddress, @NotNull Metric metric, long timestamp, double value) {
+        if (Double.isNaN(value)) return;
+        Ring[][] byMetric = series.get(peripheralAddress);
+        if (byMetric == null) {
+            byMetric = new Ring[METRICS.length][];
+            series.put(peripheralAddress, byMetric);
+        }
+        Ring[] rings = byMetric[metric.ordinal()];
+        if (rings == null) {
+            // allocated on the first sample, most peripherals report only a few metrics
+            rings = new Ring[TIERS.length];
+            for (int i = 0; i < TIERS.length; i++) rings[i] = new Ring(TIERS[i]);
+            byMetric[metric.ordinal()] = rings;
+        }
+        final long local = timestamp + GattDateTime.getZoneOffsetMillis(timestamp);
+        for (Ring ring : rings) ring.add(floorDiv(local, ring.widthMillis), value);
+        added++;
+    }
+
+    /**
+     * Visits the buckets of the tier that overlap the range, oldest first, buckets without samples are skipped
+     */
+    public synchronized void query(@NotNull String peripheralAddress, @NotNull Metric metric, @NotNull Tier tier,
+                                   long fromTimestamp, long toTimestamp, @NotNull BucketVisitor visitor) {
+        Ring[][] byMetric = series.get(peripheralAddress);
+        if (byMetric == null || byMetric[metric.ordinal()] == null) return;
+        final Ring ring = byMetric[metric.ordinal()][tier.ordinal()];
+        final long first = floorDiv(fromTimestamp + GattDateTime.getZoneOffsetMillis(fromTimestamp), ring.widthMillis);
+        final long last = floorDiv(toTimestamp + GattDateTime.getZoneOffsetMillis(toTimestamp), ring.widthMillis);
+        // a longer range than the retention only finds the retained buckets
+        for (long bucket = Math.max(first, last - ring.capacity + 1); bucket <= last; bucket++) {
+            final int slot = ring.slot(bucket);
+            if (ring.buckets[slot] != bucket) continue;
+            // the buckets of an hour that occurs twice start at its second occurrence, like in Calendar
+            final long start = GattDateTime.localToEpochMillis(bucket * ring.widthMillis);
+            if (!visitor.onBucket(start, ring.counts[slot], ring.min[slot], ring.max[slot], ring.sum[slot], ring.sumOfSquares[slot])) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The finest tier that covers the range with at most maxBuckets buckets, DAY if none does
+     */
+    @NotNull
+    public static Tier tierFor(long fromTimestamp, long toTimestamp, int maxBuckets) {
+        final long range = toTimestamp - fromTimestamp;
+        for (Tier tier : TIERS) {
+            final long buckets = range / tier.widthMillis + 1;
+            if (buckets <= maxBuckets && buckets <= tier.retention) return tier;
+        }
+        return Tier.DAY;
+    }
+
+    /**
+     * Adds every measurement of the log received before the timestamp, to restore the buckets after a restart or crash.
+     * Call it on an empty rollup, measurements received from the timestamp on may be added concurrently.
+     *
+     * @return the number of measurements read from the log
+     */
+    public long rebuild(@NotNull MeasurementLog log, long beforeTimestamp) throws IOException {
+        final long[] count = {0};
+        for (final String address : log.getPeripheralAddresses()) {
+            for (int type = MeasurementCodec.TYPE_BLOOD_PRESSURE; type <= MeasurementCodec.TYPE_GLUCOSE; type++) {
+                log.scan(address, type, Long.MIN_VALUE, beforeTimestamp - 1, new MeasurementLog.EntryVisitor() {
+                    @Override
+                    public boolean onEntry(long timestamp, @NotNull ByteBuffer payload) {
+                        try {
+                            add(address, MeasurementCodec.decode(payload), timestamp);
+                            count[0]++;
+                        } catch (IllegalArgumentException e) {
+                            // a corrupt entry is skipped, it is not part of the rollups either
+                        }
+                        return true;
+                    }
+                });
+            }
+        }
+        return count[0];
+    }
+
+    public synchronized void clear() {
+        series.clear();
+        added = 0;
+    }
+
+    // number of values added since the last clear
+    public synchronized long getAddedCount() {
+        return added;
+    }
+
+    /**
+     * Mean of a bucket
+     */
+    public static double mean(long count, double sum) {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Population standard deviation of a bucket
+     */
+    public static double standardDeviation(long count, double sum, double sumOfSquares) {
+        if (count == 0) return Double.NaN;
+        final double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+    }
+
+    // Math.floorDiv needs API level 24
+    private static long floorDiv(long x, long y) {
+        final long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,168 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.BluetoothPeripheral;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of one peripheral handled by the {@link SessionManager}.
+ * The fields are written on the BluetoothCentralManager handler, the volatile ones may be read from any thread.
+ * GATT operations of a session are queued by its own BluetoothPeripheral, so sessions never wait on each other.
+ */
+public class PeripheralSession {
+
+    public enum State {
+        QUEUED,
+        CONNECTING,
+        CONNECTED,
+        DISCONNECTED
+    }
+
+    private final String address;
+    private volatile BluetoothPeripheral peripheral;
+    private volatile String name;
+    private volatile State state = State.QUEUED;
+    // characteristics with notifications enabled, updated in onNotificationStateUpdate
+    private final Set<UUID> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+    // set by an explicit disconnect, no reconnect is scheduled afterwards
+    private volatile boolean closing = false;
+    // notifiable characteristics found by the SubscriptionPlanner, null until the services are discovered
+    List<BluetoothGattCharacteristic> notifiableCharacteristics = null;
+    // wanted notify state, applied again after a reconnect
+    boolean subscriptionsWanted = false;
+    volatile SubscriptionPlanner.Plan subscriptionPlan = null;
+    // glucose record download of this connection, see GlucoseRecordSync
+    volatile GlucoseRecordSync.Transfer glucoseTransfer = null;
+    // created when the first glucose measurement is joined, kept over reconnects
+    GlucoseJoinBuffer glucoseJoinBuffer = null;
+    // number of current time notifications while the blood pressure measurement is notifying, see isOmronBPM
+    int currentTimeCounter = 0;
+    // SystemClock.elapsedRealtimeNanos() of each ConnectionLatencyTracker.Phase, 0 if not reached yet
+    final long[] phaseNanos = new long[ConnectionLatencyTracker.PHASE_COUNT];
+    // failed reconnect attempts since the peripheral was lost, -1 while it was never lost
+    int reconnectFailures = -1;
+    Runnable reconnectTask = null;
+    private volatile int reconnectAttempts = 0;
+    private volatile int reconnectSuccesses = 0;
+    private volatile int connectCount = 0;
+    private volatile long connectedSinceMillis = 0;
+
+    PeripheralSession(@NotNull BluetoothPeripheral peripheral) {
+        this.address = peripheral.getAddress();
+        this.peripheral = peripheral;
+        this.name = peripheral.getName();
+    }
+
+    @NotNull
+    public String getAddress() {
+        return address;
+    }
+
+    @NotNull
+    public BluetoothPeripheral getPeripheral() {
+        return peripheral;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @NotNull
+    public State getState() {
+        return state;
+    }
+
+    public boolean isConnected() {
+        return state == State.CONNECTED;
+    }
+
+    public boolean isClosing() {
+        return closing;
+    }
+
+    public int getConnectCount() {
+        return connectCount;
+    }
+
+    public int getReconnectAttempts() {
+        return reconnectAttempts;
+    }
+
+    public int getReconnectSuccesses() {
+        return reconnectSuccesses;
+    }
+
+    public long getConnectedSinceMillis() {
+        return connectedSinceMillis;
+    }
+
+    // duration of the last completed subscription plan, -1 if none completed yet
+    public long getSubscriptionPlanDurationNanos() {
+        SubscriptionPlanner.Plan plan = subscriptionPlan;
+        return plan == null ? -1 : plan.getDurationNanos();
+    }
+
+    @NotNull
+    public Set<UUID> getSubscriptions() {
+        return Collections.unmodifiableSet(subscriptions);
+    }
+
+    void setState(@NotNull State state) {
+        this.state = state;
+    }
+
+    void onConnected(@NotNull BluetoothPeripheral peripheral) {
+        this.peripheral = peripheral;
+        this.name = peripheral.getName();
+        state = State.CONNECTED;
+        connectCount++;
+        connectedSinceMillis = System.currentTimeMillis();
+        currentTimeCounter = 0;
+    }
+
+    void onDisconnected() {
+        state = State.DISCONNECTED;
+        subscriptions.clear();
+        connectedSinceMillis = 0;
+        notifiableCharacteristics = null;
+        subscriptionPlan = null;
+        glucoseTransfer = null;
+        Arrays.fill(phaseNanos, 0);
+    }
+
+    void onReconnectAttempt() {
+        reconnectAttempts++;
+    }
+
+    void onReconnected() {
+        reconnectSuccesses++;
+        reconnectFailures = -1;
+    }
+
+    void setClosing() {
+        closing = true;
+    }
+
+    void setSubscribed(@NotNull UUID characteristicUUID, boolean subscribed) {
+        if (subscribed) {
+            subscriptions.add(characteristicUUID);
+        } else {
+            subscriptions.remove(characteristicUUID);
+        }
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return address + " (" + name + ") " + state;
+    }
+}
@@ -0,0 +1,298 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for real peripherals in load tests, no radio is used.
+ * Virtual peripherals send scripted or recorded notification streams to a {@link Target} at a fixed rate with
+ * optional jitter, and can be disconnected at random and reconnected after a delay.
+ * {@link #run(long, boolean)} either paces the events on the wall clock, or delivers them as fast as the target
+ * takes them while the timestamps still follow the virtual clock. Events are delivered on the calling thread.
+ */
+public class PeripheralSimulator {
+
+    public static final double MAX_RATE_HZ = 1000;
+
+    /**
+     * Receives the simulated events, see BluetoothHandler.getSimulatorTarget() for the one that feeds the BLESSED callbacks
+     */
+    public interface Target {
+        void onConnected(@NotNull String address);
+
+        /**
+         * @param timestampNanos virtual time since the start of the run
+         */
+        void onNotification(@NotNull String address, @NotNull UUID characteristicUuid, @NotNull byte[] value, long timestampNanos);
+
+        void onDisconnected(@NotNull String address);
+
+        /**
+         * Number of events the target has accepted but not processed yet, 0 if it processes them synchronously
+         */
+        int getQueueDepth();
+    }
+
+    /**
+     * Payload of the index-th notification of a peripheral
+     */
+    public interface Source {
+        @NotNull
+        byte[] next(int index);
+    }
+
+    public interface GcCounter {
+        long getCollectionCount();
+
+        long getCollectionTimeMillis();
+    }
+
+    /**
+     * Replays the values in a loop, e.g. a recorded stream
+     */
+    @NotNull
+    public static Source replay(@NotNull final List<byte[]> values) {
+        if (values.isEmpty()) throw new IllegalArgumentException("no values to replay");
+        return new Source() {
+            @NotNull
+            @Override
+            public byte[] next(int index) {
+                return values.get(index % values.size());
+            }
+        };
+    }
+
+    public static final class Device {
+        public final String address;
+        public final UUID characteristicUuid;
+        public final double rateHz;
+        // each interval is spread by +- jitter of the period, 0 - 1
+        public final double jitter;
+        // mean number of injected disconnects per minute of connection, 0 for none
+        public final double disconnectsPerMinute;
+        public final long reconnectDelayMillis;
+        final Source source;
+
+        // state of a run
+        boolean connected;
+        long nextNotification;
+        long nextDisconnect;
+        long reconnectAt;
+        int index;
+
+        public Device(@NotNull String address, @NotNull UUID characteristicUuid, double rateHz, @NotNull Source source) {
+            this(address, characteristicUuid, rateHz, 0, 0, 0, source);
+        }
+
+        public Device(@NotNull String address, @NotNull UUID characteristicUuid, double rateHz, double jitter,
+                      double disconnectsPerMinute, long reconnectDelayMillis, @NotNull Source source) {
+            if (rateHz <= 0 || rateHz > MAX_RATE_HZ) throw new IllegalArgumentException("rate must be in (0, 1000] Hz");
+            if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter must be in [0, 1)");
+            if (disconnectsPerMinute < 0 || reconnectDelayMillis < 0) throw new IllegalArgumentException("negative disconnect settings");
+            this.address = address;
+            this.characteristicUuid = characteristicUuid;
+            this.rateHz = rateHz;
+            this.jitter = jitter;
+            this.disconnectsPerMinute = disconnectsPerMinute;
+            this.reconnectDelayMillis = reconnectDelayMillis;
+            this.source = source;
+        }
+
+        long periodNanos() {
+            return (long) (1e9 / rateHz);
+        }
+    }
+
+    public static final class Report {
+        public final int devices;
+        public final long virtualNanos;
+        public final long wallNanos;
+        public final long notifications;
+        public final long disconnects;
+        public final long reconnects;
+        // notifications per second of wall clock time
+        public final double throughput;
+        // paced runs only: how late an event was delivered, and the most events that were due at once
+        public final long maxLagNanos;
+        public final int maxBacklog;
+        public final int maxQueueDepth;
+        public final double meanQueueDepth;
+        // -1 without a GcCounter
+        public final long gcCount;
+        public final long gcTimeMillis;
+
+        Report(int devices, long virtualNanos, long wallNanos, long notifications, long disconnects, long reconnects,
+               long maxLagNanos, int maxBacklog, int maxQueueDepth, double meanQueueDepth, long gcCount, long gcTimeMillis) {
+            this.devices = devices;
+            this.virtualNanos = virtualNanos;
+            this.wallNanos = wallNanos;
+            this.notifications = notifications;
+            this.disconnects = disconnects;
+            this.reconnects = reconnects;
+            this.throughput = wallNanos == 0 ? 0 : notifications * 1e9 / wallNanos;
+            this.maxLagNanos = maxLagNanos;
+            this.maxBacklog = maxBacklog;
+            this.maxQueueDepth = maxQueueDepth;
+            this.meanQueueDepth = meanQueueDepth;
+            this.gcCount = gcCount;
+            this.gcTimeMillis = gcTimeMillis;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "%d devices, %d notifications in %.1f s (%.1f s virtual), %.0f/s, %d disconnects, %d reconnects, "
+                            + "max lag %.2f ms, max backlog %d, queue depth max %d mean %.1f, %d GCs %d ms",
+                    devices, notifications, wallNanos / 1e9, virtualNanos / 1e9, throughput, disconnects, reconnects,
+                    maxLagNanos / 1e6, maxBacklog, maxQueueDepth, meanQueueDepth, gcCount, gcTimeMillis);
+        }
+    }
+
+    private static final int NOTIFY = 0, DISCONNECT = 1, RECONNECT = 2;
+
+    private final List<Device> devices = new ArrayList<>();
+    private final Target target;
+    private final Random random;
+    private GcCounter gcCounter = null;
+
+    public PeripheralSimulator(@NotNull Target target, long seed) {
+        this.target = target;
+        this.random = new Random(seed);
+    }
+
+    public PeripheralSimulator addDevice(@NotNull Device device) {
+        devices.add(device);
+        return this;
+    }
+
+    public void setGcCounter(GcCounter gcCounter) {
+        this.gcCounter = gcCounter;
+    }
+
+    /**
+     * Connects all devices, sends their notifications for the duration and disconnects them
+     *
+     * @param paced true to deliver the events at their time on the wall clock, false to deliver them as fast as possible
+     */
+    @NotNull
+    public Report run(long durationMillis, boolean paced) {
+        final long duration = durationMillis * 1000000L;
+        final long gcCountBefore = gcCounter == null ? 0 : gcCounter.getCollectionCount();
+        final long gcTimeBefore = gcCounter == null ? 0 : gcCounter.getCollectionTimeMillis();
+        long notifications = 0, disconnects = 0, reconnects = 0, maxLag = 0, queueDepthSum = 0, samples = 0;
+        int maxBacklog = 0, maxQueueDepth = 0;
+
+        final long start = System.nanoTime();
+        for (Device device : devices) {
+            device.index = 0;
+            connect(device, 0);
+            // the phases are spread, real peripherals are not synchronized
+            device.nextNotification = (long) (random.nextDouble() * device.periodNanos());
+        }
+
+        while (true) {
+            Device next = null;
+            int kind = NOTIFY;
+            long time = Long.MAX_VALUE;
+            for (Device device : devices) {
+                if (device.connected) {
+                    if (device.nextNotification < time) {
+                        time = device.nextNotification;
+                        next = device;
+                        kind = NOTIFY;
+                    }
+                    if (device.nextDisconnect < time) {
+                        time = device.nextDisconnect;
+                        next = device;
+                        kind = DISCONNECT;
+                    }
+                } else if (device.reconnectAt < time) {
+                    time = device.reconnectAt;
+                    next = device;
+                    kind = RECONNECT;
+                }
+            }
+            if (next == null || time > duration) break;
+
+            if (paced) {
+                long elapsed = System.nanoTime() - start;
+                if (elapsed < time) {
+                    do {
+                        LockSupport.parkNanos(time - elapsed);
+                        elapsed = System.nanoTime() - start;
+                    } while (elapsed < time);
+                } else {
+                    maxLag = Math.max(maxLag, elapsed - time);
+                    maxBacklog = Math.max(maxBacklog, backlog(elapsed));
+                }
+            }
+
+            switch (kind) {
+                case NOTIFY:
+                    target.onNotification(next.address, next.characteristicUuid, next.source.next(next.index++), time);
+                    notifications++;
+                    next.nextNotification = time + interval(next);
+                    break;
+                case DISCONNECT:
+                    next.connected = false;
+                    next.reconnectAt = time + next.reconnectDelayMillis * 1000000L;
+                    target.onDisconnected(next.address);
+                    disconnects++;
+                    break;
+                case RECONNECT:
+                    connect(next, time);
+                    next.nextNotification = time + interval(next);
+                    reconnects++;
+                    break;
+            }
+
+            final int queueDepth = target.getQueueDepth();
+            maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+            queueDepthSum += queueDepth;
+            samples++;
+        }
+
+        for (Device device : devices) {
+            if (device.connected) {
+                device.connected = false;
+                target.onDisconnected(device.address);
+            }
+        }
+        final long wall = System.nanoTime() - start;
+        return new Report(devices.size(), duration, wall, notifications, disconnects, reconnects, maxLag, maxBacklog,
+                maxQueueDepth, samples == 0 ? 0 : (double) queueDepthSum / samples,
+                gcCounter == null ? -1 : gcCounter.getCollectionCount() - gcCountBefore,
+                gcCounter == null ? -1 : gcCounter.getCollectionTimeMillis() - gcTimeBefore);
+    }
+
+    private void connect(Device device, long time) {
+        device.connected = true;
+        device.nextDisconnect = device.disconnectsPerMinute == 0 ? Long.MAX_VALUE
+                : time + (long) (-Math.log(1 - random.nextDouble()) * 60e9 / device.disconnectsPerMinute);
+        target.onConnected(device.address);
+    }
+
+    private long interval(Device device) {
+        final long period = device.periodNanos();
+        if (device.jitter == 0) return period;
+        return (long) (period * (1 + device.jitter * (2 * random.nextDouble() - 1)));
+    }
+
+    // notifications that are due at the elapsed time but not delivered yet
+    private int backlog(long elapsed) {
+        int backlog = 0;
+        for (Device device : devices) {
+            if (device.connected && device.nextNotification <= elapsed) {
+                backlog += (int) ((elapsed - device.nextNotification) / device.periodNanos()) + 1;
+            }
+        }
+        return backlog;
+    }
+}
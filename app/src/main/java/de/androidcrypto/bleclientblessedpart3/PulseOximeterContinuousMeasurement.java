@@ -1,13 +1,9 @@
 package de.androidcrypto.bleclientblessedpart3;
 
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousRecord;
 
-import com.welie.blessed.BluetoothBytesParser;
-
-import java.io.Serializable;
-
-import static com.welie.blessed.BluetoothBytesParser.*;
-
-public class PulseOximeterContinuousMeasurement implements Serializable {
+public class PulseOximeterContinuousMeasurement extends CodecParcelable {
 
     private final int SpO2;
 
@@ -27,41 +23,33 @@ public class PulseOximeterContinuousMeasurement implements Serializable {
 
     private int sensorStatus;
 
-    public PulseOximeterContinuousMeasurement(byte[] value) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(value);
-
-        int flags = parser.getIntValue(FORMAT_UINT8);
-        boolean spo2FastPresent = (flags & 0x01) > 0;
-        boolean spo2SlowPresent = (flags & 0x02) > 0;
-        boolean measurementStatusPresent = (flags & 0x04) > 0;
-        boolean sensorStatusPresent = (flags & 0x08) > 0;
-        boolean pulseAmplitudeIndexPresent = (flags & 0x10) > 0;
-
-        SpO2 = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-        pulseRate = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-
-        if (spo2FastPresent) {
-            SpO2Fast = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-            pulseRateFast = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-        }
-
-        if (spo2SlowPresent) {
-            SpO2Slow = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-            pulseRateSlow = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-        }
-
-        if (measurementStatusPresent) {
-            measurementStatus = parser.getIntValue(FORMAT_UINT16);
-        }
-
-        if (sensorStatusPresent) {
-            sensorStatus = parser.getIntValue(FORMAT_UINT16);
-            int reservedByte = parser.getIntValue(FORMAT_UINT8);
-        }
+    // used by MeasurementCodec
+    PulseOximeterContinuousMeasurement(int SpO2, int pulseRate, int SpO2Fast, int pulseRateFast, int SpO2Slow, int pulseRateSlow, float pulseAmplitudeIndex, int measurementStatus, int sensorStatus) {
+        this.SpO2 = SpO2;
+        this.pulseRate = pulseRate;
+        this.SpO2Fast = SpO2Fast;
+        this.pulseRateFast = pulseRateFast;
+        this.SpO2Slow = SpO2Slow;
+        this.pulseRateSlow = pulseRateSlow;
+        this.pulseAmplitudeIndex = pulseAmplitudeIndex;
+        this.measurementStatus = measurementStatus;
+        this.sensorStatus = sensorStatus;
+    }
 
-        if (pulseAmplitudeIndexPresent) {
-            pulseAmplitudeIndex = parser.getFloatValue(FORMAT_SFLOAT);
+    public PulseOximeterContinuousMeasurement(byte[] value) {
+        PulseOximeterContinuousRecord record = new PulseOximeterContinuousRecord();
+        if (!PulseOximeterContinuousDecoder.decode(value, record)) {
+            throw new IllegalArgumentException("malformed PLX continuous measurement");
         }
+        SpO2 = record.spO2;
+        pulseRate = record.pulseRate;
+        SpO2Fast = record.spO2Fast;
+        pulseRateFast = record.pulseRateFast;
+        SpO2Slow = record.spO2Slow;
+        pulseRateSlow = record.pulseRateSlow;
+        measurementStatus = record.measurementStatus;
+        sensorStatus = record.sensorStatus;
+        pulseAmplitudeIndex = record.pulseAmplitudeIndex;
     }
 
     public int getSpO2() {
@@ -107,4 +95,6 @@ public class PulseOximeterContinuousMeasurement implements Serializable {
         }
         return String.format("SpO2 %d%%, Pulse %d bpm, PAI %.1f", SpO2, pulseRate, pulseAmplitudeIndex);
     }
+
+    public static final Creator<PulseOximeterContinuousMeasurement> CREATOR = creator(PulseOximeterContinuousMeasurement.class);
 }
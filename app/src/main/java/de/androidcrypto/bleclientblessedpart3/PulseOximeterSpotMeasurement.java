@@ -1,17 +1,12 @@
 package de.androidcrypto.bleclientblessedpart3;
 
-import com.welie.blessed.BluetoothBytesParser;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotRecord;
 
-import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 
-
-import static com.welie.blessed.BluetoothBytesParser.*;
-
-public class PulseOximeterSpotMeasurement implements Serializable {
+public class PulseOximeterSpotMeasurement extends CodecParcelable {
     private final int spO2;
     private final int pulseRate;
     private float pulseAmplitudeIndex;
@@ -20,41 +15,29 @@ public class PulseOximeterSpotMeasurement implements Serializable {
     private int measurementStatus;
     private int sensorStatus;
 
-    public PulseOximeterSpotMeasurement(byte[] value) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(value);
-
-        int flags = parser.getIntValue(FORMAT_UINT8);
-        boolean timestampPresent = (flags & 0x01) > 0;
-        boolean measurementStatusPresent = (flags & 0x02) > 0;
-        boolean sensorStatusPresent = (flags & 0x04) > 0;
-        boolean pulseAmplitudeIndexPresent = (flags & 0x08) > 0;
-        deviceClockSet = (flags & 0x10) == 0;
-
-        // Get SpO2 value
-        spO2 = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-
-        // Get pulse value
-        pulseRate = parser.getFloatValue(FORMAT_SFLOAT).intValue();
-
-        if (timestampPresent) {
-            Date timestamp = parser.getDateTime();
-            setTimestamp(timestamp);
-        } else {
-            setTimestamp(Calendar.getInstance().getTime());
-        }
-
-        if (measurementStatusPresent) {
-            measurementStatus = parser.getIntValue(FORMAT_UINT16);
-        }
-
-        if (sensorStatusPresent) {
-            sensorStatus = parser.getIntValue(FORMAT_UINT16);
-            int reservedByte = parser.getIntValue(FORMAT_UINT8);
-        }
+    // used by MeasurementCodec
+    PulseOximeterSpotMeasurement(int spO2, int pulseRate, float pulseAmplitudeIndex, boolean deviceClockSet, Date timestamp, int measurementStatus, int sensorStatus) {
+        this.spO2 = spO2;
+        this.pulseRate = pulseRate;
+        this.pulseAmplitudeIndex = pulseAmplitudeIndex;
+        this.deviceClockSet = deviceClockSet;
+        this.timestamp = timestamp;
+        this.measurementStatus = measurementStatus;
+        this.sensorStatus = sensorStatus;
+    }
 
-        if (pulseAmplitudeIndexPresent) {
-            pulseAmplitudeIndex = parser.getFloatValue(FORMAT_SFLOAT);
+    public PulseOximeterSpotMeasurement(byte[] value) {
+        PulseOximeterSpotRecord record = new PulseOximeterSpotRecord();
+        if (!PulseOximeterSpotDecoder.decode(value, record)) {
+            throw new IllegalArgumentException("malformed PLX spot-check measurement");
         }
+        spO2 = record.spO2;
+        pulseRate = record.pulseRate;
+        deviceClockSet = record.deviceClockSet;
+        setTimestamp(record.timestampPresent ? new Date(record.timestamp) : new Date(System.currentTimeMillis()));
+        measurementStatus = record.measurementStatus;
+        sensorStatus = record.sensorStatus;
+        pulseAmplitudeIndex = record.pulseAmplitudeIndex;
     }
 
     public int getSpO2() {
@@ -91,8 +74,9 @@ public class PulseOximeterSpotMeasurement implements Serializable {
 
     @Override
     public String toString() {
-        DateFormat df = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-        String formattedTimestamp = df.format(timestamp);
+        String formattedTimestamp = GattDateTime.format(timestamp.getTime());
         return String.format("SpO2 %d%% HR: %d PAI: %.1f (%s)", spO2, pulseRate, pulseAmplitudeIndex, formattedTimestamp);
     }
+
+    public static final Creator<PulseOximeterSpotMeasurement> CREATOR = creator(PulseOximeterSpotMeasurement.class);
 }
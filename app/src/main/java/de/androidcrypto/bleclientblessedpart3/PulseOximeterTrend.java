@@ -0,0 +1,77 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+
+import java.util.Locale;
+
+/**
+ * SpO2, pulse rate and pulse amplitude index statistics of one peripheral over one time window.
+ * Updated for every continuous measurement without allocating, read on the same thread.
+ */
+public class PulseOximeterTrend {
+
+    // continuous measurements usually arrive once per second, some oximeters send up to 4 per second
+    static final int USUAL_SAMPLES_PER_SECOND = 4;
+    // one notification per 7.5 ms connection interval, the fastest a peripheral can send
+    static final int MAX_SAMPLES_PER_SECOND = 134;
+
+    private final long windowMillis;
+    private final SlidingWindowStats spO2;
+    private final SlidingWindowStats pulseRate;
+    private final SlidingWindowStats pulseAmplitudeIndex;
+
+    public PulseOximeterTrend(long windowMillis) {
+        this.windowMillis = windowMillis;
+        // the windows start at the usual rate and grow if a peripheral notifies faster
+        final int capacity = (int) Math.max(1, windowMillis / 1000 * USUAL_SAMPLES_PER_SECOND);
+        final int maxCapacity = (int) Math.max(capacity, (windowMillis + 999) / 1000 * MAX_SAMPLES_PER_SECOND);
+        spO2 = new SlidingWindowStats(windowMillis, capacity, maxCapacity, 0, 101, 1);
+        pulseRate = new SlidingWindowStats(windowMillis, capacity, maxCapacity, 0, 301, 1);
+        pulseAmplitudeIndex = new SlidingWindowStats(windowMillis, capacity, maxCapacity, 0, 20.1, 0.1);
+    }
+
+    void add(long timeMillis, @NotNull PulseOximeterContinuousView view) {
+        spO2.add(timeMillis, view.getSpO2());
+        pulseRate.add(timeMillis, view.getPulseRate());
+        if (view.hasPulseAmplitudeIndex()) pulseAmplitudeIndex.add(timeMillis, view.getPulseAmplitudeIndex());
+    }
+
+    /**
+     * Removes the samples that left the window, e.g. before showing the trend of a silent peripheral
+     */
+    public void expire(long nowMillis) {
+        spO2.expire(nowMillis);
+        pulseRate.expire(nowMillis);
+        pulseAmplitudeIndex.expire(nowMillis);
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    @NotNull
+    public SlidingWindowStats getSpO2() {
+        return spO2;
+    }
+
+    @NotNull
+    public SlidingWindowStats getPulseRate() {
+        return pulseRate;
+    }
+
+    @NotNull
+    public SlidingWindowStats getPulseAmplitudeIndex() {
+        return pulseAmplitudeIndex;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d s: SpO2 %.0f-%.0f mean %.1f sd %.1f p10 %.0f, pulse %.0f-%.0f mean %.1f sd %.1f p90 %.0f, PAI mean %.1f",
+                windowMillis / 1000, spO2.getMin(), spO2.getMax(), spO2.getMean(), spO2.getStandardDeviation(), spO2.getPercentile(10),
+                pulseRate.getMin(), pulseRate.getMax(), pulseRate.getMean(), pulseRate.getStandardDeviation(), pulseRate.getPercentile(90),
+                pulseAmplitudeIndex.getMean());
+    }
+}
@@ -0,0 +1,53 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Random;
+
+/**
+ * How the {@link SessionManager} reconnects a peripheral that was lost.
+ * The delay before attempt n is initialDelay * multiplier^n, capped at maxDelay and spread by +- jitter,
+ * so peripherals that went away together do not come back at the same moment.
+ */
+public class ReconnectPolicy {
+
+    /**
+     * Direct connects after 1, 2, 4 ... up to 60 seconds, +- 20 %, given up after 10 failed attempts
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(false, 1000, 60 * 1000, 2.0, 0.2, 10);
+
+    // autoConnectPeripheral waits in the Bluetooth stack until the peripheral advertises again, connectPeripheral times out
+    public final boolean autoConnect;
+    public final long initialDelayMillis;
+    public final long maxDelayMillis;
+    public final double multiplier;
+    public final double jitter;
+    // consecutive failed attempts before the session is dropped, 0 never gives up
+    public final int maxAttempts;
+
+    public ReconnectPolicy(boolean autoConnect, long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) throw new IllegalArgumentException("invalid delays");
+        if (multiplier < 1) throw new IllegalArgumentException("multiplier must be at least 1");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("jitter must be in [0, 1)");
+        if (maxAttempts < 0) throw new IllegalArgumentException("maxAttempts must not be negative");
+        this.autoConnect = autoConnect;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @param attempt number of failed attempts since the peripheral was lost, 0 for the first attempt
+     */
+    public long getDelayMillis(int attempt, @NotNull Random random) {
+        final double delay = Math.min(maxDelayMillis, initialDelayMillis * Math.pow(multiplier, attempt));
+        final double spread = 1 + jitter * (2 * random.nextDouble() - 1);
+        return (long) (delay * spread);
+    }
+
+    public boolean isExhausted(int attempt) {
+        return maxAttempts > 0 && attempt >= maxAttempts;
+    }
+}
@@ -0,0 +1,326 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.os.Handler;
+
+import com.welie.blessed.BluetoothCentralManager;
+import com.welie.blessed.BluetoothPeripheral;
+import com.welie.blessed.BluetoothPeripheralCallback;
+import com.welie.blessed.BondState;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Keeps up to {@link #getMaxConnections()} peripherals connected at the same time.
+ * Scanning continues until the cap is reached and is resumed when a session goes away.
+ * Connection attempts are made one after the other, GATT operations run in parallel on the peripherals' own queues.
+ * All methods except the getters must be called on the handler thread of the BluetoothCentralManager.
+ */
+public class SessionManager {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+    // createBond has no timeout of its own, a bonding attempt without any callback must not block the queue
+    private static final long BOND_TIMEOUT_MS = 30000;
+
+    private final BluetoothCentralManager central;
+    private final BluetoothPeripheralCallback peripheralCallback;
+    private final Handler handler;
+    private final ConcurrentHashMap<String, PeripheralSession> sessions = new ConcurrentHashMap<>();
+    private final ArrayDeque<PeripheralSession> connectQueue = new ArrayDeque<>();
+    private PeripheralSession connecting = null;
+    private Runnable bondTimeoutTask = null;
+    private volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    // services of the running scan, null if no scan was requested
+    private UUID[] scanServices = null;
+    private boolean scanning = false;
+    private volatile ReconnectPolicy defaultReconnectPolicy = ReconnectPolicy.DEFAULT;
+    private final ConcurrentHashMap<String, ReconnectPolicy> reconnectPolicies = new ConcurrentHashMap<>();
+    private final Random jitterRandom = new Random();
+
+    SessionManager(@NotNull BluetoothCentralManager central, @NotNull BluetoothPeripheralCallback peripheralCallback, @NotNull Handler handler) {
+        this.central = central;
+        this.peripheralCallback = peripheralCallback;
+        this.handler = handler;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) throw new IllegalArgumentException("maxConnections must be at least 1");
+        this.maxConnections = maxConnections;
+        if (sessions.size() >= maxConnections) {
+            pauseScan();
+        } else {
+            resumeScan();
+        }
+    }
+
+    public void setDefaultReconnectPolicy(@NotNull ReconnectPolicy policy) {
+        defaultReconnectPolicy = policy;
+    }
+
+    /**
+     * Sets the reconnect policy of one peripheral, null restores the default policy
+     */
+    public void setReconnectPolicy(@NotNull String peripheralAddress, @Nullable ReconnectPolicy policy) {
+        if (policy == null) {
+            reconnectPolicies.remove(peripheralAddress);
+        } else {
+            reconnectPolicies.put(peripheralAddress, policy);
+        }
+    }
+
+    @NotNull
+    public ReconnectPolicy getReconnectPolicy(@NotNull String peripheralAddress) {
+        ReconnectPolicy policy = reconnectPolicies.get(peripheralAddress);
+        return policy != null ? policy : defaultReconnectPolicy;
+    }
+
+    /**
+     * Scans for peripherals with one of the services until the connection cap is reached
+     */
+    public void startScan(@NotNull UUID[] services) {
+        scanServices = services;
+        resumeScan();
+    }
+
+    public void stopScan() {
+        scanServices = null;
+        pauseScan();
+    }
+
+    public boolean isScanRequested() {
+        return scanServices != null;
+    }
+
+    private void resumeScan() {
+        if (scanning || scanServices == null || sessions.size() >= maxConnections) return;
+        scanning = true;
+        central.scanForPeripheralsWithServices(scanServices);
+    }
+
+    private void pauseScan() {
+        if (!scanning) return;
+        scanning = false;
+        central.stopScan();
+    }
+
+    /**
+     * Creates a session for a newly found peripheral and queues the connection
+     *
+     * @return false if the peripheral already has a session or the cap is reached
+     */
+    public boolean onDiscovered(@NotNull BluetoothPeripheral peripheral) {
+        if (sessions.containsKey(peripheral.getAddress())) return false;
+        if (sessions.size() >= maxConnections) {
+            pauseScan();
+            return false;
+        }
+        PeripheralSession session = new PeripheralSession(peripheral);
+        sessions.put(session.getAddress(), session);
+        if (sessions.size() >= maxConnections) pauseScan();
+        enqueue(session);
+        return true;
+    }
+
+    public void onConnected(@NotNull BluetoothPeripheral peripheral) {
+        PeripheralSession session = sessions.get(peripheral.getAddress());
+        if (session == null) {
+            // connected outside of the manager, e.g. by a bonding request of the system
+            session = new PeripheralSession(peripheral);
+            sessions.put(session.getAddress(), session);
+            if (sessions.size() >= maxConnections) pauseScan();
+        }
+        session.onConnected(peripheral);
+        if (session.reconnectFailures >= 0) session.onReconnected();
+        Timber.i("session %s connected, %d sessions", session.getAddress(), sessions.size());
+        connectionAttemptFinished(session);
+    }
+
+    public void onConnectionFailed(@NotNull BluetoothPeripheral peripheral) {
+        PeripheralSession session = sessions.get(peripheral.getAddress());
+        if (session == null) return;
+        session.onDisconnected();
+        connectionAttemptFinished(session);
+        if (session.reconnectFailures >= 0 && !session.isClosing()) {
+            // a lost peripheral that does not answer yet, the next attempt waits longer
+            session.reconnectFailures++;
+            scheduleReconnect(session);
+        } else {
+            // the peripheral may be found again by the scan
+            remove(session);
+        }
+    }
+
+    public void onDisconnected(@NotNull BluetoothPeripheral peripheral) {
+        final PeripheralSession session = sessions.get(peripheral.getAddress());
+        if (session == null) return;
+        session.onDisconnected();
+        // a cancelled connection attempt also ends here
+        connectionAttemptFinished(session);
+        if (session.isClosing()) {
+            remove(session);
+            return;
+        }
+        session.reconnectFailures = 0;
+        scheduleReconnect(session);
+    }
+
+    private void scheduleReconnect(@NotNull final PeripheralSession session) {
+        final ReconnectPolicy policy = getReconnectPolicy(session.getAddress());
+        if (policy.isExhausted(session.reconnectFailures)) {
+            Timber.i("giving up on %s after %d reconnect attempts", session.getAddress(), session.reconnectFailures);
+            remove(session);
+            return;
+        }
+        final long delay = policy.getDelayMillis(session.reconnectFailures, jitterRandom);
+        session.reconnectTask = new Runnable() {
+            @Override
+            public void run() {
+                session.reconnectTask = null;
+                if (sessions.get(session.getAddress()) == session && !session.isClosing()) {
+                    session.onReconnectAttempt();
+                    enqueue(session);
+                }
+            }
+        };
+        Timber.i("reconnecting %s in %d ms", session.getAddress(), delay);
+        handler.postDelayed(session.reconnectTask, delay);
+    }
+
+    /**
+     * Disconnects the peripheral, the session is removed and not reconnected
+     */
+    public void disconnect(@NotNull String peripheralAddress) {
+        PeripheralSession session = sessions.get(peripheralAddress);
+        if (session == null) return;
+        session.setClosing();
+        if (session.reconnectTask != null) {
+            handler.removeCallbacks(session.reconnectTask);
+            session.reconnectTask = null;
+        }
+        switch (session.getState()) {
+            case QUEUED:
+            case DISCONNECTED:
+                connectQueue.remove(session);
+                remove(session);
+                break;
+            case CONNECTING:
+            case CONNECTED:
+                // the session is removed in onDisconnected
+                central.cancelConnection(session.getPeripheral());
+                break;
+        }
+    }
+
+    public void disconnectAll() {
+        for (String address : new ArrayList<>(sessions.keySet())) {
+            disconnect(address);
+        }
+    }
+
+    @Nullable
+    public PeripheralSession getSession(@NotNull String peripheralAddress) {
+        return sessions.get(peripheralAddress);
+    }
+
+    @NotNull
+    public Collection<PeripheralSession> getSessions() {
+        return sessions.values();
+    }
+
+    @NotNull
+    public List<PeripheralSession> getConnectedSessions() {
+        List<PeripheralSession> result = new ArrayList<>(sessions.size());
+        for (PeripheralSession session : sessions.values()) {
+            if (session.isConnected()) result.add(session);
+        }
+        return result;
+    }
+
+    // live view of the addresses that have a session
+    @NotNull
+    public Set<String> getSessionAddresses() {
+        return sessions.keySet();
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    private void connectionAttemptFinished(@NotNull PeripheralSession session) {
+        if (connecting == session) {
+            connecting = null;
+            if (bondTimeoutTask != null) {
+                handler.removeCallbacks(bondTimeoutTask);
+                bondTimeoutTask = null;
+            }
+            connectNext();
+        }
+    }
+
+    private void enqueue(@NotNull PeripheralSession session) {
+        if (session.reconnectFailures >= 0 && getReconnectPolicy(session.getAddress()).autoConnect) {
+            // the stack waits for the peripheral without a timeout, it must not block the queue
+            session.setState(PeripheralSession.State.CONNECTING);
+            central.autoConnectPeripheral(session.getPeripheral(), peripheralCallback);
+            return;
+        }
+        session.setState(PeripheralSession.State.QUEUED);
+        connectQueue.add(session);
+        connectNext();
+    }
+
+    private void connectNext() {
+        if (connecting != null) return;
+        PeripheralSession session;
+        while ((session = connectQueue.poll()) != null) {
+            if (session.isClosing()) continue;
+            connecting = session;
+            session.setState(PeripheralSession.State.CONNECTING);
+            BluetoothPeripheral peripheral = session.getPeripheral();
+            String name = peripheral.getName();
+            if (name != null && name.contains("Contour") && peripheral.getBondState() == BondState.NONE) {
+                // Create a bond immediately to avoid double pairing popups
+                central.createBond(peripheral, peripheralCallback);
+                startBondTimeout(session);
+            } else {
+                central.connectPeripheral(peripheral, peripheralCallback);
+            }
+            return;
+        }
+    }
+
+    private void startBondTimeout(@NotNull final PeripheralSession session) {
+        bondTimeoutTask = new Runnable() {
+            @Override
+            public void run() {
+                bondTimeoutTask = null;
+                if (connecting != session) return;
+                Timber.w("bonding with %s timed out", session.getAddress());
+                onConnectionFailed(session.getPeripheral());
+            }
+        };
+        handler.postDelayed(bondTimeoutTask, BOND_TIMEOUT_MS);
+    }
+
+    private void remove(@NotNull PeripheralSession session) {
+        connectionAttemptFinished(session);
+        sessions.remove(session.getAddress(), session);
+        Timber.i("session %s removed, %d sessions", session.getAddress(), sessions.size());
+        resumeScan();
+    }
+}
@@ -0,0 +1,221 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+/**
+ * Statistics over the samples of the last {@code windowMillis}, at most {@code maxCapacity} samples are kept.
+ * All state lives in primitive ring buffers. They start with {@code capacity} slots and double when the window
+ * holds more samples, up to {@code maxCapacity}, otherwise adding a sample does not allocate.
+ * Sum and sum of squares give mean and standard deviation, two monotonic index queues give min and max in
+ * amortized O(1), a fixed bin histogram gives percentiles with the resolution of one bin.
+ * Not thread safe, use it from one thread only.
+ */
+public class SlidingWindowStats {
+
+    private final long windowMillis;
+    private final int maxCapacity;
+    private int capacity;
+
+    // ring buffer of the samples in the window
+    private double[] values;
+    private long[] times;
+    private int head = 0; // oldest sample
+    private int count = 0;
+    // sample sequence numbers increase forever, slot = sequence % capacity
+    private long firstSequence = 0;
+
+    private double sum = 0;
+    private double sumOfSquares = 0;
+
+    // sequences of candidate minima / maxima, values increase / decrease from head to tail
+    private long[] minQueue;
+    private int minHead = 0, minSize = 0;
+    private long[] maxQueue;
+    private int maxHead = 0, maxSize = 0;
+
+    // histogram over [low, low + bins * binWidth), values outside are counted in the first / last bin
+    private final double low;
+    private final double binWidth;
+    private final int[] bins;
+
+    /**
+     * A window with a fixed capacity
+     */
+    public SlidingWindowStats(long windowMillis, int capacity, double low, double high, double binWidth) {
+        this(windowMillis, capacity, capacity, low, high, binWidth);
+    }
+
+    /**
+     * @param windowMillis samples older than this are removed, 0 keeps the last {@code capacity} samples
+     * @param capacity     initial number of samples, e.g. the usual notification rate times window
+     * @param maxCapacity  maximum number of samples, e.g. the highest notification rate times window, the oldest
+     *                     sample is dropped if the window holds more
+     * @param low          lower end of the percentile histogram
+     * @param high         upper end of the percentile histogram
+     * @param binWidth     resolution of the percentiles
+     */
+    public SlidingWindowStats(long windowMillis, int capacity, int maxCapacity, double low, double high, double binWidth) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        if (maxCapacity < capacity) throw new IllegalArgumentException("maxCapacity must be at least capacity");
+        if (high <= low || binWidth <= 0) throw new IllegalArgumentException("invalid histogram range");
+        this.windowMillis = windowMillis;
+        this.capacity = capacity;
+        this.maxCapacity = windowMillis > 0 ? maxCapacity : capacity;
+        this.values = new double[capacity];
+        this.times = new long[capacity];
+        this.minQueue = new long[capacity];
+        this.maxQueue = new long[capacity];
+        this.low = low;
+        this.binWidth = binWidth;
+        this.bins = new int[(int) Math.ceil((high - low) / binWidth)];
+    }
+
+    /**
+     * @param timeMillis a monotonic timestamp, not smaller than the one of the previous sample
+     */
+    public void add(long timeMillis, double value) {
+        expire(timeMillis);
+        if (count == capacity) {
+            if (capacity < maxCapacity) {
+                grow();
+            } else {
+                removeOldest();
+            }
+        }
+
+        final long sequence = firstSequence + count;
+        final int slot = (int) (sequence % capacity);
+        values[slot] = value;
+        times[slot] = timeMillis;
+        count++;
+        sum += value;
+        sumOfSquares += value * value;
+        bins[binOf(value)]++;
+
+        while (minSize > 0 && valueOf(minQueue[(minHead + minSize - 1) % capacity]) >= value) minSize--;
+        minQueue[(minHead + minSize) % capacity] = sequence;
+        minSize++;
+        while (maxSize > 0 && valueOf(maxQueue[(maxHead + maxSize - 1) % capacity]) <= value) maxSize--;
+        maxQueue[(maxHead + maxSize) % capacity] = sequence;
+        maxSize++;
+    }
+
+    /**
+     * Removes the samples that left the window, call it before reading when no samples arrive anymore
+     */
+    public void expire(long nowMillis) {
+        if (windowMillis <= 0) return;
+        while (count > 0 && nowMillis - times[head] > windowMillis) removeOldest();
+    }
+
+    private void removeOldest() {
+        final double value = values[head];
+        sum -= value;
+        sumOfSquares -= value * value;
+        bins[binOf(value)]--;
+        if (minSize > 0 && minQueue[minHead] == firstSequence) {
+            minHead = (minHead + 1) % capacity;
+            minSize--;
+        }
+        if (maxSize > 0 && maxQueue[maxHead] == firstSequence) {
+            maxHead = (maxHead + 1) % capacity;
+            maxSize--;
+        }
+        head = (head + 1) % capacity;
+        firstSequence++;
+        count--;
+        if (count == 0) {
+            // no rounding errors are carried into the next burst of samples
+            sum = 0;
+            sumOfSquares = 0;
+        }
+    }
+
+    // the slots of the samples follow their sequence numbers, the index queues are copied in order
+    private void grow() {
+        final int newCapacity = (int) Math.min(maxCapacity, capacity * 2L);
+        final double[] newValues = new double[newCapacity];
+        final long[] newTimes = new long[newCapacity];
+        for (long sequence = firstSequence; sequence < firstSequence + count; sequence++) {
+            final int from = (int) (sequence % capacity);
+            final int to = (int) (sequence % newCapacity);
+            newValues[to] = values[from];
+            newTimes[to] = times[from];
+        }
+        minQueue = copyQueue(minQueue, minHead, minSize, newCapacity);
+        minHead = 0;
+        maxQueue = copyQueue(maxQueue, maxHead, maxSize, newCapacity);
+        maxHead = 0;
+        values = newValues;
+        times = newTimes;
+        head = (int) (firstSequence % newCapacity);
+        capacity = newCapacity;
+    }
+
+    private long[] copyQueue(long[] queue, int queueHead, int size, int newCapacity) {
+        final long[] copy = new long[newCapacity];
+        for (int i = 0; i < size; i++) copy[i] = queue[(queueHead + i) % capacity];
+        return copy;
+    }
+
+    private double valueOf(long sequence) {
+        return values[(int) (sequence % capacity)];
+    }
+
+    private int binOf(double value) {
+        int bin = (int) ((value - low) / binWidth);
+        if (bin < 0) return 0;
+        return bin >= bins.length ? bins.length - 1 : bin;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // current number of slots, grows up to maxCapacity
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public double getMin() {
+        return minSize == 0 ? Double.NaN : valueOf(minQueue[minHead]);
+    }
+
+    public double getMax() {
+        return maxSize == 0 ? Double.NaN : valueOf(maxQueue[maxHead]);
+    }
+
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    // population standard deviation
+    public double getStandardDeviation() {
+        if (count == 0) return Double.NaN;
+        final double mean = sum / count;
+        final double variance = sumOfSquares / count - mean * mean;
+        return variance <= 0 ? 0 : Math.sqrt(variance);
+    }
+
+    /**
+     * Returns the middle of the histogram bin holding the percentile, clamped to min and max
+     *
+     * @param percentile between 0 and 100
+     */
+    public double getPercentile(double percentile) {
+        if (count == 0) return Double.NaN;
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1) rank = 1;
+        int seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen >= rank) {
+                final double middle = low + (i + 0.5) * binWidth;
+                return Math.max(getMin(), Math.min(getMax(), middle));
+            }
+        }
+        return getMax();
+    }
+
+    public void clear() {
+        while (count > 0) removeOldest();
+    }
+}
@@ -0,0 +1,132 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.welie.blessed.BluetoothPeripheral;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_INDICATE;
+import static android.bluetooth.BluetoothGattCharacteristic.PROPERTY_NOTIFY;
+
+/**
+ * Decides which CCCD writes are needed to enable or disable the notifications of a peripheral.
+ * Only characteristics that were discovered and support notify or indicate are planned, characteristics
+ * that already are in the wanted state are skipped. The writes are queued in the order the targets were added.
+ */
+class SubscriptionPlanner {
+
+    private static final class Target {
+        final UUID service;
+        final UUID characteristic;
+
+        Target(UUID service, UUID characteristic) {
+            this.service = service;
+            this.characteristic = characteristic;
+        }
+    }
+
+    private final List<Target> targets = new ArrayList<>();
+
+    /**
+     * Adds a characteristic to subscribe to, targets added first are written first
+     */
+    void add(@NotNull UUID serviceUUID, @NotNull UUID characteristicUUID) {
+        targets.add(new Target(serviceUUID, characteristicUUID));
+    }
+
+    /**
+     * Returns the targets the peripheral offers with notify or indicate, in priority order.
+     * Call it once after onServicesDiscovered.
+     */
+    @NotNull
+    List<BluetoothGattCharacteristic> discover(@NotNull BluetoothPeripheral peripheral) {
+        List<BluetoothGattCharacteristic> result = new ArrayList<>();
+        for (Target target : targets) {
+            BluetoothGattCharacteristic characteristic = peripheral.getCharacteristic(target.service, target.characteristic);
+            if (characteristic == null) continue;
+            if ((characteristic.getProperties() & (PROPERTY_NOTIFY | PROPERTY_INDICATE)) == 0) continue;
+            result.add(characteristic);
+        }
+        return result;
+    }
+
+    /**
+     * Issues setNotify for every available characteristic whose notify state differs from the wanted one
+     */
+    @NotNull
+    Plan execute(@NotNull BluetoothPeripheral peripheral, @NotNull List<BluetoothGattCharacteristic> available, boolean enable) {
+        Plan plan = new Plan(enable);
+        for (BluetoothGattCharacteristic characteristic : available) {
+            if (peripheral.isNotifying(characteristic) == enable) continue;
+            if (peripheral.setNotify(characteristic, enable)) {
+                plan.pending.add(characteristic.getUuid());
+                plan.writes++;
+            } else {
+                plan.failed++;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * The CCCD writes of one enable or disable request, completed when all of them were answered
+     */
+    static final class Plan {
+        final boolean enable;
+        private final long startNanos = System.nanoTime();
+        private final Set<UUID> pending = new HashSet<>();
+        private int writes = 0;
+        private int failed = 0;
+        private long durationNanos = -1;
+
+        private Plan(boolean enable) {
+            this.enable = enable;
+        }
+
+        /**
+         * @return true if this update completed the plan
+         */
+        boolean onNotificationStateUpdate(@NotNull UUID characteristicUUID, boolean success) {
+            if (!pending.remove(characteristicUUID)) return false;
+            if (!success) failed++;
+            return checkCompleted();
+        }
+
+        // a plan without any writes is completed right away
+        boolean checkCompleted() {
+            if (!pending.isEmpty() || durationNanos >= 0) return false;
+            durationNanos = System.nanoTime() - startNanos;
+            return true;
+        }
+
+        boolean isCompleted() {
+            return durationNanos >= 0;
+        }
+
+        // -1 while writes are pending
+        long getDurationNanos() {
+            return durationNanos;
+        }
+
+        int getWrites() {
+            return writes;
+        }
+
+        int getFailed() {
+            return failed;
+        }
+
+        @NotNull
+        Set<UUID> getPending() {
+            return Collections.unmodifiableSet(pending);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.TraceFrame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Capture of the raw GATT frames before they are decoded, for offline decoding and replay.
+ * Frames are copied into one of two preallocated direct buffers. When a buffer is full, or every flush interval,
+ * the buffers are swapped and a background thread appends the full one to the trace file, so recording never
+ * waits for the disk. If the disk falls behind so far that both buffers are full, frames are dropped and counted.
+ * Trace files roll over at a maximum size and only the newest files are kept:
+ * <pre>
+ * root/00000001.trc
+ *
+ * file header (24 bytes): int magic, int version, long epoch millis and long monotonic nanos at the start
+ * frames as described in {@link TraceFrame}
+ * </pre>
+ * The monotonic time is System.nanoTime(), the file header maps it to the wall clock. Vendor specific characteristics
+ * are stored with their full 128 bit UUID.
+ *
+ * Recording is expected from the BLESSED callback handler, it is thread safe though.
+ */
+public class TraceRecorder {
+
+    public static final int KIND_NOTIFICATION = TraceFrame.KIND_NOTIFICATION;
+    public static final int KIND_WRITE = TraceFrame.KIND_WRITE;
+    public static final int VENDOR_SPECIFIC = TraceFrame.VENDOR_SPECIFIC;
+    public static final int MAX_VALUE_LENGTH = TraceFrame.MAX_VALUE_LENGTH;
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_MAX_FILE_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_FILES = 4;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+    static final int MAGIC = 0x43525442; // "BTRC"
+    // version 2 stores the full UUID of vendor specific characteristics
+    static final int VERSION = 2;
+    static final int FILE_HEADER_SIZE = 24;
+    private static final String FILE_SUFFIX = ".trc";
+
+    /**
+     * Receives the frames of {@link #read}, the value buffer is only valid during the call
+     */
+    public interface FrameVisitor {
+        /**
+         * @param kind            {@link #KIND_NOTIFICATION} or {@link #KIND_WRITE}, with {@link #VENDOR_SPECIFIC} for vendor UUIDs
+         * @param address         the MAC address as 0xAABBCCDDEEFF, -1 if it was no MAC address
+         * @param status          GattStatus value
+         * @param value           buffer positioned at the raw value
+         * @return false to stop reading
+         */
+        boolean onFrame(int kind, long monotonicNanos, long epochMillis, long address, @NotNull UUID characteristicUuid, int status, @NotNull ByteBuffer value);
+    }
+
+    private final File root;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final ScheduledExecutorService flusher;
+    private final Object lock = new Object();
+    // guarded by lock
+    private ByteBuffer active;
+    // null while the flusher writes it
+    private ByteBuffer spare;
+    private long frames = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+    // flusher thread only
+    private FileChannel channel;
+    private int fileNumber;
+    private long fileSize;
+
+    public TraceRecorder(@NotNull File root) throws IOException {
+        this(root, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_FILE_SIZE, DEFAULT_MAX_FILES, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public TraceRecorder(@NotNull File root, int bufferSize, long maxFileSize, int maxFiles, long flushIntervalMillis) throws IOException {
+        if (bufferSize < TraceFrame.MAX_SIZE) {
+            throw new IllegalArgumentException("buffer size too small: " + bufferSize);
+        }
+        if (maxFileSize < FILE_HEADER_SIZE + bufferSize || maxFiles < 1) {
+            throw new IllegalArgumentException("a file must hold at least one buffer");
+        }
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("cannot create " + root);
+        }
+        this.root = root;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.active = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.spare = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        // a new recorder never appends to the files of an earlier one
+        final File[] files = listTraceFiles(root);
+        this.fileNumber = files.length == 0 ? 0 : fileNumber(files[files.length - 1]);
+        openFile(fileNumber + 1);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NotNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "TraceRecorder-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a frame, nothing is allocated and the disk is never touched on the calling thread
+     *
+     * @param kind   {@link #KIND_NOTIFICATION} or {@link #KIND_WRITE}
+     * @param status GattStatus value
+     */
+    public void record(int kind, @NotNull String peripheralAddress, @NotNull UUID characteristicUuid, int status, @NotNull byte[] value) {
+        final long now = System.nanoTime();
+        final long address = EventLog.packAddress(peripheralAddress);
+        final int assignedNumber = GattCharacteristics.toAssignedNumber(characteristicUuid);
+        final int size = TraceFrame.size(assignedNumber, value.length);
+        synchronized (lock) {
+            if (closed) return;
+            if (active.remaining() < size && !swap()) {
+                dropped++;
+                return;
+            }
+            TraceFrame.put(active, kind, status, now, address, assignedNumber, characteristicUuid, value);
+            frames++;
+        }
+    }
+
+    // hands the active buffer to the flusher, false if the flusher still writes the other one
+    private boolean swap() {
+        if (spare == null) return false;
+        final ByteBuffer full = active;
+        active = spare;
+        spare = null;
+        flusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(full);
+                synchronized (lock) {
+                    spare = full;
+                }
+            }
+        });
+        return true;
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (lock) {
+                if (active.position() > 0) swap();
+            }
+        }
+    };
+
+    // on the flusher thread, the buffer is cleared afterwards even if the write failed
+    private void write(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            if (channel == null) return;
+            if (fileSize + buffer.remaining() > maxFileSize) openFile(fileNumber + 1);
+            while (buffer.hasRemaining()) fileSize += channel.write(buffer);
+        } catch (IOException e) {
+            Timber.e(e, "writing the trace failed, %d bytes lost", buffer.remaining());
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void openFile(int number) throws IOException {
+        if (channel != null) channel.close();
+        channel = null;
+        final File file = traceFile(root, number);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        final FileChannel opened = randomAccessFile.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putLong(System.nanoTime());
+        header.flip();
+        while (header.hasRemaining()) opened.write(header);
+        channel = opened;
+        fileNumber = number;
+        fileSize = FILE_HEADER_SIZE;
+        // keep the newest files only
+        final File old = traceFile(root, number - maxFiles);
+        if (old.exists() && !old.delete()) Timber.w("cannot delete %s", old);
+    }
+
+    /**
+     * Writes the recorded frames to the file now, blocks until done
+     */
+    public void flush() {
+        try {
+            flusher.submit(flushTask).get();
+            // the swap queued the write behind the flush task
+            flusher.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (Exception e) {
+            Timber.e(e, "flushing the trace failed");
+        }
+    }
+
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            final ByteBuffer last = active;
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(last);
+                    try {
+                        if (channel != null) channel.close();
+                    } catch (IOException e) {
+                        Timber.e(e, "closing the trace failed");
+                    }
+                    channel = null;
+                }
+            });
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFrameCount() {
+        synchronized (lock) {
+            return frames;
+        }
+    }
+
+    // frames lost because the flusher could not keep up
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return dropped;
+        }
+    }
+
+    @NotNull
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the trace files in the root directory, the oldest first
+     */
+    @NotNull
+    public static File[] listTraceFiles(@NotNull File root) {
+        File[] files = root.listFiles();
+        if (files == null) return new File[0];
+        List<File> traces = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) traces.add(file);
+        }
+        File[] sorted = traces.toArray(new File[0]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Visits the frames of a trace file in recording order, a torn frame at the end is ignored
+     */
+    public static void read(@NotNull File file, @NotNull FrameVisitor visitor) throws IOException {
+        final ByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is no trace file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("unsupported trace version " + buffer.getInt(4));
+        }
+        final long startEpochMillis = buffer.getLong(8);
+        final long startNanos = buffer.getLong(16);
+        final int end = buffer.limit();
+        int position = FILE_HEADER_SIZE;
+        while (position + TraceFrame.HEADER_SIZE <= end) {
+            final int size = (buffer.getShort(position) & 0xFFFF) + 2;
+            if (size < TraceFrame.HEADER_SIZE || position + size > end) break;
+            final int kind = buffer.get(position + 2) & 0xFF;
+            final int valueOffset = TraceFrame.valueOffset(kind);
+            if (size < valueOffset) break;
+            final int status = buffer.getShort(position + 3) & 0xFFFF;
+            final long nanos = buffer.getLong(position + 5);
+            long address = ((buffer.getShort(position + 13) & 0xFFFFL) << 32) | (buffer.getInt(position + 15) & 0xFFFFFFFFL);
+            if (address == 0xFFFFFFFFFFFFL) address = -1;
+            final UUID characteristicUuid = TraceFrame.characteristicUuid(buffer, position);
+            buffer.limit(position + size);
+            buffer.position(position + valueOffset);
+            final long epochMillis = startEpochMillis + (nanos - startNanos) / 1000000;
+            if (!visitor.onFrame(kind, nanos, epochMillis, address, characteristicUuid, status, buffer)) return;
+            buffer.limit(end);
+            position += size;
+        }
+    }
+
+    /**
+     * Collects the notification values of one characteristic of a peripheral, e.g. for PeripheralSimulator.replay
+     */
+    @NotNull
+    public static List<byte[]> readNotifications(@NotNull File file, @NotNull String peripheralAddress, @NotNull UUID characteristicUuid) throws IOException {
+        final long address = EventLog.packAddress(peripheralAddress);
+        final List<byte[]> values = new ArrayList<>();
+        read(file, new FrameVisitor() {
+            @Override
+            public boolean onFrame(int kind, long monotonicNanos, long epochMillis, long frameAddress, @NotNull UUID frameUuid, int status, @NotNull ByteBuffer value) {
+                if ((kind & ~VENDOR_SPECIFIC) == KIND_NOTIFICATION && frameAddress == address && frameUuid.equals(characteristicUuid)) {
+                    byte[] copy = new byte[value.remaining()];
+                    value.get(copy);
+                    values.add(copy);
+                }
+                return true;
+            }
+        });
+        return values;
+    }
+
+    private static File traceFile(File root, int number) {
+        return new File(root, String.format(Locale.ENGLISH, "%08d%s", number, FILE_SUFFIX));
+    }
+
+    private static int fileNumber(File file) {
+        final String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - FILE_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
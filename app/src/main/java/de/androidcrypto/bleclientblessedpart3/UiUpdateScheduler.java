@@ -0,0 +1,164 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.view.Choreographer;
+import android.widget.TextView;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesces text updates to at most one per display frame.
+ * A {@link Field} only keeps the latest value posted to it, when the next frame starts the value is rendered
+ * into a shared StringBuilder and copied to a char buffer owned by the field. setText() is skipped when the
+ * text did not change. All methods must be called on the main thread.
+ */
+public class UiUpdateScheduler implements Choreographer.FrameCallback {
+
+    /**
+     * Appends the text for a value, called on the main thread once per frame at most
+     */
+    public interface Renderer<T> {
+        void render(@NotNull StringBuilder out, @Nullable String peripheralAddress, @NotNull T value);
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final List<Field> fields = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder(128);
+    private boolean frameScheduled = false;
+    private boolean paused = false;
+
+    @NotNull
+    public Field field(@NotNull TextView view) {
+        Field field = new Field(view);
+        fields.add(field);
+        return field;
+    }
+
+    // no frames are requested while paused, the latest values are applied on resume
+    public void pause() {
+        paused = true;
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    public void resume() {
+        paused = false;
+        for (Field field : fields) {
+            if (field.dirty) {
+                scheduleFrame();
+                return;
+            }
+        }
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled || paused) return;
+        frameScheduled = true;
+        choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            if (field.dirty) field.apply();
+        }
+    }
+
+    public final class Field {
+        private final TextView view;
+        private Object pendingValue;
+        private String pendingAddress;
+        private Renderer<Object> pendingRenderer;
+        private boolean dirty = false;
+        // the TextView keeps a reference to this buffer, it is only changed right before the next setText()
+        private char[] buffer = new char[64];
+        private int length = -1;
+
+        private Field(@NotNull TextView view) {
+            this.view = view;
+        }
+
+        /**
+         * Replaces the pending value of this field, renderers should be long living instances
+         */
+        @SuppressWarnings("unchecked")
+        public <T> void post(@Nullable String peripheralAddress, @NotNull T value, @NotNull Renderer<? super T> renderer) {
+            pendingAddress = peripheralAddress;
+            pendingValue = value;
+            pendingRenderer = (Renderer<Object>) renderer;
+            dirty = true;
+            scheduleFrame();
+        }
+
+        private void apply() {
+            dirty = false;
+            text.setLength(0);
+            pendingRenderer.render(text, pendingAddress, pendingValue);
+            pendingValue = null;
+            pendingRenderer = null;
+
+            final int newLength = text.length();
+            if (newLength == length && sameText(newLength)) return;
+            if (newLength > buffer.length) buffer = new char[Math.max(newLength, buffer.length * 2)];
+            text.getChars(0, newLength, buffer, 0);
+            length = newLength;
+            view.setText(buffer, 0, newLength);
+        }
+
+        private boolean sameText(int count) {
+            for (int i = 0; i < count; i++) {
+                if (buffer[i] != text.charAt(i)) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Appends a number with a fixed number of decimals, like "%.1f" but without the Formatter.
+     * Rounding is done on the binary value, so an exact tie like 37.675 may differ from String.format in the last digit.
+     */
+    public static void appendFixed(@NotNull StringBuilder out, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append(value);
+            return;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) out.append('-');
+        out.append(scaled / scale);
+        if (decimals == 0) return;
+        out.append('.');
+        long fraction = scaled % scale;
+        for (long digit = scale / 10; digit > 0; digit /= 10) {
+            out.append((char) ('0' + (fraction / digit) % 10));
+        }
+    }
+
+    /**
+     * Same as {@link #appendFixed(StringBuilder, double, int)}, appends "null" for a missing value
+     */
+    public static void appendFixed(@NotNull StringBuilder out, @Nullable Float value, int decimals) {
+        if (value == null) {
+            out.append("null");
+        } else {
+            appendFixed(out, value.doubleValue(), decimals);
+        }
+    }
+
+    /**
+     * Appends the timestamp as dd-MM-yyyy HH:mm:ss in the default time zone
+     */
+    public void appendDateTime(@NotNull StringBuilder out, long timestamp) {
+        GattDateTime.appendDateTime(out, timestamp);
+    }
+}
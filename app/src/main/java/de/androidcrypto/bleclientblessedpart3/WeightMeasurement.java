@@ -1,17 +1,12 @@
 package de.androidcrypto.bleclientblessedpart3;
 
-import com.welie.blessed.BluetoothBytesParser;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightRecord;
 
-import java.io.Serializable;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT16;
-import static com.welie.blessed.BluetoothBytesParser.FORMAT_UINT8;
-
-public class WeightMeasurement implements Serializable {
+public class WeightMeasurement extends CodecParcelable {
     public final double weight;
     public final WeightUnit unit;
     public final Date timestamp;
@@ -19,43 +14,36 @@ public class WeightMeasurement implements Serializable {
     public Integer BMI;
     public Integer height;
 
-    public WeightMeasurement(byte[] byteArray) {
-        BluetoothBytesParser parser = new BluetoothBytesParser(byteArray);
-
-        // Parse flag byte
-        final int flags = parser.getIntValue(BluetoothBytesParser.FORMAT_UINT8);
-        unit = ((flags & 0x01) > 0) ? WeightUnit.Pounds : WeightUnit.Kilograms;
-        final boolean timestampPresent = (flags & 0x02) > 0;
-        final boolean userIDPresent = (flags & 0x04) > 0;
-        final boolean bmiAndHeightPresent = (flags & 0x08) > 0;
-
-        // Get weight value
-        double weightMultiplier = (unit == WeightUnit.Kilograms) ? 0.005 : 0.01;
-        weight = parser.getIntValue(FORMAT_UINT16) * weightMultiplier;
-
-        // Get timestamp if present
-        if (timestampPresent) {
-            timestamp = parser.getDateTime();
-        } else {
-            timestamp = Calendar.getInstance().getTime();
-        }
+    // used by MeasurementCodec
+    WeightMeasurement(double weight, WeightUnit unit, Date timestamp, Integer userID, Integer BMI, Integer height) {
+        this.weight = weight;
+        this.unit = unit;
+        this.timestamp = timestamp;
+        this.userID = userID;
+        this.BMI = BMI;
+        this.height = height;
+    }
 
-        // Get user ID if present
-        if (userIDPresent) {
-            userID = parser.getIntValue(FORMAT_UINT8);
+    public WeightMeasurement(byte[] byteArray) {
+        WeightRecord record = new WeightRecord();
+        if (!WeightDecoder.decode(byteArray, record)) {
+            throw new IllegalArgumentException("malformed weight measurement");
         }
-
-        // Get BMI and Height if present
-        if (bmiAndHeightPresent) {
-            BMI = parser.getIntValue(FORMAT_UINT16);
-            height = parser.getIntValue(FORMAT_UINT16);
+        unit = record.pounds ? WeightUnit.Pounds : WeightUnit.Kilograms;
+        weight = record.weight;
+        timestamp = record.timestampPresent ? new Date(record.timestamp) : new Date(System.currentTimeMillis());
+        if (record.userIdPresent) userID = record.userId;
+        if (record.bmiAndHeightPresent) {
+            BMI = record.bmi;
+            height = record.height;
         }
     }
 
     @Override
     public String toString() {
-        DateFormat df = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
-        String formattedTimestamp = timestamp != null ? df.format(timestamp) : "null";
+        String formattedTimestamp = timestamp != null ? GattDateTime.format(timestamp.getTime()) : "null";
         return String.format("%.1f %s, user %d, BMI %d, height %d at (%s)", weight, unit == WeightUnit.Kilograms ? "kg" : "lb", userID, BMI, height, formattedTimestamp);
     }
+
+    public static final Creator<WeightMeasurement> CREATOR = creator(WeightMeasurement.class);
 }
@@ -0,0 +1,174 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseContextRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GlucoseJoinBufferTest {
+
+    private static final String METER = "C0:FF:EE:00:00:01";
+    private static final long TIMEOUT_MS = 1000;
+
+    private final List<GlucoseReading> readings = new ArrayList<>();
+    private final GlucoseJoinBuffer.Listener listener = new GlucoseJoinBuffer.Listener() {
+        @Override
+        public void onReading(@NotNull String peripheralAddress, @NotNull GlucoseReading reading) {
+            assertEquals(METER, peripheralAddress);
+            readings.add(reading);
+        }
+    };
+    private final GlucoseJoinBuffer buffer = new GlucoseJoinBuffer(METER, listener, 3, TIMEOUT_MS);
+
+    private static GlucoseMeasurement measurement(int sequenceNumber, boolean contextWillFollow) {
+        GlucoseMeasurement measurement = new GlucoseMeasurement(GlucoseMeasurementUnit.MiligramPerDeciliter);
+        measurement.sequenceNumber = sequenceNumber;
+        measurement.contextWillFollow = contextWillFollow;
+        measurement.value = 90 + sequenceNumber;
+        return measurement;
+    }
+
+    private static GlucoseContextRecord context(int sequenceNumber, int meal) {
+        GlucoseContextRecord record = new GlucoseContextRecord();
+        record.sequenceNumber = sequenceNumber;
+        record.mealPresent = true;
+        record.meal = meal;
+        return record;
+    }
+
+    @Test
+    public void measurementWithoutContext_isEmittedRightAway() {
+        GlucoseMeasurement measurement = measurement(1, false);
+        buffer.offerMeasurement(measurement, 0);
+        assertEquals(1, readings.size());
+        assertSame(measurement, readings.get(0).measurement);
+        assertFalse(readings.get(0).hasContext());
+        assertEquals(0, buffer.size());
+        assertEquals(1, buffer.getWithoutContextCount());
+    }
+
+    @Test
+    public void measurementThenContext_areJoined() {
+        GlucoseMeasurement measurement = measurement(1, true);
+        buffer.offerMeasurement(measurement, 0);
+        assertTrue(readings.isEmpty());
+        buffer.offerContext(context(1, 2), 10);
+        assertEquals(1, readings.size());
+        assertSame(measurement, readings.get(0).measurement);
+        assertEquals(2, readings.get(0).context.meal);
+        assertEquals(0, buffer.size());
+        assertEquals(1, buffer.getJoinedCount());
+    }
+
+    @Test
+    public void contextBeforeMeasurement_areJoined() {
+        GlucoseContextRecord record = context(4, 1);
+        buffer.offerContext(record, 0);
+        // the caller reuses its record
+        record.clear();
+        assertEquals(1, buffer.size());
+
+        GlucoseMeasurement measurement = measurement(4, true);
+        buffer.offerMeasurement(measurement, 10);
+        assertEquals(1, readings.size());
+        assertSame(measurement, readings.get(0).measurement);
+        assertEquals(4, readings.get(0).context.sequenceNumber);
+        assertEquals(1, readings.get(0).context.meal);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void contextsAreJoinedBySequenceNumber() {
+        buffer.offerMeasurement(measurement(1, true), 0);
+        buffer.offerMeasurement(measurement(2, true), 0);
+        buffer.offerContext(context(2, 3), 0);
+        buffer.offerContext(context(1, 4), 0);
+        assertEquals(2, readings.size());
+        assertEquals(2, readings.get(0).measurement.sequenceNumber);
+        assertEquals(3, readings.get(0).context.meal);
+        assertEquals(1, readings.get(1).measurement.sequenceNumber);
+        assertEquals(4, readings.get(1).context.meal);
+    }
+
+    @Test
+    public void fullBuffer_evictsTheEldestEntry() {
+        buffer.offerContext(context(1, 1), 0);
+        buffer.offerMeasurement(measurement(2, true), 0);
+        buffer.offerMeasurement(measurement(3, true), 0);
+        buffer.offerMeasurement(measurement(4, true), 0);
+        // the context of 1 had no measurement
+        assertTrue(readings.isEmpty());
+        assertEquals(1, buffer.getDroppedContextCount());
+        assertEquals(3, buffer.size());
+
+        buffer.offerMeasurement(measurement(5, true), 0);
+        assertEquals(1, readings.size());
+        assertEquals(2, readings.get(0).measurement.sequenceNumber);
+        assertFalse(readings.get(0).hasContext());
+        assertEquals(3, buffer.size());
+    }
+
+    @Test
+    public void timeout_evictsWaitingEntries() {
+        buffer.offerMeasurement(measurement(1, true), 0);
+        buffer.offerContext(context(2, 1), 500);
+        buffer.expire(TIMEOUT_MS - 1);
+        assertTrue(readings.isEmpty());
+
+        buffer.expire(TIMEOUT_MS);
+        assertEquals(1, readings.size());
+        assertFalse(readings.get(0).hasContext());
+        assertEquals(1, buffer.size());
+
+        // a late context is kept until it times out too
+        buffer.offerContext(context(1, 2), TIMEOUT_MS + 500);
+        assertEquals(1, readings.size());
+        assertEquals(1, buffer.getDroppedContextCount());
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void repeatedSequenceNumberWithoutContext_replacesTheWaitingMeasurement() {
+        buffer.offerMeasurement(measurement(7, true), 0);
+        GlucoseMeasurement repeated = measurement(7, false);
+        buffer.offerMeasurement(repeated, 10);
+        assertEquals(1, readings.size());
+        assertSame(repeated, readings.get(0).measurement);
+        assertEquals(0, buffer.size());
+
+        buffer.expire(TIMEOUT_MS * 2);
+        buffer.flush();
+        assertEquals(1, readings.size());
+    }
+
+    @Test
+    public void repeatedSequenceNumberWithContext_replacesTheWaitingMeasurement() {
+        buffer.offerMeasurement(measurement(7, true), 0);
+        GlucoseMeasurement repeated = measurement(7, true);
+        buffer.offerMeasurement(repeated, 10);
+        assertEquals(1, buffer.size());
+        buffer.offerContext(context(7, 5), 20);
+        assertEquals(1, readings.size());
+        assertSame(repeated, readings.get(0).measurement);
+        assertEquals(5, readings.get(0).context.meal);
+    }
+
+    @Test
+    public void flush_emitsWaitingMeasurementsAndDropsContexts() {
+        buffer.offerMeasurement(measurement(1, true), 0);
+        buffer.offerContext(context(2, 1), 0);
+        buffer.offerMeasurement(measurement(3, true), 0);
+        buffer.flush();
+        assertEquals(0, buffer.size());
+        assertEquals(2, readings.size());
+        assertEquals(1, readings.get(0).measurement.sequenceNumber);
+        assertEquals(3, readings.get(1).measurement.sequenceNumber);
+        assertEquals(1, buffer.getDroppedContextCount());
+        assertEquals(2, buffer.getWithoutContextCount());
+    }
+}
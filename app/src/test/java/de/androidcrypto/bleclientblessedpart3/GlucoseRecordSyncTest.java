@@ -0,0 +1,224 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.androidcrypto.bleclientblessedpart3.GlucoseRecordSync.NO_SEQUENCE_NUMBER;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the Record Access Control Point state machine against an in-memory sequence store and records the commands
+ */
+public class GlucoseRecordSyncTest {
+
+    private static final String METER = "C0:FF:EE:00:00:01";
+
+    private final Map<String, Integer> stored = new HashMap<>();
+    private final List<byte[]> commands = new ArrayList<>();
+
+    private final GlucoseRecordSync sync = new GlucoseRecordSync(new GlucoseRecordSync.SequenceStore() {
+        @Override
+        public int get(@NotNull String peripheralAddress) {
+            Integer sequenceNumber = stored.get(peripheralAddress);
+            return sequenceNumber != null ? sequenceNumber : NO_SEQUENCE_NUMBER;
+        }
+
+        @Override
+        public void put(@NotNull String peripheralAddress, int sequenceNumber) {
+            stored.put(peripheralAddress, sequenceNumber);
+        }
+
+        @Override
+        public void remove(@NotNull String peripheralAddress) {
+            stored.remove(peripheralAddress);
+        }
+    });
+
+    private final GlucoseRecordSync.ControlPoint controlPoint = new GlucoseRecordSync.ControlPoint() {
+        @Override
+        public void write(@NotNull byte[] command) {
+            commands.add(command);
+        }
+    };
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) bytes[i] = (byte) values[i];
+        return bytes;
+    }
+
+    private static byte[] numberOfRecords(int count) {
+        return bytes(GlucoseRecordSync.OP_CODE_NUMBER_OF_RECORDS_RESPONSE, 0x00, count, count >> 8);
+    }
+
+    private static byte[] responseCode(int requestOpCode, int responseCode) {
+        return bytes(GlucoseRecordSync.OP_CODE_RESPONSE_CODE, 0x00, requestOpCode, responseCode);
+    }
+
+    private byte[] lastCommand() {
+        return commands.get(commands.size() - 1);
+    }
+
+    @Test
+    public void firstSync_countsAndTransfersAllRecords() {
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        assertEquals(GlucoseRecordSync.State.COUNTING, transfer.getState());
+        assertTrue(transfer.isUnfiltered());
+        assertArrayEquals(bytes(0x04, 0x01), lastCommand());
+
+        sync.onControlPointIndication(transfer, numberOfRecords(3));
+        assertEquals(GlucoseRecordSync.State.TRANSFERRING, transfer.getState());
+        assertEquals(3, transfer.getExpectedRecords());
+        assertArrayEquals(bytes(0x01, 0x01), lastCommand());
+
+        for (int sequenceNumber = 1; sequenceNumber <= 3; sequenceNumber++) {
+            assertTrue(sync.onRecord(METER, transfer, sequenceNumber));
+            assertEquals(sequenceNumber, sync.getHighestSequenceNumber(METER));
+        }
+        sync.onControlPointIndication(transfer, responseCode(0x01, GlucoseRecordSync.RESPONSE_SUCCESS));
+        assertEquals(GlucoseRecordSync.State.COMPLETED, transfer.getState());
+        assertEquals(3, transfer.getReceivedRecords());
+        assertEquals(2, commands.size());
+    }
+
+    @Test
+    public void nextSync_filtersFromTheNextSequenceNumber() {
+        stored.put(METER, 0x0129);
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        assertFalse(transfer.isUnfiltered());
+        // greater than or equal 0x012A
+        assertArrayEquals(bytes(0x04, 0x03, 0x01, 0x2A, 0x01), lastCommand());
+
+        sync.onControlPointIndication(transfer, numberOfRecords(0));
+        assertEquals(GlucoseRecordSync.State.COMPLETED, transfer.getState());
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    public void noRecordsFoundWhileCounting_completes() {
+        stored.put(METER, 7);
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, responseCode(0x04, GlucoseRecordSync.RESPONSE_NO_RECORDS_FOUND));
+        assertEquals(GlucoseRecordSync.State.COMPLETED, transfer.getState());
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    public void rejectedFilter_fallsBackToAllRecordsAndSkipsTheKnownOnes() {
+        final int[] rejections = {GlucoseRecordSync.RESPONSE_INVALID_OPERATOR, GlucoseRecordSync.RESPONSE_OPERATOR_NOT_SUPPORTED,
+                GlucoseRecordSync.RESPONSE_INVALID_OPERAND, GlucoseRecordSync.RESPONSE_OPERAND_NOT_SUPPORTED};
+        for (int rejection : rejections) {
+            stored.put(METER, 10);
+            commands.clear();
+            GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+            sync.onControlPointIndication(transfer, responseCode(0x04, rejection));
+            assertTrue(transfer.isUnfiltered());
+            assertEquals(GlucoseRecordSync.State.TRANSFERRING, transfer.getState());
+            assertArrayEquals(bytes(0x01, 0x01), lastCommand());
+
+            assertFalse(sync.onRecord(METER, transfer, 9));
+            assertFalse(sync.onRecord(METER, transfer, 10));
+            assertTrue(sync.onRecord(METER, transfer, 11));
+            assertEquals(2, transfer.getSkippedRecords());
+            assertEquals(1, transfer.getReceivedRecords());
+            assertEquals(11, sync.getHighestSequenceNumber(METER));
+
+            sync.onControlPointIndication(transfer, responseCode(0x01, GlucoseRecordSync.RESPONSE_SUCCESS));
+            assertEquals(GlucoseRecordSync.State.COMPLETED, transfer.getState());
+        }
+    }
+
+    @Test
+    public void rejectionOfTheUnfilteredRequest_fails() {
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, responseCode(0x04, GlucoseRecordSync.RESPONSE_OPERATOR_NOT_SUPPORTED));
+        assertEquals(GlucoseRecordSync.State.FAILED, transfer.getState());
+        assertEquals(1, commands.size());
+    }
+
+    @Test
+    public void opCodeNotSupportedWhileCounting_requestsTheRecordsDirectly() {
+        stored.put(METER, 5);
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, responseCode(0x04, GlucoseRecordSync.RESPONSE_OP_CODE_NOT_SUPPORTED));
+        assertEquals(GlucoseRecordSync.State.TRANSFERRING, transfer.getState());
+        assertEquals(-1, transfer.getExpectedRecords());
+        // still filtered
+        assertArrayEquals(bytes(0x01, 0x03, 0x01, 0x06, 0x00), lastCommand());
+    }
+
+    @Test
+    public void otherResponseCodes_fail() {
+        stored.put(METER, 5);
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, numberOfRecords(2));
+        // procedure not completed
+        sync.onControlPointIndication(transfer, responseCode(0x01, 0x08));
+        assertEquals(GlucoseRecordSync.State.FAILED, transfer.getState());
+        assertEquals(5, sync.getHighestSequenceNumber(METER));
+    }
+
+    @Test
+    public void highestSequenceNumber_wrapsAround() {
+        stored.put(METER, 0xFFFE);
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        assertArrayEquals(bytes(0x04, 0x03, 0x01, 0xFF, 0xFF), lastCommand());
+        sync.onControlPointIndication(transfer, numberOfRecords(1));
+        assertTrue(sync.onRecord(METER, transfer, 0xFFFF));
+
+        // there is no larger uint16, the next sync downloads everything again
+        transfer = sync.start(METER, controlPoint);
+        assertTrue(transfer.isUnfiltered());
+        assertArrayEquals(bytes(0x04, 0x01), lastCommand());
+        assertEquals(NO_SEQUENCE_NUMBER, sync.getHighestSequenceNumber(METER));
+        sync.onControlPointIndication(transfer, numberOfRecords(2));
+        assertTrue(sync.onRecord(METER, transfer, 0));
+        assertTrue(sync.onRecord(METER, transfer, 1));
+        assertEquals(1, sync.getHighestSequenceNumber(METER));
+    }
+
+    @Test
+    public void interruptedTransfer_resumesAfterTheLastReceivedRecord() {
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, numberOfRecords(5));
+        assertTrue(sync.onRecord(METER, transfer, 1));
+        assertTrue(sync.onRecord(METER, transfer, 2));
+        assertEquals(GlucoseRecordSync.State.TRANSFERRING, transfer.getState());
+
+        // disconnected, the next connection starts a new sync
+        GlucoseRecordSync.Transfer resumed = sync.start(METER, controlPoint);
+        assertArrayEquals(bytes(0x04, 0x03, 0x01, 0x03, 0x00), lastCommand());
+        sync.onControlPointIndication(resumed, numberOfRecords(3));
+        assertArrayEquals(bytes(0x01, 0x03, 0x01, 0x03, 0x00), lastCommand());
+        for (int sequenceNumber = 3; sequenceNumber <= 5; sequenceNumber++) {
+            assertTrue(sync.onRecord(METER, resumed, sequenceNumber));
+        }
+        sync.onControlPointIndication(resumed, responseCode(0x01, GlucoseRecordSync.RESPONSE_SUCCESS));
+        assertEquals(GlucoseRecordSync.State.COMPLETED, resumed.getState());
+        assertEquals(5, sync.getHighestSequenceNumber(METER));
+    }
+
+    @Test
+    public void recordsOutsideOfASync_areKept() {
+        stored.put(METER, 20);
+        assertTrue(sync.onRecord(METER, null, 21));
+        assertEquals(21, sync.getHighestSequenceNumber(METER));
+        assertTrue(sync.onRecord(METER, null, 3));
+        assertEquals(21, sync.getHighestSequenceNumber(METER));
+    }
+
+    @Test
+    public void malformedIndications_areIgnored() {
+        GlucoseRecordSync.Transfer transfer = sync.start(METER, controlPoint);
+        sync.onControlPointIndication(transfer, new byte[0]);
+        sync.onControlPointIndication(transfer, bytes(GlucoseRecordSync.OP_CODE_NUMBER_OF_RECORDS_RESPONSE, 0x00, 0x03));
+        sync.onControlPointIndication(transfer, bytes(GlucoseRecordSync.OP_CODE_RESPONSE_CODE, 0x00));
+        assertEquals(GlucoseRecordSync.State.COUNTING, transfer.getState());
+        assertEquals(1, commands.size());
+    }
+}
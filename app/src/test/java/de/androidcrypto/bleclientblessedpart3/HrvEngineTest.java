@@ -0,0 +1,198 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Synthetic RR sequences with known results, RR intervals are given in 1/1024 second like in 0x2A37
+ */
+public class HrvEngineTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static int rr(double millis) {
+        return (int) Math.round(millis * 1024 / 1000);
+    }
+
+    private static double millis(int rr) {
+        return rr * 1000.0 / 1024.0;
+    }
+
+    @Test
+    public void emptyEngine_hasNoValues() {
+        HrvEngine engine = new HrvEngine(60000);
+        assertEquals(0, engine.getBeatCount());
+        assertTrue(Double.isNaN(engine.getMeanRrMillis()));
+        assertTrue(Double.isNaN(engine.getSdnnMillis()));
+        assertTrue(Double.isNaN(engine.getRmssdMillis()));
+        assertTrue(Double.isNaN(engine.getPnn50()));
+    }
+
+    @Test
+    public void constantRhythm_hasNoVariability() {
+        HrvEngine engine = new HrvEngine(60000);
+        for (int i = 0; i < 50; i++) assertTrue(engine.addRrInterval(1024));
+        assertEquals(50, engine.getBeatCount());
+        assertEquals(1000.0, engine.getMeanRrMillis(), DELTA);
+        assertEquals(60.0, engine.getMeanHeartRate(), DELTA);
+        assertEquals(0.0, engine.getSdnnMillis(), DELTA);
+        assertEquals(0.0, engine.getRmssdMillis(), DELTA);
+        assertEquals(0.0, engine.getPnn50(), DELTA);
+    }
+
+    @Test
+    public void alternatingRhythm_matchesClosedForm() {
+        // 1000 ms and 1062.5 ms alternating, every successive difference is 62.5 ms
+        HrvEngine engine = new HrvEngine(60000);
+        for (int i = 0; i < 40; i++) engine.addRrInterval(i % 2 == 0 ? 1024 : 1088);
+        assertEquals(40, engine.getBeatCount());
+        assertEquals(1031.25, engine.getMeanRrMillis(), DELTA);
+        assertEquals(62.5, engine.getRmssdMillis(), DELTA);
+        assertEquals(100.0, engine.getPnn50(), DELTA);
+        // sample standard deviation of n/2 values a and n/2 values b is |a - b| / 2 * sqrt(n / (n - 1))
+        assertEquals(31.25 * Math.sqrt(40.0 / 39.0), engine.getSdnnMillis(), DELTA);
+    }
+
+    @Test
+    public void smallDifferences_doNotCountForPnn50() {
+        // 40 ms steps are below the 50 ms threshold
+        HrvEngine engine = new HrvEngine(60000);
+        for (int i = 0; i < 20; i++) engine.addRrInterval(i % 2 == 0 ? rr(800) : rr(840));
+        assertEquals(0.0, engine.getPnn50(), DELTA);
+    }
+
+    @Test
+    public void outOfRangeIntervals_areRejected() {
+        HrvEngine engine = new HrvEngine(60000);
+        assertFalse(engine.addRrInterval(0));
+        assertFalse(engine.addRrInterval(rr(250)));
+        assertFalse(engine.addRrInterval(rr(2500)));
+        assertTrue(engine.addRrInterval(1024));
+        assertEquals(1, engine.getBeatCount());
+        assertEquals(3, engine.getRejectedCount());
+    }
+
+    @Test
+    public void clear_resetsTheCounters() {
+        HrvEngine engine = new HrvEngine(60000);
+        engine.addRrInterval(0);
+        for (int i = 0; i < 5; i++) engine.addRrInterval(1024);
+        engine.clear();
+        assertEquals(0, engine.getBeatCount());
+        assertEquals(0, engine.getAcceptedCount());
+        assertEquals(0, engine.getRejectedCount());
+        assertTrue(engine.addRrInterval(1024));
+        assertEquals(1, engine.getAcceptedCount());
+    }
+
+    @Test
+    public void ectopicBeat_isRejectedAndBreaksTheDifferences() {
+        HrvEngine engine = new HrvEngine(60000);
+        for (int i = 0; i < 10; i++) engine.addRrInterval(1024);
+        // premature beat followed by the compensatory pause
+        assertFalse(engine.addRrInterval(rr(600)));
+        assertFalse(engine.addRrInterval(rr(1400)));
+        for (int i = 0; i < 10; i++) assertTrue(engine.addRrInterval(1024));
+
+        assertEquals(20, engine.getBeatCount());
+        assertEquals(2, engine.getRejectedCount());
+        assertEquals(0.0, engine.getSdnnMillis(), DELTA);
+        // the differences to and from the ectopic beats are not used
+        assertEquals(0.0, engine.getRmssdMillis(), DELTA);
+        assertEquals(0.0, engine.getPnn50(), DELTA);
+    }
+
+    @Test
+    public void stepChange_isFollowedAfterConsecutiveRejects() {
+        HrvEngine engine = new HrvEngine(60000);
+        for (int i = 0; i < 10; i++) engine.addRrInterval(1024);
+        int rejected = 0;
+        for (int i = 0; i < 10; i++) {
+            if (!engine.addRrInterval(rr(600))) rejected++;
+        }
+        assertEquals(HrvEngine.MAX_CONSECUTIVE_REJECTS, rejected);
+        assertEquals(17, engine.getBeatCount());
+        // the first accepted beat after the rejects has no successive difference
+        assertEquals(0.0, engine.getRmssdMillis(), DELTA);
+    }
+
+    @Test
+    public void oldBeats_leaveTheWindow() {
+        HrvEngine engine = new HrvEngine(10000);
+        for (int i = 0; i < 30; i++) engine.addRrInterval(i % 2 == 0 ? 1024 : 1088);
+        // 20 s of a constant rhythm push all alternating beats out of the 10 s window
+        for (int i = 0; i < 20; i++) engine.addRrInterval(1024);
+        assertEquals(10, engine.getBeatCount());
+        assertEquals(1000.0, engine.getMeanRrMillis(), DELTA);
+        assertEquals(0.0, engine.getSdnnMillis(), DELTA);
+        assertEquals(0.0, engine.getRmssdMillis(), DELTA);
+    }
+
+    @Test
+    public void randomSequence_matchesFullRecomputation() {
+        final long windowMillis = 30000;
+        final long window = windowMillis * 1024 / 1000;
+        HrvEngine engine = new HrvEngine(windowMillis);
+        Random random = new Random(42);
+
+        // reference: every beat with its time and whether it was accepted
+        List<long[]> beats = new ArrayList<>();
+        long beatTime = 0;
+        int current = 900;
+        for (int i = 0; i < 5000; i++) {
+            int millis;
+            if (random.nextInt(50) == 0) {
+                millis = random.nextBoolean() ? 350 : 1800;
+            } else {
+                current = Math.max(500, Math.min(1300, current + random.nextInt(61) - 30));
+                millis = current;
+            }
+            int rrInterval = rr(millis);
+            boolean accepted = engine.addRrInterval(rrInterval);
+            beatTime += rrInterval;
+            beats.add(new long[]{beatTime, rrInterval, accepted ? 1 : 0});
+
+            if (i % 97 == 0) assertMatchesReference(engine, beats, beatTime, window);
+        }
+        assertMatchesReference(engine, beats, beatTime, window);
+        assertTrue(engine.getRejectedCount() > 0);
+    }
+
+    private static void assertMatchesReference(HrvEngine engine, List<long[]> beats, long now, long window) {
+        List<Integer> intervals = new ArrayList<>();
+        List<Integer> differences = new ArrayList<>();
+        long[] previous = null;
+        for (long[] beat : beats) {
+            boolean inWindow = now - beat[0] < window;
+            if (beat[2] == 1 && inWindow) {
+                intervals.add((int) beat[1]);
+                // a difference is kept while its later beat is in the window
+                if (previous != null && previous[2] == 1) differences.add((int) (beat[1] - previous[1]));
+            }
+            previous = beat;
+        }
+        assertEquals(intervals.size(), engine.getBeatCount());
+
+        double mean = 0;
+        for (int interval : intervals) mean += interval;
+        mean /= intervals.size();
+        double squares = 0;
+        for (int interval : intervals) squares += (interval - mean) * (interval - mean);
+        assertEquals(millis(1) * mean, engine.getMeanRrMillis(), 1e-6);
+        assertEquals(millis(1) * Math.sqrt(squares / (intervals.size() - 1)), engine.getSdnnMillis(), 1e-6);
+
+        double squaredDifferences = 0;
+        int nn50 = 0;
+        for (int difference : differences) {
+            squaredDifferences += (double) difference * difference;
+            if (Math.abs(millis(difference)) > 50) nn50++;
+        }
+        assertEquals(millis(1) * Math.sqrt(squaredDifferences / differences.size()), engine.getRmssdMillis(), 1e-6);
+        assertEquals(100.0 * nn50 / differences.size(), engine.getPnn50(), 1e-9);
+    }
+}
@@ -0,0 +1,386 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.junit.Test;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotView;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightView;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every measurement type is encoded and decoded again, once with all fields and once with the optional fields absent
+ */
+public class MeasurementCodecTest {
+
+    private static final Date TIMESTAMP = new Date(1700000000123L);
+
+    // 2024-03-05 10:20:30
+    private static final int[] DATE_TIME = {0xE8, 0x07, 3, 5, 10, 20, 30};
+
+    // characteristic values, the first with every optional field, the second with none
+    private static final byte[][] BLOOD_PRESSURE = {
+            bytes(0x1E, 120, 0, 80, 0, 93, 0, DATE_TIME, 64, 0, 2, 0, 0),
+            bytes(0x01, 0xA0, 0xF0, 0x6E, 0xF0, 0x82, 0xF0)};
+    private static final byte[][] TEMPERATURE = {
+            bytes(0x07, 0xDA, 0x03, 0x00, 0xFF, DATE_TIME, 2),
+            bytes(0x00, 0x6E, 0x01, 0x00, 0xFF)};
+    private static final byte[][] HEART_RATE = {
+            bytes(0x1F, 0x2C, 0x01, 0xE8, 0x03, 0x00, 0x04, 0x20, 0x03),
+            bytes(0x00, 72)};
+    private static final byte[][] PULSE_OXIMETER_CONTINUOUS = {
+            bytes(0x1F, 97, 0, 61, 0, 96, 0, 62, 0, 98, 0, 60, 0, 0x20, 0, 0, 4, 0, 0x23, 0xF0),
+            bytes(0x00, 95, 0, 0, 0)};
+    private static final byte[][] PULSE_OXIMETER_SPOT = {
+            bytes(0x0F, 99, 0, 58, 0, DATE_TIME, 0x01, 0, 0x10, 0, 0, 0x0D, 0xF0),
+            bytes(0x10, 94, 0, 70, 0)};
+    private static final byte[][] WEIGHT = {
+            bytes(0x0F, 0x58, 0x43, DATE_TIME, 2, 0xE7, 0, 0x1C, 0x07),
+            bytes(0x00, 0x10, 0x3E)};
+    private static final byte[][] GLUCOSE = {
+            bytes(0x17, 0x2A, 0, DATE_TIME, 0x3C, 0, 0x36, 0xC0, 0x11),
+            bytes(0x00, 1, 0, DATE_TIME)};
+
+    // ints and int arrays, each int is one byte
+    private static byte[] bytes(Object... parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (Object part : parts) {
+            if (part instanceof int[]) {
+                for (int b : (int[]) part) buffer.put((byte) b);
+            } else {
+                buffer.put((byte) (int) (Integer) part);
+            }
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static ByteBuffer buffer() {
+        return ByteBuffer.allocate(MeasurementCodec.MAX_ENCODED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void assertSameEncoding(Object measurement, ByteBuffer viewEncoding) {
+        assertArrayEquals(MeasurementCodec.encode(measurement), Arrays.copyOf(viewEncoding.array(), viewEncoding.position()));
+    }
+
+    private static <T> T roundTrip(T measurement, Class<T> measurementClass) {
+        byte[] encoded = MeasurementCodec.encode(measurement);
+        assertTrue(encoded.length <= MeasurementCodec.MAX_ENCODED_SIZE);
+        return MeasurementCodec.decode(encoded, measurementClass);
+    }
+
+    @Test
+    public void bloodPressure_allFields() {
+        BloodPressureMeasurement measurement = new BloodPressureMeasurement();
+        measurement.systolic = 121.5f;
+        measurement.diastolic = 79f;
+        measurement.meanArterialPressure = 93.2f;
+        measurement.pulseRate = 64f;
+        measurement.timestamp = TIMESTAMP;
+        measurement.userID = 3;
+        measurement.isMMHG = true;
+        BloodPressureMeasurement decoded = roundTrip(measurement, BloodPressureMeasurement.class);
+        assertEquals(measurement.systolic, decoded.systolic);
+        assertEquals(measurement.diastolic, decoded.diastolic);
+        assertEquals(measurement.meanArterialPressure, decoded.meanArterialPressure);
+        assertEquals(measurement.pulseRate, decoded.pulseRate);
+        assertEquals(TIMESTAMP, decoded.timestamp);
+        assertEquals(Integer.valueOf(3), decoded.userID);
+        assertTrue(decoded.isMMHG);
+    }
+
+    @Test
+    public void bloodPressure_absentFields() {
+        BloodPressureMeasurement measurement = new BloodPressureMeasurement();
+        measurement.systolic = 16.1f;
+        BloodPressureMeasurement decoded = roundTrip(measurement, BloodPressureMeasurement.class);
+        assertEquals(measurement.systolic, decoded.systolic);
+        assertNull(decoded.diastolic);
+        assertNull(decoded.meanArterialPressure);
+        assertNull(decoded.pulseRate);
+        assertNull(decoded.timestamp);
+        assertNull(decoded.userID);
+        assertFalse(decoded.isMMHG);
+    }
+
+    @Test
+    public void temperature_allFields() {
+        TemperatureMeasurement measurement = new TemperatureMeasurement();
+        measurement.unit = TemperatureUnit.Fahrenheit;
+        measurement.temperatureValue = 98.6f;
+        measurement.timestamp = TIMESTAMP;
+        measurement.type = TemperatureType.Tympanum;
+        TemperatureMeasurement decoded = roundTrip(measurement, TemperatureMeasurement.class);
+        assertEquals(TemperatureUnit.Fahrenheit, decoded.unit);
+        assertEquals(98.6f, decoded.temperatureValue, 0f);
+        assertEquals(TIMESTAMP, decoded.timestamp);
+        assertEquals(TemperatureType.Tympanum, decoded.type);
+    }
+
+    @Test
+    public void temperature_absentFields() {
+        TemperatureMeasurement measurement = new TemperatureMeasurement();
+        measurement.temperatureValue = 0f;
+        TemperatureMeasurement decoded = roundTrip(measurement, TemperatureMeasurement.class);
+        assertNull(decoded.unit);
+        assertEquals(0f, decoded.temperatureValue, 0f);
+        assertNull(decoded.timestamp);
+        assertNull(decoded.type);
+    }
+
+    @Test
+    public void heartRate_allFields() {
+        HeartRateRecord record = new HeartRateRecord();
+        record.pulse = 300;
+        record.sensorContactStatus = HeartRateRecord.SENSOR_CONTACT_DETECTED;
+        record.energyExpendedPresent = true;
+        record.energyExpended = 65535;
+        record.rrCount = HeartRateRecord.MAX_RR_INTERVALS;
+        for (int i = 0; i < record.rrCount; i++) record.rrIntervals[i] = 700 + i * 200;
+        HeartRateMeasurement measurement = new HeartRateMeasurement(record);
+        HeartRateMeasurement decoded = roundTrip(measurement, HeartRateMeasurement.class);
+        assertEquals(Integer.valueOf(300), decoded.pulse);
+        assertEquals(HeartRateRecord.SENSOR_CONTACT_DETECTED, decoded.sensorContactStatus);
+        assertEquals(Integer.valueOf(65535), decoded.energyExpended);
+        assertArrayEquals(measurement.rrIntervals, decoded.rrIntervals);
+    }
+
+    @Test
+    public void heartRate_absentFields() {
+        HeartRateRecord record = new HeartRateRecord();
+        record.pulse = 72;
+        HeartRateMeasurement decoded = roundTrip(new HeartRateMeasurement(record), HeartRateMeasurement.class);
+        assertEquals(Integer.valueOf(72), decoded.pulse);
+        assertNull(decoded.energyExpended);
+        assertEquals(0, decoded.rrIntervals.length);
+    }
+
+    @Test
+    public void pulseOximeterContinuous_allFields() {
+        PulseOximeterContinuousMeasurement measurement = new PulseOximeterContinuousMeasurement(97, 61, 96, 62, 98, 60, 3.5f, 0x20, 0x0400);
+        PulseOximeterContinuousMeasurement decoded = roundTrip(measurement, PulseOximeterContinuousMeasurement.class);
+        assertEquals(97, decoded.getSpO2());
+        assertEquals(61, decoded.getPulseRate());
+        assertEquals(96, decoded.getSpO2Fast());
+        assertEquals(62, decoded.getPulseRateFast());
+        assertEquals(98, decoded.getSpO2Slow());
+        assertEquals(60, decoded.getPulseRateSlow());
+        assertEquals(3.5f, decoded.getPulseAmplitudeIndex(), 0f);
+        assertEquals(0x20, decoded.getMeasurementStatus());
+        assertEquals(0x0400, decoded.getSensorStatus());
+    }
+
+    @Test
+    public void pulseOximeterContinuous_zeroFieldsAreSuppressed() {
+        PulseOximeterContinuousMeasurement measurement = new PulseOximeterContinuousMeasurement(95, 0, 0, 0, 0, 0, 0f, 0, 0);
+        byte[] encoded = MeasurementCodec.encode(measurement);
+        assertEquals(MeasurementCodec.HEADER_SIZE + 4, encoded.length);
+        PulseOximeterContinuousMeasurement decoded = MeasurementCodec.decode(encoded, PulseOximeterContinuousMeasurement.class);
+        assertEquals(95, decoded.getSpO2());
+        assertEquals(0, decoded.getPulseRate());
+        assertEquals(0f, decoded.getPulseAmplitudeIndex(), 0f);
+    }
+
+    @Test
+    public void pulseOximeterSpot_allFields() {
+        PulseOximeterSpotMeasurement measurement = new PulseOximeterSpotMeasurement(99, 58, 1.25f, true, TIMESTAMP, 0x01, 0x10);
+        PulseOximeterSpotMeasurement decoded = roundTrip(measurement, PulseOximeterSpotMeasurement.class);
+        assertEquals(99, decoded.getSpO2());
+        assertEquals(58, decoded.getPulseRate());
+        assertEquals(1.25f, decoded.getPulseAmplitudeIndex(), 0f);
+        assertTrue(decoded.isDeviceClockSet());
+        assertEquals(TIMESTAMP, decoded.getTimestamp());
+        assertEquals(0x01, decoded.getMeasurementStatus());
+        assertEquals(0x10, decoded.getSensorStatus());
+    }
+
+    @Test
+    public void pulseOximeterSpot_absentFields() {
+        PulseOximeterSpotMeasurement measurement = new PulseOximeterSpotMeasurement(94, 70, 0f, false, null, 0, 0);
+        PulseOximeterSpotMeasurement decoded = roundTrip(measurement, PulseOximeterSpotMeasurement.class);
+        assertEquals(94, decoded.getSpO2());
+        assertEquals(70, decoded.getPulseRate());
+        assertFalse(decoded.isDeviceClockSet());
+        assertNull(decoded.getTimestamp());
+    }
+
+    @Test
+    public void weight_allFields() {
+        WeightMeasurement measurement = new WeightMeasurement(172.4, WeightUnit.Pounds, TIMESTAMP, 2, 231, 1820);
+        WeightMeasurement decoded = roundTrip(measurement, WeightMeasurement.class);
+        assertEquals(172.4, decoded.weight, 0);
+        assertEquals(WeightUnit.Pounds, decoded.unit);
+        assertEquals(TIMESTAMP, decoded.timestamp);
+        assertEquals(Integer.valueOf(2), decoded.userID);
+        assertEquals(Integer.valueOf(231), decoded.BMI);
+        assertEquals(Integer.valueOf(1820), decoded.height);
+    }
+
+    @Test
+    public void weight_absentFields() {
+        WeightMeasurement decoded = roundTrip(new WeightMeasurement(80.05, WeightUnit.Kilograms, null, null, null, null), WeightMeasurement.class);
+        assertEquals(80.05, decoded.weight, 0);
+        assertEquals(WeightUnit.Kilograms, decoded.unit);
+        assertNull(decoded.timestamp);
+        assertNull(decoded.userID);
+        assertNull(decoded.BMI);
+        assertNull(decoded.height);
+    }
+
+    @Test
+    public void weight_unitIsStoredAsCode() {
+        // the codes are part of the stored format, they do not follow the enum order
+        final int unitOffset = MeasurementCodec.HEADER_SIZE + 8;
+        assertEquals(1, MeasurementCodec.encode(new WeightMeasurement(1, WeightUnit.Kilograms, null, null, null, null))[unitOffset]);
+        assertEquals(2, MeasurementCodec.encode(new WeightMeasurement(1, WeightUnit.Pounds, null, null, null, null))[unitOffset]);
+        assertEquals(3, MeasurementCodec.encode(new WeightMeasurement(1, WeightUnit.Stones, null, null, null, null))[unitOffset]);
+        for (WeightUnit unit : WeightUnit.values()) {
+            assertEquals(unit, roundTrip(new WeightMeasurement(1, unit, null, null, null, null), WeightMeasurement.class).unit);
+        }
+        byte[] encoded = MeasurementCodec.encode(new WeightMeasurement(1, WeightUnit.Kilograms, null, null, null, null));
+        encoded[unitOffset] = 42;
+        assertEquals(WeightUnit.Unknown, MeasurementCodec.decode(encoded, WeightMeasurement.class).unit);
+    }
+
+    @Test
+    public void glucose_allFields() {
+        GlucoseMeasurement measurement = new GlucoseMeasurement(GlucoseMeasurementUnit.MmolPerLiter);
+        measurement.sequenceNumber = 65000;
+        measurement.value = 5.4f;
+        measurement.contextWillFollow = true;
+        measurement.timestamp = TIMESTAMP;
+        GlucoseMeasurement decoded = roundTrip(measurement, GlucoseMeasurement.class);
+        assertEquals(GlucoseMeasurementUnit.MmolPerLiter, decoded.unit);
+        assertEquals(65000, decoded.sequenceNumber);
+        assertEquals(5.4f, decoded.value, 0f);
+        assertTrue(decoded.contextWillFollow);
+        assertEquals(TIMESTAMP, decoded.timestamp);
+    }
+
+    @Test
+    public void glucose_absentFields() {
+        GlucoseMeasurement measurement = new GlucoseMeasurement(GlucoseMeasurementUnit.MiligramPerDeciliter);
+        measurement.value = 101f;
+        GlucoseMeasurement decoded = roundTrip(measurement, GlucoseMeasurement.class);
+        assertEquals(GlucoseMeasurementUnit.MiligramPerDeciliter, decoded.unit);
+        assertEquals(101f, decoded.value, 0f);
+        assertFalse(decoded.contextWillFollow);
+        assertNull(decoded.timestamp);
+    }
+
+    @Test
+    public void viewEncoding_matchesMeasurementEncoding() {
+        // the measurement constructors take the current time if the value has none, the views take the default
+        for (byte[] value : BLOOD_PRESSURE) {
+            BloodPressureMeasurement measurement = new BloodPressureMeasurement(value);
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new BloodPressureView(value), measurement.timestamp.getTime(), buffer);
+            assertSameEncoding(measurement, buffer);
+        }
+        for (byte[] value : TEMPERATURE) {
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new TemperatureView(value), buffer);
+            assertSameEncoding(new TemperatureMeasurement(value), buffer);
+        }
+        for (byte[] value : HEART_RATE) {
+            HeartRateRecord record = new HeartRateRecord();
+            assertTrue(HeartRateDecoder.decode(value, record));
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(record, buffer);
+            assertSameEncoding(new HeartRateMeasurement(value), buffer);
+        }
+        for (byte[] value : PULSE_OXIMETER_CONTINUOUS) {
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new PulseOximeterContinuousView(value), buffer);
+            assertSameEncoding(new PulseOximeterContinuousMeasurement(value), buffer);
+        }
+        for (byte[] value : PULSE_OXIMETER_SPOT) {
+            PulseOximeterSpotMeasurement measurement = new PulseOximeterSpotMeasurement(value);
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new PulseOximeterSpotView(value), measurement.getTimestamp().getTime(), buffer);
+            assertSameEncoding(measurement, buffer);
+        }
+        for (byte[] value : WEIGHT) {
+            WeightMeasurement measurement = new WeightMeasurement(value);
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new WeightView(value), measurement.timestamp.getTime(), buffer);
+            assertSameEncoding(measurement, buffer);
+        }
+        for (byte[] value : GLUCOSE) {
+            ByteBuffer buffer = buffer();
+            MeasurementCodec.encode(new GlucoseView(value), buffer);
+            assertSameEncoding(new GlucoseMeasurement(value), buffer);
+        }
+    }
+
+    @Test
+    public void viewEncoding_decodesToTheValues() {
+        ByteBuffer buffer = buffer();
+        MeasurementCodec.encode(new WeightView(WEIGHT[0]), 0, buffer);
+        WeightMeasurement weight = MeasurementCodec.decode(Arrays.copyOf(buffer.array(), buffer.position()), WeightMeasurement.class);
+        assertEquals(172.4, weight.weight, 1e-9);
+        assertEquals(WeightUnit.Pounds, weight.unit);
+        assertEquals(Integer.valueOf(1820), weight.height);
+
+        buffer = buffer();
+        MeasurementCodec.encode(new GlucoseView(GLUCOSE[0]), buffer);
+        GlucoseMeasurement glucose = MeasurementCodec.decode(Arrays.copyOf(buffer.array(), buffer.position()), GlucoseMeasurement.class);
+        assertEquals(GlucoseMeasurementUnit.MmolPerLiter, glucose.unit);
+        assertEquals(5.4f, glucose.value, 1e-4f);
+        assertEquals(42, glucose.sequenceNumber);
+        assertTrue(glucose.contextWillFollow);
+
+        buffer = buffer();
+        MeasurementCodec.encode(new BloodPressureView(BLOOD_PRESSURE[1]), 1234L, buffer);
+        BloodPressureMeasurement bloodPressure = MeasurementCodec.decode(Arrays.copyOf(buffer.array(), buffer.position()), BloodPressureMeasurement.class);
+        assertFalse(bloodPressure.isMMHG);
+        assertEquals(16.0f, bloodPressure.systolic, 1e-4f);
+        assertEquals(1234L, bloodPressure.timestamp.getTime());
+        assertNull(bloodPressure.pulseRate);
+    }
+
+    @Test
+    public void consecutiveEncodings_areReadFromOneBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(3 * MeasurementCodec.MAX_ENCODED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        TemperatureMeasurement temperature = new TemperatureMeasurement();
+        temperature.temperatureValue = 36.6f;
+        MeasurementCodec.encode(temperature, buffer);
+        MeasurementCodec.encode(new WeightMeasurement(70, WeightUnit.Kilograms, null, null, null, null), buffer);
+        buffer.flip();
+        assertEquals(36.6f, ((TemperatureMeasurement) MeasurementCodec.decode(buffer)).temperatureValue, 0f);
+        assertEquals(70, ((WeightMeasurement) MeasurementCodec.decode(buffer)).weight, 0);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void truncatedOrUnknownEncoding_isRejected() {
+        byte[] encoded = MeasurementCodec.encode(new WeightMeasurement(70, WeightUnit.Kilograms, TIMESTAMP, null, null, null));
+        for (int length = 0; length < encoded.length; length++) {
+            try {
+                MeasurementCodec.decode(Arrays.copyOf(encoded, length));
+                fail("decoded " + length + " of " + encoded.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        byte[] unknownType = encoded.clone();
+        unknownType[0] = 99;
+        byte[] unknownVersion = encoded.clone();
+        unknownVersion[1] = (byte) (MeasurementCodec.VERSION + 1);
+        for (byte[] invalid : new byte[][]{unknownType, unknownVersion}) {
+            try {
+                MeasurementCodec.decode(invalid);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * A small log with known measurements is exported in every format
+ */
+public class MeasurementExporterTest {
+
+    private static final String STRAP = "AA:BB:CC:DD:EE:01";
+    private static final String METER = "11:22:33:44:55:66";
+    private static final List<String> PERIPHERALS = Arrays.asList(STRAP, METER);
+    // 2025-10-09T08:53:20.000Z
+    private static final long T0 = 1760000000000L;
+    private static final int HEART_RATES = 10;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MeasurementLog log;
+    private MeasurementExporter exporter;
+
+    @Before
+    public void writeLog() throws IOException {
+        log = new MeasurementLog(temporaryFolder.newFolder("measurements"));
+        // one heart rate per second with two RR intervals, 1024 and 1040 in 1/1024 s
+        for (int i = 0; i < HEART_RATES; i++) {
+            log.append(STRAP, new HeartRateMeasurement(new byte[]{0x10, (byte) (60 + i), 0x00, 0x04, 0x10, 0x04}), T0 + i * 1000L);
+        }
+        BloodPressureMeasurement bloodPressure = new BloodPressureMeasurement();
+        bloodPressure.systolic = 120f;
+        bloodPressure.diastolic = 80f;
+        bloodPressure.pulseRate = 70f;
+        bloodPressure.isMMHG = true;
+        bloodPressure.timestamp = new Date(T0 - 60000);
+        log.append(STRAP, bloodPressure, T0 + 5);
+        GlucoseMeasurement glucose = new GlucoseMeasurement(GlucoseMeasurementUnit.MmolPerLiter);
+        glucose.value = 5.6f;
+        glucose.timestamp = new Date(T0);
+        log.append(METER, glucose, T0 + 7);
+        exporter = new MeasurementExporter(log);
+    }
+
+    @After
+    public void closeLog() {
+        log.close();
+    }
+
+    private String export(MeasurementExporter.Format format, long from, long to, int typeMask, Collection<String> peripherals) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(Channels.newChannel(out), format, false, from, to, typeMask, peripherals);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> lines(String text) {
+        assertTrue(text.endsWith("\n"));
+        return Arrays.asList(text.substring(0, text.length() - 1).split("\n"));
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) count++;
+        return count;
+    }
+
+    @Test
+    public void csv_hasOneRowPerValue() throws IOException {
+        List<String> rows = lines(export(MeasurementExporter.Format.CSV, T0, T0 + 1000, MeasurementExporter.ALL_TYPES, PERIPHERALS));
+        assertEquals(Arrays.asList(
+                "received,measured,peripheral,type,component,value,unit",
+                "2025-10-09T08:53:20.005Z,2025-10-09T08:52:20.000Z,AA:BB:CC:DD:EE:01,blood_pressure,systolic,120,mm[Hg]",
+                "2025-10-09T08:53:20.005Z,2025-10-09T08:52:20.000Z,AA:BB:CC:DD:EE:01,blood_pressure,diastolic,80,mm[Hg]",
+                "2025-10-09T08:53:20.005Z,2025-10-09T08:52:20.000Z,AA:BB:CC:DD:EE:01,blood_pressure,pulse_rate,70,/min",
+                "2025-10-09T08:53:20.000Z,,AA:BB:CC:DD:EE:01,heart_rate,pulse,60,/min",
+                "2025-10-09T08:53:20.000Z,,AA:BB:CC:DD:EE:01,heart_rate,rr_interval,1000,ms",
+                "2025-10-09T08:53:20.000Z,,AA:BB:CC:DD:EE:01,heart_rate,rr_interval,1015.625,ms",
+                "2025-10-09T08:53:21.000Z,,AA:BB:CC:DD:EE:01,heart_rate,pulse,61,/min",
+                "2025-10-09T08:53:21.000Z,,AA:BB:CC:DD:EE:01,heart_rate,rr_interval,1000,ms",
+                "2025-10-09T08:53:21.000Z,,AA:BB:CC:DD:EE:01,heart_rate,rr_interval,1015.625,ms",
+                "2025-10-09T08:53:20.007Z,2025-10-09T08:53:20.000Z,11:22:33:44:55:66,glucose,glucose,5.6,mmol/L"), rows);
+    }
+
+    @Test
+    public void ndjson_hasOneObjectPerMeasurement() throws IOException {
+        List<String> lines = lines(export(MeasurementExporter.Format.NDJSON, T0, T0 + 10, MeasurementExporter.ALL_TYPES, PERIPHERALS));
+        assertEquals(Arrays.asList(
+                "{\"received\":\"2025-10-09T08:53:20.005Z\",\"measured\":\"2025-10-09T08:52:20.000Z\",\"peripheral\":\"AA:BB:CC:DD:EE:01\","
+                        + "\"type\":\"blood_pressure\",\"systolic\":{\"value\":120,\"unit\":\"mm[Hg]\"},\"diastolic\":{\"value\":80,\"unit\":\"mm[Hg]\"},"
+                        + "\"pulse_rate\":{\"value\":70,\"unit\":\"/min\"}}",
+                // the RR intervals become one array
+                "{\"received\":\"2025-10-09T08:53:20.000Z\",\"peripheral\":\"AA:BB:CC:DD:EE:01\",\"type\":\"heart_rate\","
+                        + "\"pulse\":{\"value\":60,\"unit\":\"/min\"},\"rr_interval\":{\"value\":[1000,1015.625],\"unit\":\"ms\"}}",
+                "{\"received\":\"2025-10-09T08:53:20.007Z\",\"measured\":\"2025-10-09T08:53:20.000Z\",\"peripheral\":\"11:22:33:44:55:66\","
+                        + "\"type\":\"glucose\",\"glucose\":{\"value\":5.6,\"unit\":\"mmol/L\"}}"), lines);
+    }
+
+    @Test
+    public void fhir_isABundleOfObservations() throws IOException {
+        String bundle = export(MeasurementExporter.Format.FHIR, T0, T0 + 10, MeasurementExporter.ALL_TYPES, PERIPHERALS);
+        assertTrue(bundle.startsWith("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[{\"resource\":{\"resourceType\":\"Observation\""));
+        assertTrue(bundle.endsWith("}}]}\n"));
+        assertEquals(3, occurrences(bundle, "\"resourceType\":\"Observation\""));
+        // the blood pressure panel has components, the measured time is the effective time
+        assertTrue(bundle.contains("\"code\":\"85354-9\",\"display\":\"Blood pressure panel\"}]},\"effectiveDateTime\":\"2025-10-09T08:52:20.000Z\","
+                + "\"issued\":\"2025-10-09T08:53:20.005Z\",\"device\":{\"display\":\"AA:BB:CC:DD:EE:01\"},\"component\":["));
+        assertTrue(bundle.contains("\"code\":\"8480-6\",\"display\":\"Systolic blood pressure\"}]},\"valueQuantity\":{\"value\":120,"
+                + "\"unit\":\"mm[Hg]\",\"system\":\"http://unitsofmeasure.org\",\"code\":\"mm[Hg]\"}}"));
+        // the heart rate is the value, the RR intervals have no LOINC code and are left out
+        assertTrue(bundle.contains("\"device\":{\"display\":\"AA:BB:CC:DD:EE:01\"},\"valueQuantity\":{\"value\":60,\"unit\":\"/min\""));
+        assertFalse(bundle.contains("1015.625"));
+        assertTrue(bundle.contains("\"code\":\"laboratory\"}]}],\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"15074-8\""));
+    }
+
+    @Test
+    public void fhir_withoutMeasurements_isAnEmptyBundle() throws IOException {
+        assertEquals("{\"resourceType\":\"Bundle\",\"type\":\"collection\",\"entry\":[]}\n",
+                export(MeasurementExporter.Format.FHIR, 0, T0 - 1, MeasurementExporter.ALL_TYPES, PERIPHERALS));
+    }
+
+    @Test
+    public void gzip_decompressesToThePlainExport() throws IOException {
+        for (MeasurementExporter.Format format : MeasurementExporter.Format.values()) {
+            ByteArrayOutputStream zipped = new ByteArrayOutputStream();
+            final long count = exporter.export(Channels.newChannel(zipped), format, true, 0, Long.MAX_VALUE, MeasurementExporter.ALL_TYPES, PERIPHERALS);
+            assertEquals(HEART_RATES + 2, count);
+            ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(zipped.toByteArray()))) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) unzipped.write(buffer, 0, read);
+            }
+            assertEquals(export(format, 0, Long.MAX_VALUE, MeasurementExporter.ALL_TYPES, PERIPHERALS),
+                    new String(unzipped.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void file_isWrittenAsGzip() throws IOException {
+        File file = temporaryFolder.newFile("measurements.ndjson.gz");
+        assertEquals(HEART_RATES + 2, exporter.export(file, MeasurementExporter.Format.NDJSON, true, 0, Long.MAX_VALUE, MeasurementExporter.ALL_TYPES, null));
+        int lines = 0;
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            int b;
+            while ((b = in.read()) >= 0) if (b == '\n') lines++;
+        }
+        assertEquals(HEART_RATES + 2, lines);
+    }
+
+    @Test
+    public void timeRange_isInclusiveAndAppliesToTheReceivedTime() throws IOException {
+        // heart rates 2 to 5, the blood pressure was measured before the range but received in it
+        List<String> lines = lines(export(MeasurementExporter.Format.NDJSON, T0 + 2000, T0 + 5000, MeasurementExporter.ALL_TYPES, PERIPHERALS));
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).contains("\"pulse\":{\"value\":62,"));
+        assertTrue(lines.get(3).contains("\"pulse\":{\"value\":65,"));
+
+        assertEquals(3, lines(export(MeasurementExporter.Format.NDJSON, T0 + 5, T0 + 1000, MeasurementExporter.ALL_TYPES, PERIPHERALS)).size());
+        assertEquals("received,measured,peripheral,type,component,value,unit\n",
+                export(MeasurementExporter.Format.CSV, T0 + 20000, Long.MAX_VALUE, MeasurementExporter.ALL_TYPES, PERIPHERALS));
+    }
+
+    @Test
+    public void typeMask_andPeripherals_filterTheMeasurements() throws IOException {
+        List<String> lines = lines(export(MeasurementExporter.Format.NDJSON, 0, Long.MAX_VALUE,
+                MeasurementExporter.typeMask(MeasurementCodec.TYPE_BLOOD_PRESSURE, MeasurementCodec.TYPE_GLUCOSE), PERIPHERALS));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"type\":\"blood_pressure\""));
+        assertTrue(lines.get(1).contains("\"type\":\"glucose\""));
+
+        lines = lines(export(MeasurementExporter.Format.NDJSON, 0, Long.MAX_VALUE, MeasurementExporter.typeMask(MeasurementCodec.TYPE_HEART_RATE), null));
+        assertEquals(HEART_RATES, lines.size());
+        for (String line : lines) assertTrue(line.contains("\"type\":\"heart_rate\""));
+
+        lines = lines(export(MeasurementExporter.Format.NDJSON, 0, Long.MAX_VALUE, MeasurementExporter.ALL_TYPES, Collections.singletonList(METER)));
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).contains("\"peripheral\":\"11:22:33:44:55:66\""));
+
+        assertEquals("", export(MeasurementExporter.Format.NDJSON, 0, Long.MAX_VALUE, MeasurementExporter.typeMask(MeasurementCodec.TYPE_WEIGHT), null));
+    }
+
+    @Test
+    public void largeExport_isWrittenInChunks() throws IOException {
+        for (int i = HEART_RATES; i < 20000; i++) {
+            log.append(STRAP, new HeartRateMeasurement(new byte[]{0x10, (byte) 70, 0x00, 0x04, 0x10, 0x04}), T0 + i * 1000L);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] writes = {0, 0};
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) {
+                final int length = source.remaining();
+                writes[0]++;
+                writes[1] = Math.max(writes[1], length);
+                while (source.hasRemaining()) out.write(source.get());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        assertEquals(20000, exporter.export(channel, MeasurementExporter.Format.CSV, false, T0, Long.MAX_VALUE,
+                MeasurementExporter.typeMask(MeasurementCodec.TYPE_HEART_RATE), null));
+        assertEquals(1 + 3 * 20000, lines(new String(out.toByteArray(), StandardCharsets.US_ASCII)).size());
+        assertTrue(writes[0] > 1);
+        assertTrue(writes[1] <= MeasurementExporter.CHUNK_SIZE + 4096);
+    }
+}
@@ -0,0 +1,226 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * A crash is simulated by leaving a log open, changing its segment file behind its back and opening a second
+ * log on the same directory, like the next process start would.
+ */
+public class MeasurementLogTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    // the background commit never runs during a test
+    private static final long COMMIT_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() {
+        root = folder.getRoot();
+    }
+
+    private MeasurementLog open() throws IOException {
+        return new MeasurementLog(root, SEGMENT_SIZE, COMMIT_INTERVAL_MILLIS);
+    }
+
+    private static void append(MeasurementLog log, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            BloodPressureMeasurement measurement = new BloodPressureMeasurement();
+            measurement.systolic = 100f + i;
+            log.append(ADDRESS, measurement, i);
+        }
+    }
+
+    private static List<Long> timestamps(MeasurementLog log) throws IOException {
+        final List<Long> timestamps = new ArrayList<>();
+        log.scan(ADDRESS, MeasurementCodec.TYPE_BLOOD_PRESSURE, Long.MIN_VALUE, Long.MAX_VALUE, new MeasurementLog.EntryVisitor() {
+            @Override
+            public boolean onEntry(long timestamp, @NotNull ByteBuffer payload) {
+                BloodPressureMeasurement measurement = (BloodPressureMeasurement) MeasurementCodec.decode(payload);
+                assertEquals(100f + timestamp, measurement.systolic, 0f);
+                timestamps.add(timestamp);
+                return true;
+            }
+        });
+        return timestamps;
+    }
+
+    private static List<Long> range(int from, int to) {
+        List<Long> range = new ArrayList<>();
+        for (long i = from; i < to; i++) range.add(i);
+        return range;
+    }
+
+    private File segment() {
+        return new File(root, "AA-BB-CC-DD-EE-FF/" + MeasurementCodec.TYPE_BLOOD_PRESSURE + "/00000001.seg");
+    }
+
+    private static int readInt(RandomAccessFile file, long position) throws IOException {
+        byte[] bytes = new byte[4];
+        file.seek(position);
+        file.readFully(bytes);
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    }
+
+    // file offset of the entry with the given index, walking the length fields
+    private static int entryOffset(RandomAccessFile file, int index) throws IOException {
+        int position = MeasurementLog.SEGMENT_HEADER_SIZE;
+        for (int i = 0; i < index; i++) position += MeasurementLog.ENTRY_HEADER_SIZE + readInt(file, position);
+        return position;
+    }
+
+    @Test
+    public void entriesSurviveReopen() throws IOException {
+        MeasurementLog log = open();
+        append(log, 0, 10);
+        assertEquals(10, log.getAppendedCount());
+        log.close();
+        assertEquals(1, log.getCommitCount());
+
+        MeasurementLog reopened = open();
+        assertEquals(range(0, 10), timestamps(reopened));
+        append(reopened, 10, 12);
+        assertEquals(range(0, 12), timestamps(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void completeEntriesBehindTheCommit_areRecovered() throws IOException {
+        MeasurementLog crashed = open();
+        append(crashed, 0, 5);
+        crashed.commit();
+        append(crashed, 5, 8);
+
+        MeasurementLog reopened = open();
+        assertEquals(range(0, 8), timestamps(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void tornEntryBehindTheCommit_cutsTheTail() throws IOException {
+        MeasurementLog crashed = open();
+        append(crashed, 0, 5);
+        crashed.commit();
+        append(crashed, 5, 8);
+
+        final int tornStart;
+        RandomAccessFile file = new RandomAccessFile(segment(), "rw");
+        try {
+            // the committed position in the header is the end of entry 4
+            assertEquals(entryOffset(file, 5), readInt(file, 8));
+            // the payload of entry 6 did not reach the disk
+            tornStart = entryOffset(file, 6);
+            file.seek(tornStart + MeasurementLog.ENTRY_HEADER_SIZE);
+            file.write(new byte[4]);
+        } finally {
+            file.close();
+        }
+
+        MeasurementLog reopened = open();
+        assertEquals(range(0, 6), timestamps(reopened));
+
+        // the partition is recovered by its first append, the new entry goes where the torn one was
+        append(reopened, 10, 11);
+        file = new RandomAccessFile(segment(), "r");
+        try {
+            assertEquals(tornStart, readInt(file, 8));
+            final int end = entryOffset(file, 7);
+            // everything behind the new entry is zeroed
+            byte[] tail = new byte[SEGMENT_SIZE - end];
+            file.seek(end);
+            file.readFully(tail);
+            for (int i = 0; i < tail.length; i++) assertEquals("offset " + (end + i), 0, tail[i]);
+        } finally {
+            file.close();
+        }
+        reopened.close();
+        MeasurementLog again = open();
+        List<Long> expected = range(0, 6);
+        expected.add(10L);
+        assertEquals(expected, timestamps(again));
+        again.close();
+    }
+
+    @Test
+    public void tornFirstEntryBehindTheCommit_keepsExactlyTheCommittedEntries() throws IOException {
+        MeasurementLog crashed = open();
+        append(crashed, 0, 5);
+        crashed.commit();
+        append(crashed, 5, 8);
+
+        RandomAccessFile file = new RandomAccessFile(segment(), "rw");
+        try {
+            // a bad length field
+            file.seek(entryOffset(file, 5));
+            file.write(new byte[]{(byte) 0xFF, (byte) 0xFF, 0x00, 0x00});
+        } finally {
+            file.close();
+        }
+
+        MeasurementLog reopened = open();
+        assertEquals(range(0, 5), timestamps(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void committedEntries_areNotScannedAgain() throws IOException {
+        MeasurementLog crashed = open();
+        append(crashed, 0, 5);
+        crashed.commit();
+
+        RandomAccessFile file = new RandomAccessFile(segment(), "rw");
+        try {
+            // a checksum that does not match, only the tail behind the committed position is checked
+            file.seek(entryOffset(file, 2) + 4);
+            file.write(new byte[4]);
+        } finally {
+            file.close();
+        }
+
+        MeasurementLog reopened = open();
+        assertEquals(range(0, 5), timestamps(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void validEnd_stopsAtTheFirstBadEntry() throws IOException {
+        MeasurementLog log = open();
+        append(log, 0, 3);
+        log.close();
+
+        RandomAccessFile file = new RandomAccessFile(segment(), "r");
+        try {
+            final int end = entryOffset(file, 3);
+            byte[] bytes = new byte[SEGMENT_SIZE];
+            file.seek(0);
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            assertEquals(end, MeasurementLog.validEnd(buffer, MeasurementLog.SEGMENT_HEADER_SIZE));
+            assertEquals(end, MeasurementLog.validEnd(buffer, end));
+            // flip a timestamp bit of entry 1
+            final int second = entryOffset(file, 1);
+            bytes[second + 8] ^= 1;
+            assertEquals(second, MeasurementLog.validEnd(buffer, MeasurementLog.SEGMENT_HEADER_SIZE));
+        } finally {
+            file.close();
+        }
+    }
+}
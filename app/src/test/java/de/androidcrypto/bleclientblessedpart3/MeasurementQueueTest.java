@@ -0,0 +1,113 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Offers and drains on one thread, then a producer and a consumer thread checking order and drops
+ */
+public class MeasurementQueueTest {
+
+    private static final class Recorder implements MeasurementListener<Integer> {
+        final List<String> addresses = new ArrayList<>();
+        final List<Integer> measurements = new ArrayList<>();
+
+        @Override
+        public void onMeasurement(@NotNull String peripheralAddress, @NotNull Integer measurement) {
+            addresses.add(peripheralAddress);
+            measurements.add(measurement);
+        }
+    }
+
+    @Test
+    public void capacity_isRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new MeasurementQueue<Integer>(0).capacity());
+        assertEquals(2, new MeasurementQueue<Integer>(2).capacity());
+        assertEquals(8, new MeasurementQueue<Integer>(5).capacity());
+        assertEquals(256, new MeasurementQueue<Integer>(256).capacity());
+    }
+
+    @Test
+    public void wrapAround_keepsTheOrder() {
+        MeasurementQueue<Integer> queue = new MeasurementQueue<>(4);
+        Recorder recorder = new Recorder();
+        int next = 0;
+        // 3 in, 3 out, so head and tail cross the end of the slot arrays many times
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer("AA:BB:CC:DD:EE:0" + (next % 2), next));
+                next++;
+            }
+            assertEquals(3, queue.size());
+            assertEquals(3, queue.drain(recorder));
+            assertEquals(0, queue.size());
+        }
+        assertEquals(300, recorder.measurements.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(i, (int) recorder.measurements.get(i));
+            assertEquals("AA:BB:CC:DD:EE:0" + (i % 2), recorder.addresses.get(i));
+        }
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void fullQueue_dropsTheNewestAndCountsIt() {
+        MeasurementQueue<Integer> queue = new MeasurementQueue<>(4);
+        for (int i = 0; i < 4; i++) assertTrue(queue.offer("A", i));
+        assertFalse(queue.offer("A", 4));
+        assertFalse(queue.offer("A", 5));
+        assertEquals(4, queue.size());
+        assertEquals(2, queue.getDropped());
+
+        Recorder recorder = new Recorder();
+        assertEquals(4, queue.drain(recorder));
+        assertEquals(Arrays.asList(0, 1, 2, 3), recorder.measurements);
+        // room again after the drain, the counter keeps its value
+        assertTrue(queue.offer("A", 6));
+        assertEquals(1, queue.drain(recorder));
+        assertEquals(6, (int) recorder.measurements.get(4));
+        assertEquals(2, queue.getDropped());
+    }
+
+    @Test
+    public void emptyQueue_drainsNothing() {
+        MeasurementQueue<Integer> queue = new MeasurementQueue<>(4);
+        assertEquals(0, queue.drain(new Recorder()));
+    }
+
+    @Test
+    public void producerAndConsumerThreads_deliverInOrderOrCountTheDrop() throws InterruptedException {
+        final MeasurementQueue<Integer> queue = new MeasurementQueue<>(64);
+        final int count = 200000;
+        final long[] accepted = {0};
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    if (queue.offer("A", i)) accepted[0]++;
+                }
+            }
+        });
+        final List<Integer> received = new ArrayList<>();
+        MeasurementListener<Integer> listener = new MeasurementListener<Integer>() {
+            @Override
+            public void onMeasurement(@NotNull String peripheralAddress, @NotNull Integer measurement) {
+                received.add(measurement);
+            }
+        };
+        producer.start();
+        while (producer.isAlive()) queue.drain(listener);
+        producer.join();
+        queue.drain(listener);
+
+        assertEquals(accepted[0], received.size());
+        assertEquals(count, accepted[0] + queue.getDropped());
+        for (int i = 1; i < received.size(); i++) assertTrue(received.get(i) > received.get(i - 1));
+    }
+}
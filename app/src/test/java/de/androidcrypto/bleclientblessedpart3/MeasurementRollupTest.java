@@ -0,0 +1,388 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattDateTime;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousView;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotView;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * The buckets are compared with a GregorianCalendar around daylight saving transitions, and the rollups rebuilt
+ * from the measurement log with the rollups built while the measurements arrived
+ */
+public class MeasurementRollupTest {
+
+    private static final String STRAP = "AA:BB:CC:DD:EE:01";
+    private static final String CUFF = "11:22:33:44:55:66";
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    // 2025-10-09T08:53:20.000Z
+    private static final long T0 = 1760000000000L;
+    private static final double DELTA = 1e-6;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    // a bucket as returned by query
+    private static final class Bucket {
+        final long start;
+        final long count;
+        final double min;
+        final double max;
+        final double sum;
+
+        Bucket(long start, long count, double min, double max, double sum) {
+            this.start = start;
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+        }
+
+        @Override
+        public String toString() {
+            return start + ": " + count + " " + min + "-" + max + " " + sum;
+        }
+    }
+
+    private static List<Bucket> query(MeasurementRollup rollup, String address, MeasurementRollup.Metric metric,
+                                      MeasurementRollup.Tier tier, long from, long to) {
+        final List<Bucket> buckets = new ArrayList<>();
+        rollup.query(address, metric, tier, from, to, new MeasurementRollup.BucketVisitor() {
+            @Override
+            public boolean onBucket(long start, long count, double min, double max, double sum, double sumOfSquares) {
+                buckets.add(new Bucket(start, count, min, max, sum));
+                return true;
+            }
+        });
+        return buckets;
+    }
+
+    private static void assertSameBuckets(String message, List<Bucket> expected, List<Bucket> actual) {
+        assertEquals(message + " " + actual, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Bucket e = expected.get(i), a = actual.get(i);
+            final String at = message + " bucket " + i;
+            assertEquals(at, e.start, a.start);
+            assertEquals(at, e.count, a.count);
+            assertEquals(at, e.min, a.min, DELTA);
+            assertEquals(at, e.max, a.max, DELTA);
+            assertEquals(at, e.sum, a.sum, DELTA * Math.max(1, Math.abs(e.sum)));
+        }
+    }
+
+    private static void assertSameRollups(MeasurementRollup expected, MeasurementRollup actual, long from, long to) {
+        for (String address : new String[]{STRAP, CUFF}) {
+            for (MeasurementRollup.Metric metric : MeasurementRollup.Metric.values()) {
+                for (MeasurementRollup.Tier tier : MeasurementRollup.Tier.values()) {
+                    assertSameBuckets(address + " " + metric + " " + tier,
+                            query(expected, address, metric, tier, from, to), query(actual, address, metric, tier, from, to));
+                }
+            }
+        }
+    }
+
+    // Bucket alignment
+
+    // the first instant of the local minute, hour or day of the calendar time
+    private static long truncate(GregorianCalendar calendar, long timestamp, MeasurementRollup.Tier tier) {
+        calendar.setTimeInMillis(timestamp);
+        if (tier != MeasurementRollup.Tier.MINUTE) calendar.set(Calendar.MINUTE, 0);
+        if (tier == MeasurementRollup.Tier.DAY) calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    // a pulse every 20 seconds for 30 hours on both sides of the instant, every tier against the calendar
+    private static void assertBucketsAround(TimeZone zone, long instant) {
+        GattDateTime.setTimeZone(zone);
+        GregorianCalendar calendar = new GregorianCalendar(zone, Locale.ENGLISH);
+        MeasurementRollup rollup = new MeasurementRollup();
+        final long from = instant - 30 * HOUR + 7000;
+        final long to = instant + 30 * HOUR;
+        List<Long> timestamps = new ArrayList<>();
+        int i = 0;
+        for (long t = from; t <= to; t += 20000, i++) {
+            rollup.add(STRAP, MeasurementRollup.Metric.PULSE, t, 50 + (i * 7) % 50);
+            timestamps.add(t);
+        }
+        for (MeasurementRollup.Tier tier : MeasurementRollup.Tier.values()) {
+            // start, count, min, max, sum
+            Map<Long, double[]> byStart = new TreeMap<>();
+            for (int j = 0; j < timestamps.size(); j++) {
+                final long start = truncate(calendar, timestamps.get(j), tier);
+                final double value = 50 + (j * 7) % 50;
+                double[] bucket = byStart.get(start);
+                if (bucket == null) {
+                    bucket = new double[]{0, value, value, 0};
+                    byStart.put(start, bucket);
+                }
+                bucket[0]++;
+                bucket[1] = Math.min(bucket[1], value);
+                bucket[2] = Math.max(bucket[2], value);
+                bucket[3] += value;
+            }
+            List<Bucket> expected = new ArrayList<>();
+            for (Map.Entry<Long, double[]> entry : byStart.entrySet()) {
+                final double[] bucket = entry.getValue();
+                expected.add(new Bucket(entry.getKey(), (long) bucket[0], bucket[1], bucket[2], bucket[3]));
+            }
+            assertSameBuckets(zone.getID() + " " + tier + " around " + instant, expected,
+                    query(rollup, STRAP, MeasurementRollup.Metric.PULSE, tier, from, to));
+        }
+    }
+
+    // the instants of the offset changes of the zone in the year
+    private static List<Long> transitions(TimeZone zone, int year) {
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"), Locale.ENGLISH);
+        calendar.clear();
+        calendar.set(year, Calendar.JANUARY, 1);
+        final long end = calendar.getTimeInMillis() + 366 * DAY;
+        List<Long> found = new ArrayList<>();
+        long t = calendar.getTimeInMillis();
+        int offset = zone.getOffset(t);
+        for (; t < end; t += 15 * MINUTE) {
+            if (zone.getOffset(t) != offset) {
+                offset = zone.getOffset(t);
+                found.add(t);
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void daylightSavingTransitions_bucketsMatchTheCalendar() {
+        int checked = 0;
+        // a 30 minute shift and a southern summer as well
+        for (String id : new String[]{"Europe/Berlin", "America/New_York", "Australia/Lord_Howe", "America/Santiago"}) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (long transition : transitions(zone, 2024)) {
+                assertBucketsAround(zone, transition);
+                checked++;
+            }
+        }
+        assertTrue("no transitions found", checked >= 8);
+    }
+
+    @Test
+    public void daylightSavingDays_haveTheirLocalLength() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        GattDateTime.setTimeZone(zone);
+        MeasurementRollup rollup = new MeasurementRollup();
+        // 2024-03-30 to 2024-04-01 and 2024-10-26 to 2024-10-28 UTC, one pulse per minute
+        for (long first : new long[]{1711756800000L, 1729900800000L}) {
+            for (long t = first; t < first + 3 * DAY; t += MINUTE) rollup.add(STRAP, MeasurementRollup.Metric.PULSE, t, 60);
+        }
+        List<Bucket> spring = query(rollup, STRAP, MeasurementRollup.Metric.PULSE, MeasurementRollup.Tier.DAY,
+                1711756800000L + DAY, 1711756800000L + 2 * DAY);
+        List<Bucket> autumn = query(rollup, STRAP, MeasurementRollup.Metric.PULSE, MeasurementRollup.Tier.DAY,
+                1729900800000L + DAY, 1729900800000L + 2 * DAY);
+        // March 31 has 23 hours, October 27 has 25
+        assertEquals(23 * HOUR, spring.get(1).start - spring.get(0).start);
+        assertEquals(23 * 60, spring.get(0).count);
+        assertEquals(25 * HOUR, autumn.get(1).start - autumn.get(0).start);
+        assertEquals(25 * 60, autumn.get(0).count);
+        // the repeated hour of October 27 is one local hour bucket
+        List<Bucket> repeated = query(rollup, STRAP, MeasurementRollup.Metric.PULSE, MeasurementRollup.Tier.HOUR,
+                1729990800000L, 1729990800000L);
+        assertEquals(1, repeated.size());
+        assertEquals(120, repeated.get(0).count);
+    }
+
+    // Rebuild from the log
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = (byte) values[i];
+        return result;
+    }
+
+    // little endian SFLOAT with a 12 bit mantissa and a 4 bit exponent
+    private static int[] sfloat(int mantissa, int exponent) {
+        return new int[]{mantissa & 0xFF, ((exponent & 0x0F) << 4) | ((mantissa >> 8) & 0x0F)};
+    }
+
+    private static byte[] bloodPressureKpa(int i) {
+        final int[] systolic = sfloat(150 + i % 30, -1), diastolic = sfloat(100 + i % 20, -1), mean = sfloat(120 + i % 10, -1);
+        final int[] pulse = sfloat(60 + i % 25, 0);
+        return bytes(0x05, systolic[0], systolic[1], diastolic[0], diastolic[1], mean[0], mean[1], pulse[0], pulse[1]);
+    }
+
+    private static byte[] temperatureFahrenheit(int i) {
+        final int mantissa = 970 + i % 20;
+        return bytes(0x01, mantissa & 0xFF, mantissa >> 8, 0x00, 0xFF);
+    }
+
+    private static byte[] weightPounds(int i) {
+        final int weight = 16000 + i * 7;
+        return bytes(0x01, weight & 0xFF, weight >> 8);
+    }
+
+    private static byte[] glucoseMmol(int i) {
+        // 2024-03-05 10:20:30, the concentration in mol/L
+        final int[] concentration = sfloat(40 + i % 50, -4);
+        return bytes(0x06, i & 0xFF, i >> 8, 0xE8, 0x07, 3, 5, 10, 20, 30, concentration[0], concentration[1], 0x11);
+    }
+
+    private static byte[] heartRate(int i) {
+        return bytes(0x00, 50 + i % 70);
+    }
+
+    private static byte[] pulseOximeter(int i) {
+        // 0 while the sensor has no reading
+        return bytes(0x00, i % 13 == 0 ? 0 : 90 + i % 10, 0, 60 + i % 30, 0);
+    }
+
+    // the pipeline feeds the rollup from views and records, the log stores the measurement objects
+    private static void addLive(MeasurementRollup rollup, HeartRateRecord record, int i, long timestamp) {
+        assertTrue(HeartRateDecoder.decode(heartRate(i), record));
+        rollup.add(STRAP, record, timestamp);
+        rollup.add(STRAP, new PulseOximeterContinuousView(pulseOximeter(i)), timestamp);
+        rollup.add(CUFF, new BloodPressureView(bloodPressureKpa(i)), timestamp);
+        rollup.add(CUFF, new TemperatureView(temperatureFahrenheit(i)), timestamp);
+        rollup.add(CUFF, new WeightView(weightPounds(i)), timestamp);
+        rollup.add(CUFF, new GlucoseView(glucoseMmol(i)), timestamp);
+        rollup.add(CUFF, new PulseOximeterSpotView(pulseOximeter(i + 5)), timestamp);
+    }
+
+    private static void append(MeasurementLog log, int i, long timestamp) throws IOException {
+        log.append(STRAP, new HeartRateMeasurement(heartRate(i)), timestamp);
+        log.append(STRAP, new PulseOximeterContinuousMeasurement(pulseOximeter(i)), timestamp);
+        log.append(CUFF, new BloodPressureMeasurement(bloodPressureKpa(i)), timestamp);
+        log.append(CUFF, new TemperatureMeasurement(temperatureFahrenheit(i)), timestamp);
+        log.append(CUFF, new WeightMeasurement(weightPounds(i)), timestamp);
+        log.append(CUFF, new GlucoseMeasurement(glucoseMmol(i)), timestamp);
+        log.append(CUFF, new PulseOximeterSpotMeasurement(pulseOximeter(i + 5)), timestamp);
+    }
+
+    @Test
+    public void rebuiltFromTheLog_equalsTheLiveRollup() throws IOException {
+        GattDateTime.setTimeZone(TimeZone.getTimeZone("Europe/Berlin"));
+        MeasurementLog log = new MeasurementLog(temporaryFolder.newFolder("measurements"));
+        MeasurementRollup live = new MeasurementRollup();
+        HeartRateRecord record = new HeartRateRecord();
+        // every 7 minutes for 4 days, across the end of daylight saving time on 2025-10-26
+        final int count = 4 * 24 * 60 / 7;
+        final long first = 1761300000000L;
+        for (int i = 0; i < count; i++) {
+            final long timestamp = first + i * 7 * MINUTE + i % 1000;
+            addLive(live, record, i, timestamp);
+            append(log, i, timestamp);
+        }
+        final long last = first + (count - 1) * 7 * MINUTE + 1000;
+        assertTrue(live.getAddedCount() > 10L * count);
+
+        MeasurementRollup rebuilt = new MeasurementRollup();
+        assertEquals(7L * count, rebuilt.rebuild(log, last + 1));
+        assertEquals(live.getAddedCount(), rebuilt.getAddedCount());
+        assertSameRollups(live, rebuilt, first, last);
+        log.close();
+    }
+
+    @Test
+    public void rebuildBeforeTheStart_plusTheNewMeasurements_equalsTheLiveRollup() throws IOException {
+        GattDateTime.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        MeasurementLog log = new MeasurementLog(temporaryFolder.newFolder("measurements"));
+        MeasurementRollup live = new MeasurementRollup();
+        HeartRateRecord record = new HeartRateRecord();
+        final int count = 2000;
+        for (int i = 0; i < count / 2; i++) {
+            addLive(live, record, i, T0 + i * MINUTE);
+            append(log, i, T0 + i * MINUTE);
+        }
+        // a restart: the log is read up to the start while new measurements arrive
+        final long start = T0 + count / 2 * MINUTE;
+        MeasurementRollup restarted = new MeasurementRollup();
+        for (int i = count / 2; i < count; i++) {
+            addLive(live, record, i, T0 + i * MINUTE);
+            addLive(restarted, record, i, T0 + i * MINUTE);
+            append(log, i, T0 + i * MINUTE);
+        }
+        assertEquals(7L * count / 2, restarted.rebuild(log, start));
+        assertSameRollups(live, restarted, T0, T0 + count * MINUTE);
+        log.close();
+    }
+
+    private static UUID uuid(int assignedNumber) {
+        return UUID.fromString(String.format(Locale.ENGLISH, "0000%04x-0000-1000-8000-00805f9b34fb", assignedNumber));
+    }
+
+    @Test
+    public void pipeline_feedsTheRollupWithAndWithoutLog() throws IOException {
+        MeasurementRollup live = new MeasurementRollup();
+        MeasurementPipeline pipeline = new MeasurementPipeline(MeasurementBus.getInstance(), new EventLog(EventLog.DEFAULT_CAPACITY, Log.DEBUG), live);
+        final long from = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            pipeline.onNotification(STRAP, uuid(GattCharacteristics.HEART_RATE_MEASUREMENT), heartRate(i), i);
+        }
+        // without a log the rollups are fed all the same
+        assertEquals(50, live.getAddedCount());
+
+        live.clear();
+        MeasurementLog log = new MeasurementLog(temporaryFolder.newFolder("measurements"));
+        pipeline.setMeasurementLog(log);
+        for (int i = 0; i < 50; i++) {
+            pipeline.onNotification(STRAP, uuid(GattCharacteristics.HEART_RATE_MEASUREMENT), heartRate(i), i);
+            pipeline.onNotification(STRAP, uuid(GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT), pulseOximeter(i), i);
+            pipeline.onNotification(CUFF, uuid(GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT), bloodPressureKpa(i), i);
+            pipeline.onNotification(CUFF, uuid(GattCharacteristics.TEMPERATURE_MEASUREMENT), temperatureFahrenheit(i), i);
+            pipeline.onNotification(CUFF, uuid(GattCharacteristics.WEIGHT_MEASUREMENT), weightPounds(i), i);
+            pipeline.onNotification(CUFF, uuid(GattCharacteristics.GLUCOSE_MEASUREMENT), glucoseMmol(i), i);
+            pipeline.onNotification(CUFF, uuid(GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT), pulseOximeter(i + 5), i);
+        }
+        final long to = System.currentTimeMillis();
+        assertEquals(7 * 50, log.getAppendedCount());
+
+        MeasurementRollup rebuilt = new MeasurementRollup();
+        assertEquals(7 * 50, rebuilt.rebuild(log, to + 1));
+        assertEquals(live.getAddedCount(), rebuilt.getAddedCount());
+        assertSameRollups(live, rebuilt, from, to);
+        log.close();
+    }
+
+    // Tiers
+
+    @Test
+    public void tierFor_picksTheFinestTierWithinTheLimits() {
+        assertEquals(MeasurementRollup.Tier.MINUTE, MeasurementRollup.tierFor(T0, T0 + HOUR, 500));
+        assertEquals(MeasurementRollup.Tier.HOUR, MeasurementRollup.tierFor(T0, T0 + 7 * DAY, 500));
+        assertEquals(MeasurementRollup.Tier.DAY, MeasurementRollup.tierFor(T0, T0 + 365 * DAY, 500));
+        // the minute tier keeps 3 days
+        assertEquals(MeasurementRollup.Tier.MINUTE, MeasurementRollup.tierFor(T0, T0 + 3 * DAY - MINUTE, 10000));
+        assertEquals(MeasurementRollup.Tier.HOUR, MeasurementRollup.tierFor(T0, T0 + 3 * DAY, 10000));
+        // nothing covers 10 years in 100 buckets
+        assertEquals(MeasurementRollup.Tier.DAY, MeasurementRollup.tierFor(T0, T0 + 3650 * DAY, 100));
+    }
+}
@@ -0,0 +1,340 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import android.util.Log;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateView;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives simulated peripherals through the MeasurementPipeline, no radio and no Android framework is involved.
+ * BluetoothHandler.getSimulatorTarget() feeds the same streams into the BLESSED callbacks on a device.
+ */
+public class PeripheralSimulatorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static final UUID HEART_RATE = uuid(GattCharacteristics.HEART_RATE_MEASUREMENT);
+    private static final UUID PLX_CONTINUOUS = uuid(GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT);
+
+    private static UUID uuid(int assignedNumber) {
+        return new UUID(((long) assignedNumber << 32) | 0x1000L, 0x800000805F9B34FBL);
+    }
+
+    private static String address(int index) {
+        return String.format("02:00:00:00:%02X:%02X", index >> 8, index & 0xFF);
+    }
+
+    // heart rate with one RR interval, as sent by a chest strap
+    private static final PeripheralSimulator.Source HEART_RATE_SOURCE = new PeripheralSimulator.Source() {
+        @NotNull
+        @Override
+        public byte[] next(int index) {
+            final int rr = 800 + (index % 7) * 20;
+            final int heartRate = 60 * 1024 / rr;
+            return new byte[]{0x10, (byte) heartRate, (byte) rr, (byte) (rr >> 8)};
+        }
+    };
+
+    // SpO2 and pulse rate as SFLOAT with exponent 0
+    private static final PeripheralSimulator.Source PLX_SOURCE = new PeripheralSimulator.Source() {
+        @NotNull
+        @Override
+        public byte[] next(int index) {
+            final int spO2 = 95 + index % 4;
+            final int pulseRate = 60 + index % 20;
+            return new byte[]{0x00, (byte) spO2, 0x00, (byte) pulseRate, 0x00};
+        }
+    };
+
+    /**
+     * Counts the events and checks that notifications only come from connected peripherals
+     */
+    private static class RecordingTarget implements PeripheralSimulator.Target {
+        final Map<String, Boolean> connected = new HashMap<>();
+        final Map<String, List<Long>> timestamps = new HashMap<>();
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onConnected(@NotNull String address) {
+            assertNotEquals(Boolean.TRUE, connected.put(address, true));
+            events.add("connected " + address);
+        }
+
+        @Override
+        public void onNotification(@NotNull String address, @NotNull UUID characteristicUuid, @NotNull byte[] value, long timestampNanos) {
+            assertEquals(Boolean.TRUE, connected.get(address));
+            List<Long> times = timestamps.get(address);
+            if (times == null) {
+                times = new ArrayList<>();
+                timestamps.put(address, times);
+            }
+            times.add(timestampNanos);
+        }
+
+        @Override
+        public void onDisconnected(@NotNull String address) {
+            assertEquals(Boolean.TRUE, connected.put(address, false));
+            events.add("disconnected " + address);
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return 0;
+        }
+
+        int count(String address) {
+            List<Long> times = timestamps.get(address);
+            return times == null ? 0 : times.size();
+        }
+    }
+
+    /**
+     * Feeds the MeasurementPipeline of BluetoothHandler, the Android part of the notification path is left out.
+     * With an executor the events are processed on its thread like on the main looper.
+     */
+    private static class PipelineTarget implements PeripheralSimulator.Target {
+        final MeasurementRollup rollup = new MeasurementRollup();
+        final EventLog eventLog = new EventLog(EventLog.DEFAULT_CAPACITY, Log.DEBUG);
+        final MeasurementPipeline pipeline = new MeasurementPipeline(MeasurementBus.getInstance(), eventLog, rollup);
+        final ExecutorService executor;
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong processedPulseOximeter = new AtomicLong();
+
+        PipelineTarget(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void onConnected(@NotNull String address) {
+        }
+
+        @Override
+        public void onNotification(@NotNull final String address, @NotNull final UUID characteristicUuid, @NotNull final byte[] value, final long timestampNanos) {
+            if (executor == null) {
+                process(address, characteristicUuid, value, timestampNanos);
+                return;
+            }
+            pending.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    pending.decrementAndGet();
+                    process(address, characteristicUuid, value, timestampNanos);
+                }
+            });
+        }
+
+        private void process(String address, UUID characteristicUuid, byte[] value, long timestampNanos) {
+            if (pipeline.onNotification(address, characteristicUuid, value, timestampNanos / 1000000)) {
+                processed.incrementAndGet();
+                if (characteristicUuid.equals(PLX_CONTINUOUS)) processedPulseOximeter.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onDisconnected(@NotNull String address) {
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return pending.get();
+        }
+    }
+
+    private static final PeripheralSimulator.GcCounter GC_COUNTER = new PeripheralSimulator.GcCounter() {
+        @Override
+        public long getCollectionCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, bean.getCollectionCount());
+            return count;
+        }
+
+        @Override
+        public long getCollectionTimeMillis() {
+            long time = 0;
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) time += Math.max(0, bean.getCollectionTime());
+            return time;
+        }
+    };
+
+    @Test
+    public void fixedRates_deliverTheExpectedNumberOfNotifications() {
+        RecordingTarget target = new RecordingTarget();
+        PeripheralSimulator simulator = new PeripheralSimulator(target, 1);
+        final double[] rates = {1, 10, 250};
+        for (int i = 0; i < rates.length; i++) {
+            simulator.addDevice(new PeripheralSimulator.Device(address(i), HEART_RATE, rates[i], HEART_RATE_SOURCE));
+        }
+        PeripheralSimulator.Report report = simulator.run(10 * 1000, false);
+
+        long total = 0;
+        for (int i = 0; i < rates.length; i++) {
+            // the first notification is at a random phase within the first period
+            final int count = target.count(address(i));
+            assertTrue(count >= rates[i] * 10 && count <= rates[i] * 10 + 1);
+            total += count;
+        }
+        assertEquals(total, report.notifications);
+        assertEquals(-1, report.gcCount);
+        // every device is connected at the start and disconnected at the end
+        assertEquals(2 * rates.length, target.events.size());
+    }
+
+    @Test
+    public void jitter_keepsIntervalsWithinBounds() {
+        RecordingTarget target = new RecordingTarget();
+        PeripheralSimulator simulator = new PeripheralSimulator(target, 2);
+        simulator.addDevice(new PeripheralSimulator.Device(address(0), HEART_RATE, 100, 0.3, 0, 0, HEART_RATE_SOURCE));
+        simulator.run(60 * 1000, false);
+
+        List<Long> times = target.timestamps.get(address(0));
+        final long period = 10000000;
+        long min = Long.MAX_VALUE, max = 0;
+        for (int i = 1; i < times.size(); i++) {
+            final long interval = times.get(i) - times.get(i - 1);
+            min = Math.min(min, interval);
+            max = Math.max(max, interval);
+        }
+        assertTrue(min >= period * 0.7 - 1);
+        assertTrue(max <= period * 1.3 + 1);
+        // the intervals really vary, and the mean rate stays at 100 Hz
+        assertTrue(max - min > period * 0.5);
+        assertEquals(6000, times.size(), 60);
+    }
+
+    @Test
+    public void injectedDisconnects_pauseTheStream() {
+        RecordingTarget target = new RecordingTarget();
+        PeripheralSimulator simulator = new PeripheralSimulator(target, 3);
+        simulator.addDevice(new PeripheralSimulator.Device(address(0), HEART_RATE, 100, 0, 10, 2000, HEART_RATE_SOURCE));
+        PeripheralSimulator.Report report = simulator.run(10 * 60 * 1000, false);
+
+        assertTrue(report.disconnects > 50);
+        // a reconnect can be pending at the end of the run
+        assertTrue(report.reconnects == report.disconnects || report.reconnects == report.disconnects - 1);
+        // every disconnect costs 2 s of notifications
+        assertTrue(report.notifications < 100 * (600 - 2 * report.disconnects) + 100 * 2);
+        for (int i = 0; i < target.events.size(); i++) {
+            assertTrue(target.events.get(i).startsWith(i % 2 == 0 ? "connected" : "disconnected"));
+        }
+    }
+
+    @Test
+    public void replay_loopsOverTheRecordedValues() {
+        final List<byte[]> recorded = Arrays.asList(new byte[]{0x00, 60}, new byte[]{0x00, 61}, new byte[]{0x00, 62});
+        final List<Integer> received = new ArrayList<>();
+        PeripheralSimulator simulator = new PeripheralSimulator(new RecordingTarget() {
+            @Override
+            public void onNotification(@NotNull String address, @NotNull UUID characteristicUuid, @NotNull byte[] value, long timestampNanos) {
+                received.add(new HeartRateView(value).getPulse());
+            }
+        }, 4);
+        simulator.addDevice(new PeripheralSimulator.Device(address(0), HEART_RATE, 1, PeripheralSimulator.replay(recorded)));
+        simulator.run(7 * 1000, false);
+
+        assertTrue(received.size() >= 7);
+        for (int i = 0; i < received.size(); i++) assertEquals(60 + i % 3, (int) received.get(i));
+    }
+
+    @Test
+    public void malformedValues_areLoggedAndDropped() {
+        PipelineTarget target = new PipelineTarget(null);
+        final int[] characteristics = {GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT, GattCharacteristics.TEMPERATURE_MEASUREMENT,
+                GattCharacteristics.HEART_RATE_MEASUREMENT, GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT,
+                GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT, GattCharacteristics.WEIGHT_MEASUREMENT, GattCharacteristics.GLUCOSE_MEASUREMENT};
+        for (int characteristic : characteristics) {
+            // flags only
+            assertTrue(target.pipeline.onNotification(address(0), uuid(characteristic), new byte[]{0x00}, 0));
+        }
+        assertEquals(characteristics.length, target.eventLog.getWrittenCount());
+        assertTrue(target.eventLog.dump().contains("dropped malformed value, 1 bytes"));
+        assertEquals(0, target.rollup.getAddedCount());
+    }
+
+    @Test
+    public void load_pipelineKeepsUpWithManyFastDevices() {
+        PipelineTarget target = new PipelineTarget(null);
+        PeripheralSimulator simulator = new PeripheralSimulator(target, 5);
+        simulator.setGcCounter(GC_COUNTER);
+        for (int i = 0; i < 20; i++) {
+            simulator.addDevice(new PeripheralSimulator.Device(address(i), HEART_RATE, 200, 0.1, 1, 1000, HEART_RATE_SOURCE));
+        }
+        for (int i = 20; i < 25; i++) {
+            simulator.addDevice(new PeripheralSimulator.Device(address(i), PLX_CONTINUOUS, 100, 0.1, 1, 1000, PLX_SOURCE));
+        }
+        PeripheralSimulator.Report report = simulator.run(30 * 1000, false);
+
+        assertEquals(25, report.devices);
+        assertEquals(report.notifications, target.processed.get());
+        assertTrue(report.notifications > 100000);
+        assertTrue(report.throughput > 0);
+        assertTrue(report.gcCount >= 0);
+        assertTrue(report.toString().startsWith("25 devices, " + report.notifications + " notifications"));
+        for (int i = 0; i < 20; i++) {
+            HrvEngine[] engines = target.pipeline.getHrvEngines(address(i));
+            assertNotNull(engines);
+            for (HrvEngine engine : engines) assertTrue(engine.getBeatCount() > 0);
+            assertNull(target.pipeline.getPulseOximeterTrends(address(i)));
+        }
+        for (int i = 20; i < 25; i++) {
+            PulseOximeterTrend[] trends = target.pipeline.getPulseOximeterTrends(address(i));
+            assertNotNull(trends);
+            for (PulseOximeterTrend trend : trends) assertEquals(95, trend.getSpO2().getMin(), 0);
+        }
+        // the rollups are fed without a measurement log as well, SpO2 and pulse rate of the pulse oximeters
+        assertTrue(target.processedPulseOximeter.get() > 0);
+        assertEquals(report.notifications + target.processedPulseOximeter.get(), target.rollup.getAddedCount());
+    }
+
+    @Test
+    public void pacedRun_reportsLagAndQueueDepth() throws InterruptedException, IOException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        PipelineTarget target = new PipelineTarget(executor);
+        MeasurementLog log = new MeasurementLog(temporaryFolder.newFolder("measurements"));
+        target.pipeline.setMeasurementLog(log);
+        PeripheralSimulator simulator = new PeripheralSimulator(target, 6);
+        simulator.setGcCounter(GC_COUNTER);
+        for (int i = 0; i < 10; i++) {
+            simulator.addDevice(new PeripheralSimulator.Device(address(i), HEART_RATE, 100, 0.2, 0, 0, HEART_RATE_SOURCE));
+        }
+        PeripheralSimulator.Report report = simulator.run(500, true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        log.close();
+
+        // 10 devices at 100 Hz for half a second, paced on the wall clock
+        assertEquals(500, report.notifications, 25);
+        assertTrue(report.wallNanos >= 450 * 1000000L);
+        assertEquals(report.notifications, target.processed.get());
+        assertTrue(report.maxQueueDepth >= 0 && report.meanQueueDepth <= report.maxQueueDepth);
+        assertTrue(report.maxLagNanos >= 0 && report.maxBacklog >= 1);
+        // every notification is logged and rolled up
+        assertEquals(report.notifications, log.getAppendedCount());
+        assertEquals(report.notifications, target.rollup.getAddedCount());
+        assertEquals(10, log.getPeripheralAddresses().size());
+    }
+}
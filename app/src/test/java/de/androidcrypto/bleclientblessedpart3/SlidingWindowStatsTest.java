@@ -0,0 +1,94 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * The window is compared with a plain list of the samples it should hold
+ */
+public class SlidingWindowStatsTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static final class Sample {
+        final long time;
+        final double value;
+
+        Sample(long time, double value) {
+            this.time = time;
+            this.value = value;
+        }
+    }
+
+    private static void assertSameAs(ArrayDeque<Sample> expected, SlidingWindowStats stats) {
+        assertEquals(expected.size(), stats.getCount());
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+        for (Sample sample : expected) {
+            min = Math.min(min, sample.value);
+            max = Math.max(max, sample.value);
+            sum += sample.value;
+        }
+        assertEquals(min, stats.getMin(), DELTA);
+        assertEquals(max, stats.getMax(), DELTA);
+        assertEquals(sum / expected.size(), stats.getMean(), 1e-6);
+    }
+
+    @Test
+    public void fasterRateThanTheInitialCapacity_keepsTheWholeWindow() {
+        // sized for 4 samples per second, fed with 100
+        SlidingWindowStats stats = new SlidingWindowStats(1000, 4, 200, 0, 101, 1);
+        ArrayDeque<Sample> expected = new ArrayDeque<>();
+        Random random = new Random(7);
+        for (long time = 0; time < 5000; time += 10) {
+            final double value = 90 + random.nextInt(10);
+            stats.add(time, value);
+            expected.addLast(new Sample(time, value));
+            while (time - expected.peekFirst().time > 1000) expected.removeFirst();
+            assertSameAs(expected, stats);
+        }
+        assertEquals(101, expected.size());
+        assertTrue(stats.getCapacity() >= 101);
+        assertTrue(stats.getCapacity() <= 200);
+    }
+
+    @Test
+    public void changingRates_matchTheReference() {
+        SlidingWindowStats stats = new SlidingWindowStats(2000, 2, 1000, 0, 301, 1);
+        ArrayDeque<Sample> expected = new ArrayDeque<>();
+        Random random = new Random(11);
+        long time = 0;
+        for (int i = 0; i < 20000; i++) {
+            // slow phases and bursts
+            time += (i / 500) % 2 == 0 ? 250 + random.nextInt(500) : random.nextInt(5);
+            final double value = random.nextInt(300);
+            stats.add(time, value);
+            expected.addLast(new Sample(time, value));
+            while (time - expected.peekFirst().time > 2000) expected.removeFirst();
+            while (expected.size() > 1000) expected.removeFirst();
+            assertSameAs(expected, stats);
+        }
+    }
+
+    @Test
+    public void maxCapacity_dropsTheOldestSample() {
+        SlidingWindowStats stats = new SlidingWindowStats(60000, 2, 8, 0, 101, 1);
+        for (int i = 0; i < 20; i++) stats.add(i, i);
+        assertEquals(8, stats.getCount());
+        assertEquals(8, stats.getCapacity());
+        assertEquals(12, stats.getMin(), DELTA);
+        assertEquals(19, stats.getMax(), DELTA);
+    }
+
+    @Test
+    public void fixedCapacity_doesNotGrow() {
+        SlidingWindowStats stats = new SlidingWindowStats(0, 5, 0, 101, 1);
+        for (int i = 0; i < 50; i++) stats.add(i, i % 7);
+        assertEquals(5, stats.getCount());
+        assertEquals(5, stats.getCapacity());
+        assertEquals((45 % 7 + 46 % 7 + 47 % 7 + 48 % 7 + 49 % 7) / 5.0, stats.getMean(), DELTA);
+    }
+}
@@ -0,0 +1,187 @@
+package de.androidcrypto.bleclientblessedpart3;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.TraceFrame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * The frames are written by explicit flushes, the flush interval is too long to run during a test
+ */
+public class TraceRecorderTest {
+
+    private static final String ADDRESS = "AA:BB:CC:DD:EE:FF";
+    private static final String OTHER_ADDRESS = "11:22:33:44:55:66";
+    private static final UUID HEART_RATE = GattCharacteristics.toUuid(GattCharacteristics.HEART_RATE_MEASUREMENT);
+    // Nordic UART TX and a vendor UUID that only differs outside of bits 32-47
+    private static final UUID VENDOR_TX = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID VENDOR_OTHER = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9f");
+    private static final long FLUSH_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TraceRecorder recorder;
+
+    @After
+    public void tearDown() {
+        if (recorder != null) recorder.close();
+    }
+
+    private static class Frame {
+        int kind;
+        long address;
+        UUID uuid;
+        int status;
+        byte[] value;
+    }
+
+    private static List<Frame> readAll(File file) throws IOException {
+        final List<Frame> frames = new ArrayList<>();
+        TraceRecorder.read(file, new TraceRecorder.FrameVisitor() {
+            @Override
+            public boolean onFrame(int kind, long monotonicNanos, long epochMillis, long address, @NotNull UUID characteristicUuid, int status, @NotNull ByteBuffer value) {
+                Frame frame = new Frame();
+                frame.kind = kind;
+                frame.address = address;
+                frame.uuid = characteristicUuid;
+                frame.status = status;
+                frame.value = new byte[value.remaining()];
+                value.get(frame.value);
+                frames.add(frame);
+                return true;
+            }
+        });
+        return frames;
+    }
+
+    @Test
+    public void recordedFrames_areReadAfterFlush() throws IOException {
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, HEART_RATE, 0, new byte[]{0x00, 72});
+        recorder.record(TraceRecorder.KIND_WRITE, ADDRESS, VENDOR_TX, 0x85, new byte[]{1, 2, 3});
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, OTHER_ADDRESS, VENDOR_OTHER, 0, new byte[]{4});
+        recorder.flush();
+        assertEquals(3, recorder.getFrameCount());
+        assertEquals(0, recorder.getDroppedCount());
+
+        final File[] files = TraceRecorder.listTraceFiles(folder.getRoot());
+        assertEquals(1, files.length);
+        final List<Frame> frames = readAll(files[0]);
+        assertEquals(3, frames.size());
+        assertEquals(TraceRecorder.KIND_NOTIFICATION, frames.get(0).kind);
+        assertEquals(0xAABBCCDDEEFFL, frames.get(0).address);
+        assertEquals(HEART_RATE, frames.get(0).uuid);
+        assertArrayEquals(new byte[]{0x00, 72}, frames.get(0).value);
+        assertEquals(TraceRecorder.KIND_WRITE | TraceRecorder.VENDOR_SPECIFIC, frames.get(1).kind);
+        assertEquals(VENDOR_TX, frames.get(1).uuid);
+        assertEquals(0x85, frames.get(1).status);
+        assertArrayEquals(new byte[]{1, 2, 3}, frames.get(1).value);
+        assertEquals(0x112233445566L, frames.get(2).address);
+        assertEquals(VENDOR_OTHER, frames.get(2).uuid);
+        assertArrayEquals(new byte[]{4}, frames.get(2).value);
+    }
+
+    @Test
+    public void readNotifications_matchesAddressKindAndFullUuid() throws IOException {
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, VENDOR_TX, 0, new byte[]{1});
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, VENDOR_OTHER, 0, new byte[]{2});
+        recorder.record(TraceRecorder.KIND_WRITE, ADDRESS, VENDOR_TX, 0, new byte[]{3});
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, OTHER_ADDRESS, VENDOR_TX, 0, new byte[]{4});
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, HEART_RATE, 0, new byte[]{5});
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, VENDOR_TX, 0, new byte[]{6});
+        recorder.close();
+
+        final File file = TraceRecorder.listTraceFiles(folder.getRoot())[0];
+        List<byte[]> values = TraceRecorder.readNotifications(file, ADDRESS, VENDOR_TX);
+        assertEquals(2, values.size());
+        assertArrayEquals(new byte[]{1}, values.get(0));
+        assertArrayEquals(new byte[]{6}, values.get(1));
+        values = TraceRecorder.readNotifications(file, ADDRESS, HEART_RATE);
+        assertEquals(1, values.size());
+        assertArrayEquals(new byte[]{5}, values.get(0));
+    }
+
+    @Test
+    public void longValues_areCut() throws IOException {
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        final byte[] value = new byte[TraceRecorder.MAX_VALUE_LENGTH + 10];
+        for (int i = 0; i < value.length; i++) value[i] = (byte) i;
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, VENDOR_TX, 0, value);
+        recorder.flush();
+        final List<Frame> frames = readAll(TraceRecorder.listTraceFiles(folder.getRoot())[0]);
+        assertEquals(1, frames.size());
+        assertArrayEquals(Arrays.copyOf(value, TraceRecorder.MAX_VALUE_LENGTH), frames.get(0).value);
+    }
+
+    @Test
+    public void fullFiles_rollOverAndOnlyTheNewestAreKept() throws IOException {
+        // room for nine frames of 100 bytes per file
+        final int bufferSize = TraceFrame.MAX_SIZE;
+        recorder = new TraceRecorder(folder.getRoot(), bufferSize, TraceRecorder.FILE_HEADER_SIZE + 2 * bufferSize, 2, FLUSH_INTERVAL_MILLIS);
+        for (int i = 0; i < 40; i++) {
+            final byte[] value = new byte[100];
+            value[0] = (byte) i;
+            recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, HEART_RATE, 0, value);
+            recorder.flush();
+        }
+        recorder.close();
+
+        final File[] files = TraceRecorder.listTraceFiles(folder.getRoot());
+        assertEquals(2, files.length);
+        assertEquals("00000004.trc", files[0].getName());
+        assertEquals("00000005.trc", files[1].getName());
+        final List<byte[]> values = new ArrayList<>();
+        for (File file : files) {
+            assertTrue(file.length() <= TraceRecorder.FILE_HEADER_SIZE + 2 * bufferSize);
+            values.addAll(TraceRecorder.readNotifications(file, ADDRESS, HEART_RATE));
+        }
+        // files 1 to 3 with frames 0 to 26 were deleted
+        assertEquals(13, values.size());
+        for (int i = 0; i < values.size(); i++) assertEquals(27 + i, values.get(i)[0]);
+    }
+
+    @Test
+    public void newRecorder_startsAFileAfterTheExistingOnes() throws IOException {
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, HEART_RATE, 0, new byte[]{1});
+        recorder.close();
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, HEART_RATE, 0, new byte[]{2});
+        recorder.close();
+
+        final File[] files = TraceRecorder.listTraceFiles(folder.getRoot());
+        assertEquals(2, files.length);
+        assertArrayEquals(new byte[]{1}, TraceRecorder.readNotifications(files[0], ADDRESS, HEART_RATE).get(0));
+        assertArrayEquals(new byte[]{2}, TraceRecorder.readNotifications(files[1], ADDRESS, HEART_RATE).get(0));
+    }
+
+    @Test
+    public void tornFrameAtTheEnd_isIgnored() throws IOException {
+        recorder = new TraceRecorder(folder.getRoot(), TraceRecorder.DEFAULT_BUFFER_SIZE, TraceRecorder.DEFAULT_MAX_FILE_SIZE, 4, FLUSH_INTERVAL_MILLIS);
+        recorder.record(TraceRecorder.KIND_NOTIFICATION, ADDRESS, VENDOR_TX, 0, new byte[]{1});
+        recorder.close();
+        final File file = TraceRecorder.listTraceFiles(folder.getRoot())[0];
+        // the length field of a vendor frame and the first bytes of its header
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[]{40, 0, (byte) TraceRecorder.VENDOR_SPECIFIC, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0});
+        }
+        assertEquals(1, readAll(file).size());
+    }
+}
@@ -0,0 +1,62 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BatchDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.DecodedBatch;
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+
+/**
+ * Batch decoding of a mixed capture, all seven corpora interleaved. ns/op is per frame.
+ */
+@State(Scope.Thread)
+public class BatchDecoderBenchmark {
+
+    private static final int FRAMES = PayloadCorpus.SIZE * 7;
+
+    private final int[] assignedNumbers = new int[FRAMES];
+    private final byte[][] values = new byte[FRAMES][];
+    private final long[] arrivalTimes = new long[FRAMES];
+    private final BatchDecoder decoder = new BatchDecoder();
+    private final DecodedBatch batch = new DecodedBatch();
+
+    @Setup
+    public void setup() {
+        final int[] characteristics = {
+                GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT,
+                GattCharacteristics.TEMPERATURE_MEASUREMENT,
+                GattCharacteristics.HEART_RATE_MEASUREMENT,
+                GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT,
+                GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT,
+                GattCharacteristics.WEIGHT_MEASUREMENT,
+                GattCharacteristics.GLUCOSE_MEASUREMENT};
+        final byte[][][] corpora = {
+                PayloadCorpus.bloodPressure(),
+                PayloadCorpus.temperature(),
+                PayloadCorpus.heartRate(),
+                PayloadCorpus.pulseOximeterContinuous(),
+                PayloadCorpus.pulseOximeterSpot(),
+                PayloadCorpus.weight(),
+                PayloadCorpus.glucose()};
+        for (int i = 0; i < FRAMES; i++) {
+            final int type = i % characteristics.length;
+            assignedNumbers[i] = characteristics[type];
+            values[i] = corpora[type][i / characteristics.length];
+            arrivalTimes[i] = 1_600_000_000_000L + i * 1000L;
+        }
+        // grow the columns once so the measured invocations do not allocate
+        decoder.decode(assignedNumbers, values, arrivalTimes, 0, FRAMES, batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public DecodedBatch mixedCapture() {
+        batch.clear();
+        decoder.decode(assignedNumbers, values, arrivalTimes, 0, FRAMES, batch);
+        return batch;
+    }
+}
@@ -0,0 +1,121 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.GlucoseRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterContinuousRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.PulseOximeterSpotRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.TemperatureRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.WeightRecord;
+
+/**
+ * One benchmark per GATT measurement decoder. Each invocation decodes the whole corpus,
+ * so the reported ns/op and gc.alloc.rate.norm are per decoded characteristic value.
+ */
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    private byte[][] bloodPressure;
+    private byte[][] temperature;
+    private byte[][] heartRate;
+    private byte[][] pulseOximeterContinuous;
+    private byte[][] pulseOximeterSpot;
+    private byte[][] weight;
+    private byte[][] glucose;
+
+    private final BloodPressureRecord bloodPressureRecord = new BloodPressureRecord();
+    private final TemperatureRecord temperatureRecord = new TemperatureRecord();
+    private final HeartRateRecord heartRateRecord = new HeartRateRecord();
+    private final PulseOximeterContinuousRecord pulseOximeterContinuousRecord = new PulseOximeterContinuousRecord();
+    private final PulseOximeterSpotRecord pulseOximeterSpotRecord = new PulseOximeterSpotRecord();
+    private final WeightRecord weightRecord = new WeightRecord();
+    private final GlucoseRecord glucoseRecord = new GlucoseRecord();
+
+    @Setup
+    public void setup() {
+        bloodPressure = PayloadCorpus.bloodPressure();
+        temperature = PayloadCorpus.temperature();
+        heartRate = PayloadCorpus.heartRate();
+        pulseOximeterContinuous = PayloadCorpus.pulseOximeterContinuous();
+        pulseOximeterSpot = PayloadCorpus.pulseOximeterSpot();
+        weight = PayloadCorpus.weight();
+        glucose = PayloadCorpus.glucose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void bloodPressure(Blackhole blackhole) {
+        for (byte[] value : bloodPressure) {
+            blackhole.consume(BloodPressureDecoder.decode(value, bloodPressureRecord));
+            blackhole.consume(bloodPressureRecord.systolic);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void temperature(Blackhole blackhole) {
+        for (byte[] value : temperature) {
+            blackhole.consume(TemperatureDecoder.decode(value, temperatureRecord));
+            blackhole.consume(temperatureRecord.temperatureValue);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void heartRate(Blackhole blackhole) {
+        for (byte[] value : heartRate) {
+            blackhole.consume(HeartRateDecoder.decode(value, heartRateRecord));
+            blackhole.consume(heartRateRecord.pulse);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void pulseOximeterContinuous(Blackhole blackhole) {
+        for (byte[] value : pulseOximeterContinuous) {
+            blackhole.consume(PulseOximeterContinuousDecoder.decode(value, pulseOximeterContinuousRecord));
+            blackhole.consume(pulseOximeterContinuousRecord.spO2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void pulseOximeterSpot(Blackhole blackhole) {
+        for (byte[] value : pulseOximeterSpot) {
+            blackhole.consume(PulseOximeterSpotDecoder.decode(value, pulseOximeterSpotRecord));
+            blackhole.consume(pulseOximeterSpotRecord.spO2);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void weight(Blackhole blackhole) {
+        for (byte[] value : weight) {
+            blackhole.consume(WeightDecoder.decode(value, weightRecord));
+            blackhole.consume(weightRecord.weight);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void glucose(Blackhole blackhole) {
+        for (byte[] value : glucose) {
+            blackhole.consume(GlucoseDecoder.decode(value, glucoseRecord));
+            blackhole.consume(glucoseRecord.value);
+        }
+    }
+}
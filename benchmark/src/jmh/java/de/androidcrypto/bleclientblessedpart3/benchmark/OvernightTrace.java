@@ -0,0 +1,53 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import java.util.Random;
+
+/**
+ * Synthetic 8 hour trace of one device sending a notification about once per second, for the series benchmarks.
+ * The arrival times jitter by a few milliseconds and now and then a notification is lost. The values drift slowly
+ * like in a sleeping patient: pulse 45 - 110 bpm, SpO2 90 - 99 %, temperature in 0.1 degree steps, blood
+ * pressure in whole mmHg and the weight on a bed scale in 0.05 kg steps (fixed seed, so runs are comparable).
+ */
+public final class OvernightTrace {
+
+    public static final int SIZE = 8 * 60 * 60;
+
+    public final long[] timestamps = new long[SIZE];
+    public final int[] pulse = new int[SIZE];
+    public final int[] spO2 = new int[SIZE];
+    public final float[] temperature = new float[SIZE];
+    public final float[] systolic = new float[SIZE];
+    public final float[] diastolic = new float[SIZE];
+    public final float[] meanArterialPressure = new float[SIZE];
+    public final float[] weight = new float[SIZE];
+
+    public OvernightTrace() {
+        Random random = new Random(0x5EEB);
+        long time = 1_600_000_000_000L;
+        double heartRate = 62, saturation = 96, bodyTemperature = 36.6, pressure = 118, bodyWeight = 72.4;
+        for (int i = 0; i < SIZE; i++) {
+            time += 1000 + (long) (random.nextGaussian() * 8);
+            if (random.nextInt(200) == 0) time += 1000;
+            timestamps[i] = time;
+
+            heartRate = clamp(heartRate + random.nextGaussian() * 0.6, 45, 110);
+            pulse[i] = (int) Math.round(heartRate);
+            if (random.nextInt(30) == 0) saturation = clamp(saturation + random.nextInt(3) - 1, 90, 99);
+            spO2[i] = (int) saturation;
+            bodyTemperature = clamp(bodyTemperature + random.nextGaussian() * 0.005, 35.8, 37.4);
+            temperature[i] = Math.round(bodyTemperature * 10) / 10f;
+            pressure = clamp(pressure + random.nextGaussian() * 0.3, 95, 150);
+            systolic[i] = Math.round(pressure);
+            diastolic[i] = Math.round(pressure * 0.65);
+            meanArterialPressure[i] = Math.round(pressure * 0.77);
+            // the patient turns over now and then, the scale reading jumps and settles again
+            if (random.nextInt(1800) == 0) bodyWeight += random.nextGaussian() * 0.5;
+            bodyWeight = clamp(bodyWeight + random.nextGaussian() * 0.002, 71.5, 73.5);
+            weight[i] = Math.round(bodyWeight * 20) / 20f;
+        }
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,208 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Realistic characteristic values for the decoder benchmarks.
+ * Every corpus has SIZE payloads and cycles through all flag combinations of its characteristic,
+ * the measured values vary within plausible ranges (fixed seed, so runs are comparable).
+ */
+public final class PayloadCorpus {
+
+    public static final int SIZE = 64;
+
+    private PayloadCorpus() {
+    }
+
+    public static byte[][] bloodPressure() {
+        Random random = new Random(0x2A35);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 32;
+            Payload p = new Payload(flags);
+            p.sfloat(random.nextInt(60) + 100, 0); // systolic
+            p.sfloat(random.nextInt(40) + 60, 0); // diastolic
+            p.sfloat(random.nextInt(40) + 75, 0); // mean arterial pressure
+            if ((flags & 0x02) != 0) p.dateTime(random);
+            if ((flags & 0x04) != 0) p.sfloat(random.nextInt(80) + 50, 0);
+            if ((flags & 0x08) != 0) p.uint8(random.nextInt(4) + 1);
+            if ((flags & 0x10) != 0) p.uint16(random.nextInt(0x40));
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] temperature() {
+        Random random = new Random(0x2A1C);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 8;
+            Payload p = new Payload(flags);
+            final boolean fahrenheit = (flags & 0x01) != 0;
+            p.float32((fahrenheit ? 965 : 358) + random.nextInt(50), -1);
+            if ((flags & 0x02) != 0) p.dateTime(random);
+            if ((flags & 0x04) != 0) p.uint8(random.nextInt(9) + 1);
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] heartRate() {
+        Random random = new Random(0x2A37);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 32;
+            Payload p = new Payload(flags);
+            if ((flags & 0x01) != 0) {
+                p.uint16(random.nextInt(150) + 40);
+            } else {
+                p.uint8(random.nextInt(150) + 40);
+            }
+            if ((flags & 0x08) != 0) p.uint16(random.nextInt(2000));
+            if ((flags & 0x10) != 0) {
+                final int rrCount = random.nextInt(4) + 1;
+                for (int rr = 0; rr < rrCount; rr++) {
+                    p.uint16(600 + random.nextInt(600)); // 1/1024 s
+                }
+            }
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] pulseOximeterContinuous() {
+        Random random = new Random(0x2A5F);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 32;
+            Payload p = new Payload(flags);
+            p.sfloat(random.nextInt(10) + 90, 0);
+            p.sfloat(random.nextInt(80) + 50, 0);
+            if ((flags & 0x01) != 0) {
+                p.sfloat(random.nextInt(10) + 90, 0);
+                p.sfloat(random.nextInt(80) + 50, 0);
+            }
+            if ((flags & 0x02) != 0) {
+                p.sfloat(random.nextInt(10) + 90, 0);
+                p.sfloat(random.nextInt(80) + 50, 0);
+            }
+            if ((flags & 0x04) != 0) p.uint16(random.nextInt(0x100) << 5);
+            if ((flags & 0x08) != 0) {
+                p.uint16(random.nextInt(0x1000));
+                p.uint8(0); // reserved
+            }
+            if ((flags & 0x10) != 0) p.sfloat(random.nextInt(200), -1);
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] pulseOximeterSpot() {
+        Random random = new Random(0x2A5E);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 32;
+            Payload p = new Payload(flags);
+            p.sfloat(random.nextInt(10) + 90, 0);
+            p.sfloat(random.nextInt(80) + 50, 0);
+            if ((flags & 0x01) != 0) p.dateTime(random);
+            if ((flags & 0x02) != 0) p.uint16(random.nextInt(0x100) << 5);
+            if ((flags & 0x04) != 0) {
+                p.uint16(random.nextInt(0x1000));
+                p.uint8(0); // reserved
+            }
+            if ((flags & 0x08) != 0) p.sfloat(random.nextInt(200), -1);
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] weight() {
+        Random random = new Random(0x2A9D);
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = i % 16;
+            Payload p = new Payload(flags);
+            final boolean pounds = (flags & 0x01) != 0;
+            p.uint16(pounds ? 10000 + random.nextInt(20000) : 9000 + random.nextInt(20000));
+            if ((flags & 0x02) != 0) p.dateTime(random);
+            if ((flags & 0x04) != 0) p.uint8(random.nextInt(4) + 1);
+            if ((flags & 0x08) != 0) {
+                p.uint16(180 + random.nextInt(150)); // BMI, 0.1 kg/m2
+                p.uint16(1500 + random.nextInt(500)); // height, 1 mm
+            }
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    public static byte[][] glucose() {
+        Random random = new Random(0x2A18);
+        final int[] flagCombinations = new int[16];
+        for (int i = 0; i < 16; i++) {
+            flagCombinations[i] = (i & 0x07) | ((i & 0x08) << 1);
+        }
+        byte[][] corpus = new byte[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            final int flags = flagCombinations[i % 16];
+            Payload p = new Payload(flags);
+            p.uint16(i + 1); // sequence number
+            p.dateTime(random);
+            if ((flags & 0x01) != 0) p.uint16(random.nextInt(121) - 60);
+            if ((flags & 0x02) != 0) {
+                final boolean mmol = (flags & 0x04) != 0;
+                // kg/L or mol/L, the decoder scales to mg/dL or mmol/L
+                if (mmol) {
+                    p.sfloat(40 + random.nextInt(100), -4);
+                } else {
+                    p.sfloat(70 + random.nextInt(150), -5);
+                }
+                p.uint8(0x11); // type and sample location
+            }
+            corpus[i] = p.toByteArray();
+        }
+        return corpus;
+    }
+
+    private static final class Payload {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Payload(int flags) {
+            uint8(flags);
+        }
+
+        void uint8(int value) {
+            out.write(value & 0xFF);
+        }
+
+        void uint16(int value) {
+            out.write(value & 0xFF);
+            out.write((value >> 8) & 0xFF);
+        }
+
+        void sfloat(int mantissa, int exponent) {
+            uint16((mantissa & 0x0FFF) | ((exponent & 0x0F) << 12));
+        }
+
+        void float32(int mantissa, int exponent) {
+            out.write(mantissa & 0xFF);
+            out.write((mantissa >> 8) & 0xFF);
+            out.write((mantissa >> 16) & 0xFF);
+            out.write(exponent & 0xFF);
+        }
+
+        void dateTime(Random random) {
+            uint16(2020 + random.nextInt(5));
+            uint8(random.nextInt(12) + 1);
+            uint8(random.nextInt(28) + 1);
+            uint8(random.nextInt(24));
+            uint8(random.nextInt(60));
+            uint8(random.nextInt(60));
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
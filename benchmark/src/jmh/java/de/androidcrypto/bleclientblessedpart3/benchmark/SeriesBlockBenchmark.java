@@ -0,0 +1,210 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.SeriesBlock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoding and decoding of an overnight trace with SeriesBlock, one block per hour. ns/op is per sample.
+ * The encode benchmarks report the compression ratio against 8 bytes per timestamp and 4 bytes per value and the
+ * encoded bytes per sample as secondary results.
+ */
+@State(Scope.Thread)
+public class SeriesBlockBenchmark {
+
+    private static final int BLOCK_SIZE = 3600;
+
+    private final OvernightTrace trace = new OvernightTrace();
+    private final SeriesBlock.Encoder heartRateEncoder = new SeriesBlock.Encoder(BLOCK_SIZE, SeriesBlock.INT);
+    private final SeriesBlock.Encoder pulseOximeterEncoder = new SeriesBlock.Encoder(BLOCK_SIZE, SeriesBlock.INT, SeriesBlock.INT);
+    private final SeriesBlock.Encoder temperatureEncoder = new SeriesBlock.Encoder(BLOCK_SIZE, SeriesBlock.FLOAT);
+    private final SeriesBlock.Encoder bloodPressureEncoder = new SeriesBlock.Encoder(BLOCK_SIZE, SeriesBlock.FLOAT, SeriesBlock.FLOAT, SeriesBlock.FLOAT);
+    private final SeriesBlock.Encoder weightEncoder = new SeriesBlock.Encoder(BLOCK_SIZE, SeriesBlock.FLOAT);
+    private final SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+
+    private List<byte[]> heartRateBlocks;
+    private List<byte[]> pulseOximeterBlocks;
+    private List<byte[]> temperatureBlocks;
+    private List<byte[]> bloodPressureBlocks;
+    private List<byte[]> weightBlocks;
+
+    /**
+     * Compression of the series encoded by a benchmark. JMH sums event counters over the measurement iterations
+     * and forks, so every measurement iteration reports its share and the result is the value itself.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Compression {
+        public double ratio;
+        public double bytesPerSample;
+        private double share;
+
+        @Setup(Level.Iteration)
+        public void reset(BenchmarkParams benchmark, IterationParams iteration) {
+            ratio = 0;
+            bytesPerSample = 0;
+            share = iteration.getType() == IterationType.MEASUREMENT ? 1.0 / (iteration.getCount() * benchmark.getForks()) : 1;
+        }
+
+        void set(List<byte[]> blocks, int columns) {
+            long encoded = 0;
+            for (byte[] block : blocks) encoded += block.length;
+            final long raw = (long) OvernightTrace.SIZE * (8 + 4 * columns);
+            ratio = share * raw / encoded;
+            bytesPerSample = share * encoded / OvernightTrace.SIZE;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        heartRateBlocks = encodeHeartRate(null);
+        pulseOximeterBlocks = encodePulseOximeter(null);
+        temperatureBlocks = encodeTemperature(null);
+        bloodPressureBlocks = encodeBloodPressure(null);
+        weightBlocks = encodeWeight(null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public List<byte[]> encodeHeartRate(Compression compression) {
+        List<byte[]> blocks = new ArrayList<>();
+        final SeriesBlock.Encoder encoder = heartRateEncoder;
+        for (int i = 0; i < OvernightTrace.SIZE; i++) {
+            encoder.append(trace.timestamps[i]);
+            encoder.setInt(0, trace.pulse[i]);
+            if (encoder.isFull()) flush(encoder, blocks);
+        }
+        flush(encoder, blocks);
+        if (compression != null) compression.set(blocks, 1);
+        return blocks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public List<byte[]> encodePulseOximeter(Compression compression) {
+        List<byte[]> blocks = new ArrayList<>();
+        final SeriesBlock.Encoder encoder = pulseOximeterEncoder;
+        for (int i = 0; i < OvernightTrace.SIZE; i++) {
+            encoder.append(trace.timestamps[i]);
+            encoder.setInt(0, trace.spO2[i]);
+            encoder.setInt(1, trace.pulse[i]);
+            if (encoder.isFull()) flush(encoder, blocks);
+        }
+        flush(encoder, blocks);
+        if (compression != null) compression.set(blocks, 2);
+        return blocks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public List<byte[]> encodeTemperature(Compression compression) {
+        List<byte[]> blocks = new ArrayList<>();
+        final SeriesBlock.Encoder encoder = temperatureEncoder;
+        for (int i = 0; i < OvernightTrace.SIZE; i++) {
+            encoder.append(trace.timestamps[i]);
+            encoder.setFloat(0, trace.temperature[i]);
+            if (encoder.isFull()) flush(encoder, blocks);
+        }
+        flush(encoder, blocks);
+        if (compression != null) compression.set(blocks, 1);
+        return blocks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public List<byte[]> encodeBloodPressure(Compression compression) {
+        List<byte[]> blocks = new ArrayList<>();
+        final SeriesBlock.Encoder encoder = bloodPressureEncoder;
+        for (int i = 0; i < OvernightTrace.SIZE; i++) {
+            encoder.append(trace.timestamps[i]);
+            encoder.setFloat(0, trace.systolic[i]);
+            encoder.setFloat(1, trace.diastolic[i]);
+            encoder.setFloat(2, trace.meanArterialPressure[i]);
+            if (encoder.isFull()) flush(encoder, blocks);
+        }
+        flush(encoder, blocks);
+        if (compression != null) compression.set(blocks, 3);
+        return blocks;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public List<byte[]> encodeWeight(Compression compression) {
+        List<byte[]> blocks = new ArrayList<>();
+        final SeriesBlock.Encoder encoder = weightEncoder;
+        for (int i = 0; i < OvernightTrace.SIZE; i++) {
+            encoder.append(trace.timestamps[i]);
+            encoder.setFloat(0, trace.weight[i]);
+            if (encoder.isFull()) flush(encoder, blocks);
+        }
+        flush(encoder, blocks);
+        if (compression != null) compression.set(blocks, 1);
+        return blocks;
+    }
+
+    private static void flush(SeriesBlock.Encoder encoder, List<byte[]> blocks) {
+        if (encoder.size() == 0) return;
+        blocks.add(encoder.encode());
+        encoder.clear();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public void decodeHeartRate(Blackhole blackhole) {
+        decode(heartRateBlocks, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public void decodePulseOximeter(Blackhole blackhole) {
+        decode(pulseOximeterBlocks, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public void decodeTemperature(Blackhole blackhole) {
+        decode(temperatureBlocks, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public void decodeBloodPressure(Blackhole blackhole) {
+        decode(bloodPressureBlocks, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OvernightTrace.SIZE)
+    public void decodeWeight(Blackhole blackhole) {
+        decode(weightBlocks, blackhole);
+    }
+
+    private void decode(List<byte[]> blocks, Blackhole blackhole) {
+        for (byte[] block : blocks) {
+            cursor.reset(block, 0, block.length);
+            final int columns = cursor.getColumnCount();
+            while (cursor.next()) {
+                blackhole.consume(cursor.getTimestamp());
+                for (int c = 0; c < columns; c++) {
+                    if (cursor.getColumnType(c) == SeriesBlock.FLOAT) {
+                        blackhole.consume(cursor.getFloat(c));
+                    } else {
+                        blackhole.consume(cursor.getInt(c));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.GattCharacteristics;
+import de.androidcrypto.bleclientblessedpart3.gatt.TraceFrame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+/**
+ * The per frame work of the app's TraceRecorder.record on the calling thread: timestamp, UUID lookup and the copy
+ * into the direct buffer under the lock. The full buffer is cleared instead of handed to the flusher.
+ * ns/op is per frame, it has to stay below a microsecond.
+ */
+@State(Scope.Thread)
+public class TraceFrameBenchmark {
+
+    private static final int FRAMES = PayloadCorpus.SIZE * 2;
+    private static final long ADDRESS = 0xAABBCCDDEEFFL;
+
+    private final UUID[] characteristics = new UUID[FRAMES];
+    private final byte[][] values = new byte[FRAMES][];
+    private final Object lock = new Object();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Setup
+    public void setup() {
+        final byte[][] heartRate = PayloadCorpus.heartRate();
+        final byte[][] bloodPressure = PayloadCorpus.bloodPressure();
+        final UUID heartRateUuid = GattCharacteristics.toUuid(GattCharacteristics.HEART_RATE_MEASUREMENT);
+        // a vendor characteristic carrying the blood pressure values, its frames hold the full UUID
+        final UUID vendorUuid = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+        for (int i = 0; i < PayloadCorpus.SIZE; i++) {
+            characteristics[2 * i] = heartRateUuid;
+            values[2 * i] = heartRate[i];
+            characteristics[2 * i + 1] = vendorUuid;
+            values[2 * i + 1] = bloodPressure[i];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public ByteBuffer record() {
+        for (int i = 0; i < FRAMES; i++) {
+            final long now = System.nanoTime();
+            final UUID uuid = characteristics[i];
+            final int assignedNumber = GattCharacteristics.toAssignedNumber(uuid);
+            final int size = TraceFrame.size(assignedNumber, values[i].length);
+            synchronized (lock) {
+                if (buffer.remaining() < size) buffer.clear();
+                TraceFrame.put(buffer, TraceFrame.KIND_NOTIFICATION, 0, now, ADDRESS, assignedNumber, uuid, values[i]);
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,72 @@
+package de.androidcrypto.bleclientblessedpart3.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.BloodPressureView;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateDecoder;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateRecord;
+import de.androidcrypto.bleclientblessedpart3.gatt.HeartRateView;
+
+/**
+ * Reading a single field: full decode into a record vs. the lazy view
+ */
+@State(Scope.Thread)
+public class ViewBenchmark {
+
+    private byte[][] heartRate;
+    private byte[][] bloodPressure;
+
+    private final HeartRateRecord heartRateRecord = new HeartRateRecord();
+    private final HeartRateView heartRateView = new HeartRateView();
+    private final BloodPressureRecord bloodPressureRecord = new BloodPressureRecord();
+    private final BloodPressureView bloodPressureView = new BloodPressureView();
+
+    @Setup
+    public void setup() {
+        heartRate = PayloadCorpus.heartRate();
+        bloodPressure = PayloadCorpus.bloodPressure();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void heartRatePulseDecoded(Blackhole blackhole) {
+        for (byte[] value : heartRate) {
+            HeartRateDecoder.decode(value, heartRateRecord);
+            blackhole.consume(heartRateRecord.pulse);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void heartRatePulseView(Blackhole blackhole) {
+        for (byte[] value : heartRate) {
+            heartRateView.wrap(value);
+            blackhole.consume(heartRateView.getPulse());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void bloodPressureSystolicDecoded(Blackhole blackhole) {
+        for (byte[] value : bloodPressure) {
+            BloodPressureDecoder.decode(value, bloodPressureRecord);
+            blackhole.consume(bloodPressureRecord.systolic);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PayloadCorpus.SIZE)
+    public void bloodPressureSystolicView(Blackhole blackhole) {
+        for (byte[] value : bloodPressure) {
+            bloodPressureView.wrap(value);
+            blackhole.consume(bloodPressureView.getSystolic());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Decodes arrays of captured (characteristic, value, arrival time) frames into a {@link DecodedBatch}
+ * in one pass. Meant for bulk imports and offline reprocessing, it uses the same decoders as the app.
+ * An instance reuses its scratch records and is not thread safe, use one per thread.
+ */
+public final class BatchDecoder {
+
+    private final BloodPressureRecord bloodPressureRecord = new BloodPressureRecord();
+    private final TemperatureRecord temperatureRecord = new TemperatureRecord();
+    private final HeartRateRecord heartRateRecord = new HeartRateRecord();
+    private final PulseOximeterContinuousRecord pulseOximeterContinuousRecord = new PulseOximeterContinuousRecord();
+    private final PulseOximeterSpotRecord pulseOximeterSpotRecord = new PulseOximeterSpotRecord();
+    private final WeightRecord weightRecord = new WeightRecord();
+    private final GlucoseRecord glucoseRecord = new GlucoseRecord();
+
+    /**
+     * Same as {@link #decode(int[], byte[][], long[], int, int, DecodedBatch)} with full characteristic UUIDs
+     */
+    public void decode(@NotNull UUID[] characteristics, @NotNull byte[][] values, @NotNull long[] arrivalTimes, int offset, int count, @NotNull DecodedBatch out) {
+        for (int i = offset; i < offset + count; i++) {
+            decodeFrame(i, GattCharacteristics.toAssignedNumber(characteristics[i]), values[i], arrivalTimes[i], out);
+        }
+    }
+
+    /**
+     * Decodes frames offset .. offset + count - 1 and appends the rows to out, out is not cleared first
+     *
+     * @param assignedNumbers 16 bit assigned number of the characteristic of each frame, see {@link GattCharacteristics}
+     * @param values          raw characteristic value of each frame
+     * @param arrivalTimes    arrival time of each frame, copied to the output as is
+     */
+    public void decode(@NotNull int[] assignedNumbers, @NotNull byte[][] values, @NotNull long[] arrivalTimes, int offset, int count, @NotNull DecodedBatch out) {
+        for (int i = offset; i < offset + count; i++) {
+            decodeFrame(i, assignedNumbers[i], values[i], arrivalTimes[i], out);
+        }
+    }
+
+    private void decodeFrame(int index, int assignedNumber, byte[] value, long arrivalTime, DecodedBatch out) {
+        switch (assignedNumber) {
+            case GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT:
+                if (BloodPressureDecoder.decode(value, bloodPressureRecord)) {
+                    appendBloodPressure(index, arrivalTime, bloodPressureRecord, out.bloodPressure);
+                    return;
+                }
+                break;
+            case GattCharacteristics.TEMPERATURE_MEASUREMENT:
+                if (TemperatureDecoder.decode(value, temperatureRecord)) {
+                    appendTemperature(index, arrivalTime, temperatureRecord, out.temperature);
+                    return;
+                }
+                break;
+            case GattCharacteristics.HEART_RATE_MEASUREMENT:
+                if (HeartRateDecoder.decode(value, heartRateRecord)) {
+                    appendHeartRate(index, arrivalTime, heartRateRecord, out.heartRate);
+                    return;
+                }
+                break;
+            case GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT:
+                if (PulseOximeterContinuousDecoder.decode(value, pulseOximeterContinuousRecord)) {
+                    appendPulseOximeterContinuous(index, arrivalTime, pulseOximeterContinuousRecord, out.pulseOximeterContinuous);
+                    return;
+                }
+                break;
+            case GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT:
+                if (PulseOximeterSpotDecoder.decode(value, pulseOximeterSpotRecord)) {
+                    appendPulseOximeterSpot(index, arrivalTime, pulseOximeterSpotRecord, out.pulseOximeterSpot);
+                    return;
+                }
+                break;
+            case GattCharacteristics.WEIGHT_MEASUREMENT:
+                if (WeightDecoder.decode(value, weightRecord)) {
+                    appendWeight(index, arrivalTime, weightRecord, out.weight);
+                    return;
+                }
+                break;
+            case GattCharacteristics.GLUCOSE_MEASUREMENT:
+                if (GlucoseDecoder.decode(value, glucoseRecord)) {
+                    appendGlucose(index, arrivalTime, glucoseRecord, out.glucose);
+                    return;
+                }
+                break;
+            default:
+                out.skipped++;
+                return;
+        }
+        out.malformed++;
+    }
+
+    private static void appendBloodPressure(int index, long arrivalTime, BloodPressureRecord record, DecodedBatch.BloodPressureColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.timestamp[row] = record.timestamp;
+        columns.flags[row] = record.flags;
+        columns.systolic[row] = record.systolic;
+        columns.diastolic[row] = record.diastolic;
+        columns.meanArterialPressure[row] = record.meanArterialPressure;
+        columns.pulseRate[row] = record.pulseRate;
+        columns.userId[row] = record.userId;
+        columns.measurementStatus[row] = record.measurementStatus;
+    }
+
+    private static void appendTemperature(int index, long arrivalTime, TemperatureRecord record, DecodedBatch.TemperatureColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.timestamp[row] = record.timestamp;
+        columns.flags[row] = record.flags;
+        columns.temperatureValue[row] = record.temperatureValue;
+        columns.type[row] = record.type;
+    }
+
+    private static void appendHeartRate(int index, long arrivalTime, HeartRateRecord record, DecodedBatch.HeartRateColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.flags[row] = record.flags;
+        columns.pulse[row] = record.pulse;
+        columns.sensorContactStatus[row] = record.sensorContactStatus;
+        columns.energyExpended[row] = record.energyExpended;
+        columns.appendRrIntervals(row, record.rrIntervals, record.rrCount);
+    }
+
+    private static void appendPulseOximeterContinuous(int index, long arrivalTime, PulseOximeterContinuousRecord record, DecodedBatch.PulseOximeterContinuousColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.flags[row] = record.flags;
+        columns.spO2[row] = record.spO2;
+        columns.pulseRate[row] = record.pulseRate;
+        columns.spO2Fast[row] = record.spO2Fast;
+        columns.pulseRateFast[row] = record.pulseRateFast;
+        columns.spO2Slow[row] = record.spO2Slow;
+        columns.pulseRateSlow[row] = record.pulseRateSlow;
+        columns.measurementStatus[row] = record.measurementStatus;
+        columns.sensorStatus[row] = record.sensorStatus;
+        columns.pulseAmplitudeIndex[row] = record.pulseAmplitudeIndex;
+    }
+
+    private static void appendPulseOximeterSpot(int index, long arrivalTime, PulseOximeterSpotRecord record, DecodedBatch.PulseOximeterSpotColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.timestamp[row] = record.timestamp;
+        columns.flags[row] = record.flags;
+        columns.spO2[row] = record.spO2;
+        columns.pulseRate[row] = record.pulseRate;
+        columns.measurementStatus[row] = record.measurementStatus;
+        columns.sensorStatus[row] = record.sensorStatus;
+        columns.pulseAmplitudeIndex[row] = record.pulseAmplitudeIndex;
+    }
+
+    private static void appendWeight(int index, long arrivalTime, WeightRecord record, DecodedBatch.WeightColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.timestamp[row] = record.timestamp;
+        columns.flags[row] = record.flags;
+        columns.weight[row] = record.weight;
+        columns.userId[row] = record.userId;
+        columns.bmi[row] = record.bmi;
+        columns.height[row] = record.height;
+    }
+
+    private static void appendGlucose(int index, long arrivalTime, GlucoseRecord record, DecodedBatch.GlucoseColumns columns) {
+        final int row = columns.append(index, arrivalTime);
+        columns.timestamp[row] = record.timestamp;
+        columns.flags[row] = record.flags;
+        columns.sequenceNumber[row] = record.sequenceNumber;
+        columns.value[row] = record.value;
+    }
+}
@@ -0,0 +1,70 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Blood Pressure Measurement characteristic (0x2A35)
+ */
+public final class BloodPressureDecoder {
+
+    static final int FLAG_UNIT_KPA = 0x01;
+    static final int FLAG_TIMESTAMP_PRESENT = 0x02;
+    static final int FLAG_PULSE_RATE_PRESENT = 0x04;
+    static final int FLAG_USER_ID_PRESENT = 0x08;
+    static final int FLAG_MEASUREMENT_STATUS_PRESENT = 0x10;
+
+    private BloodPressureDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull BloodPressureRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 7) return false;
+
+        // Parse the flags
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.isMMHG = (flags & FLAG_UNIT_KPA) == 0;
+        int offset = 1;
+
+        // Get systolic, diastolic and mean arterial pressure
+        record.systolic = GattBytes.sfloat(value, offset);
+        record.diastolic = GattBytes.sfloat(value, offset + 2);
+        record.meanArterialPressure = GattBytes.sfloat(value, offset + 4);
+        offset += 6;
+
+        // Read timestamp
+        if ((flags & FLAG_TIMESTAMP_PRESENT) != 0) {
+            if (length < offset + GattDateTime.SIZE) return false;
+            record.timestampPresent = true;
+            record.timestamp = GattDateTime.toEpochMillis(value, offset);
+            offset += GattDateTime.SIZE;
+        }
+
+        // Read pulse rate
+        if ((flags & FLAG_PULSE_RATE_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.pulseRatePresent = true;
+            record.pulseRate = GattBytes.sfloat(value, offset);
+            offset += 2;
+        }
+
+        // Read userId
+        if ((flags & FLAG_USER_ID_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.userIdPresent = true;
+            record.userId = value[offset] & 0xFF;
+            offset += 1;
+        }
+
+        if ((flags & FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.measurementStatusPresent = true;
+            record.measurementStatus = GattBytes.uint16(value, offset);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Blood Pressure Measurement (0x2A35), see {@link BloodPressureDecoder}
+ */
+public final class BloodPressureRecord {
+
+    public int flags;
+    public boolean isMMHG;
+    public float systolic;
+    public float diastolic;
+    public float meanArterialPressure;
+    public boolean timestampPresent;
+    public long timestamp; // epoch millis
+    public boolean pulseRatePresent;
+    public float pulseRate;
+    public boolean userIdPresent;
+    public int userId;
+    public boolean measurementStatusPresent;
+    public int measurementStatus;
+
+    public void clear() {
+        flags = 0;
+        isMMHG = true;
+        systolic = 0;
+        diastolic = 0;
+        meanArterialPressure = 0;
+        timestampPresent = false;
+        timestamp = 0;
+        pulseRatePresent = false;
+        pulseRate = 0;
+        userIdPresent = false;
+        userId = 0;
+        measurementStatusPresent = false;
+        measurementStatus = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.0f/%.0f %s, MAP %.0f, %.0f bpm, user %d", systolic, diastolic, isMMHG ? "mmHg" : "kPa", meanArterialPressure, pulseRate, userId);
+    }
+}
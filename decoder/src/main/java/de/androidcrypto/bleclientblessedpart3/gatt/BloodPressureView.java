@@ -0,0 +1,135 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a Blood Pressure Measurement value (0x2A35).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class BloodPressureView {
+
+    private byte[] value;
+    private int flags;
+    private int timestampOffset;
+    private int pulseRateOffset;
+    private int userIdOffset;
+    private int measurementStatusOffset;
+    // the date time conversion is the expensive part, so it is done once
+    private boolean timestampDecoded;
+    private long timestamp;
+
+    public BloodPressureView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public BloodPressureView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed blood pressure measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        timestampDecoded = false;
+        final int length = value.length;
+        if (length < 7) return false;
+        flags = value[0] & 0xFF;
+        int offset = 7;
+
+        timestampOffset = -1;
+        if ((flags & BloodPressureDecoder.FLAG_TIMESTAMP_PRESENT) != 0) {
+            timestampOffset = offset;
+            offset += GattDateTime.SIZE;
+        }
+        pulseRateOffset = -1;
+        if ((flags & BloodPressureDecoder.FLAG_PULSE_RATE_PRESENT) != 0) {
+            pulseRateOffset = offset;
+            offset += 2;
+        }
+        userIdOffset = -1;
+        if ((flags & BloodPressureDecoder.FLAG_USER_ID_PRESENT) != 0) {
+            userIdOffset = offset;
+            offset += 1;
+        }
+        measurementStatusOffset = -1;
+        if ((flags & BloodPressureDecoder.FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            measurementStatusOffset = offset;
+            offset += 2;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isMMHG() {
+        return (flags & BloodPressureDecoder.FLAG_UNIT_KPA) == 0;
+    }
+
+    public float getSystolic() {
+        return GattBytes.sfloat(value, 1);
+    }
+
+    public float getDiastolic() {
+        return GattBytes.sfloat(value, 3);
+    }
+
+    public float getMeanArterialPressure() {
+        return GattBytes.sfloat(value, 5);
+    }
+
+    public boolean hasTimestamp() {
+        return timestampOffset >= 0;
+    }
+
+    // epoch millis, 0 if not present
+    public long getTimestamp() {
+        if (timestampOffset < 0) return 0;
+        if (!timestampDecoded) {
+            timestamp = GattDateTime.toEpochMillis(value, timestampOffset);
+            timestampDecoded = true;
+        }
+        return timestamp;
+    }
+
+    public boolean hasPulseRate() {
+        return pulseRateOffset >= 0;
+    }
+
+    public float getPulseRate() {
+        return pulseRateOffset >= 0 ? GattBytes.sfloat(value, pulseRateOffset) : 0;
+    }
+
+    public boolean hasUserId() {
+        return userIdOffset >= 0;
+    }
+
+    public int getUserId() {
+        return userIdOffset >= 0 ? value[userIdOffset] & 0xFF : 0;
+    }
+
+    public boolean hasMeasurementStatus() {
+        return measurementStatusOffset >= 0;
+    }
+
+    public int getMeasurementStatus() {
+        return measurementStatusOffset >= 0 ? GattBytes.uint16(value, measurementStatusOffset) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.0f/%.0f %s, MAP %.0f, %.0f bpm, user %d", getSystolic(), getDiastolic(), isMMHG() ? "mmHg" : "kPa", getMeanArterialPressure(), getPulseRate(), getUserId());
+    }
+}
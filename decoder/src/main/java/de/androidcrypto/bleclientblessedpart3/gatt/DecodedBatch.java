@@ -0,0 +1,275 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays output of {@link BatchDecoder}. There is one column group per measurement type,
+ * row i of a group is spread over the i-th element of each of its arrays. frameIndex links a row back to
+ * the input frame, arrivalTime is copied from the input and timestamp is the device time (0 if not sent).
+ * The arrays grow on demand and are kept by {@link #clear()}, so a batch can be reused for the next chunk.
+ */
+public final class DecodedBatch {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    public final BloodPressureColumns bloodPressure = new BloodPressureColumns();
+    public final TemperatureColumns temperature = new TemperatureColumns();
+    public final HeartRateColumns heartRate = new HeartRateColumns();
+    public final PulseOximeterContinuousColumns pulseOximeterContinuous = new PulseOximeterContinuousColumns();
+    public final PulseOximeterSpotColumns pulseOximeterSpot = new PulseOximeterSpotColumns();
+    public final WeightColumns weight = new WeightColumns();
+    public final GlucoseColumns glucose = new GlucoseColumns();
+
+    // frames with a characteristic this module does not decode
+    public int skipped;
+    // frames that are too short for the fields announced by their flags
+    public int malformed;
+
+    public void clear() {
+        bloodPressure.size = 0;
+        temperature.size = 0;
+        heartRate.size = 0;
+        heartRate.rrSize = 0;
+        pulseOximeterContinuous.size = 0;
+        pulseOximeterSpot.size = 0;
+        weight.size = 0;
+        glucose.size = 0;
+        skipped = 0;
+        malformed = 0;
+    }
+
+    public int size() {
+        return bloodPressure.size + temperature.size + heartRate.size + pulseOximeterContinuous.size
+                + pulseOximeterSpot.size + weight.size + glucose.size;
+    }
+
+    static int grow(int capacity, int required) {
+        int newCapacity = Math.max(capacity, INITIAL_CAPACITY);
+        while (newCapacity < required) newCapacity <<= 1;
+        return newCapacity;
+    }
+
+    public static final class BloodPressureColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public long[] timestamp = new long[0];
+        public int[] flags = new int[0];
+        public float[] systolic = new float[0];
+        public float[] diastolic = new float[0];
+        public float[] meanArterialPressure = new float[0];
+        public float[] pulseRate = new float[0];
+        public int[] userId = new int[0];
+        public int[] measurementStatus = new int[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                systolic = Arrays.copyOf(systolic, capacity);
+                diastolic = Arrays.copyOf(diastolic, capacity);
+                meanArterialPressure = Arrays.copyOf(meanArterialPressure, capacity);
+                pulseRate = Arrays.copyOf(pulseRate, capacity);
+                userId = Arrays.copyOf(userId, capacity);
+                measurementStatus = Arrays.copyOf(measurementStatus, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+
+    public static final class TemperatureColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public long[] timestamp = new long[0];
+        public int[] flags = new int[0];
+        public float[] temperatureValue = new float[0];
+        public int[] type = new int[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                temperatureValue = Arrays.copyOf(temperatureValue, capacity);
+                type = Arrays.copyOf(type, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+
+    /**
+     * The RR intervals of row i are rrIntervals[rrOffset[i]] .. rrIntervals[rrOffset[i] + rrCount[i] - 1]
+     */
+    public static final class HeartRateColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public int[] flags = new int[0];
+        public int[] pulse = new int[0];
+        public int[] sensorContactStatus = new int[0];
+        public int[] energyExpended = new int[0];
+        public int[] rrOffset = new int[0];
+        public int[] rrCount = new int[0];
+        public int rrSize;
+        public int[] rrIntervals = new int[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                pulse = Arrays.copyOf(pulse, capacity);
+                sensorContactStatus = Arrays.copyOf(sensorContactStatus, capacity);
+                energyExpended = Arrays.copyOf(energyExpended, capacity);
+                rrOffset = Arrays.copyOf(rrOffset, capacity);
+                rrCount = Arrays.copyOf(rrCount, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+
+        void appendRrIntervals(int row, int[] source, int count) {
+            if (rrSize + count > rrIntervals.length) {
+                rrIntervals = Arrays.copyOf(rrIntervals, grow(rrIntervals.length, rrSize + count));
+            }
+            System.arraycopy(source, 0, rrIntervals, rrSize, count);
+            rrOffset[row] = rrSize;
+            rrCount[row] = count;
+            rrSize += count;
+        }
+    }
+
+    public static final class PulseOximeterContinuousColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public int[] flags = new int[0];
+        public int[] spO2 = new int[0];
+        public int[] pulseRate = new int[0];
+        public int[] spO2Fast = new int[0];
+        public int[] pulseRateFast = new int[0];
+        public int[] spO2Slow = new int[0];
+        public int[] pulseRateSlow = new int[0];
+        public int[] measurementStatus = new int[0];
+        public int[] sensorStatus = new int[0];
+        public float[] pulseAmplitudeIndex = new float[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                spO2 = Arrays.copyOf(spO2, capacity);
+                pulseRate = Arrays.copyOf(pulseRate, capacity);
+                spO2Fast = Arrays.copyOf(spO2Fast, capacity);
+                pulseRateFast = Arrays.copyOf(pulseRateFast, capacity);
+                spO2Slow = Arrays.copyOf(spO2Slow, capacity);
+                pulseRateSlow = Arrays.copyOf(pulseRateSlow, capacity);
+                measurementStatus = Arrays.copyOf(measurementStatus, capacity);
+                sensorStatus = Arrays.copyOf(sensorStatus, capacity);
+                pulseAmplitudeIndex = Arrays.copyOf(pulseAmplitudeIndex, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+
+    public static final class PulseOximeterSpotColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public long[] timestamp = new long[0];
+        public int[] flags = new int[0];
+        public int[] spO2 = new int[0];
+        public int[] pulseRate = new int[0];
+        public int[] measurementStatus = new int[0];
+        public int[] sensorStatus = new int[0];
+        public float[] pulseAmplitudeIndex = new float[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                spO2 = Arrays.copyOf(spO2, capacity);
+                pulseRate = Arrays.copyOf(pulseRate, capacity);
+                measurementStatus = Arrays.copyOf(measurementStatus, capacity);
+                sensorStatus = Arrays.copyOf(sensorStatus, capacity);
+                pulseAmplitudeIndex = Arrays.copyOf(pulseAmplitudeIndex, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+
+    public static final class WeightColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public long[] timestamp = new long[0];
+        public int[] flags = new int[0];
+        public double[] weight = new double[0];
+        public int[] userId = new int[0];
+        public int[] bmi = new int[0];
+        public int[] height = new int[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                userId = Arrays.copyOf(userId, capacity);
+                bmi = Arrays.copyOf(bmi, capacity);
+                height = Arrays.copyOf(height, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+
+    public static final class GlucoseColumns {
+        public int size;
+        public int[] frameIndex = new int[0];
+        public long[] arrivalTime = new long[0];
+        public long[] timestamp = new long[0];
+        public int[] flags = new int[0];
+        public int[] sequenceNumber = new int[0];
+        public float[] value = new float[0];
+
+        int append(int index, long arrival) {
+            if (size == frameIndex.length) {
+                final int capacity = grow(size, size + 1);
+                frameIndex = Arrays.copyOf(frameIndex, capacity);
+                arrivalTime = Arrays.copyOf(arrivalTime, capacity);
+                timestamp = Arrays.copyOf(timestamp, capacity);
+                flags = Arrays.copyOf(flags, capacity);
+                sequenceNumber = Arrays.copyOf(sequenceNumber, capacity);
+                value = Arrays.copyOf(value, capacity);
+            }
+            frameIndex[size] = index;
+            arrivalTime[size] = arrival;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+/**
+ * Little endian primitive readers for GATT characteristic values.
+ * The float conversions give the same results as BLESSED's BluetoothBytesParser but use
+ * precomputed powers of ten instead of Math.pow.
+ */
+public final class GattBytes {
+
+    // SFLOAT exponent is a signed nibble (-8..7), FLOAT exponent a signed byte (-128..127)
+    private static final double[] POW10 = new double[256];
+
+    static {
+        for (int exponent = -128; exponent < 128; exponent++) {
+            POW10[exponent + 128] = Math.pow(10, exponent);
+        }
+    }
+
+    private GattBytes() {
+    }
+
+    public static int uint8(byte[] value, int offset) {
+        return value[offset] & 0xFF;
+    }
+
+    public static int uint16(byte[] value, int offset) {
+        return (value[offset] & 0xFF) | ((value[offset + 1] & 0xFF) << 8);
+    }
+
+    public static int sint16(byte[] value, int offset) {
+        return (short) uint16(value, offset);
+    }
+
+    /**
+     * IEEE-11073 16-bit SFLOAT: 12 bit signed mantissa, 4 bit signed exponent
+     */
+    public static float sfloat(byte[] value, int offset) {
+        final int b0 = value[offset] & 0xFF;
+        final int b1 = value[offset + 1] & 0xFF;
+        final int mantissa = signed(b0 + ((b1 & 0x0F) << 8), 12);
+        final int exponent = signed(b1 >> 4, 4);
+        return (float) (mantissa * POW10[exponent + 128]);
+    }
+
+    /**
+     * IEEE-11073 32-bit FLOAT: 24 bit signed mantissa, 8 bit signed exponent
+     */
+    public static float float32(byte[] value, int offset) {
+        final int mantissa = signed((value[offset] & 0xFF) + ((value[offset + 1] & 0xFF) << 8) + ((value[offset + 2] & 0xFF) << 16), 24);
+        return (float) (mantissa * POW10[value[offset + 3] + 128]);
+    }
+
+    private static int signed(int unsigned, int size) {
+        final int shift = 32 - size;
+        return (unsigned << shift) >> shift;
+    }
+}
@@ -0,0 +1,49 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Bluetooth SIG assigned numbers of the measurement characteristics handled by this module
+ */
+public final class GattCharacteristics {
+
+    public static final int TEMPERATURE_MEASUREMENT = 0x2A1C;
+    public static final int GLUCOSE_MEASUREMENT = 0x2A18;
+    public static final int GLUCOSE_MEASUREMENT_CONTEXT = 0x2A34;
+    public static final int BLOOD_PRESSURE_MEASUREMENT = 0x2A35;
+    public static final int HEART_RATE_MEASUREMENT = 0x2A37;
+    public static final int PLX_SPOT_CHECK_MEASUREMENT = 0x2A5E;
+    public static final int PLX_CONTINUOUS_MEASUREMENT = 0x2A5F;
+    public static final int WEIGHT_MEASUREMENT = 0x2A9D;
+
+    public static final int NOT_ASSIGNED = -1;
+
+    // 0000xxxx-0000-1000-8000-00805f9b34fb
+    private static final long BASE_UUID_MSB = 0x0000000000001000L;
+    private static final long BASE_UUID_MSB_MASK = 0xFFFF0000FFFFFFFFL;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private GattCharacteristics() {
+    }
+
+    /**
+     * Returns the 16 bit assigned number of a Bluetooth SIG UUID or {@link #NOT_ASSIGNED} for a vendor specific UUID
+     */
+    public static int toAssignedNumber(@NotNull UUID uuid) {
+        final long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB || (msb & BASE_UUID_MSB_MASK) != BASE_UUID_MSB) {
+            return NOT_ASSIGNED;
+        }
+        return (int) (msb >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * Returns the Bluetooth SIG UUID of a 16 bit assigned number
+     */
+    @NotNull
+    public static UUID toUuid(int assignedNumber) {
+        return new UUID(BASE_UUID_MSB | ((long) (assignedNumber & 0xFFFF) << 32), BASE_UUID_LSB);
+    }
+}
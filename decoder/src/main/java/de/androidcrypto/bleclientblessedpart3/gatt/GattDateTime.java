@@ -0,0 +1,229 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Codec for the 7 byte GATT Date Time (year, month, day, hours, minutes, seconds) in the default time zone.
+ * The fields are converted to epoch millis with plain arithmetic on the proleptic Gregorian calendar. The zone
+ * offset of a local time is looked up in a small table keyed by the local quarter hour, so a stream of
+ * measurements asks the TimeZone only once per quarter hour. Out of range fields roll over like in a lenient
+ * Calendar. Nothing is allocated when decoding or formatting and all methods are thread safe.
+ */
+public final class GattDateTime {
+
+    public static final int SIZE = 7;
+    // Date Time + Day of Week + Fractions256 + Adjust Reason of the Current Time characteristic 0x2A2B
+    public static final int CURRENT_TIME_SIZE = 10;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    // zone offsets change at full quarter hours of local time
+    private static final long BUCKET_MILLIS = 15 * 60 * 1000L;
+    private static final int SLOTS = 64;
+    // longer than any daylight saving shift
+    private static final long OVERLAP_PROBE_MILLIS = 3 * 60 * 60 * 1000L;
+    // no bucket of a 16 bit year reaches Integer.MIN_VALUE
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final class ZoneOffsets {
+        final TimeZone zone;
+        // local bucket in the upper 32 bits, zone offset in millis in the lower 32 bits
+        final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+
+        ZoneOffsets(TimeZone zone) {
+            this.zone = zone;
+            for (int i = 0; i < SLOTS; i++) slots.set(i, EMPTY);
+        }
+    }
+
+    private static volatile ZoneOffsets zoneOffsets;
+
+    private GattDateTime() {
+    }
+
+    /**
+     * Drops the cached offsets, call it when the default time zone has changed
+     */
+    public static void onTimeZoneChanged() {
+        zoneOffsets = null;
+    }
+
+    /**
+     * Uses the zone instead of the default time zone, null restores the default time zone
+     */
+    public static void setTimeZone(TimeZone zone) {
+        zoneOffsets = zone == null ? null : new ZoneOffsets((TimeZone) zone.clone());
+    }
+
+    private static ZoneOffsets zoneOffsets() {
+        ZoneOffsets offsets = zoneOffsets;
+        if (offsets == null) {
+            offsets = new ZoneOffsets(TimeZone.getDefault());
+            zoneOffsets = offsets;
+        }
+        return offsets;
+    }
+
+    public static long toEpochMillis(byte[] value, int offset) {
+        final int year = GattBytes.uint16(value, offset);
+        final int month = value[offset + 2] & 0xFF;
+        final int day = value[offset + 3] & 0xFF;
+        final int hour = value[offset + 4] & 0xFF;
+        final int minute = value[offset + 5] & 0xFF;
+        final int second = value[offset + 6] & 0xFF;
+        return toEpochMillis(year, month, day, hour, minute, second);
+    }
+
+    /**
+     * @param month 1 - 12
+     */
+    public static long toEpochMillis(int year, int month, int day, int hour, int minute, int second) {
+        final long local = (daysFromCivil(year, month, 1) + day - 1) * MILLIS_PER_DAY
+                + hour * 3600000L + minute * 60000L + second * 1000L;
+        return localToEpochMillis(local);
+    }
+
+    /**
+     * Instant of a local time in millis since 1970-01-01 00:00 local time. Like in Calendar a skipped local time gets
+     * the offset before the transition and a local time that occurs twice resolves to its second occurrence.
+     */
+    public static long localToEpochMillis(long localMillis) {
+        return localMillis - localZoneOffset(localMillis);
+    }
+
+    // offset of the zone at a local time, taken from the table if the quarter hour was seen before
+    private static int localZoneOffset(long local) {
+        final ZoneOffsets offsets = zoneOffsets();
+        final long bucket = floorDiv(local, BUCKET_MILLIS);
+        final int slot = (int) (bucket & (SLOTS - 1));
+        final long entry = offsets.slots.get(slot);
+        if (entry != EMPTY && (entry >> 32) == bucket) return (int) entry;
+
+        // the offset at the local time taken as UTC is off by at most one transition, the second step corrects it.
+        // Like in Calendar a local time skipped by a transition gets the earlier offset, and a local time that
+        // occurs twice gets the later, smaller offset, which is found a few hours after the first instant.
+        final TimeZone zone = offsets.zone;
+        final int first = zone.getOffset(local - zone.getOffset(local));
+        final int second = zone.getOffset(local - first);
+        int offset = Math.min(first, second);
+        final int later = zone.getOffset(local - offset + OVERLAP_PROBE_MILLIS);
+        if (later < offset && zone.getOffset(local - later) == later) offset = later;
+        offsets.slots.set(slot, (bucket << 32) | (offset & 0xFFFFFFFFL));
+        return offset;
+    }
+
+    /**
+     * Offset of the default time zone at the instant, including daylight saving time
+     */
+    public static int getZoneOffsetMillis(long epochMillis) {
+        return zoneOffsets().zone.getOffset(epochMillis);
+    }
+
+    /**
+     * Writes the 7 byte Date Time of the instant in the default time zone
+     */
+    public static void encode(long epochMillis, byte[] out, int offset) {
+        encode(epochMillis, getZoneOffsetMillis(epochMillis), out, offset);
+    }
+
+    /**
+     * Writes the 7 byte Date Time of the instant at a fixed zone offset, 0 for UTC
+     */
+    public static void encode(long epochMillis, int zoneOffsetMillis, byte[] out, int offset) {
+        final long local = epochMillis + zoneOffsetMillis;
+        final long days = floorDiv(local, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+        final long date = civilFromDays(days);
+        final int year = (int) (date >> 16);
+        out[offset] = (byte) year;
+        out[offset + 1] = (byte) (year >> 8);
+        out[offset + 2] = (byte) ((date >> 8) & 0xFF);
+        out[offset + 3] = (byte) (date & 0xFF);
+        out[offset + 4] = (byte) (millisOfDay / 3600000);
+        out[offset + 5] = (byte) (millisOfDay / 60000 % 60);
+        out[offset + 6] = (byte) (millisOfDay / 1000 % 60);
+    }
+
+    /**
+     * Returns the value of the Current Time characteristic for the instant in the default time zone,
+     * with the adjust reason "manual time update" like BluetoothBytesParser.setCurrentTime
+     */
+    public static byte[] encodeCurrentTime(long epochMillis) {
+        final byte[] value = new byte[CURRENT_TIME_SIZE];
+        final long local = epochMillis + getZoneOffsetMillis(epochMillis);
+        encode(epochMillis, value, 0);
+        // 1970-01-01 was a Thursday, the characteristic counts Monday as 1
+        value[7] = (byte) (floorMod(floorDiv(local, MILLIS_PER_DAY) + 3, 7) + 1);
+        value[8] = (byte) (floorMod(local, 1000) * 256 / 1000);
+        value[9] = 1;
+        return value;
+    }
+
+    /**
+     * Appends the instant as dd-MM-yyyy HH:mm:ss in the default time zone
+     */
+    public static void appendDateTime(StringBuilder out, long epochMillis) {
+        final long local = epochMillis + getZoneOffsetMillis(epochMillis);
+        final long days = floorDiv(local, MILLIS_PER_DAY);
+        final int millisOfDay = (int) (local - days * MILLIS_PER_DAY);
+        final long date = civilFromDays(days);
+        appendTwoDigits(out, (int) (date & 0xFF));
+        out.append('-');
+        appendTwoDigits(out, (int) ((date >> 8) & 0xFF));
+        out.append('-');
+        out.append(date >> 16);
+        out.append(' ');
+        appendTwoDigits(out, millisOfDay / 3600000);
+        out.append(':');
+        appendTwoDigits(out, millisOfDay / 60000 % 60);
+        out.append(':');
+        appendTwoDigits(out, millisOfDay / 1000 % 60);
+    }
+
+    public static String format(long epochMillis) {
+        StringBuilder out = new StringBuilder(19);
+        appendDateTime(out, epochMillis);
+        return out.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        if (value < 10) out.append('0');
+        out.append(value);
+    }
+
+    // days since 1970-01-01, months outside of 1 - 12 roll over into the neighbouring years
+    static long daysFromCivil(long year, int month, int day) {
+        year += floorDiv(month - 1, 12);
+        month = (int) floorMod(month - 1, 12) + 1;
+        if (month <= 2) year--;
+        final long era = floorDiv(year, 400);
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    // year << 16 | month << 8 | day of the days since 1970-01-01
+    static long civilFromDays(long days) {
+        days += 719468;
+        final long era = floorDiv(days, 146097);
+        final long dayOfEra = days - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        final long day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        final long month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return (year << 16) | (month << 8) | day;
+    }
+
+    // Math.floorDiv and floorMod need API level 24
+    private static long floorDiv(long x, long y) {
+        final long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
@@ -0,0 +1,91 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Glucose Measurement Context characteristic (0x2A34).
+ * The context belongs to the Glucose Measurement with the same sequence number.
+ */
+public final class GlucoseContextDecoder {
+
+    static final int FLAG_CARBOHYDRATE_PRESENT = 0x01;
+    static final int FLAG_MEAL_PRESENT = 0x02;
+    static final int FLAG_TESTER_HEALTH_PRESENT = 0x04;
+    static final int FLAG_EXERCISE_PRESENT = 0x08;
+    static final int FLAG_MEDICATION_PRESENT = 0x10;
+    static final int FLAG_MEDICATION_IN_LITERS = 0x20;
+    static final int FLAG_HBA1C_PRESENT = 0x40;
+    static final int FLAG_EXTENDED_FLAGS_PRESENT = 0x80;
+
+    private GlucoseContextDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull GlucoseContextRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 3) return false;
+
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.sequenceNumber = GattBytes.uint16(value, 1);
+        int offset = 3;
+
+        if ((flags & FLAG_EXTENDED_FLAGS_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.extendedFlags = value[offset] & 0xFF;
+            offset += 1;
+        }
+
+        if ((flags & FLAG_CARBOHYDRATE_PRESENT) != 0) {
+            if (length < offset + 3) return false;
+            record.carbohydratePresent = true;
+            record.carbohydrateId = value[offset] & 0xFF;
+            // transmitted in kilogram
+            record.carbohydrate = GattBytes.sfloat(value, offset + 1) * 1000;
+            offset += 3;
+        }
+
+        if ((flags & FLAG_MEAL_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.mealPresent = true;
+            record.meal = value[offset] & 0xFF;
+            offset += 1;
+        }
+
+        if ((flags & FLAG_TESTER_HEALTH_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.testerHealthPresent = true;
+            record.tester = value[offset] & 0x0F;
+            record.health = (value[offset] & 0xF0) >> 4;
+            offset += 1;
+        }
+
+        if ((flags & FLAG_EXERCISE_PRESENT) != 0) {
+            if (length < offset + 3) return false;
+            record.exercisePresent = true;
+            record.exerciseDuration = GattBytes.uint16(value, offset);
+            record.exerciseIntensity = value[offset + 2] & 0xFF;
+            offset += 3;
+        }
+
+        if ((flags & FLAG_MEDICATION_PRESENT) != 0) {
+            if (length < offset + 3) return false;
+            record.medicationPresent = true;
+            record.medicationInLiters = (flags & FLAG_MEDICATION_IN_LITERS) != 0;
+            record.medicationId = value[offset] & 0xFF;
+            // transmitted in kilogram or liter
+            record.medication = GattBytes.sfloat(value, offset + 1) * (record.medicationInLiters ? 1000 : 1000000);
+            offset += 3;
+        }
+
+        if ((flags & FLAG_HBA1C_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.hbA1cPresent = true;
+            record.hbA1c = GattBytes.sfloat(value, offset);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Glucose Measurement Context (0x2A34), see {@link GlucoseContextDecoder}
+ */
+public final class GlucoseContextRecord {
+
+    public int flags;
+    public int sequenceNumber;
+    public int extendedFlags;
+    public boolean carbohydratePresent;
+    public int carbohydrateId; // 1 breakfast, 2 lunch, 3 dinner, 4 snack, 5 drink, 6 supper, 7 brunch
+    public float carbohydrate; // gram
+    public boolean mealPresent;
+    public int meal; // 1 preprandial, 2 postprandial, 3 fasting, 4 casual, 5 bedtime
+    public boolean testerHealthPresent;
+    public int tester;
+    public int health;
+    public boolean exercisePresent;
+    public int exerciseDuration; // seconds, 65535 means overrun
+    public int exerciseIntensity; // percent
+    public boolean medicationPresent;
+    public int medicationId; // 1 rapid acting, 2 short acting, 3 intermediate acting, 4 long acting, 5 pre-mixed insulin
+    public float medication; // milligram or milliliter, see medicationInLiters
+    public boolean medicationInLiters;
+    public boolean hbA1cPresent;
+    public float hbA1c; // percent
+
+    public void clear() {
+        flags = 0;
+        sequenceNumber = 0;
+        extendedFlags = 0;
+        carbohydratePresent = false;
+        carbohydrateId = 0;
+        carbohydrate = 0;
+        mealPresent = false;
+        meal = 0;
+        testerHealthPresent = false;
+        tester = 0;
+        health = 0;
+        exercisePresent = false;
+        exerciseDuration = 0;
+        exerciseIntensity = 0;
+        medicationPresent = false;
+        medicationId = 0;
+        medication = 0;
+        medicationInLiters = false;
+        hbA1cPresent = false;
+        hbA1c = 0;
+    }
+
+    public void copyFrom(GlucoseContextRecord other) {
+        flags = other.flags;
+        sequenceNumber = other.sequenceNumber;
+        extendedFlags = other.extendedFlags;
+        carbohydratePresent = other.carbohydratePresent;
+        carbohydrateId = other.carbohydrateId;
+        carbohydrate = other.carbohydrate;
+        mealPresent = other.mealPresent;
+        meal = other.meal;
+        testerHealthPresent = other.testerHealthPresent;
+        tester = other.tester;
+        health = other.health;
+        exercisePresent = other.exercisePresent;
+        exerciseDuration = other.exerciseDuration;
+        exerciseIntensity = other.exerciseIntensity;
+        medicationPresent = other.medicationPresent;
+        medicationId = other.medicationId;
+        medication = other.medication;
+        medicationInLiters = other.medicationInLiters;
+        hbA1cPresent = other.hbA1cPresent;
+        hbA1c = other.hbA1c;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('#').append(sequenceNumber);
+        if (carbohydratePresent) sb.append(String.format(Locale.ENGLISH, " carbohydrate %d %.1f g", carbohydrateId, carbohydrate));
+        if (mealPresent) sb.append(" meal ").append(meal);
+        if (testerHealthPresent) sb.append(" tester ").append(tester).append(" health ").append(health);
+        if (exercisePresent) sb.append(" exercise ").append(exerciseDuration).append(" s ").append(exerciseIntensity).append(" %");
+        if (medicationPresent) sb.append(String.format(Locale.ENGLISH, " medication %d %.1f %s", medicationId, medication, medicationInLiters ? "ml" : "mg"));
+        if (hbA1cPresent) sb.append(String.format(Locale.ENGLISH, " HbA1c %.1f %%", hbA1c));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,59 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Glucose Measurement characteristic (0x2A18)
+ */
+public final class GlucoseDecoder {
+
+    static final int FLAG_TIME_OFFSET_PRESENT = 0x01;
+    static final int FLAG_TYPE_AND_LOCATION_PRESENT = 0x02;
+    static final int FLAG_MMOL_PER_LITER = 0x04;
+    static final int FLAG_CONTEXT_WILL_FOLLOW = 0x10;
+
+    private GlucoseDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull GlucoseRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 10) return false;
+
+        // Parse flags
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.mmolPerLiter = (flags & FLAG_MMOL_PER_LITER) != 0;
+        record.contextWillFollow = (flags & FLAG_CONTEXT_WILL_FOLLOW) != 0;
+        int offset = 1;
+
+        // Sequence number is used to match the reading with an optional glucose context
+        record.sequenceNumber = GattBytes.uint16(value, offset);
+        offset += 2;
+
+        // Read timestamp
+        long timestamp = GattDateTime.toEpochMillis(value, offset);
+        offset += GattDateTime.SIZE;
+
+        if ((flags & FLAG_TIME_OFFSET_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.timeOffsetPresent = true;
+            record.timeOffset = GattBytes.sint16(value, offset);
+            timestamp += record.timeOffset * 60000L;
+            offset += 2;
+        }
+        record.timestamp = timestamp;
+
+        if ((flags & FLAG_TYPE_AND_LOCATION_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.concentrationPresent = true;
+            final float glucoseConcentration = GattBytes.sfloat(value, offset);
+            final int multiplier = record.mmolPerLiter ? 1000 : 100000;
+            record.value = glucoseConcentration * multiplier;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,36 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Glucose Measurement (0x2A18), see {@link GlucoseDecoder}
+ */
+public final class GlucoseRecord {
+
+    public int flags;
+    public boolean mmolPerLiter;
+    public int sequenceNumber;
+    public long timestamp; // epoch millis, the time offset is already applied
+    public boolean timeOffsetPresent;
+    public int timeOffset; // minutes
+    public boolean concentrationPresent;
+    public float value; // mg/dL or mmol/L, see mmolPerLiter
+    public boolean contextWillFollow;
+
+    public void clear() {
+        flags = 0;
+        mmolPerLiter = false;
+        sequenceNumber = 0;
+        timestamp = 0;
+        timeOffsetPresent = false;
+        timeOffset = 0;
+        concentrationPresent = false;
+        value = 0;
+        contextWillFollow = false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "#%d %.1f %s", sequenceNumber, value, mmolPerLiter ? "mmol/L" : "mg/dL");
+    }
+}
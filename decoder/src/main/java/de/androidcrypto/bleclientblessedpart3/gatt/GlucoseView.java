@@ -0,0 +1,104 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a Glucose Measurement value (0x2A18).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class GlucoseView {
+
+    private byte[] value;
+    private int flags;
+    private int timeOffsetOffset;
+    private int concentrationOffset;
+    private boolean timestampDecoded;
+    private long timestamp;
+
+    public GlucoseView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public GlucoseView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed glucose measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        timestampDecoded = false;
+        final int length = value.length;
+        if (length < 10) return false;
+        flags = value[0] & 0xFF;
+        int offset = 10;
+
+        timeOffsetOffset = -1;
+        if ((flags & GlucoseDecoder.FLAG_TIME_OFFSET_PRESENT) != 0) {
+            timeOffsetOffset = offset;
+            offset += 2;
+        }
+        concentrationOffset = -1;
+        if ((flags & GlucoseDecoder.FLAG_TYPE_AND_LOCATION_PRESENT) != 0) {
+            concentrationOffset = offset;
+            offset += 2;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isMmolPerLiter() {
+        return (flags & GlucoseDecoder.FLAG_MMOL_PER_LITER) != 0;
+    }
+
+    public boolean isContextWillFollow() {
+        return (flags & GlucoseDecoder.FLAG_CONTEXT_WILL_FOLLOW) != 0;
+    }
+
+    public int getSequenceNumber() {
+        return GattBytes.uint16(value, 1);
+    }
+
+    // minutes, 0 if not present
+    public int getTimeOffset() {
+        return timeOffsetOffset >= 0 ? GattBytes.sint16(value, timeOffsetOffset) : 0;
+    }
+
+    // epoch millis, the time offset is already applied
+    public long getTimestamp() {
+        if (!timestampDecoded) {
+            timestamp = GattDateTime.toEpochMillis(value, 3) + getTimeOffset() * 60000L;
+            timestampDecoded = true;
+        }
+        return timestamp;
+    }
+
+    public boolean hasConcentration() {
+        return concentrationOffset >= 0;
+    }
+
+    // mg/dL or mmol/L, see isMmolPerLiter()
+    public float getConcentration() {
+        if (concentrationOffset < 0) return 0;
+        return GattBytes.sfloat(value, concentrationOffset) * (isMmolPerLiter() ? 1000 : 100000);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "#%d %.1f %s", getSequenceNumber(), getConcentration(), isMmolPerLiter() ? "mmol/L" : "mg/dL");
+    }
+}
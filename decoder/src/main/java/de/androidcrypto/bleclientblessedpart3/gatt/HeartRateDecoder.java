@@ -0,0 +1,68 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Heart Rate Measurement characteristic (0x2A37).
+ * All fields are read directly from the notification bytes into a reusable {@link HeartRateRecord}.
+ */
+public final class HeartRateDecoder {
+
+    static final int FLAG_HEART_RATE_UINT16 = 0x01;
+    static final int FLAG_SENSOR_CONTACT_MASK = 0x06;
+    static final int FLAG_ENERGY_EXPENDED_PRESENT = 0x08;
+    static final int FLAG_RR_INTERVAL_PRESENT = 0x10;
+
+    private HeartRateDecoder() {
+    }
+
+    /**
+     * Decodes the value of a Heart Rate Measurement notification
+     *
+     * @param value  the raw characteristic value
+     * @param record the record to fill, its previous content is overwritten
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull HeartRateRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 2) return false;
+
+        // Parse the flags
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.sensorContactStatus = (flags & FLAG_SENSOR_CONTACT_MASK) >> 1;
+        int offset = 1;
+
+        // Parse heart rate
+        if ((flags & FLAG_HEART_RATE_UINT16) == 0) {
+            record.pulse = value[offset] & 0xFF;
+            offset += 1;
+        } else {
+            if (length < offset + 2) return false;
+            record.pulse = GattBytes.uint16(value, offset);
+            offset += 2;
+        }
+
+        // Parse energy expended
+        if ((flags & FLAG_ENERGY_EXPENDED_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.energyExpendedPresent = true;
+            record.energyExpended = GattBytes.uint16(value, offset);
+            offset += 2;
+        }
+
+        // Parse all RR intervals until the end of the value
+        if ((flags & FLAG_RR_INTERVAL_PRESENT) != 0) {
+            final int[] rrIntervals = record.rrIntervals;
+            final int capacity = rrIntervals.length;
+            int count = 0;
+            while (offset + 1 < length && count < capacity) {
+                rrIntervals[count++] = GattBytes.uint16(value, offset);
+                offset += 2;
+            }
+            record.rrCount = count;
+        }
+        return true;
+    }
+}
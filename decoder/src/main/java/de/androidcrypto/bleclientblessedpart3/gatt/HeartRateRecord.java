@@ -0,0 +1,60 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Heart Rate Measurement (0x2A37).
+ * The record is meant to be reused for every notification, see {@link HeartRateDecoder}.
+ */
+public final class HeartRateRecord {
+
+    // Sensor Contact Status values (flags bits 1 and 2)
+    public static final int SENSOR_CONTACT_NOT_SUPPORTED = 0;
+    public static final int SENSOR_CONTACT_NOT_SUPPORTED_2 = 1;
+    public static final int SENSOR_CONTACT_NOT_DETECTED = 2;
+    public static final int SENSOR_CONTACT_DETECTED = 3;
+
+    // a full 512 byte attribute value holds at most 255 RR intervals (1 byte flags + 2 byte heart rate)
+    public static final int MAX_RR_INTERVALS = 255;
+
+    public int flags;
+    public int pulse;
+    public int sensorContactStatus;
+    public boolean energyExpendedPresent;
+    public int energyExpended; // kilo Joules
+    public final int[] rrIntervals; // resolution 1/1024 second
+    public int rrCount;
+
+    public HeartRateRecord() {
+        this(MAX_RR_INTERVALS);
+    }
+
+    public HeartRateRecord(int rrCapacity) {
+        this.rrIntervals = new int[rrCapacity];
+    }
+
+    public void clear() {
+        flags = 0;
+        pulse = 0;
+        sensorContactStatus = SENSOR_CONTACT_NOT_SUPPORTED;
+        energyExpendedPresent = false;
+        energyExpended = 0;
+        rrCount = 0;
+    }
+
+    public boolean isSensorContactDetected() {
+        return sensorContactStatus == SENSOR_CONTACT_DETECTED;
+    }
+
+    /**
+     * Returns the RR interval at the given index converted to milliseconds
+     */
+    public int getRrIntervalMillis(int index) {
+        return (rrIntervals[index] * 1000) >> 10;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d bpm, contact %d, energy %d kJ, %d RR", pulse, sensorContactStatus, energyExpended, rrCount);
+    }
+}
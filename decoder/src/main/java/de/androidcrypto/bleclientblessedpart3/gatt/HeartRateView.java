@@ -0,0 +1,109 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a Heart Rate Measurement value (0x2A37).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class HeartRateView {
+
+    private byte[] value;
+    private int flags;
+    private int energyExpendedOffset;
+    private int rrOffset;
+    private int rrCount;
+
+    public HeartRateView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public HeartRateView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed heart rate measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        final int length = value.length;
+        if (length < 2) return false;
+        flags = value[0] & 0xFF;
+        int offset = (flags & HeartRateDecoder.FLAG_HEART_RATE_UINT16) == 0 ? 2 : 3;
+        if (length < offset) return false;
+
+        energyExpendedOffset = -1;
+        if ((flags & HeartRateDecoder.FLAG_ENERGY_EXPENDED_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            energyExpendedOffset = offset;
+            offset += 2;
+        }
+
+        rrOffset = offset;
+        rrCount = (flags & HeartRateDecoder.FLAG_RR_INTERVAL_PRESENT) != 0 ? (length - offset) / 2 : 0;
+        return true;
+    }
+
+    /**
+     * Wraps a value that {@link HeartRateDecoder} already decoded into the record, the lengths are not checked again
+     */
+    public void wrap(@NotNull byte[] value, @NotNull HeartRateRecord record) {
+        this.value = value;
+        flags = record.flags;
+        int offset = (flags & HeartRateDecoder.FLAG_HEART_RATE_UINT16) == 0 ? 2 : 3;
+        energyExpendedOffset = -1;
+        if (record.energyExpendedPresent) {
+            energyExpendedOffset = offset;
+            offset += 2;
+        }
+        rrOffset = offset;
+        rrCount = record.rrCount;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getPulse() {
+        return (flags & HeartRateDecoder.FLAG_HEART_RATE_UINT16) == 0 ? value[1] & 0xFF : GattBytes.uint16(value, 1);
+    }
+
+    public int getSensorContactStatus() {
+        return (flags & HeartRateDecoder.FLAG_SENSOR_CONTACT_MASK) >> 1;
+    }
+
+    public boolean hasEnergyExpended() {
+        return energyExpendedOffset >= 0;
+    }
+
+    // kilo Joules, 0 if not present
+    public int getEnergyExpended() {
+        return energyExpendedOffset >= 0 ? GattBytes.uint16(value, energyExpendedOffset) : 0;
+    }
+
+    public int getRrCount() {
+        return rrCount;
+    }
+
+    // resolution 1/1024 second
+    public int getRrInterval(int index) {
+        if (index < 0 || index >= rrCount) throw new IndexOutOfBoundsException("RR interval " + index + " of " + rrCount);
+        return GattBytes.uint16(value, rrOffset + index * 2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%d bpm, contact %d, energy %d kJ, %d RR", getPulse(), getSensorContactStatus(), getEnergyExpended(), rrCount);
+    }
+}
@@ -0,0 +1,73 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the PLX Continuous Measurement characteristic (0x2A5F)
+ */
+public final class PulseOximeterContinuousDecoder {
+
+    static final int FLAG_SPO2_FAST_PRESENT = 0x01;
+    static final int FLAG_SPO2_SLOW_PRESENT = 0x02;
+    static final int FLAG_MEASUREMENT_STATUS_PRESENT = 0x04;
+    static final int FLAG_SENSOR_STATUS_PRESENT = 0x08;
+    static final int FLAG_PULSE_AMPLITUDE_INDEX_PRESENT = 0x10;
+
+    private PulseOximeterContinuousDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull PulseOximeterContinuousRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 5) return false;
+
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        int offset = 1;
+
+        record.spO2 = (int) GattBytes.sfloat(value, offset);
+        record.pulseRate = (int) GattBytes.sfloat(value, offset + 2);
+        offset += 4;
+
+        if ((flags & FLAG_SPO2_FAST_PRESENT) != 0) {
+            if (length < offset + 4) return false;
+            record.fastPresent = true;
+            record.spO2Fast = (int) GattBytes.sfloat(value, offset);
+            record.pulseRateFast = (int) GattBytes.sfloat(value, offset + 2);
+            offset += 4;
+        }
+
+        if ((flags & FLAG_SPO2_SLOW_PRESENT) != 0) {
+            if (length < offset + 4) return false;
+            record.slowPresent = true;
+            record.spO2Slow = (int) GattBytes.sfloat(value, offset);
+            record.pulseRateSlow = (int) GattBytes.sfloat(value, offset + 2);
+            offset += 4;
+        }
+
+        if ((flags & FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.measurementStatusPresent = true;
+            record.measurementStatus = GattBytes.uint16(value, offset);
+            offset += 2;
+        }
+
+        // the sensor status is followed by a reserved byte
+        if ((flags & FLAG_SENSOR_STATUS_PRESENT) != 0) {
+            if (length < offset + 3) return false;
+            record.sensorStatusPresent = true;
+            record.sensorStatus = GattBytes.uint16(value, offset);
+            offset += 3;
+        }
+
+        if ((flags & FLAG_PULSE_AMPLITUDE_INDEX_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.pulseAmplitudeIndexPresent = true;
+            record.pulseAmplitudeIndex = GattBytes.sfloat(value, offset);
+        }
+        return true;
+    }
+}
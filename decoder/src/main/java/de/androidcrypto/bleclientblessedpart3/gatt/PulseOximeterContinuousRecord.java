@@ -0,0 +1,48 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded PLX Continuous Measurement (0x2A5F), see {@link PulseOximeterContinuousDecoder}
+ */
+public final class PulseOximeterContinuousRecord {
+
+    public int flags;
+    public int spO2;
+    public int pulseRate;
+    public boolean fastPresent;
+    public int spO2Fast;
+    public int pulseRateFast;
+    public boolean slowPresent;
+    public int spO2Slow;
+    public int pulseRateSlow;
+    public boolean measurementStatusPresent;
+    public int measurementStatus;
+    public boolean sensorStatusPresent;
+    public int sensorStatus;
+    public boolean pulseAmplitudeIndexPresent;
+    public float pulseAmplitudeIndex;
+
+    public void clear() {
+        flags = 0;
+        spO2 = 0;
+        pulseRate = 0;
+        fastPresent = false;
+        spO2Fast = 0;
+        pulseRateFast = 0;
+        slowPresent = false;
+        spO2Slow = 0;
+        pulseRateSlow = 0;
+        measurementStatusPresent = false;
+        measurementStatus = 0;
+        sensorStatusPresent = false;
+        sensorStatus = 0;
+        pulseAmplitudeIndexPresent = false;
+        pulseAmplitudeIndex = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SpO2 %d%%, Pulse %d bpm, PAI %.1f", spO2, pulseRate, pulseAmplitudeIndex);
+    }
+}
@@ -0,0 +1,132 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a PLX Continuous Measurement value (0x2A5F).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class PulseOximeterContinuousView {
+
+    private byte[] value;
+    private int flags;
+    private int fastOffset;
+    private int slowOffset;
+    private int measurementStatusOffset;
+    private int sensorStatusOffset;
+    private int pulseAmplitudeIndexOffset;
+
+    public PulseOximeterContinuousView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public PulseOximeterContinuousView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed PLX continuous measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        final int length = value.length;
+        if (length < 5) return false;
+        flags = value[0] & 0xFF;
+        int offset = 5;
+
+        fastOffset = -1;
+        if ((flags & PulseOximeterContinuousDecoder.FLAG_SPO2_FAST_PRESENT) != 0) {
+            fastOffset = offset;
+            offset += 4;
+        }
+        slowOffset = -1;
+        if ((flags & PulseOximeterContinuousDecoder.FLAG_SPO2_SLOW_PRESENT) != 0) {
+            slowOffset = offset;
+            offset += 4;
+        }
+        measurementStatusOffset = -1;
+        if ((flags & PulseOximeterContinuousDecoder.FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            measurementStatusOffset = offset;
+            offset += 2;
+        }
+        // the sensor status is followed by a reserved byte
+        sensorStatusOffset = -1;
+        if ((flags & PulseOximeterContinuousDecoder.FLAG_SENSOR_STATUS_PRESENT) != 0) {
+            sensorStatusOffset = offset;
+            offset += 3;
+        }
+        pulseAmplitudeIndexOffset = -1;
+        if ((flags & PulseOximeterContinuousDecoder.FLAG_PULSE_AMPLITUDE_INDEX_PRESENT) != 0) {
+            pulseAmplitudeIndexOffset = offset;
+            offset += 2;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getSpO2() {
+        return (int) GattBytes.sfloat(value, 1);
+    }
+
+    public int getPulseRate() {
+        return (int) GattBytes.sfloat(value, 3);
+    }
+
+    public boolean hasFast() {
+        return fastOffset >= 0;
+    }
+
+    public int getSpO2Fast() {
+        return fastOffset >= 0 ? (int) GattBytes.sfloat(value, fastOffset) : 0;
+    }
+
+    public int getPulseRateFast() {
+        return fastOffset >= 0 ? (int) GattBytes.sfloat(value, fastOffset + 2) : 0;
+    }
+
+    public boolean hasSlow() {
+        return slowOffset >= 0;
+    }
+
+    public int getSpO2Slow() {
+        return slowOffset >= 0 ? (int) GattBytes.sfloat(value, slowOffset) : 0;
+    }
+
+    public int getPulseRateSlow() {
+        return slowOffset >= 0 ? (int) GattBytes.sfloat(value, slowOffset + 2) : 0;
+    }
+
+    public int getMeasurementStatus() {
+        return measurementStatusOffset >= 0 ? GattBytes.uint16(value, measurementStatusOffset) : 0;
+    }
+
+    public int getSensorStatus() {
+        return sensorStatusOffset >= 0 ? GattBytes.uint16(value, sensorStatusOffset) : 0;
+    }
+
+    public boolean hasPulseAmplitudeIndex() {
+        return pulseAmplitudeIndexOffset >= 0;
+    }
+
+    public float getPulseAmplitudeIndex() {
+        return pulseAmplitudeIndexOffset >= 0 ? GattBytes.sfloat(value, pulseAmplitudeIndexOffset) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SpO2 %d%%, Pulse %d bpm, PAI %.1f", getSpO2(), getPulseRate(), getPulseAmplitudeIndex());
+    }
+}
@@ -0,0 +1,66 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the PLX Spot-Check Measurement characteristic (0x2A5E)
+ */
+public final class PulseOximeterSpotDecoder {
+
+    static final int FLAG_TIMESTAMP_PRESENT = 0x01;
+    static final int FLAG_MEASUREMENT_STATUS_PRESENT = 0x02;
+    static final int FLAG_SENSOR_STATUS_PRESENT = 0x04;
+    static final int FLAG_PULSE_AMPLITUDE_INDEX_PRESENT = 0x08;
+    static final int FLAG_DEVICE_CLOCK_NOT_SET = 0x10;
+
+    private PulseOximeterSpotDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull PulseOximeterSpotRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 5) return false;
+
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.deviceClockSet = (flags & FLAG_DEVICE_CLOCK_NOT_SET) == 0;
+        int offset = 1;
+
+        // Get SpO2 and pulse value
+        record.spO2 = (int) GattBytes.sfloat(value, offset);
+        record.pulseRate = (int) GattBytes.sfloat(value, offset + 2);
+        offset += 4;
+
+        if ((flags & FLAG_TIMESTAMP_PRESENT) != 0) {
+            if (length < offset + GattDateTime.SIZE) return false;
+            record.timestampPresent = true;
+            record.timestamp = GattDateTime.toEpochMillis(value, offset);
+            offset += GattDateTime.SIZE;
+        }
+
+        if ((flags & FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.measurementStatusPresent = true;
+            record.measurementStatus = GattBytes.uint16(value, offset);
+            offset += 2;
+        }
+
+        // the sensor status is followed by a reserved byte
+        if ((flags & FLAG_SENSOR_STATUS_PRESENT) != 0) {
+            if (length < offset + 3) return false;
+            record.sensorStatusPresent = true;
+            record.sensorStatus = GattBytes.uint16(value, offset);
+            offset += 3;
+        }
+
+        if ((flags & FLAG_PULSE_AMPLITUDE_INDEX_PRESENT) != 0) {
+            if (length < offset + 2) return false;
+            record.pulseAmplitudeIndexPresent = true;
+            record.pulseAmplitudeIndex = GattBytes.sfloat(value, offset);
+        }
+        return true;
+    }
+}
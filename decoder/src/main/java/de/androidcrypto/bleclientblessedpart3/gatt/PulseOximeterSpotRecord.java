@@ -0,0 +1,42 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded PLX Spot-Check Measurement (0x2A5E), see {@link PulseOximeterSpotDecoder}
+ */
+public final class PulseOximeterSpotRecord {
+
+    public int flags;
+    public int spO2;
+    public int pulseRate;
+    public boolean timestampPresent;
+    public long timestamp; // epoch millis
+    public boolean measurementStatusPresent;
+    public int measurementStatus;
+    public boolean sensorStatusPresent;
+    public int sensorStatus;
+    public boolean pulseAmplitudeIndexPresent;
+    public float pulseAmplitudeIndex;
+    public boolean deviceClockSet;
+
+    public void clear() {
+        flags = 0;
+        spO2 = 0;
+        pulseRate = 0;
+        timestampPresent = false;
+        timestamp = 0;
+        measurementStatusPresent = false;
+        measurementStatus = 0;
+        sensorStatusPresent = false;
+        sensorStatus = 0;
+        pulseAmplitudeIndexPresent = false;
+        pulseAmplitudeIndex = 0;
+        deviceClockSet = false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SpO2 %d%% HR: %d PAI: %.1f", spO2, pulseRate, pulseAmplitudeIndex);
+    }
+}
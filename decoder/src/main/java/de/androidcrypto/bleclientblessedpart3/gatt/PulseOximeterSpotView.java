@@ -0,0 +1,123 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a PLX Spot-Check Measurement value (0x2A5E).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class PulseOximeterSpotView {
+
+    private byte[] value;
+    private int flags;
+    private int timestampOffset;
+    private int measurementStatusOffset;
+    private int sensorStatusOffset;
+    private int pulseAmplitudeIndexOffset;
+    private boolean timestampDecoded;
+    private long timestamp;
+
+    public PulseOximeterSpotView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public PulseOximeterSpotView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed PLX spot-check measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        timestampDecoded = false;
+        final int length = value.length;
+        if (length < 5) return false;
+        flags = value[0] & 0xFF;
+        int offset = 5;
+
+        timestampOffset = -1;
+        if ((flags & PulseOximeterSpotDecoder.FLAG_TIMESTAMP_PRESENT) != 0) {
+            timestampOffset = offset;
+            offset += GattDateTime.SIZE;
+        }
+        measurementStatusOffset = -1;
+        if ((flags & PulseOximeterSpotDecoder.FLAG_MEASUREMENT_STATUS_PRESENT) != 0) {
+            measurementStatusOffset = offset;
+            offset += 2;
+        }
+        // the sensor status is followed by a reserved byte
+        sensorStatusOffset = -1;
+        if ((flags & PulseOximeterSpotDecoder.FLAG_SENSOR_STATUS_PRESENT) != 0) {
+            sensorStatusOffset = offset;
+            offset += 3;
+        }
+        pulseAmplitudeIndexOffset = -1;
+        if ((flags & PulseOximeterSpotDecoder.FLAG_PULSE_AMPLITUDE_INDEX_PRESENT) != 0) {
+            pulseAmplitudeIndexOffset = offset;
+            offset += 2;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public int getSpO2() {
+        return (int) GattBytes.sfloat(value, 1);
+    }
+
+    public int getPulseRate() {
+        return (int) GattBytes.sfloat(value, 3);
+    }
+
+    public boolean isDeviceClockSet() {
+        return (flags & PulseOximeterSpotDecoder.FLAG_DEVICE_CLOCK_NOT_SET) == 0;
+    }
+
+    public boolean hasTimestamp() {
+        return timestampOffset >= 0;
+    }
+
+    // epoch millis, 0 if not present
+    public long getTimestamp() {
+        if (timestampOffset < 0) return 0;
+        if (!timestampDecoded) {
+            timestamp = GattDateTime.toEpochMillis(value, timestampOffset);
+            timestampDecoded = true;
+        }
+        return timestamp;
+    }
+
+    public int getMeasurementStatus() {
+        return measurementStatusOffset >= 0 ? GattBytes.uint16(value, measurementStatusOffset) : 0;
+    }
+
+    public int getSensorStatus() {
+        return sensorStatusOffset >= 0 ? GattBytes.uint16(value, sensorStatusOffset) : 0;
+    }
+
+    public boolean hasPulseAmplitudeIndex() {
+        return pulseAmplitudeIndexOffset >= 0;
+    }
+
+    public float getPulseAmplitudeIndex() {
+        return pulseAmplitudeIndexOffset >= 0 ? GattBytes.sfloat(value, pulseAmplitudeIndexOffset) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "SpO2 %d%% HR: %d PAI: %.1f", getSpO2(), getPulseRate(), getPulseAmplitudeIndex());
+    }
+}
@@ -0,0 +1,427 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Columnar compression of a measurement series in the style of Gorilla (Pelkonen et al., VLDB 2015).
+ * A block holds up to MAX_SIZE samples of one series, a timestamp and one value per column:
+ * <pre>
+ * header: byte version, u16 count, byte column count, column types, u32 byte offset of every value column
+ * timestamps: 64 bit first timestamp, then delta of deltas, '0' for 0, '10' + 7 bits, '110' + 9 bits,
+ *             '1110' + 12 bits, '1111' + 64 bits
+ * FLOAT:      32 bit first value, then the XOR with the previous value, '0' for the same value,
+ *             '10' + the meaningful bits inside the previous window, '11' + 5 bits leading zeros,
+ *             5 bits length - 1 and the meaningful bits
+ * INT:        32 bit minimum, 6 bits width, then every value minus the minimum in width bits
+ * </pre>
+ * All bit fields are big endian and every column starts at a byte boundary, so the {@link Cursor} reads the columns
+ * side by side without expanding the block. A regular 1 Hz series with slowly changing values takes about 2 bits per
+ * timestamp and a few bits per value.
+ */
+public final class SeriesBlock {
+
+    public static final int FLOAT = 0;
+    public static final int INT = 1;
+    public static final int MAX_SIZE = 0xFFFF;
+    public static final int VERSION = 1;
+
+    private SeriesBlock() {
+    }
+
+    private static int headerSize(int columns) {
+        return 4 + columns + 4 * columns;
+    }
+
+    /**
+     * Collects samples and encodes them as a block. Append a row with {@link #append(long)}, then set its columns.
+     * Not thread safe, reusable after {@link #clear()}.
+     */
+    public static final class Encoder {
+        private final int[] types;
+        private final int capacity;
+        private final long[] timestamps;
+        // float columns hold the raw bits
+        private final int[][] columns;
+        private final BitWriter writer;
+        private int size = 0;
+
+        public Encoder(int capacity, @NotNull int... columnTypes) {
+            if (capacity < 1 || capacity > MAX_SIZE) throw new IllegalArgumentException("capacity must be in 1 - " + MAX_SIZE);
+            if (columnTypes.length > 255) throw new IllegalArgumentException("too many columns");
+            for (int type : columnTypes) {
+                if (type != FLOAT && type != INT) throw new IllegalArgumentException("unknown column type " + type);
+            }
+            this.types = columnTypes.clone();
+            this.capacity = capacity;
+            this.timestamps = new long[capacity];
+            this.columns = new int[columnTypes.length][capacity];
+            // worst case: 68 bits per timestamp, 44 bits per float value, per column up to 38 header bits and the byte alignment
+            this.writer = new BitWriter(headerSize(types.length) + 16 + types.length * 6 + capacity * (9 + 6 * types.length));
+        }
+
+        /**
+         * Starts a new row, the columns are 0 until they are set
+         *
+         * @throws IllegalStateException if the block is full
+         */
+        public void append(long timestamp) {
+            if (size == capacity) throw new IllegalStateException("block is full");
+            timestamps[size] = timestamp;
+            for (int[] column : columns) column[size] = 0;
+            size++;
+        }
+
+        public void setFloat(int column, float value) {
+            columns[column][size - 1] = Float.floatToRawIntBits(value);
+        }
+
+        public void setInt(int column, int value) {
+            columns[column][size - 1] = value;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean isFull() {
+            return size == capacity;
+        }
+
+        public void clear() {
+            size = 0;
+        }
+
+        @NotNull
+        public byte[] encode() {
+            final BitWriter out = writer;
+            out.reset();
+            final int columnCount = types.length;
+            out.write(VERSION, 8);
+            out.write(size, 16);
+            out.write(columnCount, 8);
+            for (int type : types) out.write(type, 8);
+            // the offsets are patched below
+            final int offsetTable = headerSize(columnCount) - 4 * columnCount;
+            for (int i = 0; i < columnCount; i++) out.write(0, 32);
+
+            encodeTimestamps(out);
+            for (int c = 0; c < columnCount; c++) {
+                out.alignToByte();
+                out.putInt(offsetTable + 4 * c, out.bytePosition());
+                if (types[c] == FLOAT) {
+                    encodeFloats(out, columns[c]);
+                } else {
+                    encodeInts(out, columns[c]);
+                }
+            }
+            return out.toByteArray();
+        }
+
+        private void encodeTimestamps(BitWriter out) {
+            if (size == 0) return;
+            out.write(timestamps[0], 64);
+            long previous = timestamps[0];
+            long previousDelta = 0;
+            for (int i = 1; i < size; i++) {
+                final long delta = timestamps[i] - previous;
+                final long dod = delta - previousDelta;
+                if (dod == 0) {
+                    out.write(0, 1);
+                } else if (dod >= -64 && dod < 64) {
+                    out.write(0x2, 2);
+                    out.write(dod, 7);
+                } else if (dod >= -256 && dod < 256) {
+                    out.write(0x6, 3);
+                    out.write(dod, 9);
+                } else if (dod >= -2048 && dod < 2048) {
+                    out.write(0xE, 4);
+                    out.write(dod, 12);
+                } else {
+                    out.write(0xF, 4);
+                    out.write(dod, 64);
+                }
+                previous = timestamps[i];
+                previousDelta = delta;
+            }
+        }
+
+        private void encodeFloats(BitWriter out, int[] values) {
+            if (size == 0) return;
+            int previous = values[0];
+            out.write(previous, 32);
+            int leading = -1, trailing = 0;
+            for (int i = 1; i < size; i++) {
+                final int xor = values[i] ^ previous;
+                previous = values[i];
+                if (xor == 0) {
+                    out.write(0, 1);
+                    continue;
+                }
+                final int newLeading = Integer.numberOfLeadingZeros(xor);
+                final int newTrailing = Integer.numberOfTrailingZeros(xor);
+                if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                    out.write(0x2, 2);
+                    out.write(xor >>> trailing, 32 - leading - trailing);
+                } else {
+                    leading = newLeading;
+                    trailing = newTrailing;
+                    final int meaningful = 32 - leading - trailing;
+                    out.write(0x3, 2);
+                    out.write(leading, 5);
+                    out.write(meaningful - 1, 5);
+                    out.write(xor >>> trailing, meaningful);
+                }
+            }
+        }
+
+        private void encodeInts(BitWriter out, int[] values) {
+            if (size == 0) return;
+            int min = values[0], max = values[0];
+            for (int i = 1; i < size; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            final int width = 64 - Long.numberOfLeadingZeros((long) max - min);
+            out.write(min, 32);
+            out.write(width, 6);
+            if (width == 0) return;
+            for (int i = 0; i < size; i++) out.write((long) values[i] - min, width);
+        }
+    }
+
+    /**
+     * Iterates the samples of an encoded block, only the state of the current sample is kept.
+     * Reusable with {@link #reset(byte[], int, int)}.
+     */
+    public static final class Cursor {
+        private byte[] data;
+        private int end;
+        private int size;
+        private int index;
+        private int[] types = new int[0];
+
+        private final BitReader timestampReader = new BitReader();
+        private long timestamp;
+        private long delta;
+
+        private BitReader[] readers = new BitReader[0];
+        private int[] values = new int[0];
+        private int[] leading = new int[0];
+        private int[] trailing = new int[0];
+        private int[] widths = new int[0];
+
+        public Cursor() {
+        }
+
+        public Cursor(@NotNull byte[] block) {
+            reset(block, 0, block.length);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the block is malformed
+         */
+        public void reset(@NotNull byte[] block, int offset, int length) {
+            if (length < 4 || (block[offset] & 0xFF) != VERSION) throw new IllegalArgumentException("not a series block");
+            data = block;
+            end = offset + length;
+            size = ((block[offset + 1] & 0xFF) << 8) | (block[offset + 2] & 0xFF);
+            final int columnCount = block[offset + 3] & 0xFF;
+            if (length < headerSize(columnCount)) throw new IllegalArgumentException("truncated series block");
+            if (types.length != columnCount) {
+                types = new int[columnCount];
+                readers = new BitReader[columnCount];
+                for (int c = 0; c < columnCount; c++) readers[c] = new BitReader();
+                values = new int[columnCount];
+                leading = new int[columnCount];
+                trailing = new int[columnCount];
+                widths = new int[columnCount];
+            }
+            for (int c = 0; c < columnCount; c++) types[c] = block[offset + 4 + c] & 0xFF;
+            final int offsetTable = offset + 4 + columnCount;
+            timestampReader.reset(block, offset + headerSize(columnCount), end);
+            for (int c = 0; c < columnCount; c++) {
+                final int start = offset + readInt(block, offsetTable + 4 * c);
+                if (start < offset || start > end) throw new IllegalArgumentException("bad column offset");
+                readers[c].reset(block, start, end);
+                leading[c] = -1;
+            }
+            index = -1;
+        }
+
+        private static int readInt(byte[] block, int offset) {
+            return ((block[offset] & 0xFF) << 24) | ((block[offset + 1] & 0xFF) << 16)
+                    | ((block[offset + 2] & 0xFF) << 8) | (block[offset + 3] & 0xFF);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getColumnCount() {
+            return types.length;
+        }
+
+        public int getColumnType(int column) {
+            return types[column];
+        }
+
+        /**
+         * Moves to the next sample, false at the end of the block
+         */
+        public boolean next() {
+            if (index + 1 >= size) return false;
+            index++;
+            if (index == 0) {
+                timestamp = timestampReader.read(64);
+                delta = 0;
+            } else {
+                delta += readDeltaOfDelta();
+                timestamp += delta;
+            }
+            for (int c = 0; c < types.length; c++) {
+                if (types[c] == FLOAT) {
+                    nextFloat(c);
+                } else {
+                    nextInt(c);
+                }
+            }
+            return true;
+        }
+
+        private long readDeltaOfDelta() {
+            final BitReader in = timestampReader;
+            if (in.readBit() == 0) return 0;
+            if (in.readBit() == 0) return in.readSigned(7);
+            if (in.readBit() == 0) return in.readSigned(9);
+            if (in.readBit() == 0) return in.readSigned(12);
+            return in.read(64);
+        }
+
+        private void nextFloat(int c) {
+            final BitReader in = readers[c];
+            if (index == 0) {
+                values[c] = (int) in.read(32);
+                return;
+            }
+            if (in.readBit() == 0) return;
+            if (in.readBit() == 1) {
+                leading[c] = (int) in.read(5);
+                final int meaningful = (int) in.read(5) + 1;
+                trailing[c] = 32 - leading[c] - meaningful;
+            }
+            final int meaningful = 32 - leading[c] - trailing[c];
+            values[c] ^= (int) in.read(meaningful) << trailing[c];
+        }
+
+        private void nextInt(int c) {
+            final BitReader in = readers[c];
+            if (index == 0) {
+                // the minimum stays in leading, it is not used by INT columns otherwise
+                leading[c] = (int) in.read(32);
+                widths[c] = (int) in.read(6);
+            }
+            values[c] = widths[c] == 0 ? leading[c] : (int) (leading[c] + in.read(widths[c]));
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public float getFloat(int column) {
+            return Float.intBitsToFloat(values[column]);
+        }
+
+        public int getInt(int column) {
+            return values[column];
+        }
+    }
+
+    // big endian bit output into a preallocated array
+    static final class BitWriter {
+        private final byte[] buffer;
+        private long bits = 0;
+
+        BitWriter(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void reset() {
+            Arrays.fill(buffer, 0, bytePosition(), (byte) 0);
+            bits = 0;
+        }
+
+        // the lower count bits of the value, count 1 - 64
+        void write(long value, int count) {
+            int remaining = count;
+            while (remaining > 0) {
+                final int byteIndex = (int) (bits >>> 3);
+                final int free = 8 - (int) (bits & 7);
+                final int take = Math.min(free, remaining);
+                final int chunk = (int) (value >>> (remaining - take)) & ((1 << take) - 1);
+                buffer[byteIndex] |= (byte) (chunk << (free - take));
+                bits += take;
+                remaining -= take;
+            }
+        }
+
+        void alignToByte() {
+            bits = (bits + 7) & ~7L;
+        }
+
+        int bytePosition() {
+            return (int) ((bits + 7) >>> 3);
+        }
+
+        void putInt(int offset, int value) {
+            buffer[offset] = (byte) (value >>> 24);
+            buffer[offset + 1] = (byte) (value >>> 16);
+            buffer[offset + 2] = (byte) (value >>> 8);
+            buffer[offset + 3] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, bytePosition());
+        }
+    }
+
+    static final class BitReader {
+        private byte[] data;
+        private long bits;
+        private long endBits;
+
+        void reset(byte[] data, int start, int end) {
+            this.data = data;
+            this.bits = (long) start << 3;
+            this.endBits = (long) end << 3;
+        }
+
+        int readBit() {
+            if (bits >= endBits) throw new IllegalArgumentException("truncated series block");
+            final int bit = (data[(int) (bits >>> 3)] >>> (7 - (int) (bits & 7))) & 1;
+            bits++;
+            return bit;
+        }
+
+        // count 1 - 64 bits as an unsigned value
+        long read(int count) {
+            if (bits + count > endBits) throw new IllegalArgumentException("truncated series block");
+            long value = 0;
+            int remaining = count;
+            while (remaining > 0) {
+                final int available = 8 - (int) (bits & 7);
+                final int take = Math.min(available, remaining);
+                final int chunk = ((data[(int) (bits >>> 3)] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                value = (value << take) | chunk;
+                bits += take;
+                remaining -= take;
+            }
+            return value;
+        }
+
+        long readSigned(int count) {
+            return (read(count) << (64 - count)) >> (64 - count);
+        }
+    }
+}
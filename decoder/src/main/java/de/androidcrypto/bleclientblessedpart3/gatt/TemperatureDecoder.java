@@ -0,0 +1,51 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Temperature Measurement characteristic (0x2A1C)
+ */
+public final class TemperatureDecoder {
+
+    static final int FLAG_FAHRENHEIT = 0x01;
+    static final int FLAG_TIMESTAMP_PRESENT = 0x02;
+    static final int FLAG_TYPE_PRESENT = 0x04;
+
+    private TemperatureDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull TemperatureRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 5) return false;
+
+        // Parse flag byte
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.fahrenheit = (flags & FLAG_FAHRENHEIT) != 0;
+        int offset = 1;
+
+        // Get temperature value
+        record.temperatureValue = GattBytes.float32(value, offset);
+        offset += 4;
+
+        // Get timestamp
+        if ((flags & FLAG_TIMESTAMP_PRESENT) != 0) {
+            if (length < offset + GattDateTime.SIZE) return false;
+            record.timestampPresent = true;
+            record.timestamp = GattDateTime.toEpochMillis(value, offset);
+            offset += GattDateTime.SIZE;
+        }
+
+        // Get temperature type
+        if ((flags & FLAG_TYPE_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.typePresent = true;
+            record.type = value[offset] & 0xFF;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,32 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Temperature Measurement (0x2A1C), see {@link TemperatureDecoder}
+ */
+public final class TemperatureRecord {
+
+    public int flags;
+    public boolean fahrenheit;
+    public float temperatureValue;
+    public boolean timestampPresent;
+    public long timestamp; // epoch millis
+    public boolean typePresent;
+    public int type; // Temperature Type (0x2A1D) value
+
+    public void clear() {
+        flags = 0;
+        fahrenheit = false;
+        temperatureValue = 0;
+        timestampPresent = false;
+        timestamp = 0;
+        typePresent = false;
+        type = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.1f %s, type %d", temperatureValue, fahrenheit ? "fahrenheit" : "celsius", type);
+    }
+}
@@ -0,0 +1,99 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a Temperature Measurement value (0x2A1C).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class TemperatureView {
+
+    private byte[] value;
+    private int flags;
+    private int timestampOffset;
+    private int typeOffset;
+    private boolean timestampDecoded;
+    private long timestamp;
+
+    public TemperatureView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public TemperatureView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed temperature measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        timestampDecoded = false;
+        final int length = value.length;
+        if (length < 5) return false;
+        flags = value[0] & 0xFF;
+        int offset = 5;
+
+        timestampOffset = -1;
+        if ((flags & TemperatureDecoder.FLAG_TIMESTAMP_PRESENT) != 0) {
+            timestampOffset = offset;
+            offset += GattDateTime.SIZE;
+        }
+        typeOffset = -1;
+        if ((flags & TemperatureDecoder.FLAG_TYPE_PRESENT) != 0) {
+            typeOffset = offset;
+            offset += 1;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isFahrenheit() {
+        return (flags & TemperatureDecoder.FLAG_FAHRENHEIT) != 0;
+    }
+
+    public float getTemperatureValue() {
+        return GattBytes.float32(value, 1);
+    }
+
+    public boolean hasTimestamp() {
+        return timestampOffset >= 0;
+    }
+
+    // epoch millis, 0 if not present
+    public long getTimestamp() {
+        if (timestampOffset < 0) return 0;
+        if (!timestampDecoded) {
+            timestamp = GattDateTime.toEpochMillis(value, timestampOffset);
+            timestampDecoded = true;
+        }
+        return timestamp;
+    }
+
+    public boolean hasType() {
+        return typeOffset >= 0;
+    }
+
+    // Temperature Type (0x2A1D) value, 0 if not present
+    public int getType() {
+        return typeOffset >= 0 ? value[typeOffset] & 0xFF : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.1f %s, type %d", getTemperatureValue(), isFahrenheit() ? "fahrenheit" : "celsius", getType());
+    }
+}
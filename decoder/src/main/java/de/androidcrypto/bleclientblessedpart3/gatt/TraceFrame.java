@@ -0,0 +1,80 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Frame layout of the GATT traces written by the app's TraceRecorder, in little endian buffers:
+ * <pre>
+ * short length of the rest, byte kind, short GATT status, long monotonic nanos, 6 bytes address,
+ * short characteristic assigned number, long UUID most and long UUID least significant bits
+ * (vendor specific frames only), raw value
+ * </pre>
+ * Vendor specific characteristics have {@link #VENDOR_SPECIFIC} set in the kind and 0 as assigned number.
+ */
+public final class TraceFrame {
+
+    public static final int KIND_NOTIFICATION = 0;
+    public static final int KIND_WRITE = 1;
+    public static final int VENDOR_SPECIFIC = 0x80;
+    // longest attribute value of the ATT protocol, longer values are cut
+    public static final int MAX_VALUE_LENGTH = 512;
+    public static final int HEADER_SIZE = 21;
+    public static final int UUID_SIZE = 16;
+    public static final int MAX_SIZE = HEADER_SIZE + UUID_SIZE + MAX_VALUE_LENGTH;
+
+    private TraceFrame() {
+    }
+
+    /**
+     * Size of the frame of a value, including the length field
+     */
+    public static int size(int assignedNumber, int valueLength) {
+        return HEADER_SIZE + (assignedNumber == GattCharacteristics.NOT_ASSIGNED ? UUID_SIZE : 0) + Math.min(valueLength, MAX_VALUE_LENGTH);
+    }
+
+    /**
+     * Appends a frame, the buffer must have {@link #size} bytes remaining
+     *
+     * @param kind           {@link #KIND_NOTIFICATION} or {@link #KIND_WRITE}
+     * @param assignedNumber {@link GattCharacteristics#toAssignedNumber} of the characteristic
+     * @param address        the MAC address as 0xAABBCCDDEEFF
+     */
+    public static void put(@NotNull ByteBuffer buffer, int kind, int status, long monotonicNanos, long address,
+                           int assignedNumber, @NotNull UUID characteristicUuid, @NotNull byte[] value) {
+        final int length = Math.min(value.length, MAX_VALUE_LENGTH);
+        final boolean vendorSpecific = assignedNumber == GattCharacteristics.NOT_ASSIGNED;
+        buffer.putShort((short) (HEADER_SIZE + (vendorSpecific ? UUID_SIZE : 0) + length - 2));
+        buffer.put((byte) (vendorSpecific ? kind | VENDOR_SPECIFIC : kind));
+        buffer.putShort((short) status);
+        buffer.putLong(monotonicNanos);
+        buffer.putShort((short) (address >> 32));
+        buffer.putInt((int) address);
+        buffer.putShort((short) (vendorSpecific ? 0 : assignedNumber));
+        if (vendorSpecific) {
+            buffer.putLong(characteristicUuid.getMostSignificantBits());
+            buffer.putLong(characteristicUuid.getLeastSignificantBits());
+        }
+        buffer.put(value, 0, length);
+    }
+
+    /**
+     * Offset of the raw value from the start of a frame of the kind
+     */
+    public static int valueOffset(int kind) {
+        return (kind & VENDOR_SPECIFIC) != 0 ? HEADER_SIZE + UUID_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * Returns the characteristic UUID of the frame at the position
+     */
+    @NotNull
+    public static UUID characteristicUuid(@NotNull ByteBuffer buffer, int position) {
+        if ((buffer.get(position + 2) & VENDOR_SPECIFIC) != 0) {
+            return new UUID(buffer.getLong(position + HEADER_SIZE), buffer.getLong(position + HEADER_SIZE + 8));
+        }
+        return GattCharacteristics.toUuid(buffer.getShort(position + 19) & 0xFFFF);
+    }
+}
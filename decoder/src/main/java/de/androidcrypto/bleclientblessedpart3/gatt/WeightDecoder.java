@@ -0,0 +1,62 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Allocation free decoder for the Weight Measurement characteristic (0x2A9D)
+ */
+public final class WeightDecoder {
+
+    static final int FLAG_POUNDS = 0x01;
+    static final int FLAG_TIMESTAMP_PRESENT = 0x02;
+    static final int FLAG_USER_ID_PRESENT = 0x04;
+    static final int FLAG_BMI_AND_HEIGHT_PRESENT = 0x08;
+
+    private WeightDecoder() {
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public static boolean decode(@NotNull byte[] value, @NotNull WeightRecord record) {
+        record.clear();
+        final int length = value.length;
+        if (length < 3) return false;
+
+        // Parse flag byte
+        final int flags = value[0] & 0xFF;
+        record.flags = flags;
+        record.pounds = (flags & FLAG_POUNDS) != 0;
+        int offset = 1;
+
+        // Get weight value
+        final double weightMultiplier = record.pounds ? 0.01 : 0.005;
+        record.weight = GattBytes.uint16(value, offset) * weightMultiplier;
+        offset += 2;
+
+        // Get timestamp if present
+        if ((flags & FLAG_TIMESTAMP_PRESENT) != 0) {
+            if (length < offset + GattDateTime.SIZE) return false;
+            record.timestampPresent = true;
+            record.timestamp = GattDateTime.toEpochMillis(value, offset);
+            offset += GattDateTime.SIZE;
+        }
+
+        // Get user ID if present
+        if ((flags & FLAG_USER_ID_PRESENT) != 0) {
+            if (length < offset + 1) return false;
+            record.userIdPresent = true;
+            record.userId = value[offset] & 0xFF;
+            offset += 1;
+        }
+
+        // Get BMI and Height if present
+        if ((flags & FLAG_BMI_AND_HEIGHT_PRESENT) != 0) {
+            if (length < offset + 4) return false;
+            record.bmiAndHeightPresent = true;
+            record.bmi = GattBytes.uint16(value, offset);
+            record.height = GattBytes.uint16(value, offset + 2);
+        }
+        return true;
+    }
+}
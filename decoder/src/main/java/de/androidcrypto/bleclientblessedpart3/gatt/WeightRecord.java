@@ -0,0 +1,38 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.Locale;
+
+/**
+ * Mutable, caller-owned holder for one decoded Weight Measurement (0x2A9D), see {@link WeightDecoder}
+ */
+public final class WeightRecord {
+
+    public int flags;
+    public boolean pounds;
+    public double weight;
+    public boolean timestampPresent;
+    public long timestamp; // epoch millis
+    public boolean userIdPresent;
+    public int userId;
+    public boolean bmiAndHeightPresent;
+    public int bmi;
+    public int height;
+
+    public void clear() {
+        flags = 0;
+        pounds = false;
+        weight = 0;
+        timestampPresent = false;
+        timestamp = 0;
+        userIdPresent = false;
+        userId = 0;
+        bmiAndHeightPresent = false;
+        bmi = 0;
+        height = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.1f %s, user %d, BMI %d, height %d", weight, pounds ? "lb" : "kg", userId, bmi, height);
+    }
+}
@@ -0,0 +1,116 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Lazy view over a Weight Measurement value (0x2A9D).
+ * {@link #wrap(byte[])} only reads the flags and computes the field offsets, the fields are
+ * decoded when a getter is called. The view keeps a reference to the value, it must not be modified afterwards.
+ */
+public final class WeightView {
+
+    private byte[] value;
+    private int flags;
+    private int timestampOffset;
+    private int userIdOffset;
+    private int bmiAndHeightOffset;
+    private boolean timestampDecoded;
+    private long timestamp;
+
+    public WeightView() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is too short to hold the fields announced by the flags
+     */
+    public WeightView(@NotNull byte[] value) {
+        if (!wrap(value)) throw new IllegalArgumentException("malformed weight measurement");
+    }
+
+    /**
+     * @return false if the value is too short to hold the fields announced by the flags
+     */
+    public boolean wrap(@NotNull byte[] value) {
+        this.value = value;
+        timestampDecoded = false;
+        final int length = value.length;
+        if (length < 3) return false;
+        flags = value[0] & 0xFF;
+        int offset = 3;
+
+        timestampOffset = -1;
+        if ((flags & WeightDecoder.FLAG_TIMESTAMP_PRESENT) != 0) {
+            timestampOffset = offset;
+            offset += GattDateTime.SIZE;
+        }
+        userIdOffset = -1;
+        if ((flags & WeightDecoder.FLAG_USER_ID_PRESENT) != 0) {
+            userIdOffset = offset;
+            offset += 1;
+        }
+        bmiAndHeightOffset = -1;
+        if ((flags & WeightDecoder.FLAG_BMI_AND_HEIGHT_PRESENT) != 0) {
+            bmiAndHeightOffset = offset;
+            offset += 4;
+        }
+        return length >= offset;
+    }
+
+    @NotNull
+    public byte[] getValue() {
+        return value;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isPounds() {
+        return (flags & WeightDecoder.FLAG_POUNDS) != 0;
+    }
+
+    public double getWeight() {
+        return GattBytes.uint16(value, 1) * (isPounds() ? 0.01 : 0.005);
+    }
+
+    public boolean hasTimestamp() {
+        return timestampOffset >= 0;
+    }
+
+    // epoch millis, 0 if not present
+    public long getTimestamp() {
+        if (timestampOffset < 0) return 0;
+        if (!timestampDecoded) {
+            timestamp = GattDateTime.toEpochMillis(value, timestampOffset);
+            timestampDecoded = true;
+        }
+        return timestamp;
+    }
+
+    public boolean hasUserId() {
+        return userIdOffset >= 0;
+    }
+
+    public int getUserId() {
+        return userIdOffset >= 0 ? value[userIdOffset] & 0xFF : 0;
+    }
+
+    public boolean hasBmiAndHeight() {
+        return bmiAndHeightOffset >= 0;
+    }
+
+    public int getBmi() {
+        return bmiAndHeightOffset >= 0 ? GattBytes.uint16(value, bmiAndHeightOffset) : 0;
+    }
+
+    public int getHeight() {
+        return bmiAndHeightOffset >= 0 ? GattBytes.uint16(value, bmiAndHeightOffset + 2) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%.1f %s, user %d, BMI %d, height %d", getWeight(), isPounds() ? "lb" : "kg", getUserId(), getBmi(), getHeight());
+    }
+}
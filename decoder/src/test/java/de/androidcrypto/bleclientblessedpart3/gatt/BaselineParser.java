@@ -0,0 +1,76 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+/**
+ * The arithmetic of BLESSED's BluetoothBytesParser, which the measurement classes used before the decoders:
+ * sequential little endian reads, Math.pow for the floats and a GregorianCalendar for the date time.
+ * Reading past the end throws IllegalArgumentException like the original.
+ */
+final class BaselineParser {
+
+    private final byte[] value;
+    private final TimeZone zone;
+    private int offset = 0;
+
+    BaselineParser(byte[] value, TimeZone zone) {
+        this.value = value;
+        this.zone = zone;
+    }
+
+    private void require(int length) {
+        if (offset + length > value.length) throw new IllegalArgumentException("invalid offset");
+    }
+
+    int uint8() {
+        require(1);
+        return value[offset++] & 0xFF;
+    }
+
+    int uint16() {
+        require(2);
+        final int result = (value[offset] & 0xFF) + ((value[offset + 1] & 0xFF) << 8);
+        offset += 2;
+        return result;
+    }
+
+    int sint16() {
+        return unsignedToSigned(uint16(), 16);
+    }
+
+    float sfloat() {
+        require(2);
+        final int b0 = value[offset] & 0xFF, b1 = value[offset + 1] & 0xFF;
+        offset += 2;
+        final int mantissa = unsignedToSigned(b0 + ((b1 & 0x0F) << 8), 12);
+        final int exponent = unsignedToSigned(b1 >> 4, 4);
+        return (float) (mantissa * Math.pow(10, exponent));
+    }
+
+    float float32() {
+        require(4);
+        final int mantissa = unsignedToSigned((value[offset] & 0xFF) + ((value[offset + 1] & 0xFF) << 8)
+                + ((value[offset + 2] & 0xFF) << 16), 24);
+        final byte exponent = value[offset + 3];
+        offset += 4;
+        return (float) (mantissa * Math.pow(10, exponent));
+    }
+
+    long dateTime() {
+        require(7);
+        final int year = uint16();
+        final int month = uint8(), day = uint8(), hour = uint8(), minute = uint8(), second = uint8();
+        GregorianCalendar calendar = new GregorianCalendar(zone);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    private static int unsignedToSigned(int unsigned, int size) {
+        if ((unsigned & (1 << size - 1)) != 0) {
+            return -1 * ((1 << size - 1) - (unsigned & ((1 << size - 1) - 1)));
+        }
+        return unsigned;
+    }
+}
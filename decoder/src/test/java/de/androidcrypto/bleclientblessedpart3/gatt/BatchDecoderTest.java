@@ -0,0 +1,224 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class BatchDecoderTest {
+
+    private static final UUID VENDOR_SPECIFIC = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private final BatchDecoder decoder = new BatchDecoder();
+    private final DecodedBatch batch = new DecodedBatch();
+
+    private static UUID uuid(int assignedNumber) {
+        return UUID.fromString(String.format("0000%04x-0000-1000-8000-00805f9b34fb", assignedNumber));
+    }
+
+    private static byte[] bloodPressure(int systolic) {
+        return new Payload(0x00).sfloat(systolic, 0).sfloat(80, 0).sfloat(90, 0).toByteArray();
+    }
+
+    private static byte[] heartRate(int pulse, int... rrIntervals) {
+        Payload p = new Payload(rrIntervals.length > 0 ? 0x10 : 0x00).uint8(pulse);
+        for (int rr : rrIntervals) p.uint16(rr);
+        return p.toByteArray();
+    }
+
+    private static long[] arrivalTimes(int count) {
+        long[] arrivalTimes = new long[count];
+        for (int i = 0; i < count; i++) arrivalTimes[i] = 1_000_000L + i;
+        return arrivalTimes;
+    }
+
+    @Test
+    public void mixedFrames_landInTheirColumnGroups() {
+        final UUID[] characteristics = {
+                uuid(GattCharacteristics.HEART_RATE_MEASUREMENT),
+                uuid(GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT),
+                uuid(GattCharacteristics.TEMPERATURE_MEASUREMENT),
+                uuid(GattCharacteristics.PLX_CONTINUOUS_MEASUREMENT),
+                uuid(GattCharacteristics.PLX_SPOT_CHECK_MEASUREMENT),
+                uuid(GattCharacteristics.WEIGHT_MEASUREMENT),
+                uuid(GattCharacteristics.GLUCOSE_MEASUREMENT),
+                uuid(GattCharacteristics.HEART_RATE_MEASUREMENT),
+        };
+        final byte[][] values = {
+                heartRate(60),
+                bloodPressure(120),
+                new Payload(0x00).float32(365, -1).toByteArray(),
+                new Payload(0x00).sfloat(98, 0).sfloat(72, 0).toByteArray(),
+                new Payload(0x00).sfloat(96, 0).sfloat(65, 0).toByteArray(),
+                new Payload(0x00).uint16(15100).toByteArray(),
+                new Payload(0x02).uint16(7).dateTime(2024, 3, 5, 10, 20, 30).sfloat(95, -5).uint8(0x11).toByteArray(),
+                heartRate(61),
+        };
+        final long[] arrivalTimes = arrivalTimes(values.length);
+        decoder.decode(characteristics, values, arrivalTimes, 0, values.length, batch);
+
+        assertEquals(8, batch.size());
+        assertEquals(0, batch.skipped);
+        assertEquals(0, batch.malformed);
+
+        assertEquals(2, batch.heartRate.size);
+        assertEquals(0, batch.heartRate.frameIndex[0]);
+        assertEquals(7, batch.heartRate.frameIndex[1]);
+        assertEquals(arrivalTimes[7], batch.heartRate.arrivalTime[1]);
+        assertEquals(61, batch.heartRate.pulse[1]);
+
+        assertEquals(1, batch.bloodPressure.size);
+        assertEquals(1, batch.bloodPressure.frameIndex[0]);
+        assertEquals(arrivalTimes[1], batch.bloodPressure.arrivalTime[0]);
+        assertEquals(120f, batch.bloodPressure.systolic[0], 0f);
+        // no device time sent
+        assertEquals(0, batch.bloodPressure.timestamp[0]);
+
+        assertEquals(2, batch.temperature.frameIndex[0]);
+        assertEquals(36.5f, batch.temperature.temperatureValue[0], 0f);
+        assertEquals(3, batch.pulseOximeterContinuous.frameIndex[0]);
+        assertEquals(98, batch.pulseOximeterContinuous.spO2[0]);
+        assertEquals(4, batch.pulseOximeterSpot.frameIndex[0]);
+        assertEquals(65, batch.pulseOximeterSpot.pulseRate[0]);
+        assertEquals(5, batch.weight.frameIndex[0]);
+        assertEquals(75.5, batch.weight.weight[0], 1e-9);
+        assertEquals(6, batch.glucose.frameIndex[0]);
+        assertEquals(7, batch.glucose.sequenceNumber[0]);
+        assertEquals(95f, batch.glucose.value[0], 1e-3f);
+    }
+
+    @Test
+    public void unknownCharacteristics_areSkipped() {
+        final UUID[] characteristics = {VENDOR_SPECIFIC, uuid(GattCharacteristics.GLUCOSE_MEASUREMENT_CONTEXT), uuid(0x2A19)};
+        final byte[][] values = {heartRate(60), new byte[]{0x00, 0x07, 0x00}, new byte[]{100}};
+        decoder.decode(characteristics, values, arrivalTimes(3), 0, 3, batch);
+        assertEquals(0, batch.size());
+        assertEquals(3, batch.skipped);
+        assertEquals(0, batch.malformed);
+    }
+
+    @Test
+    public void truncatedValues_areCountedAndLeaveNoRow() {
+        final int[] assignedNumbers = {
+                GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT,
+                GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT,
+                GattCharacteristics.HEART_RATE_MEASUREMENT,
+                GattCharacteristics.GLUCOSE_MEASUREMENT,
+        };
+        final byte[] bloodPressure = bloodPressure(120);
+        final byte[][] values = {
+                Arrays.copyOf(bloodPressure, bloodPressure.length - 1),
+                bloodPressure,
+                new byte[]{0x01, 60},
+                new byte[0],
+        };
+        decoder.decode(assignedNumbers, values, arrivalTimes(4), 0, 4, batch);
+        assertEquals(3, batch.malformed);
+        assertEquals(0, batch.skipped);
+        assertEquals(1, batch.size());
+        assertEquals(1, batch.bloodPressure.frameIndex[0]);
+        assertEquals(0, batch.heartRate.size);
+        assertEquals(0, batch.glucose.size);
+    }
+
+    @Test
+    public void rrIntervals_areFlattenedIntoOneColumn() {
+        final int[] assignedNumbers = new int[4];
+        Arrays.fill(assignedNumbers, GattCharacteristics.HEART_RATE_MEASUREMENT);
+        final byte[][] values = {heartRate(60, 1000, 1010, 1020), heartRate(61), heartRate(62, 990), heartRate(63, 980, 970)};
+        decoder.decode(assignedNumbers, values, arrivalTimes(4), 0, 4, batch);
+
+        final DecodedBatch.HeartRateColumns columns = batch.heartRate;
+        assertEquals(4, columns.size);
+        assertEquals(6, columns.rrSize);
+        assertArrayEquals(new int[]{0, 3, 3, 4}, Arrays.copyOf(columns.rrOffset, 4));
+        assertArrayEquals(new int[]{3, 0, 1, 2}, Arrays.copyOf(columns.rrCount, 4));
+        assertArrayEquals(new int[]{1000, 1010, 1020, 990, 980, 970}, Arrays.copyOf(columns.rrIntervals, columns.rrSize));
+        assertArrayEquals(new int[]{980, 970}, Arrays.copyOfRange(columns.rrIntervals, columns.rrOffset[3], columns.rrOffset[3] + columns.rrCount[3]));
+    }
+
+    @Test
+    public void columns_growAndAreKeptAcrossClear() {
+        final int count = 100;
+        final int[] assignedNumbers = new int[count];
+        final byte[][] values = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            assignedNumbers[i] = GattCharacteristics.HEART_RATE_MEASUREMENT;
+            values[i] = heartRate(i, 800 + i, 900 + i);
+        }
+        decoder.decode(assignedNumbers, values, arrivalTimes(count), 0, count, batch);
+
+        final DecodedBatch.HeartRateColumns columns = batch.heartRate;
+        assertEquals(count, columns.size);
+        assertEquals(2 * count, columns.rrSize);
+        assertTrue(columns.frameIndex.length >= count);
+        assertTrue(columns.rrIntervals.length >= 2 * count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, columns.frameIndex[i]);
+            assertEquals(i, columns.pulse[i]);
+            assertEquals(900 + i, columns.rrIntervals[columns.rrOffset[i] + 1]);
+        }
+
+        final int[] frameIndex = columns.frameIndex;
+        final int[] rrIntervals = columns.rrIntervals;
+        batch.malformed = 1;
+        batch.skipped = 1;
+        batch.clear();
+        assertEquals(0, batch.size());
+        assertEquals(0, columns.rrSize);
+        assertEquals(0, batch.malformed);
+        assertEquals(0, batch.skipped);
+
+        // a smaller second chunk reuses the grown arrays
+        decoder.decode(assignedNumbers, values, arrivalTimes(count), 10, 20, batch);
+        assertSame(frameIndex, columns.frameIndex);
+        assertSame(rrIntervals, columns.rrIntervals);
+        assertEquals(20, columns.size);
+        assertEquals(10, columns.frameIndex[0]);
+        assertEquals(0, columns.rrOffset[0]);
+        assertEquals(810, columns.rrIntervals[0]);
+    }
+
+    @Test
+    public void chunkedDecoding_matchesOnePass() {
+        final int count = 50;
+        final int[] assignedNumbers = new int[count];
+        final byte[][] values = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (i % 5 == 0) {
+                assignedNumbers[i] = GattCharacteristics.BLOOD_PRESSURE_MEASUREMENT;
+                values[i] = bloodPressure(100 + i);
+            } else if (i % 7 == 0) {
+                assignedNumbers[i] = GattCharacteristics.NOT_ASSIGNED;
+                values[i] = new byte[]{1};
+            } else {
+                assignedNumbers[i] = GattCharacteristics.HEART_RATE_MEASUREMENT;
+                values[i] = i % 3 == 0 ? new byte[]{0x01} : heartRate(i, i);
+            }
+        }
+        final long[] arrivalTimes = arrivalTimes(count);
+        DecodedBatch whole = new DecodedBatch();
+        decoder.decode(assignedNumbers, values, arrivalTimes, 0, count, whole);
+
+        // appending chunks without clear() gives the same rows as a single pass
+        for (int offset = 0; offset < count; offset += 16) {
+            decoder.decode(assignedNumbers, values, arrivalTimes, offset, Math.min(16, count - offset), batch);
+        }
+        assertEquals(whole.skipped, batch.skipped);
+        assertEquals(whole.malformed, batch.malformed);
+        assertEquals(whole.bloodPressure.size, batch.bloodPressure.size);
+        assertEquals(whole.heartRate.size, batch.heartRate.size);
+        assertArrayEquals(Arrays.copyOf(whole.heartRate.frameIndex, whole.heartRate.size), Arrays.copyOf(batch.heartRate.frameIndex, batch.heartRate.size));
+        assertArrayEquals(Arrays.copyOf(whole.heartRate.rrIntervals, whole.heartRate.rrSize), Arrays.copyOf(batch.heartRate.rrIntervals, batch.heartRate.rrSize));
+        assertArrayEquals(Arrays.copyOf(whole.bloodPressure.systolic, whole.bloodPressure.size), Arrays.copyOf(batch.bloodPressure.systolic, batch.bloodPressure.size), 0f);
+
+        // and chunks decoded into a cleared batch keep the absolute frame index
+        batch.clear();
+        decoder.decode(assignedNumbers, values, arrivalTimes, 30, 20, batch);
+        assertEquals(30, batch.bloodPressure.frameIndex[0]);
+        assertEquals(arrivalTimes[30], batch.bloodPressure.arrivalTime[0]);
+        assertEquals(130f, batch.bloodPressure.systolic[0], 0f);
+    }
+}
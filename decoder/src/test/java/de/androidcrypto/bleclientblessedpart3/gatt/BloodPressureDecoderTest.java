@@ -0,0 +1,125 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class BloodPressureDecoderTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/Berlin");
+
+    private final BloodPressureRecord record = new BloodPressureRecord();
+
+    @Before
+    public void setZone() {
+        GattDateTime.setTimeZone(ZONE);
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags);
+        for (int i = 0; i < 3; i++) p.sfloat(random.nextInt(0x1000), random.nextInt(16));
+        if ((flags & 0x02) != 0) {
+            p.dateTime(2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        }
+        if ((flags & 0x04) != 0) p.sfloat(random.nextInt(0x1000), random.nextInt(16));
+        if ((flags & 0x08) != 0) p.uint8(random.nextInt(256));
+        if ((flags & 0x10) != 0) p.uint16(random.nextInt(0x10000));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample_mmHg() {
+        byte[] value = new Payload(0x1E).sfloat(120, 0).sfloat(80, 0).sfloat(93, 0)
+                .dateTime(2024, 3, 5, 10, 20, 30).sfloat(64, 0).uint8(2).uint16(0x0004).toByteArray();
+        assertTrue(BloodPressureDecoder.decode(value, record));
+        assertTrue(record.isMMHG);
+        assertEquals(120f, record.systolic, 0f);
+        assertEquals(80f, record.diastolic, 0f);
+        assertEquals(93f, record.meanArterialPressure, 0f);
+        assertTrue(record.timestampPresent);
+        // 10:20:30 CET
+        assertEquals(1709630430000L, record.timestamp);
+        assertTrue(record.pulseRatePresent);
+        assertEquals(64f, record.pulseRate, 0f);
+        assertEquals(2, record.userId);
+        assertEquals(0x0004, record.measurementStatus);
+    }
+
+    @Test
+    public void specExample_kPa() {
+        // 16.0, 11.0 and 13.0 kPa with exponent -1, no optional fields
+        byte[] value = new Payload(0x01).sfloat(160, -1).sfloat(110, -1).sfloat(130, -1).toByteArray();
+        assertTrue(BloodPressureDecoder.decode(value, record));
+        assertFalse(record.isMMHG);
+        assertEquals(16f, record.systolic, 1e-6f);
+        assertEquals(11f, record.diastolic, 1e-6f);
+        assertEquals(13f, record.meanArterialPressure, 1e-6f);
+        assertFalse(record.timestampPresent);
+        assertFalse(record.pulseRatePresent);
+        assertFalse(record.userIdPresent);
+        assertFalse(record.measurementStatusPresent);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A35);
+        for (int i = 0; i < 32 * 50; i++) {
+            final int flags = i % 32;
+            final byte[] value = random(random, flags);
+            assertTrue(BloodPressureDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, ZONE);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (flags & 0x01) == 0, record.isMMHG);
+            assertEquals(at, parser.sfloat(), record.systolic, 0f);
+            assertEquals(at, parser.sfloat(), record.diastolic, 0f);
+            assertEquals(at, parser.sfloat(), record.meanArterialPressure, 0f);
+            assertEquals(at, (flags & 0x02) != 0, record.timestampPresent);
+            if (record.timestampPresent) assertEquals(at, parser.dateTime(), record.timestamp);
+            assertEquals(at, (flags & 0x04) != 0, record.pulseRatePresent);
+            if (record.pulseRatePresent) assertEquals(at, parser.sfloat(), record.pulseRate, 0f);
+            assertEquals(at, (flags & 0x08) != 0, record.userIdPresent);
+            if (record.userIdPresent) assertEquals(at, parser.uint8(), record.userId);
+            assertEquals(at, (flags & 0x10) != 0, record.measurementStatusPresent);
+            if (record.measurementStatusPresent) assertEquals(at, parser.uint16(), record.measurementStatus);
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 32; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, BloodPressureDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(BloodPressureDecoder.decode(random(new Random(2), 0x1F), record));
+        assertTrue(BloodPressureDecoder.decode(new Payload(0x00).sfloat(120, 0).sfloat(80, 0).sfloat(90, 0).toByteArray(), record));
+        assertTrue(record.isMMHG);
+        assertFalse(record.timestampPresent);
+        assertEquals(0, record.timestamp);
+        assertFalse(record.pulseRatePresent);
+        assertEquals(0f, record.pulseRate, 0f);
+        assertFalse(record.userIdPresent);
+        assertFalse(record.measurementStatusPresent);
+    }
+}
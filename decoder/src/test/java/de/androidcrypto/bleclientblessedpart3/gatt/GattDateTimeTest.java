@@ -0,0 +1,191 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * GattDateTime is compared with a lenient GregorianCalendar, which the app used before, around daylight saving
+ * transitions, year boundaries and leap days
+ */
+public class GattDateTimeTest {
+
+    // zones with spring and autumn transitions at different local times, a 30 minute shift and a southern summer
+    private static final String[] ZONES = {"Europe/Berlin", "America/New_York", "Australia/Lord_Howe", "America/Santiago", "UTC"};
+    private static final long QUARTER_HOUR = 15 * 60 * 1000L;
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static GregorianCalendar calendar(TimeZone zone) {
+        GregorianCalendar calendar = new GregorianCalendar(zone, Locale.ENGLISH);
+        calendar.setLenient(true);
+        return calendar;
+    }
+
+    private static long calendarMillis(GregorianCalendar calendar, int year, int month, int day, int hour, int minute, int second) {
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    // every quarter hour of the local days around the instant, twice so the second pass hits the offset table
+    private static void assertLocalTimesAround(TimeZone zone, long instant) {
+        GattDateTime.setTimeZone(zone);
+        GregorianCalendar calendar = calendar(zone);
+        GregorianCalendar fields = calendar(zone);
+        fields.setTimeInMillis(instant);
+        final int year = fields.get(Calendar.YEAR);
+        final int month = fields.get(Calendar.MONTH) + 1;
+        final int day = fields.get(Calendar.DAY_OF_MONTH);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int d = day - 1; d <= day + 1; d++) {
+                for (int minutes = 0; minutes < 24 * 60; minutes += 15) {
+                    final int hour = minutes / 60;
+                    final int minute = minutes % 60;
+                    assertEquals(zone.getID() + " " + year + "-" + month + "-" + d + " " + hour + ":" + minute,
+                            calendarMillis(calendar, year, month, d, hour, minute, 30),
+                            GattDateTime.toEpochMillis(year, month, d, hour, minute, 30));
+                }
+            }
+        }
+    }
+
+    // every quarter hour of the instants around the instant, encoded and formatted in the zone
+    private static void assertInstantsAround(TimeZone zone, long instant) {
+        GattDateTime.setTimeZone(zone);
+        GregorianCalendar calendar = calendar(zone);
+        SimpleDateFormat format = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss", Locale.ENGLISH);
+        format.setTimeZone(zone);
+        byte[] value = new byte[GattDateTime.SIZE];
+        for (long t = instant - DAY; t <= instant + DAY; t += QUARTER_HOUR + 7001) {
+            calendar.setTimeInMillis(t);
+            GattDateTime.encode(t, value, 0);
+            final String at = zone.getID() + " " + t;
+            assertEquals(at, calendar.get(Calendar.YEAR), GattBytes.uint16(value, 0));
+            assertEquals(at, calendar.get(Calendar.MONTH) + 1, value[2]);
+            assertEquals(at, calendar.get(Calendar.DAY_OF_MONTH), value[3]);
+            assertEquals(at, calendar.get(Calendar.HOUR_OF_DAY), value[4]);
+            assertEquals(at, calendar.get(Calendar.MINUTE), value[5]);
+            assertEquals(at, calendar.get(Calendar.SECOND), value[6]);
+            assertEquals(at, format.format(t), GattDateTime.format(t));
+
+            byte[] currentTime = GattDateTime.encodeCurrentTime(t);
+            // Calendar counts Sunday as 1, the characteristic Monday
+            assertEquals(at, (calendar.get(Calendar.DAY_OF_WEEK) + 5) % 7 + 1, currentTime[7]);
+        }
+    }
+
+    // the instants of the offset changes of the zone in the year
+    private static long[] transitions(TimeZone zone, int year) {
+        GregorianCalendar calendar = calendar(TimeZone.getTimeZone("UTC"));
+        long t = calendarMillis(calendar, year, 1, 1, 0, 0, 0);
+        final long end = calendarMillis(calendar, year + 1, 1, 1, 0, 0, 0);
+        long[] found = new long[4];
+        int count = 0;
+        int offset = zone.getOffset(t);
+        for (; t < end && count < found.length; t += QUARTER_HOUR) {
+            if (zone.getOffset(t) != offset) {
+                offset = zone.getOffset(t);
+                found[count++] = t;
+            }
+        }
+        long[] result = new long[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+
+    @Test
+    public void daylightSavingTransitions_matchCalendar() {
+        int checked = 0;
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            for (int year : new int[]{2021, 2024}) {
+                for (long transition : transitions(zone, year)) {
+                    assertLocalTimesAround(zone, transition);
+                    assertInstantsAround(zone, transition);
+                    checked++;
+                }
+            }
+        }
+        assertTrue("no transitions found", checked >= 12);
+    }
+
+    @Test
+    public void yearBoundaries_matchCalendar() {
+        for (String id : ZONES) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            GregorianCalendar calendar = calendar(zone);
+            for (int year : new int[]{1999, 2000, 2023, 2024, 2099}) {
+                final long newYear = calendarMillis(calendar, year + 1, 1, 1, 0, 0, 0);
+                assertLocalTimesAround(zone, newYear);
+                assertInstantsAround(zone, newYear);
+            }
+        }
+    }
+
+    @Test
+    public void leapDays_matchCalendar() {
+        // 2000 and 2024 are leap years, 1900 and 2100 are not
+        for (String id : new String[]{"Europe/Berlin", "America/New_York", "UTC"}) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            GregorianCalendar calendar = calendar(zone);
+            for (int year : new int[]{1900, 2000, 2023, 2024, 2100}) {
+                assertLocalTimesAround(zone, calendarMillis(calendar, year, 2, 28, 12, 0, 0));
+                assertLocalTimesAround(zone, calendarMillis(calendar, year, 3, 1, 12, 0, 0));
+                assertInstantsAround(zone, calendarMillis(calendar, year, 2, 29, 12, 0, 0));
+            }
+        }
+    }
+
+    @Test
+    public void outOfRangeFields_rollOverLikeLenientCalendar() {
+        TimeZone zone = TimeZone.getTimeZone("Europe/Berlin");
+        GattDateTime.setTimeZone(zone);
+        GregorianCalendar calendar = calendar(zone);
+        // day 29 of a non leap February, month 13, hour 24, day 0
+        assertEquals(calendarMillis(calendar, 2023, 2, 29, 10, 0, 0), GattDateTime.toEpochMillis(2023, 2, 29, 10, 0, 0));
+        assertEquals(calendarMillis(calendar, 2023, 13, 1, 10, 0, 0), GattDateTime.toEpochMillis(2023, 13, 1, 10, 0, 0));
+        assertEquals(calendarMillis(calendar, 2023, 12, 31, 24, 0, 0), GattDateTime.toEpochMillis(2023, 12, 31, 24, 0, 0));
+        assertEquals(calendarMillis(calendar, 2024, 3, 0, 10, 0, 0), GattDateTime.toEpochMillis(2024, 3, 0, 10, 0, 0));
+    }
+
+    @Test
+    public void civilDays_roundTrip() {
+        GregorianCalendar calendar = calendar(TimeZone.getTimeZone("UTC"));
+        for (long days = -800; days < 150 * 366; days += 13) {
+            calendar.setTimeInMillis(days * DAY);
+            final long date = GattDateTime.civilFromDays(days);
+            assertEquals(calendar.get(Calendar.YEAR), date >> 16);
+            assertEquals(calendar.get(Calendar.MONTH) + 1, (date >> 8) & 0xFF);
+            assertEquals(calendar.get(Calendar.DAY_OF_MONTH), date & 0xFF);
+            assertEquals(days, GattDateTime.daysFromCivil(date >> 16, (int) ((date >> 8) & 0xFF), (int) (date & 0xFF)));
+        }
+    }
+
+    @Test
+    public void encodedValue_decodesToTheSameSecond() {
+        TimeZone zone = TimeZone.getTimeZone("America/New_York");
+        GattDateTime.setTimeZone(zone);
+        byte[] value = new byte[GattDateTime.SIZE + 1];
+        for (long t = 1700000000000L; t < 1700000000000L + 400 * DAY; t += 3 * QUARTER_HOUR + 1000) {
+            GattDateTime.encode(t, value, 1);
+            final long decoded = GattDateTime.toEpochMillis(value, 1);
+            // the hour that occurs twice in autumn decodes to its second occurrence
+            if (decoded != t / 1000 * 1000) {
+                assertEquals(t / 1000 * 1000 + 60 * 60 * 1000L, decoded);
+                assertTrue(zone.getOffset(t) > zone.getOffset(decoded));
+            }
+        }
+    }
+}
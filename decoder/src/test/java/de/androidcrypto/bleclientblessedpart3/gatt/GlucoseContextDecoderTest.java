@@ -0,0 +1,133 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, the fields are read back with the BluetoothBytesParser arithmetic
+ */
+public class GlucoseContextDecoderTest {
+
+    private final GlucoseContextRecord record = new GlucoseContextRecord();
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags).uint16(random.nextInt(0x10000));
+        if ((flags & 0x80) != 0) p.uint8(random.nextInt(256));
+        if ((flags & 0x01) != 0) p.uint8(random.nextInt(256)).sfloat(random.nextInt(0x1000), random.nextInt(16));
+        if ((flags & 0x02) != 0) p.uint8(random.nextInt(256));
+        if ((flags & 0x04) != 0) p.uint8(random.nextInt(256));
+        if ((flags & 0x08) != 0) p.uint16(random.nextInt(0x10000)).uint8(random.nextInt(256));
+        if ((flags & 0x10) != 0) p.uint8(random.nextInt(256)).sfloat(random.nextInt(0x1000), random.nextInt(16));
+        if ((flags & 0x40) != 0) p.sfloat(random.nextInt(0x1000), random.nextInt(16));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample() {
+        // 60 g carbohydrate at lunch, postprandial, self and minor health issues, 30 min at 50 %,
+        // 2 mg rapid acting insulin and HbA1c 6.5 %
+        byte[] value = new Payload(0x5F).uint16(42).uint8(2).sfloat(60, -3).uint8(2).uint8(0x21)
+                .uint16(1800).uint8(50).uint8(1).sfloat(2, -6).sfloat(65, -1).toByteArray();
+        assertTrue(GlucoseContextDecoder.decode(value, record));
+        assertEquals(42, record.sequenceNumber);
+        assertTrue(record.carbohydratePresent);
+        assertEquals(2, record.carbohydrateId);
+        assertEquals(60f, record.carbohydrate, 1e-4f);
+        assertTrue(record.mealPresent);
+        assertEquals(2, record.meal);
+        assertTrue(record.testerHealthPresent);
+        assertEquals(1, record.tester);
+        assertEquals(2, record.health);
+        assertTrue(record.exercisePresent);
+        assertEquals(1800, record.exerciseDuration);
+        assertEquals(50, record.exerciseIntensity);
+        assertTrue(record.medicationPresent);
+        assertFalse(record.medicationInLiters);
+        assertEquals(1, record.medicationId);
+        assertEquals(2f, record.medication, 1e-5f);
+        assertTrue(record.hbA1cPresent);
+        assertEquals(6.5f, record.hbA1c, 1e-6f);
+    }
+
+    @Test
+    public void medicationInLiters() {
+        // 10 ml long acting insulin
+        byte[] value = new Payload(0x30).uint16(1).uint8(4).sfloat(10, -3).toByteArray();
+        assertTrue(GlucoseContextDecoder.decode(value, record));
+        assertTrue(record.medicationInLiters);
+        assertEquals(4, record.medicationId);
+        assertEquals(10f, record.medication, 1e-5f);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheWrittenFields() {
+        Random random = new Random(0x2A34);
+        for (int i = 0; i < 256 * 10; i++) {
+            final int flags = i % 256;
+            final byte[] value = random(random, flags);
+            assertTrue(GlucoseContextDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, null);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, flags, record.flags);
+            assertEquals(at, parser.uint16(), record.sequenceNumber);
+            assertEquals(at, (flags & 0x80) != 0 ? parser.uint8() : 0, record.extendedFlags);
+            assertEquals(at, (flags & 0x01) != 0, record.carbohydratePresent);
+            if (record.carbohydratePresent) {
+                assertEquals(at, parser.uint8(), record.carbohydrateId);
+                assertEquals(at, parser.sfloat() * 1000, record.carbohydrate, 0f);
+            }
+            assertEquals(at, (flags & 0x02) != 0, record.mealPresent);
+            if (record.mealPresent) assertEquals(at, parser.uint8(), record.meal);
+            assertEquals(at, (flags & 0x04) != 0, record.testerHealthPresent);
+            if (record.testerHealthPresent) {
+                final int testerHealth = parser.uint8();
+                assertEquals(at, testerHealth & 0x0F, record.tester);
+                assertEquals(at, testerHealth >> 4, record.health);
+            }
+            assertEquals(at, (flags & 0x08) != 0, record.exercisePresent);
+            if (record.exercisePresent) {
+                assertEquals(at, parser.uint16(), record.exerciseDuration);
+                assertEquals(at, parser.uint8(), record.exerciseIntensity);
+            }
+            assertEquals(at, (flags & 0x10) != 0, record.medicationPresent);
+            if (record.medicationPresent) {
+                assertEquals(at, (flags & 0x20) != 0, record.medicationInLiters);
+                assertEquals(at, parser.uint8(), record.medicationId);
+                assertEquals(at, parser.sfloat() * (record.medicationInLiters ? 1000 : 1000000), record.medication, 0f);
+            }
+            assertEquals(at, (flags & 0x40) != 0, record.hbA1cPresent);
+            if (record.hbA1cPresent) assertEquals(at, parser.sfloat(), record.hbA1c, 0f);
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 256; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, GlucoseContextDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(GlucoseContextDecoder.decode(random(new Random(2), 0xFF), record));
+        assertTrue(GlucoseContextDecoder.decode(new Payload(0x00).uint16(3).toByteArray(), record));
+        assertEquals(3, record.sequenceNumber);
+        assertEquals(0, record.extendedFlags);
+        assertFalse(record.carbohydratePresent);
+        assertFalse(record.mealPresent);
+        assertFalse(record.testerHealthPresent);
+        assertFalse(record.exercisePresent);
+        assertFalse(record.medicationPresent);
+        assertFalse(record.medicationInLiters);
+        assertFalse(record.hbA1cPresent);
+        assertEquals(0f, record.hbA1c, 0f);
+    }
+}
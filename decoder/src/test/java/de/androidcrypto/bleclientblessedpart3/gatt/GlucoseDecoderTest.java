@@ -0,0 +1,133 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class GlucoseDecoderTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/Berlin");
+
+    private final GlucoseRecord record = new GlucoseRecord();
+
+    @Before
+    public void setZone() {
+        GattDateTime.setTimeZone(ZONE);
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags).uint16(random.nextInt(0x10000));
+        p.dateTime(2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        if ((flags & 0x01) != 0) p.uint16(random.nextInt(0x10000));
+        // concentration and the type and sample location nibbles
+        if ((flags & 0x02) != 0) p.sfloat(random.nextInt(0x1000), random.nextInt(16)).uint8(random.nextInt(256));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample_mgPerDeciliter() {
+        // 95 mg/dL is sent as 95e-5 kg/L, sequence 7, 30 minutes time offset, capillary whole blood from the finger
+        byte[] value = new Payload(0x13).uint16(7).dateTime(2024, 3, 5, 10, 20, 30).uint16(30)
+                .sfloat(95, -5).uint8(0x11).toByteArray();
+        assertTrue(GlucoseDecoder.decode(value, record));
+        assertFalse(record.mmolPerLiter);
+        assertEquals(7, record.sequenceNumber);
+        assertTrue(record.timeOffsetPresent);
+        assertEquals(30, record.timeOffset);
+        // 10:50:30 CET
+        assertEquals(1709632230000L, record.timestamp);
+        assertTrue(record.concentrationPresent);
+        assertEquals(95f, record.value, 1e-3f);
+        assertTrue(record.contextWillFollow);
+    }
+
+    @Test
+    public void specExample_mmolPerLiterNegativeOffset() {
+        // 5.3 mmol/L is sent as 5.3e-3 mol/L, the time offset goes back an hour
+        byte[] value = new Payload(0x07).uint16(0xFFFF).dateTime(2024, 3, 5, 10, 20, 30).uint16(-60)
+                .sfloat(53, -4).uint8(0x11).toByteArray();
+        assertTrue(GlucoseDecoder.decode(value, record));
+        assertTrue(record.mmolPerLiter);
+        assertEquals(0xFFFF, record.sequenceNumber);
+        assertEquals(-60, record.timeOffset);
+        // 09:20:30 CET
+        assertEquals(1709626830000L, record.timestamp);
+        assertEquals(5.3f, record.value, 1e-5f);
+        assertFalse(record.contextWillFollow);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A18);
+        for (int i = 0; i < 32 * 50; i++) {
+            // 0x08 announces a sensor status annunciation after the type, which is not read
+            final int flags = i % 32 & ~0x08;
+            final byte[] value = random(random, flags);
+            assertTrue(GlucoseDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, ZONE);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (flags & 0x04) != 0, record.mmolPerLiter);
+            assertEquals(at, (flags & 0x10) != 0, record.contextWillFollow);
+            assertEquals(at, parser.uint16(), record.sequenceNumber);
+            long timestamp = parser.dateTime();
+            assertEquals(at, (flags & 0x01) != 0, record.timeOffsetPresent);
+            if (record.timeOffsetPresent) {
+                final int timeOffset = parser.sint16();
+                assertEquals(at, timeOffset, record.timeOffset);
+                timestamp += timeOffset * 60000;
+            }
+            assertEquals(at, timestamp, record.timestamp);
+            assertEquals(at, (flags & 0x02) != 0, record.concentrationPresent);
+            if (record.concentrationPresent) {
+                final int multiplier = record.mmolPerLiter ? 1000 : 100000;
+                assertEquals(at, parser.sfloat() * multiplier, record.value, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 32; flags++) {
+            final byte[] value = random(random, flags);
+            byte[][] prefixes = Payload.prefixes(value);
+            // like the baseline the type and sample location byte is not read, so only that one may be missing
+            if ((flags & 0x02) != 0) {
+                assertTrue(GlucoseDecoder.decode(prefixes[value.length - 1], record));
+                prefixes = Arrays.copyOf(prefixes, value.length - 1);
+            }
+            for (byte[] prefix : prefixes) {
+                assertFalse("flags " + flags + " length " + prefix.length, GlucoseDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(GlucoseDecoder.decode(random(new Random(2), 0x17), record));
+        assertTrue(GlucoseDecoder.decode(new Payload(0x00).uint16(1).dateTime(2024, 1, 1, 0, 0, 0).toByteArray(), record));
+        assertFalse(record.mmolPerLiter);
+        assertFalse(record.timeOffsetPresent);
+        assertEquals(0, record.timeOffset);
+        assertFalse(record.concentrationPresent);
+        assertEquals(0f, record.value, 0f);
+        assertFalse(record.contextWillFollow);
+    }
+}
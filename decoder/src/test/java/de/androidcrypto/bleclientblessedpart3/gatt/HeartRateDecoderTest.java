@@ -0,0 +1,119 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination. The baseline only read the heart rate, energy expended and the
+ * RR intervals are checked against the values written into the payload.
+ */
+public class HeartRateDecoderTest {
+
+    private final HeartRateRecord record = new HeartRateRecord();
+
+    @Test
+    public void specExample_uint8WithRrIntervals() {
+        // 72 bpm, contact detected, two RR intervals of 1024 and 1040 / 1024 s
+        byte[] value = new Payload(0x16).uint8(72).uint16(1024).uint16(1040).toByteArray();
+        assertTrue(HeartRateDecoder.decode(value, record));
+        assertEquals(72, record.pulse);
+        assertEquals(HeartRateRecord.SENSOR_CONTACT_DETECTED, record.sensorContactStatus);
+        assertTrue(record.isSensorContactDetected());
+        assertFalse(record.energyExpendedPresent);
+        assertEquals(2, record.rrCount);
+        assertEquals(1000, record.getRrIntervalMillis(0));
+        assertEquals(1015, record.getRrIntervalMillis(1));
+    }
+
+    @Test
+    public void specExample_uint16WithEnergyExpended() {
+        byte[] value = new Payload(0x09).uint16(300).uint16(1000).toByteArray();
+        assertTrue(HeartRateDecoder.decode(value, record));
+        assertEquals(300, record.pulse);
+        assertEquals(HeartRateRecord.SENSOR_CONTACT_NOT_SUPPORTED, record.sensorContactStatus);
+        assertTrue(record.energyExpendedPresent);
+        assertEquals(1000, record.energyExpended);
+        assertEquals(0, record.rrCount);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheWrittenFields() {
+        Random random = new Random(0x2A37);
+        for (int i = 0; i < 32 * 50; i++) {
+            final int flags = i % 32;
+            Payload p = new Payload(flags);
+            final int pulse = (flags & 0x01) != 0 ? random.nextInt(0x10000) : random.nextInt(256);
+            if ((flags & 0x01) != 0) p.uint16(pulse);
+            else p.uint8(pulse);
+            final int energy = random.nextInt(0x10000);
+            if ((flags & 0x08) != 0) p.uint16(energy);
+            final int[] rr = new int[(flags & 0x10) != 0 ? random.nextInt(9) : 0];
+            for (int r = 0; r < rr.length; r++) {
+                rr[r] = random.nextInt(0x10000);
+                p.uint16(rr[r]);
+            }
+            final byte[] value = p.toByteArray();
+            assertTrue(HeartRateDecoder.decode(value, record));
+
+            // the baseline read the heart rate like this
+            BaselineParser parser = new BaselineParser(value, null);
+            assertEquals(flags, parser.uint8());
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, (flags & 0x01) == 0 ? parser.uint8() : parser.uint16(), record.pulse);
+            assertEquals(at, pulse, record.pulse);
+            assertEquals(at, (flags & 0x06) >> 1, record.sensorContactStatus);
+            assertEquals(at, (flags & 0x08) != 0, record.energyExpendedPresent);
+            assertEquals(at, (flags & 0x08) != 0 ? energy : 0, record.energyExpended);
+            assertArrayEquals(at, rr, Arrays.copyOf(record.rrIntervals, record.rrCount));
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        assertFalse(HeartRateDecoder.decode(new byte[0], record));
+        assertFalse(HeartRateDecoder.decode(new byte[]{0x00}, record));
+        // uint16 heart rate with one byte
+        assertFalse(HeartRateDecoder.decode(new byte[]{0x01, 60}, record));
+        // energy expended with one byte
+        assertFalse(HeartRateDecoder.decode(new byte[]{0x08, 60, 0x10}, record));
+    }
+
+    @Test
+    public void truncatedRrIntervals_keepTheCompleteOnes() {
+        byte[] value = new Payload(0x10).uint8(60).uint16(800).uint16(810).toByteArray();
+        // a dangling byte of a third interval is ignored
+        byte[] dangling = Arrays.copyOf(value, value.length + 1);
+        assertTrue(HeartRateDecoder.decode(dangling, record));
+        assertEquals(2, record.rrCount);
+        assertTrue(HeartRateDecoder.decode(Arrays.copyOf(value, value.length - 1), record));
+        assertEquals(1, record.rrCount);
+        assertEquals(800, record.rrIntervals[0]);
+        // the RR flag without any interval
+        assertTrue(HeartRateDecoder.decode(new byte[]{0x10, 60}, record));
+        assertEquals(0, record.rrCount);
+    }
+
+    @Test
+    public void rrIntervals_stopAtTheRecordCapacity() {
+        HeartRateRecord small = new HeartRateRecord(2);
+        byte[] value = new Payload(0x10).uint8(60).uint16(800).uint16(810).uint16(820).toByteArray();
+        assertTrue(HeartRateDecoder.decode(value, small));
+        assertEquals(2, small.rrCount);
+        assertEquals(810, small.rrIntervals[1]);
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(HeartRateDecoder.decode(new Payload(0x1F).uint16(200).uint16(5).uint16(700).toByteArray(), record));
+        assertTrue(HeartRateDecoder.decode(new byte[]{0x00, 60}, record));
+        assertEquals(60, record.pulse);
+        assertEquals(0, record.sensorContactStatus);
+        assertFalse(record.energyExpendedPresent);
+        assertEquals(0, record.energyExpended);
+        assertEquals(0, record.rrCount);
+    }
+}
@@ -0,0 +1,56 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Builds characteristic values field by field, little endian like on the air
+ */
+final class Payload {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    Payload(int flags) {
+        uint8(flags);
+    }
+
+    Payload uint8(int value) {
+        out.write(value & 0xFF);
+        return this;
+    }
+
+    Payload uint16(int value) {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        return this;
+    }
+
+    // 12 bit mantissa, 4 bit exponent
+    Payload sfloat(int mantissa, int exponent) {
+        return uint16((mantissa & 0x0FFF) | ((exponent & 0x0F) << 12));
+    }
+
+    // 24 bit mantissa, 8 bit exponent
+    Payload float32(int mantissa, int exponent) {
+        out.write(mantissa & 0xFF);
+        out.write((mantissa >> 8) & 0xFF);
+        out.write((mantissa >> 16) & 0xFF);
+        out.write(exponent & 0xFF);
+        return this;
+    }
+
+    Payload dateTime(int year, int month, int day, int hour, int minute, int second) {
+        return uint16(year).uint8(month).uint8(day).uint8(hour).uint8(minute).uint8(second);
+    }
+
+    byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    // every value shorter than the complete one
+    static byte[][] prefixes(byte[] value) {
+        byte[][] prefixes = new byte[value.length][];
+        for (int length = 0; length < value.length; length++) prefixes[length] = Arrays.copyOf(value, length);
+        return prefixes;
+    }
+}
@@ -0,0 +1,116 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class PulseOximeterContinuousDecoderTest {
+
+    private final PulseOximeterContinuousRecord record = new PulseOximeterContinuousRecord();
+
+    private static void sfloat(Payload p, Random random) {
+        p.sfloat(random.nextInt(0x1000), random.nextInt(16));
+    }
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags);
+        sfloat(p, random);
+        sfloat(p, random);
+        if ((flags & 0x01) != 0) {
+            sfloat(p, random);
+            sfloat(p, random);
+        }
+        if ((flags & 0x02) != 0) {
+            sfloat(p, random);
+            sfloat(p, random);
+        }
+        if ((flags & 0x04) != 0) p.uint16(random.nextInt(0x10000));
+        if ((flags & 0x08) != 0) p.uint16(random.nextInt(0x10000)).uint8(0);
+        if ((flags & 0x10) != 0) sfloat(p, random);
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample() {
+        // 98 % at 72 bpm, fast 97 % at 74 bpm, sensor status 0x0010, PAI 2.5 %
+        byte[] value = new Payload(0x19).sfloat(98, 0).sfloat(72, 0).sfloat(97, 0).sfloat(74, 0)
+                .uint16(0x0010).uint8(0).sfloat(25, -1).toByteArray();
+        assertTrue(PulseOximeterContinuousDecoder.decode(value, record));
+        assertEquals(98, record.spO2);
+        assertEquals(72, record.pulseRate);
+        assertTrue(record.fastPresent);
+        assertEquals(97, record.spO2Fast);
+        assertEquals(74, record.pulseRateFast);
+        assertFalse(record.slowPresent);
+        assertFalse(record.measurementStatusPresent);
+        assertTrue(record.sensorStatusPresent);
+        assertEquals(0x0010, record.sensorStatus);
+        assertTrue(record.pulseAmplitudeIndexPresent);
+        assertEquals(2.5f, record.pulseAmplitudeIndex, 1e-6f);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A5F);
+        for (int i = 0; i < 32 * 50; i++) {
+            final int flags = i % 32;
+            final byte[] value = random(random, flags);
+            assertTrue(PulseOximeterContinuousDecoder.decode(value, record));
+
+            // the baseline took intValue() of every SFLOAT but the pulse amplitude index
+            BaselineParser parser = new BaselineParser(value, null);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (int) parser.sfloat(), record.spO2);
+            assertEquals(at, (int) parser.sfloat(), record.pulseRate);
+            assertEquals(at, (flags & 0x01) != 0, record.fastPresent);
+            if (record.fastPresent) {
+                assertEquals(at, (int) parser.sfloat(), record.spO2Fast);
+                assertEquals(at, (int) parser.sfloat(), record.pulseRateFast);
+            }
+            assertEquals(at, (flags & 0x02) != 0, record.slowPresent);
+            if (record.slowPresent) {
+                assertEquals(at, (int) parser.sfloat(), record.spO2Slow);
+                assertEquals(at, (int) parser.sfloat(), record.pulseRateSlow);
+            }
+            assertEquals(at, (flags & 0x04) != 0, record.measurementStatusPresent);
+            if (record.measurementStatusPresent) assertEquals(at, parser.uint16(), record.measurementStatus);
+            assertEquals(at, (flags & 0x08) != 0, record.sensorStatusPresent);
+            if (record.sensorStatusPresent) {
+                assertEquals(at, parser.uint16(), record.sensorStatus);
+                parser.uint8();
+            }
+            assertEquals(at, (flags & 0x10) != 0, record.pulseAmplitudeIndexPresent);
+            if (record.pulseAmplitudeIndexPresent) assertEquals(at, parser.sfloat(), record.pulseAmplitudeIndex, 0f);
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 32; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, PulseOximeterContinuousDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(PulseOximeterContinuousDecoder.decode(random(new Random(2), 0x1F), record));
+        assertTrue(PulseOximeterContinuousDecoder.decode(new Payload(0x00).sfloat(98, 0).sfloat(72, 0).toByteArray(), record));
+        assertFalse(record.fastPresent);
+        assertEquals(0, record.spO2Fast);
+        assertFalse(record.slowPresent);
+        assertEquals(0, record.pulseRateSlow);
+        assertFalse(record.measurementStatusPresent);
+        assertFalse(record.sensorStatusPresent);
+        assertFalse(record.pulseAmplitudeIndexPresent);
+        assertEquals(0f, record.pulseAmplitudeIndex, 0f);
+    }
+}
@@ -0,0 +1,110 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class PulseOximeterSpotDecoderTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Asia/Kolkata");
+
+    private final PulseOximeterSpotRecord record = new PulseOximeterSpotRecord();
+
+    @Before
+    public void setZone() {
+        GattDateTime.setTimeZone(ZONE);
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags);
+        p.sfloat(random.nextInt(0x1000), random.nextInt(16)).sfloat(random.nextInt(0x1000), random.nextInt(16));
+        if ((flags & 0x01) != 0) {
+            p.dateTime(2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        }
+        if ((flags & 0x02) != 0) p.uint16(random.nextInt(0x10000));
+        if ((flags & 0x04) != 0) p.uint16(random.nextInt(0x10000)).uint8(0);
+        if ((flags & 0x08) != 0) p.sfloat(random.nextInt(0x1000), random.nextInt(16));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample() {
+        byte[] value = new Payload(0x03).sfloat(96, 0).sfloat(65, 0).dateTime(2024, 3, 5, 10, 20, 30)
+                .uint16(0x0020).toByteArray();
+        assertTrue(PulseOximeterSpotDecoder.decode(value, record));
+        assertEquals(96, record.spO2);
+        assertEquals(65, record.pulseRate);
+        assertTrue(record.timestampPresent);
+        // 10:20:30 IST
+        assertEquals(1709614230000L, record.timestamp);
+        assertTrue(record.measurementStatusPresent);
+        assertEquals(0x0020, record.measurementStatus);
+        assertFalse(record.sensorStatusPresent);
+        assertFalse(record.pulseAmplitudeIndexPresent);
+        assertTrue(record.deviceClockSet);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A5E);
+        for (int i = 0; i < 32 * 50; i++) {
+            final int flags = i % 32;
+            final byte[] value = random(random, flags);
+            assertTrue(PulseOximeterSpotDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, ZONE);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (flags & 0x10) == 0, record.deviceClockSet);
+            assertEquals(at, (int) parser.sfloat(), record.spO2);
+            assertEquals(at, (int) parser.sfloat(), record.pulseRate);
+            assertEquals(at, (flags & 0x01) != 0, record.timestampPresent);
+            if (record.timestampPresent) assertEquals(at, parser.dateTime(), record.timestamp);
+            assertEquals(at, (flags & 0x02) != 0, record.measurementStatusPresent);
+            if (record.measurementStatusPresent) assertEquals(at, parser.uint16(), record.measurementStatus);
+            assertEquals(at, (flags & 0x04) != 0, record.sensorStatusPresent);
+            if (record.sensorStatusPresent) {
+                assertEquals(at, parser.uint16(), record.sensorStatus);
+                parser.uint8();
+            }
+            assertEquals(at, (flags & 0x08) != 0, record.pulseAmplitudeIndexPresent);
+            if (record.pulseAmplitudeIndexPresent) assertEquals(at, parser.sfloat(), record.pulseAmplitudeIndex, 0f);
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 32; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, PulseOximeterSpotDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(PulseOximeterSpotDecoder.decode(random(new Random(2), 0x1F), record));
+        assertTrue(PulseOximeterSpotDecoder.decode(new Payload(0x00).sfloat(98, 0).sfloat(72, 0).toByteArray(), record));
+        assertFalse(record.timestampPresent);
+        assertEquals(0, record.timestamp);
+        assertFalse(record.measurementStatusPresent);
+        assertFalse(record.sensorStatusPresent);
+        assertFalse(record.pulseAmplitudeIndexPresent);
+        assertTrue(record.deviceClockSet);
+    }
+}
@@ -0,0 +1,197 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encoded blocks are read back with the Cursor and compared sample by sample with the appended values
+ */
+public class SeriesBlockTest {
+
+    private static final class Series {
+        final long[] timestamps;
+        final float[] floats;
+        final int[] ints;
+
+        Series(int size) {
+            timestamps = new long[size];
+            floats = new float[size];
+            ints = new int[size];
+        }
+    }
+
+    private static byte[] encode(SeriesBlock.Encoder encoder, Series series) {
+        encoder.clear();
+        for (int i = 0; i < series.timestamps.length; i++) {
+            encoder.append(series.timestamps[i]);
+            encoder.setFloat(0, series.floats[i]);
+            encoder.setInt(1, series.ints[i]);
+        }
+        return encoder.encode();
+    }
+
+    private static void assertDecodesTo(Series series, SeriesBlock.Cursor cursor) {
+        assertEquals(series.timestamps.length, cursor.size());
+        assertEquals(2, cursor.getColumnCount());
+        assertEquals(SeriesBlock.FLOAT, cursor.getColumnType(0));
+        assertEquals(SeriesBlock.INT, cursor.getColumnType(1));
+        int i = 0;
+        while (cursor.next()) {
+            assertEquals("timestamp " + i, series.timestamps[i], cursor.getTimestamp());
+            // the raw bits, so NaN payloads and -0 survive as well
+            assertEquals("float " + i, Float.floatToRawIntBits(series.floats[i]), Float.floatToRawIntBits(cursor.getFloat(0)));
+            assertEquals("int " + i, series.ints[i], cursor.getInt(1));
+            i++;
+        }
+        assertEquals(series.timestamps.length, i);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void regularSeries_roundTrips() {
+        // 1 Hz with some jitter, a slowly changing temperature, a pulse and a few gaps
+        Random random = new Random(3);
+        Series series = new Series(3600);
+        long time = 1700000000000L;
+        float temperature = 36.5f;
+        for (int i = 0; i < series.timestamps.length; i++) {
+            time += i % 600 == 599 ? 90000 : 1000 + random.nextInt(21) - 10;
+            if (random.nextInt(30) == 0) temperature += (random.nextInt(3) - 1) * 0.1f;
+            series.timestamps[i] = time;
+            series.floats[i] = i % 97 == 0 ? Float.NaN : temperature;
+            series.ints[i] = 55 + random.nextInt(40);
+        }
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(series.timestamps.length, SeriesBlock.FLOAT, SeriesBlock.INT);
+        byte[] block = encode(encoder, series);
+        assertDecodesTo(series, new SeriesBlock.Cursor(block));
+        // well below 8 bytes per timestamp and 4 per value
+        assertTrue("block size " + block.length, block.length < series.timestamps.length * 16 / 4);
+    }
+
+    @Test
+    public void extremeValues_roundTrip() {
+        Random random = new Random(5);
+        Series series = new Series(500);
+        long time = Long.MIN_VALUE / 2;
+        for (int i = 0; i < series.timestamps.length; i++) {
+            time += random.nextLong() >> 3;
+            series.timestamps[i] = time;
+            series.ints[i] = i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE - random.nextInt(3);
+            series.floats[i] = Float.intBitsToFloat(random.nextInt());
+        }
+        series.floats[10] = Float.intBitsToFloat(0x7FC01234); // a NaN with a payload
+        series.floats[11] = -0f;
+        series.floats[12] = Float.POSITIVE_INFINITY;
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(series.timestamps.length, SeriesBlock.FLOAT, SeriesBlock.INT);
+        assertDecodesTo(series, new SeriesBlock.Cursor(encode(encoder, series)));
+    }
+
+    @Test
+    public void encoderAndCursor_areReusable() {
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(100, SeriesBlock.FLOAT, SeriesBlock.INT);
+        SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+        Random random = new Random(7);
+        for (int size : new int[]{100, 1, 37, 100, 2}) {
+            Series series = new Series(size);
+            for (int i = 0; i < size; i++) {
+                series.timestamps[i] = i * 1000L + random.nextInt(5);
+                series.floats[i] = random.nextInt(1000) / 10f;
+                series.ints[i] = random.nextInt(101);
+            }
+            byte[] block = encode(encoder, series);
+            // at an offset inside a larger array
+            byte[] framed = new byte[block.length + 10];
+            System.arraycopy(block, 0, framed, 3, block.length);
+            cursor.reset(framed, 3, block.length);
+            assertDecodesTo(series, cursor);
+        }
+    }
+
+    @Test
+    public void smallBlocksWithManyColumns_fitTheWriter() {
+        // the column headers and byte alignment dominate the size of a small block
+        Random random = new Random(11);
+        for (int columns = 1; columns <= 40; columns++) {
+            for (int capacity = 1; capacity <= 3; capacity++) {
+                final int[] types = new int[columns];
+                for (int c = 0; c < columns; c++) types[c] = columns % 2 == 0 ? SeriesBlock.INT : c % 2;
+                SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(capacity, types);
+                final long[] timestamps = new long[capacity];
+                final int[][] values = new int[capacity][columns];
+                for (int i = 0; i < capacity; i++) {
+                    timestamps[i] = random.nextLong();
+                    encoder.append(timestamps[i]);
+                    for (int c = 0; c < columns; c++) {
+                        values[i][c] = i % 2 == 0 ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+                        if (types[c] == SeriesBlock.FLOAT) values[i][c] = random.nextInt();
+                        encoder.setInt(c, values[i][c]);
+                    }
+                }
+                SeriesBlock.Cursor cursor = new SeriesBlock.Cursor(encoder.encode());
+                final String at = columns + " columns, capacity " + capacity;
+                for (int i = 0; i < capacity; i++) {
+                    assertTrue(at, cursor.next());
+                    assertEquals(at, timestamps[i], cursor.getTimestamp());
+                    for (int c = 0; c < columns; c++) {
+                        final int decoded = types[c] == SeriesBlock.FLOAT ? Float.floatToRawIntBits(cursor.getFloat(c)) : cursor.getInt(c);
+                        assertEquals(at + ", column " + c, values[i][c], decoded);
+                    }
+                }
+                assertFalse(at, cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void emptyBlock_hasNoSamples() {
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(10, SeriesBlock.FLOAT, SeriesBlock.INT);
+        SeriesBlock.Cursor cursor = new SeriesBlock.Cursor(encoder.encode());
+        assertEquals(0, cursor.size());
+        assertFalse(cursor.next());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void fullEncoder_rejectsAppend() {
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(2, SeriesBlock.INT);
+        encoder.append(1);
+        encoder.append(2);
+        assertTrue(encoder.isFull());
+        encoder.append(3);
+    }
+
+    @Test
+    public void truncatedBlock_throwsIllegalArgumentException() {
+        Random random = new Random(9);
+        Series series = new Series(200);
+        for (int i = 0; i < series.timestamps.length; i++) {
+            series.timestamps[i] = 1700000000000L + i * 1000L + random.nextInt(100);
+            series.floats[i] = 36 + random.nextInt(20) / 10f;
+            series.ints[i] = 60 + random.nextInt(40);
+        }
+        SeriesBlock.Encoder encoder = new SeriesBlock.Encoder(series.timestamps.length, SeriesBlock.FLOAT, SeriesBlock.INT);
+        byte[] block = encode(encoder, series);
+        SeriesBlock.Cursor cursor = new SeriesBlock.Cursor();
+        for (int length = 0; length < block.length; length++) {
+            try {
+                cursor.reset(Arrays.copyOf(block, length), 0, length);
+                while (cursor.next()) {
+                    // reads until the missing bits are hit
+                }
+                fail("truncated to " + length + " of " + block.length + " bytes");
+            } catch (IllegalArgumentException expected) {
+                // truncated or bad column offset
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersion_isRejected() {
+        byte[] block = new SeriesBlock.Encoder(1, SeriesBlock.INT).encode();
+        block[0] = SeriesBlock.VERSION + 1;
+        new SeriesBlock.Cursor(block);
+    }
+}
@@ -0,0 +1,106 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class TemperatureDecoderTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("America/New_York");
+
+    private final TemperatureRecord record = new TemperatureRecord();
+
+    @Before
+    public void setZone() {
+        GattDateTime.setTimeZone(ZONE);
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static byte[] random(Random random, int flags) {
+        // the whole 24 bit mantissa and 8 bit exponent range, including the reserved special values
+        Payload p = new Payload(flags).float32(random.nextInt(0x1000000), random.nextInt(256));
+        if ((flags & 0x02) != 0) {
+            p.dateTime(2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        }
+        if ((flags & 0x04) != 0) p.uint8(random.nextInt(256));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample_celsius() {
+        // 36.5 degree Celsius, tympanum
+        byte[] value = new Payload(0x06).float32(365, -1).dateTime(2024, 3, 5, 10, 20, 30).uint8(6).toByteArray();
+        assertTrue(TemperatureDecoder.decode(value, record));
+        assertFalse(record.fahrenheit);
+        assertEquals(36.5f, record.temperatureValue, 0f);
+        assertTrue(record.timestampPresent);
+        // 10:20:30 EST
+        assertEquals(1709652030000L, record.timestamp);
+        assertTrue(record.typePresent);
+        assertEquals(6, record.type);
+    }
+
+    @Test
+    public void specExample_fahrenheitNegativeMantissa() {
+        byte[] value = new Payload(0x01).float32(-1234, -2).toByteArray();
+        assertTrue(TemperatureDecoder.decode(value, record));
+        assertTrue(record.fahrenheit);
+        assertEquals(-12.34f, record.temperatureValue, 1e-6f);
+        assertFalse(record.timestampPresent);
+        assertFalse(record.typePresent);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A1C);
+        for (int i = 0; i < 8 * 200; i++) {
+            final int flags = i % 8;
+            final byte[] value = random(random, flags);
+            assertTrue(TemperatureDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, ZONE);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (flags & 0x01) != 0, record.fahrenheit);
+            assertEquals(at, Float.floatToIntBits(parser.float32()), Float.floatToIntBits(record.temperatureValue));
+            assertEquals(at, (flags & 0x02) != 0, record.timestampPresent);
+            if (record.timestampPresent) assertEquals(at, parser.dateTime(), record.timestamp);
+            assertEquals(at, (flags & 0x04) != 0, record.typePresent);
+            if (record.typePresent) assertEquals(at, parser.uint8(), record.type);
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 8; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, TemperatureDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(TemperatureDecoder.decode(random(new Random(2), 0x07), record));
+        assertTrue(TemperatureDecoder.decode(new Payload(0x00).float32(370, -1).toByteArray(), record));
+        assertFalse(record.fahrenheit);
+        assertFalse(record.timestampPresent);
+        assertEquals(0, record.timestamp);
+        assertFalse(record.typePresent);
+        assertEquals(0, record.type);
+    }
+}
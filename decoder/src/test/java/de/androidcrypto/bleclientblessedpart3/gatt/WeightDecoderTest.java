@@ -0,0 +1,119 @@
+package de.androidcrypto.bleclientblessedpart3.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hand built values of every flag combination, compared with the BluetoothBytesParser arithmetic
+ */
+public class WeightDecoderTest {
+
+    private static final TimeZone ZONE = TimeZone.getTimeZone("Europe/Berlin");
+
+    private final WeightRecord record = new WeightRecord();
+
+    @Before
+    public void setZone() {
+        GattDateTime.setTimeZone(ZONE);
+    }
+
+    @After
+    public void restoreDefaultZone() {
+        GattDateTime.setTimeZone(null);
+    }
+
+    private static byte[] random(Random random, int flags) {
+        Payload p = new Payload(flags).uint16(random.nextInt(0x10000));
+        if ((flags & 0x02) != 0) {
+            p.dateTime(2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28),
+                    random.nextInt(24), random.nextInt(60), random.nextInt(60));
+        }
+        if ((flags & 0x04) != 0) p.uint8(random.nextInt(256));
+        if ((flags & 0x08) != 0) p.uint16(random.nextInt(0x10000)).uint16(random.nextInt(0x10000));
+        return p.toByteArray();
+    }
+
+    @Test
+    public void specExample_kilogram() {
+        // 75.5 kg in 5 g steps, user 1, BMI 24.6 and height 1.753 m
+        byte[] value = new Payload(0x0E).uint16(15100).dateTime(2024, 7, 1, 7, 0, 0).uint8(1)
+                .uint16(246).uint16(1753).toByteArray();
+        assertTrue(WeightDecoder.decode(value, record));
+        assertFalse(record.pounds);
+        assertEquals(75.5, record.weight, 1e-9);
+        assertTrue(record.timestampPresent);
+        // 07:00:00 CEST
+        assertEquals(1719810000000L, record.timestamp);
+        assertTrue(record.userIdPresent);
+        assertEquals(1, record.userId);
+        assertTrue(record.bmiAndHeightPresent);
+        assertEquals(246, record.bmi);
+        assertEquals(1753, record.height);
+    }
+
+    @Test
+    public void specExample_pound() {
+        byte[] value = new Payload(0x01).uint16(16650).toByteArray();
+        assertTrue(WeightDecoder.decode(value, record));
+        assertTrue(record.pounds);
+        assertEquals(166.5, record.weight, 1e-9);
+        assertFalse(record.timestampPresent);
+        assertFalse(record.userIdPresent);
+        assertFalse(record.bmiAndHeightPresent);
+    }
+
+    @Test
+    public void allFlagCombinations_matchTheBaselineParser() {
+        Random random = new Random(0x2A9D);
+        for (int i = 0; i < 16 * 100; i++) {
+            final int flags = i % 16;
+            final byte[] value = random(random, flags);
+            assertTrue(WeightDecoder.decode(value, record));
+
+            BaselineParser parser = new BaselineParser(value, ZONE);
+            final String at = "flags " + flags + " value " + i;
+            assertEquals(at, flags, parser.uint8());
+            assertEquals(at, (flags & 0x01) != 0, record.pounds);
+            final double weightMultiplier = record.pounds ? 0.01 : 0.005;
+            assertEquals(at, parser.uint16() * weightMultiplier, record.weight, 0);
+            assertEquals(at, (flags & 0x02) != 0, record.timestampPresent);
+            if (record.timestampPresent) assertEquals(at, parser.dateTime(), record.timestamp);
+            assertEquals(at, (flags & 0x04) != 0, record.userIdPresent);
+            if (record.userIdPresent) assertEquals(at, parser.uint8(), record.userId);
+            assertEquals(at, (flags & 0x08) != 0, record.bmiAndHeightPresent);
+            if (record.bmiAndHeightPresent) {
+                assertEquals(at, parser.uint16(), record.bmi);
+                assertEquals(at, parser.uint16(), record.height);
+            }
+        }
+    }
+
+    @Test
+    public void truncatedValues_areRejected() {
+        Random random = new Random(1);
+        for (int flags = 0; flags < 16; flags++) {
+            for (byte[] prefix : Payload.prefixes(random(random, flags))) {
+                assertFalse("flags " + flags + " length " + prefix.length, WeightDecoder.decode(prefix, record));
+            }
+        }
+    }
+
+    @Test
+    public void reusedRecord_isCleared() {
+        assertTrue(WeightDecoder.decode(random(new Random(2), 0x0F), record));
+        assertTrue(WeightDecoder.decode(new Payload(0x00).uint16(14000).toByteArray(), record));
+        assertFalse(record.pounds);
+        assertFalse(record.timestampPresent);
+        assertEquals(0, record.timestamp);
+        assertFalse(record.userIdPresent);
+        assertFalse(record.bmiAndHeightPresent);
+        assertEquals(0, record.bmi);
+        assertEquals(0, record.height);
+    }
+}